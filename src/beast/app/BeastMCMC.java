@@ -70,7 +70,7 @@ public class BeastMCMC {
     /**
      * thread pool *
      */
-    public static ExecutorService g_exec = Executors.newFixedThreadPool(m_nThreads);
+    public static ExecutorService g_exec = ThreadContext.wrap(Executors.newFixedThreadPool(m_nThreads));
     /**
      * random number seed used to initialise Randomizer *
      */
@@ -124,7 +124,7 @@ public class BeastMCMC {
 
                     } else if (args[i].equals("-threads")) {
                         m_nThreads = Integer.parseInt(args[i + 1]);
-                        g_exec = Executors.newFixedThreadPool(m_nThreads);
+                        g_exec = ThreadContext.wrap(Executors.newFixedThreadPool(m_nThreads));
                         i += 2;
 // use BEAST environment variable to set Beast directories as colon separated list						
 //					} else if (args[i].equals("-beastlib")) {
@@ -353,7 +353,7 @@ public class BeastMCMC {
     } // getFileNameByDialog
 
     public void run() throws Exception {
-        g_exec = Executors.newFixedThreadPool(m_nThreads);
+        g_exec = ThreadContext.wrap(Executors.newFixedThreadPool(m_nThreads));
         m_runnable.run();
         g_exec.shutdown();
         g_exec.shutdownNow();
@@ -285,6 +285,10 @@ public class BeastMain {
                         new Arguments.Option("strictversions", "Use only package versions as specified in the 'required' attribute"),
                         new Arguments.StringOption("D", "DEFINITIONS", "attribute-value pairs to be replaced in the XML, e.g., -D \"arg1=10,arg2=20\"").allowMultipleUse(),
                         new Arguments.Option("sampleFromPrior", "samples from prior for MCMC analysis (by adding sampleFromPrior=\"true\" in the first run element)"),
+                        new Arguments.Option("server", "Keep running and process XML files from the -queue directory and/or -port"),
+                        new Arguments.StringOption("queue", "QUEUE_DIR", "Server: directory that is polled for XML files to run"),
+                        new Arguments.IntegerOption("port", "Server: local port to listen to for files to run"),
+                        new Arguments.IntegerOption("jobs", "Server: maximum number of analyses run concurrently (default 1)"),
                 });
 
         try {
@@ -314,6 +318,7 @@ public class BeastMain {
         final boolean options = arguments.hasOption("options");
         final boolean working = arguments.hasOption("working");
         final boolean doNotRun = arguments.hasOption("validate");
+        final boolean server = arguments.hasOption("server");
         String fileNamePrefix = null;
         String stateFileName = null;
         //boolean allowOverwrite = arguments.hasOption("overwrite");
@@ -550,7 +555,7 @@ public class BeastMain {
                 System.exit(0);
         }
 
-        if (inputFile == null) {
+        if (inputFile == null && !server) {
 
             final String[] args2 = arguments.getLeftoverArguments();
 
@@ -647,6 +652,27 @@ public class BeastMain {
         Log.info.println("Random number seed: " + seed);
         Log.info.println();
 
+        if (server) {
+            if (arguments.hasOption("resume")) {
+                Log.err.println("The -resume option cannot be used in server mode");
+                System.exit(1);
+            }
+            if (arguments.hasOption("overwrite")) {
+                beast.core.Logger.FILE_MODE = beast.core.Logger.LogFileMode.overwrite;
+            }
+            BeastMCMC.m_nThreads = threadCount;
+            final File queueDir = arguments.hasOption("queue") ? new File(arguments.getStringOption("queue")) : null;
+            final int port = arguments.hasOption("port") ? arguments.getIntegerOption("port") : 0;
+            final int maxJobs = arguments.hasOption("jobs") ? Math.max(1, arguments.getIntegerOption("jobs")) : 1;
+            try {
+                new BeastServer(queueDir, port, maxJobs, seed).run();
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            System.exit(0);
+        }
+
         // Construct the beast object
         final BeastMCMC beastMCMC = new BeastMCMC();
 
@@ -0,0 +1,412 @@
+package beast.app.beastapp;
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import beast.core.Logger;
+import beast.core.Runnable;
+import beast.core.util.Log;
+import beast.util.JSONParser;
+import beast.util.PackageManager;
+import beast.util.Randomizer;
+import beast.util.ThreadContext;
+import beast.util.XMLParser;
+
+/**
+ * Long running BEAST process that runs many analyses in a single JVM, so that JVM
+ * start-up, loading of packages, class discovery and JIT compilation are paid only
+ * once. Started from BeastMain with the -server option.
+ *
+ * Jobs are XML or JSON files, submitted in one of two ways:
+ * <ul>
+ * <li>by placing them in a queue directory, which is polled every second. A job is
+ * claimed by moving the file into a directory of its own in the queue directory,
+ * named after the file, where all its output goes. Write files under another
+ * extension first and rename them when complete, to prevent partially written
+ * files from being picked up.</li>
+ * <li>through a socket on the loopback interface, where a client sends a line
+ * "file [seed=number] [dir=output directory]" and gets a single line reply once
+ * the job finished. By default, output goes to a directory next to the file.</li>
+ * </ul>
+ *
+ * At most a given number of jobs run concurrently. Each job gets its own random
+ * number generator (seeded with the server seed plus the job number, unless
+ * specified), its own directory for log and state files, and its screen output
+ * and messages go to a file "name.out" in that directory. On completion a file
+ * "name.done" or "name.failed" with seed and timings is written, and a line
+ * with the same information appears on the console of the server.
+ *
+ * Resuming is not supported, since the sample offset of loggers is shared. Log
+ * files are not overwritten unless the overwrite log file mode was set, and a job
+ * that would overwrite one fails instead of asking what to do.
+ */
+public class BeastServer {
+	final static String[] EXTENSIONS = {".xml", ".json"};
+
+	/** directory polled for jobs, or null when only listening to the socket **/
+	final private File queueDir;
+	/** port to listen to, or 0 when only polling the queue directory **/
+	final private int port;
+	final private long seed;
+
+	final private ExecutorService pool;
+	/** permits for jobs to run, so that no more jobs are claimed than can be run **/
+	final private Semaphore slots;
+	final private AtomicLong jobCount = new AtomicLong();
+
+	/** console of the server, for job reports **/
+	private PrintStream console;
+	private ThreadOutputStream out, err;
+
+	private volatile boolean running = true;
+	private Thread runThread;
+	private ServerSocket serverSocket;
+	/** state replaced by run(), and restored by shutdown() **/
+	private PrintStream stdout, stderr, logErr, logWarning, logInfo, logDebug, logTrace;
+	private Logger.LogFileMode fileMode;
+
+	public BeastServer(File queueDir, int port, int maxJobs, long seed) {
+		if (queueDir == null && port <= 0) {
+			throw new IllegalArgumentException("Either a queue directory or a port should be specified");
+		}
+		this.queueDir = queueDir;
+		this.port = port;
+		this.seed = seed;
+		pool = Executors.newFixedThreadPool(maxJobs);
+		slots = new Semaphore(maxJobs);
+	}
+
+	/**
+	 * serve jobs until the process is killed, or shutdown() is called
+	 */
+	public void run() throws IOException, InterruptedException {
+		runThread = Thread.currentThread();
+		PackageManager.loadExternalJars();
+		fileMode = Logger.FILE_MODE;
+		if (Logger.FILE_MODE != Logger.LogFileMode.overwrite) {
+			// asking whether to overwrite would block a job on standard input, or exit the server
+			Logger.FILE_MODE = Logger.LogFileMode.only_new_or_exit;
+		}
+		routeOutput();
+
+		Thread socketThread = null;
+		if (port > 0) {
+			serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+			socketThread = new Thread(() -> acceptConnections(serverSocket), "BeastServer port " + port);
+			socketThread.setDaemon(true);
+			socketThread.start();
+			console.println("Listening to port " + port);
+		}
+		if (queueDir != null) {
+			if (!queueDir.isDirectory() && !queueDir.mkdirs()) {
+				throw new IOException("Could not create queue directory " + queueDir.getPath());
+			}
+			console.println("Polling " + queueDir.getAbsolutePath() + " for jobs");
+			try {
+				pollQueue();
+			} catch (InterruptedException e) {
+				if (running) {
+					throw e;
+				}
+			}
+		} else {
+			try {
+				socketThread.join();
+			} catch (InterruptedException e) {
+				if (running) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * stop taking jobs, wait for running jobs to finish, and restore the output
+	 * streams and log file mode replaced by run()
+	 */
+	public void shutdown() throws InterruptedException {
+		running = false;
+		if (serverSocket != null) {
+			try {
+				serverSocket.close();
+			} catch (IOException e) {
+				e.printStackTrace(console);
+			}
+		}
+		if (runThread != null) {
+			runThread.interrupt();
+			runThread.join();
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		if (console != null) {
+			System.setOut(stdout);
+			System.setErr(stderr);
+			Log.err = logErr;
+			Log.warning = logWarning;
+			Log.info = logInfo;
+			Log.debug = logDebug;
+			Log.trace = logTrace;
+			Log.setLevel(Log.getLevel());
+		}
+		if (fileMode != null) {
+			Logger.FILE_MODE = fileMode;
+		}
+	}
+
+	/** route standard output and error as well as the Log streams to the job run by the current thread **/
+	private void routeOutput() {
+		stdout = System.out;
+		stderr = System.err;
+		logErr = Log.err;
+		logWarning = Log.warning;
+		logInfo = Log.info;
+		logDebug = Log.debug;
+		logTrace = Log.trace;
+		console = System.out;
+		out = new ThreadOutputStream(System.out);
+		err = new ThreadOutputStream(System.err);
+		final PrintStream outStream = new PrintStream(out, true);
+		final PrintStream errStream = new PrintStream(err, true);
+		System.setOut(outStream);
+		System.setErr(errStream);
+		Log.err = errStream;
+		Log.warning = errStream;
+		Log.info = outStream;
+		Log.debug = outStream;
+		Log.trace = outStream;
+		Log.setLevel(Log.getLevel());
+	}
+
+	private void pollQueue() throws InterruptedException {
+		while (running) {
+			File[] files = queueDir.listFiles(f -> f.isFile() && isJobFile(f.getName()));
+			if (files != null) {
+				Arrays.sort(files);
+			}
+			if (files == null || files.length == 0) {
+				Thread.sleep(1000);
+				continue;
+			}
+			for (File file : files) {
+				slots.acquire();
+				File claimed = claim(file);
+				if (claimed == null) {
+					// taken by another server
+					slots.release();
+					continue;
+				}
+				submit(claimed, claimed.getParentFile(), seed + jobCount.incrementAndGet());
+			}
+		}
+	}
+
+	/** move file into a directory of its own, @return new location or null if the file is gone **/
+	private File claim(File file) {
+		final String name = baseName(file.getName());
+		File dir = new File(queueDir, name);
+		for (int i = 1; !dir.mkdir(); i++) {
+			dir = new File(queueDir, name + "_" + i);
+		}
+		final File claimed = new File(dir, file.getName());
+		try {
+			Files.move(file.toPath(), claimed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			return claimed;
+		} catch (IOException e) {
+			dir.delete();
+			return null;
+		}
+	}
+
+	private void acceptConnections(ServerSocket serverSocket) {
+		while (running) {
+			try {
+				final Socket socket = serverSocket.accept();
+				Thread thread = new Thread(() -> handleConnection(socket), "BeastServer connection");
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException e) {
+				if (running) {
+					e.printStackTrace(console);
+				}
+			}
+		}
+	}
+
+	/** read a single job request, and reply once it is done **/
+	private void handleConnection(Socket socket) {
+		try (Socket s = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+				PrintStream reply = new PrintStream(s.getOutputStream(), true)) {
+			final String line = in.readLine();
+			if (line == null || line.trim().length() == 0) {
+				return;
+			}
+			String[] strs = line.trim().split("\\s+");
+			final File file = new File(strs[0]);
+			long jobSeed = seed + jobCount.incrementAndGet();
+			File dir = null;
+			for (int i = 1; i < strs.length; i++) {
+				if (strs[i].startsWith("seed=")) {
+					jobSeed = Long.parseLong(strs[i].substring(5));
+				} else if (strs[i].startsWith("dir=")) {
+					dir = new File(strs[i].substring(4));
+				} else {
+					reply.println("failed " + file.getName() + " unrecognised argument " + strs[i]);
+					return;
+				}
+			}
+			if (!file.isFile()) {
+				reply.println("failed " + file.getName() + " file not found");
+				return;
+			}
+			if (dir == null) {
+				dir = new File(file.getAbsoluteFile().getParentFile(), baseName(file.getName()));
+			}
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				reply.println("failed " + file.getName() + " could not create directory " + dir.getPath());
+				return;
+			}
+			slots.acquire();
+			Future<String> result = submit(file, dir, jobSeed);
+			reply.println(result.get());
+		} catch (Exception e) {
+			e.printStackTrace(console);
+		}
+	}
+
+	/** start job, assuming a slot was acquired for it **/
+	private Future<String> submit(File file, File dir, long jobSeed) {
+		try {
+			return pool.submit(() -> {
+				try {
+					return runJob(file, dir, jobSeed);
+				} finally {
+					slots.release();
+				}
+			});
+		} catch (RuntimeException e) {
+			slots.release();
+			throw e;
+		}
+	}
+
+	/** @return report on job, starting with "done" or "failed" **/
+	private String runJob(File file, File dir, long jobSeed) throws IOException {
+		final String name = baseName(file.getName());
+		final long start = System.currentTimeMillis();
+		long parsed = start;
+		String report;
+		final PrintStream jobOut = new PrintStream(new FileOutputStream(new File(dir, name + ".out")), true);
+		out.set(jobOut);
+		err.set(jobOut);
+		Randomizer.setThreadSeed(jobSeed);
+		Logger.setThreadFileNamePrefix(dir.getAbsolutePath() + File.separator);
+		boolean success = false;
+		try {
+			Runnable runnable;
+			// parsers keep static state, e.g. for element name mappings
+			synchronized (BeastServer.class) {
+				if (file.getName().toLowerCase().endsWith(".json")) {
+					runnable = new JSONParser(new HashMap<>()).parseFile(file, false);
+				} else {
+					runnable = new XMLParser(new HashMap<>()).parseFile(file, false);
+				}
+			}
+			parsed = System.currentTimeMillis();
+			runnable.setStateFile(file.getName() + ".state", false);
+			runnable.run();
+			success = true;
+			report = "done " + name + " seed=" + jobSeed;
+		} catch (Throwable e) {
+			e.printStackTrace(jobOut);
+			report = "failed " + name + " seed=" + jobSeed + " " + e.getMessage();
+		} finally {
+			Logger.setThreadFileNamePrefix(null);
+			Randomizer.clearThreadSeed();
+			out.set(null);
+			err.set(null);
+			jobOut.close();
+		}
+		final long end = System.currentTimeMillis();
+		report += " parse=" + (parsed - start) + "ms run=" + (end - parsed) + "ms";
+
+		try (PrintStream status = new PrintStream(new File(dir, name + (success ? ".done" : ".failed")))) {
+			status.println(report);
+		}
+		console.println(report);
+		return report;
+	}
+
+	static boolean isJobFile(String fileName) {
+		final String lower = fileName.toLowerCase();
+		for (String extension : EXTENSIONS) {
+			if (lower.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static String baseName(String fileName) {
+		final int i = fileName.lastIndexOf('.');
+		return i > 0 ? fileName.substring(0, i) : fileName;
+	}
+
+	/** output stream writing to a stream set for the current thread, or to a default stream **/
+	static class ThreadOutputStream extends OutputStream {
+		final private OutputStream defaultStream;
+		final private InheritableThreadLocal<OutputStream> stream = ThreadContext.register(new InheritableThreadLocal<>());
+
+		ThreadOutputStream(OutputStream defaultStream) {
+			this.defaultStream = defaultStream;
+		}
+
+		void set(OutputStream out) {
+			if (out == null) {
+				stream.remove();
+			} else {
+				stream.set(out);
+			}
+		}
+
+		private OutputStream get() {
+			final OutputStream out = stream.get();
+			return out != null ? out : defaultStream;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			get().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			get().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			get().flush();
+		}
+	}
+}
@@ -10,6 +10,11 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
 
 import javax.swing.Icon;
 import javax.swing.JButton;
@@ -30,7 +35,6 @@ import beast.core.util.Log;
 import beast.evolution.tree.coalescent.CompoundPopulationFunction;
 import beast.evolution.tree.coalescent.CompoundPopulationFunction.Type;
 import beast.math.statistic.DiscreteStatistics;
-import beast.util.HeapSort;
 import jam.console.ConsoleApplication;
 import jam.panels.OptionsPanel;
 
@@ -47,130 +51,217 @@ public class EBSPAnalyser {
         parse(m_sInputFile, m_nBurninPercentage, m_type, m_out);
     }
 
+    /** number of lines evaluated at a time, which bounds the memory used for lines of the log **/
+    final static int BATCH_SIZE = 4096;
+
+    /** maximum number of threads used to evaluate samples and summarise grid points **/
+    int threadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Summarises population sizes over the posterior at the mean coalescent times.
+     * The log is read three times: to count samples, to average the times, which
+     * form the time grid, and to evaluate the population function of each sample on
+     * the whole grid at once. Only the population sizes on the grid are kept, which
+     * the exact medians and HPD intervals require.
+     */
     void parse(String fileName, int burnInPercentage, CompoundPopulationFunction.Type type, PrintStream out) throws IOException {
         logln("Processing " + fileName);
-        BufferedReader fin = new BufferedReader(new FileReader(fileName));
         String str;
         int data = 0;
         // first, sweep through the log file to determine size of the log
-        while (fin.ready()) {
-            str = fin.readLine();
-            // terrible hackish code, must improve later
-            if( str.charAt(0) == '#' ) {
-                int i = str.indexOf("spec=");
-                if( i > 0 ) {
-                   if( str.indexOf("type=\"stepwise\"") > 0 ) {
-                      m_type = Type.STEPWISE;
-                   }  else if( str.indexOf("type=\"linear\"") > 0 ) {
-                      m_type = Type.LINEAR;
-                   }
+        try (BufferedReader fin = new BufferedReader(new FileReader(fileName))) {
+            while ((str = fin.readLine()) != null) {
+                // terrible hackish code, must improve later
+                if (str.length() > 0 && str.charAt(0) == '#') {
+                    int i = str.indexOf("spec=");
+                    if (i > 0) {
+                        if (str.indexOf("type=\"stepwise\"") > 0) {
+                            m_type = Type.STEPWISE;
+                        } else if (str.indexOf("type=\"linear\"") > 0) {
+                            m_type = Type.LINEAR;
+                        }
+                    }
+                }
+                if (isSample(str)) {
+                    data++;
                 }
-            }
-            if (str.indexOf('#') < 0 && str.matches(".*[0-9a-zA-Z].*")) {
-                data++;
             }
         }
         final int burnIn = data * burnInPercentage / 100;
         logln(" skipping " + burnIn + " line\n\n");
-        data = -burnIn - 1;
-        fin.close();
-        fin = new BufferedReader(new FileReader(fileName));
+        // the first line that is counted holds the labels
+        final int sampleCount = data - burnIn - 1;
+        if (sampleCount <= 0) {
+            //burn-in too large?
+            return;
+        }
 
-        // process log
-        final List<List<Double>> times = new ArrayList<>();
-        final List<List<Double>> popSizes = new ArrayList<>();
+        // second, take average of coalescent times
         double[] alltimes = null;
-        while (fin.ready()) {
-            str = fin.readLine();
-            if (str.indexOf('#') < 0 && str.matches(".*[0-9a-zA-Z].*")) {
-                if (++data > 0) {
+        try (BufferedReader fin = new BufferedReader(new FileReader(fileName))) {
+            data = -burnIn - 1;
+            while ((str = fin.readLine()) != null) {
+                if (isSample(str) && ++data > 0) {
                     final String[] strs = str.split("\t");
-                    final List<Double> times2 = new ArrayList<>();
-                    final List<Double> popSizes2 = new ArrayList<>();
                     if (alltimes == null) {
                         alltimes = new double[strs.length - 1];
                     }
                     for (int i = 1; i < strs.length; i++) {
-                        final String[] strs2 = strs[i].split(":");
-                        final Double time = Double.parseDouble(strs2[0]);
-                        alltimes[i - 1] += time;
-                        if (strs2.length > 1) {
-                            times2.add(time);
-                            popSizes2.add(Double.parseDouble(strs2[1]));
-                        }
+                        final int colon = strs[i].indexOf(':');
+                        alltimes[i - 1] += Double.parseDouble(colon < 0 ? strs[i] : strs[i].substring(0, colon));
                     }
-                    times.add(times2);
-                    popSizes.add(popSizes2);
-
                 }
             }
         }
-
-        if (alltimes == null) {
-            //burn-in too large?
-            return;
-        }
-
-        // take average of coalescent times
         for (int i = 0; i < alltimes.length; i++) {
-            alltimes[i] /= times.size();
+            alltimes[i] /= sampleCount;
         }
+        final double[] grid = alltimes;
 
-        // generate output
-        out.println("time\tmean\tmedian\t95HPD lower\t95HPD upper");
-        final double[] popSizeAtTimeT = new double[times.size()];
-        int[] indices = new int[times.size()];
-
-        for (final double time : alltimes) {
-            for (int j = 0; j < popSizeAtTimeT.length; j++) {
-                popSizeAtTimeT[j] = calcPopSize(type, times.get(j), popSizes.get(j), time);
+        ExecutorService pool = threadCount > 1 ? Executors.newFixedThreadPool(threadCount) : null;
+        try {
+            // third, evaluate the population function of every sample at all times,
+            // in batches of lines that are split over threads
+            final double[][] popSizeAtTimeT = new double[grid.length][sampleCount];
+            try (BufferedReader fin = new BufferedReader(new FileReader(fileName))) {
+                final String[] batch = new String[BATCH_SIZE];
+                data = -burnIn - 1;
+                int size = 0, sample = 0;
+                while ((str = fin.readLine()) != null || size > 0) {
+                    if (str != null) {
+                        if (!isSample(str) || ++data <= 0) {
+                            continue;
+                        }
+                        batch[size++] = str;
+                        if (size < BATCH_SIZE) {
+                            continue;
+                        }
+                    }
+                    final int first = sample;
+                    forEach(pool, size, j -> calcPopSizes(type, batch[j], grid, popSizeAtTimeT, first + j));
+                    sample += size;
+                    size = 0;
+                }
             }
 
-            HeapSort.sort(popSizeAtTimeT, indices);
-
-            out.print(time + "\t");
+            // generate output, one row per time, which are summarised in parallel
+            final String[] rows = new String[grid.length];
+            final int[] indices = new int[sampleCount];
+            for (int j = 0; j < sampleCount; j++) {
+                indices[j] = j;
+            }
+            forEach(pool, grid.length, i -> {
+                final double[] x = popSizeAtTimeT[i];
+                // mean in sample order, then the other statistics from the sorted values
+                final double mean = DiscreteStatistics.mean(x);
+                Arrays.sort(x);
+                final double[] hpdInterval = DiscreteStatistics.HPDInterval(0.95, x, indices);
+                rows[i] = grid[i] + "\t" + mean + "\t" + DiscreteStatistics.median(x, indices) + "\t" +
+                        hpdInterval[0] + "\t" + hpdInterval[1];
+            });
+            out.println("time\tmean\tmedian\t95HPD lower\t95HPD upper");
+            for (String row : rows) {
+                out.println(row);
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
 
-            out.print(DiscreteStatistics.mean(popSizeAtTimeT) + "\t");
-            out.print(DiscreteStatistics.median(popSizeAtTimeT) + "\t");
+    private static boolean isSample(String str) {
+        return str.indexOf('#') < 0 && LogCombiner.hasAlphaNumeric(str);
+    }
 
-            double[] hpdInterval = DiscreteStatistics.HPDInterval(0.95, popSizeAtTimeT, indices);
-            out.println(hpdInterval[0] + "\t" + hpdInterval[1]);
+    /** run body for 0..count-1, split in contiguous ranges over the threads of pool, or in this thread if pool is null **/
+    private void forEach(ExecutorService pool, int count, IntConsumer body) {
+        final int tasks = pool == null ? 1 : Math.min(threadCount, count);
+        if (tasks <= 1) {
+            for (int j = 0; j < count; j++) {
+                body.accept(j);
+            }
+            return;
+        }
+        List<Future<?>> results = new ArrayList<>();
+        for (int k = 0; k < tasks; k++) {
+            final int start = (int) ((long) count * k / tasks);
+            final int end = (int) ((long) count * (k + 1) / tasks);
+            results.add(pool.submit(() -> {
+                for (int j = start; j < end; j++) {
+                    body.accept(j);
+                }
+            }));
+        }
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
         }
     }
 
-    private double calcPopSize(CompoundPopulationFunction.Type type, List<Double> xs, List<Double> ys, double d) {
-        // TODO completely untested
-        // assume linear
-        //assert typeName.equals("Linear");
-
-        final int n = xs.size();
-        final double xn = xs.get(n - 1);
-        if (d >= xn) {
-            return ys.get(n - 1);
+    /**
+     * Evaluate the population function logged in line at all times, and store the
+     * results in column sample of popSizes. Times are visited in one sweep over the
+     * change points of the function, which restarts only if times decrease.
+     */
+    private static void calcPopSizes(CompoundPopulationFunction.Type type, String line, double[] times, double[][] popSizes, int sample) {
+        final String[] strs = line.split("\t");
+        final double[] xs = new double[strs.length - 1];
+        final double[] ys = new double[strs.length - 1];
+        int n = 0;
+        for (int i = 1; i < strs.length; i++) {
+            final int colon = strs[i].indexOf(':');
+            if (colon >= 0) {
+                xs[n] = Double.parseDouble(strs[i].substring(0, colon));
+                ys[n] = Double.parseDouble(strs[i].substring(colon + 1));
+                n++;
+            }
         }
-        assert d >= xs.get(0);
 
+        final double xn = xs[n - 1];
+        double prev = Double.NEGATIVE_INFINITY;
         int i = 1;
-        while (d >= xs.get(i)) {
-            ++i;
-        }
-        // d < xs.get(i)
-
-        double x0 = xs.get(i-1);
-        double x1 = xs.get(i);
-        double y0 = ys.get(i-1);
-        double y1 = ys.get(i);
-        assert x0 <= d && d <= x1 : "" + x0 + "," + x1 + "," + d;
-        switch (type) {
-            case LINEAR:
-                final double p = (d * (y1 - y0) + (y0 * x1 - y1 * x0)) / (x1 - x0);
-                assert p > 0;
-                return p;
-            case STEPWISE:
-                assert y1 > 0;
-                return y1;
+        for (int k = 0; k < times.length; k++) {
+            final double d = times[k];
+            if (d >= xn) {
+                popSizes[k][sample] = ys[n - 1];
+                continue;
+            }
+            if (d < prev) {
+                i = 1;
+            }
+            prev = d;
+            while (d >= xs[i]) {
+                ++i;
+            }
+            // d < xs[i]
+
+            final double x0 = xs[i - 1];
+            final double x1 = xs[i];
+            final double y0 = ys[i - 1];
+            final double y1 = ys[i];
+            switch (type) {
+                case LINEAR:
+                    final double p = (d * (y1 - y0) + (y0 * x1 - y1 * x0)) / (x1 - x0);
+                    assert p > 0;
+                    popSizes[k][sample] = p;
+                    break;
+                case STEPWISE:
+                    assert y1 > 0;
+                    popSizes[k][sample] = y1;
+                    break;
+                default:
+                    popSizes[k][sample] = 0;
+            }
         }
-        return 0;
     }
 
     private void parseArgs(String[] args) {
@@ -203,6 +294,9 @@ public class EBSPAnalyser {
                     } else if (args[i].equals("-burnin")) {
                         m_nBurninPercentage = Integer.parseInt(args[i + 1]);
                         i += 2;
+                    } else if (args[i].equals("-threads")) {
+                        threadCount = Math.max(1, Integer.parseInt(args[i + 1]));
+                        i += 2;
                     }
                     if (i == old) {
                         throw new IllegalArgumentException("Unrecognised argument (argument " + i + ": " + args[i] + ")");
@@ -229,6 +323,7 @@ public class EBSPAnalyser {
                 "-burnin <percentage> percent of log to consider burn in, default 10\n" +
                 "-type [linear|step] type of population function\n" +
                 "-o <outputfile> name of output file, default to output on stdout\n" +
+                "-threads <int> number of threads used, default number of cores\n" +
                 "";
     }
 
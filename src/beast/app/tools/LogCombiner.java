@@ -4,6 +4,7 @@ package beast.app.tools;
 import beast.app.BEASTVersion2;
 import beast.app.util.Utils;
 import beast.core.util.Log;
+import beast.util.BinaryTreeLog;
 import beast.util.LogAnalyser;
 import jam.console.ConsoleApplication;
 
@@ -14,8 +15,17 @@ import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 /**
@@ -35,7 +45,6 @@ public class LogCombiner extends LogAnalyser {
     private int columnCount = -1;
 
     boolean m_bIsTreeLog = false;
-    List<String> m_sTrees;
     // Sample interval as it appears in the combined log file.
     // To use the interval of the log files, use the -renumber option
     int m_nSampleInterval = -1;
@@ -92,6 +101,9 @@ public class LogCombiner extends LogAnalyser {
                     } else if (args[i].equals("-renumber")) {
                         m_nSampleInterval = 1;
                         i++;
+                    } else if (args[i].equals("-threads")) {
+                        setThreadCount(Integer.parseInt(args[i + 1]));
+                        i += 2;
                     }
                     if (i == old) {
                         throw new IllegalArgumentException("Unrecognised argument:" + args[i]);
@@ -107,11 +119,6 @@ public class LogCombiner extends LogAnalyser {
     }
 
 
-    /**
-     * data from log file with burn-in removed *
-     */
-    Double[][] m_fCombinedTraces;
-
     private void combineParticleLogs() {
         List<String> logs = new ArrayList<>();
         for (int i = 0; i < m_nParticles; i++) {
@@ -132,358 +139,505 @@ public class LogCombiner extends LogAnalyser {
 		}
     }
 
-    @SuppressWarnings("unchecked")
-	protected long readLogFile(String fileName, int burnInPercentage, long state) throws IOException {
-        log("\nLoading " + fileName);
-        BufferedReader fin = new BufferedReader(new FileReader(fileName));
-        String str;
-        m_sPreAmble = "";
-        m_sLabels = null;
-        int data = 0;
-        // first, sweep through the log file to determine size of the log
-        while (fin.ready()) {
-            str = fin.readLine();
-            if (str.indexOf('#') < 0 && str.matches(".*[0-9a-zA-Z].*")) {
-                if (m_sLabels == null)
-                    m_sLabels = str.split("\\s");
-                else
-                    data++;
-            } else {
-                m_sPreAmble += str + "\n";
-            }
+    /** maximum number of chunks a reader can be ahead of the writer **/
+    final static int QUEUE_CAPACITY = 4;
+    /** maximum number of lines and characters in a chunk **/
+    final static int CHUNK_LINES = 1024;
+    final static int CHUNK_CHARS = 1 << 20;
+
+    /**
+     * Lines of a log file after burn-in and resampling, with the sample
+     * number removed, since it is renumbered when written.
+     */
+    static class Chunk {
+        final String[] lines = new String[CHUNK_LINES];
+        int size = 0;
+        int chars = 0;
+        /** number of columns of the lines in this chunk, for trace logs **/
+        int columnCount = -1;
+        /** number of lines after burn-in read from the file so far, for reporting progress **/
+        int position;
+        /** index of the line before which the sample interval became known, if any **/
+        int intervalAt = -1;
+        long interval;
+        boolean isLast = false;
+        Exception error;
+
+        boolean isFull() {
+            return size == CHUNK_LINES || chars >= CHUNK_CHARS;
         }
-        if (!preAmpleIsPrinted) {
-        	m_out.print(m_sPreAmble);
-            // header
-            for (int i = 0; i < m_sLabels.length; i++) {
-                m_out.print(m_sLabels[i] + "\t");
+    }
+
+    /**
+     * Reads a trace or tree log file, usually in a separate thread, and passes
+     * the lines after burn-in and resampling on to the writer in chunks through
+     * a bounded queue, so only a few chunks per file are in memory at any time.
+     * The first chunk is empty, and marks that the preamble has been read.
+     */
+    class LogReader implements Runnable {
+        final String fileName;
+        final int burnInPercentage;
+        final boolean isTreeLog;
+        /** translate table of the first tree log, which is used in the output **/
+        final Map<String, String> sharedTranslate;
+        final DecimalFormat decimalFormat;
+        final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        String preAmble = "";
+        String[] labels;
+        /** number of lines read after burn-in **/
+        int total;
+        int burnIn;
+
+        LogReader(String fileName, int burnInPercentage, boolean isTreeLog, Map<String, String> sharedTranslate) {
+            this.fileName = fileName;
+            this.burnInPercentage = burnInPercentage;
+            this.isTreeLog = isTreeLog;
+            this.sharedTranslate = sharedTranslate;
+            decimalFormat = (DecimalFormat) format.clone();
+        }
+
+        @Override
+        public void run() {
+            try {
+                read();
+            } catch (InterruptedException e) {
+                // the writer gave up
+            } catch (Exception e) {
+                Chunk chunk = new Chunk();
+                chunk.error = e;
+                chunk.isLast = true;
+                try {
+                    queue.put(chunk);
+                } catch (InterruptedException e2) {
+                    // the writer gave up
+                }
             }
-            m_out.println();
-        	preAmpleIsPrinted = true;
         }
-        
-        int lines = Math.max(1, data / 80);
-        // reserve memory
-        int items = m_sLabels.length;
-        m_ranges = new List[items];
-        int burnIn = data * burnInPercentage / 100;
-        int total = data - burnIn;
-        m_fTraces = new Double[items][data - burnIn];
-        fin.close();
-        fin = new BufferedReader(new FileReader(fileName));
-        data = -burnIn - 1;
-        logln(", burnin " + burnInPercentage + "%, skipping " + burnIn + " log lines\n\n" + BAR);
-        // grab data from the log, ignoring burn in samples
-        long prevLogState = -1;
-        int reported = 0;
-        while (fin.ready()) {
-            str = fin.readLine();
-            if (str.indexOf('#') < 0 && str.matches("[0-9].*")) {
-                data++;
-                if (data >= 0) {
-                	String [] strs = str.split("\\s");
-                	long logState = Long.parseLong(strs[0]);
-                    if (m_nSampleInterval < 0 && prevLogState >= 0) {
-                        // need to renumber
-                    	if (m_nResample < 0) {
-                    		m_nSampleInterval = (int) (logState - prevLogState);
-                    	} else {
-                    		m_nSampleInterval = m_nResample;
-                    	}
+
+        private void read() throws IOException, InterruptedException {
+            if (isTreeLog && BinaryTreeLog.isBinaryTreeLog(new File(fileName))) {
+                readBinary();
+                return;
+            }
+            StringBuilder preAmble = new StringBuilder();
+            int data = 0;
+            // first, sweep through the log file to determine size of the log
+            try (BufferedReader fin = new BufferedReader(new FileReader(fileName))) {
+                String str;
+                while ((str = fin.readLine()) != null) {
+                    if (isTreeLog) {
+                        if (str.startsWith("tree STATE")) {
+                            data++;
+                        } else if (data == 0) {
+                            preAmble.append(str).append('\n');
+                        }
+                    } else if (str.indexOf('#') < 0 && hasAlphaNumeric(str)) {
+                        if (labels == null) {
+                            labels = WHITESPACE.split(str);
+                        } else {
+                            data++;
+                        }
+                    } else {
+                        preAmble.append(str).append('\n');
+                    }
+                }
+            }
+            this.preAmble = preAmble.toString();
+            burnIn = data * burnInPercentage / 100;
+            total = data - burnIn;
+            final Map<String, String> translate = isTreeLog ? translateToSharedTable() : null;
+            queue.put(new Chunk());
+
+            // grab data from the log, ignoring burn in samples
+            Chunk chunk = new Chunk();
+            data = -burnIn - 1;
+            long prevLogState = -1;
+            boolean intervalKnown = false;
+            try (BufferedReader fin = new BufferedReader(new FileReader(fileName))) {
+                String str;
+                while ((str = fin.readLine()) != null) {
+                    if (isTreeLog ? !str.startsWith("tree STATE_") : (str.indexOf('#') >= 0 || !startsWithDigit(str))) {
+                        continue;
+                    }
+                    if (++data < 0) {
+                        continue;
+                    }
+                    String[] strs = null;
+                    long logState;
+                    if (isTreeLog) {
+                        String str2 = str.substring(11, str.indexOf("=")).trim();
+                        logState = Long.parseLong(WHITESPACE.split(str2)[0]);
+                    } else {
+                        strs = WHITESPACE.split(str);
+                        logState = Long.parseLong(strs[0]);
+                        if (chunk.columnCount != strs.length) {
+                            if (chunk.size > 0) {
+                                chunk = put(chunk);
+                            }
+                            chunk.columnCount = strs.length;
+                        }
+                    }
+                    if (!intervalKnown && prevLogState >= 0) {
+                        // this file determines the interval of the output, unless an earlier one did
+                        chunk.intervalAt = chunk.size;
+                        chunk.interval = m_nResample < 0 ? logState - prevLogState : m_nResample;
+                        intervalKnown = true;
                     }
                     prevLogState = logState;
-                    if (columnCount != strs.length) {
-                    	if (columnCount < 0) {
-                    		columnCount = strs.length;
-                    	} else {
-                            fin.close();
-                            throw new IllegalArgumentException("ERROR: The number of columns in file " + fileName + " does not match that of the first file");
-                    	}
+                    chunk.position = data;
+
+                    if (m_nResample < 0 || logState % m_nResample == 0) {
+                        String line;
+                        if (isTreeLog) {
+                            // strip "tree STATE_<number>"
+                            int end = 11;
+                            while (end < str.length() && !Character.isWhitespace(str.charAt(end))) {
+                                end++;
+                            }
+                            line = str.substring(end);
+                            if (translate != null) {
+                                line = translate(line, translate);
+                            }
+                        } else {
+                            StringBuilder b = new StringBuilder(str.length());
+                            for (int k = 1; k < strs.length; k++) {
+                                if (m_bUseDecimalFormat && strs[k].indexOf('.') > 0) {
+                                    double d = Double.parseDouble(strs[k]);
+                                    b.append(decimalFormat.format(d));
+                                } else {
+                                    b.append(strs[k]);
+                                }
+                                b.append('\t');
+                            }
+                            line = b.toString();
+                        }
+                        chunk.lines[chunk.size++] = line;
+                        chunk.chars += line.length();
+                        if (chunk.isFull()) {
+                            chunk = put(chunk);
+                        }
                     }
-                	
-                	if (logState % m_nResample == 0 || m_nResample < 0) {
-	                	if (state < 0) {
-	                		state = 0;
-	                	} else {
-	                		state += m_nSampleInterval;
-	                	}
-	                	m_out.print(state + "\t");
-	                	for (int k = 1; k < strs.length; k++) {
-		                	if (m_bUseDecimalFormat && strs[k].indexOf('.') > 0) {
-		                		double d = Double.parseDouble(strs[k]);
-		                		m_out.print(format.format(d));
-		                	} else {
-		                		m_out.print(strs[k]);
-		                	}
-	                		m_out.print('\t');
-	                	}
-	                	m_out.println();
-                	}
                 }
-                if (data % lines == 0 && reported < 81) {
-    				while (10000 * reported < 810000 * (data + 1)/ total) {
-    	                log("*");
-    	                reported++;
-            	    }
-                }
-        	}
+            }
+            chunk.isLast = true;
+            queue.put(chunk);
         }
-        logln("");
-        fin.close();
-        return state;
-    } // readLogFile
 
+        /** as read(), for a binary tree log, which is written as Newick trees **/
+        private void readBinary() throws IOException, InterruptedException {
+            final File file = new File(fileName);
+            final int data = BinaryTreeLog.count(file);
+            try (BinaryTreeLog.Reader reader = new BinaryTreeLog.Reader(file)) {
+                preAmble = reader.getNexusHeader();
+                burnIn = data * burnInPercentage / 100;
+                total = data - burnIn;
+                final Map<String, String> translate = translateToSharedTable();
+                queue.put(new Chunk());
+
+                Chunk chunk = new Chunk();
+                for (int i = 0; i < burnIn && reader.skip(); i++) {
+                    // skip burn in
+                }
+                long prevLogState = -1;
+                boolean intervalKnown = false;
+                for (int position = 0; position < total && reader.next(); position++) {
+                    final long logState = reader.getSample();
+                    if (!intervalKnown && prevLogState >= 0) {
+                        chunk.intervalAt = chunk.size;
+                        chunk.interval = m_nResample < 0 ? logState - prevLogState : m_nResample;
+                        intervalKnown = true;
+                    }
+                    prevLogState = logState;
+                    chunk.position = position;
 
-    private void combineLogs(String[] logs, int[] burbIns) throws IOException {
-    	preAmpleIsPrinted = false;
-        log("Writing to file " + m_sFileOut);
-        try {
-            m_out = new PrintStream(new File(m_sFileOut));
-        } catch (FileNotFoundException e) {
-            log("Could not open file " + m_sFileOut + " for writing: " + e.getMessage());
-            return;
+                    if (m_nResample < 0 || logState % m_nResample == 0) {
+                        String line = " = " + reader.getNewick() + ";";
+                        if (translate != null) {
+                            line = translate(line, translate);
+                        }
+                        chunk.lines[chunk.size++] = line;
+                        chunk.chars += line.length();
+                        if (chunk.isFull()) {
+                            chunk = put(chunk);
+                        }
+                    }
+                }
+                chunk.isLast = true;
+                queue.put(chunk);
+            }
         }
 
-        m_fCombinedTraces = null;
-        // process logs
-        int k = 0;
-        long state = -1;
-        for (String fileName : logs) {
-            BufferedReader fin = new BufferedReader(new FileReader(fileName));
-            String str = fin.readLine();
-            if (str.toUpperCase().startsWith("#NEXUS")) {
-                m_bIsTreeLog = true;
-                state = readTreeLogFile(fileName, burbIns[k], state);
-            } else {
-                state = readLogFile(fileName, burbIns[k], state);
-            }
-            k++;
-            fin.close();
+        /** @return a new chunk with the same column count after putting chunk in the queue **/
+        private Chunk put(Chunk chunk) throws InterruptedException {
+            queue.put(chunk);
+            Chunk next = new Chunk();
+            next.columnCount = chunk.columnCount;
+            next.position = chunk.position;
+            return next;
         }
-        if (m_bIsTreeLog) {
-        	m_out.println("End;");
+
+        /**
+         * @return map from taxon labels in the trees of this file to the labels of the same taxa in the
+         * translate table of the first file, or null if the labels are the same
+         */
+        private Map<String, String> translateToSharedTable() {
+            final Map<String, String> translate = parseTranslateTable(preAmble);
+            if (translate.equals(sharedTranslate)) {
+                return null;
+            }
+            final Map<String, String> sharedLabels = new HashMap<>();
+            for (Map.Entry<String, String> entry : sharedTranslate.entrySet()) {
+                sharedLabels.put(entry.getValue(), entry.getKey());
+            }
+            final Map<String, String> map = new HashMap<>();
+            if (translate.isEmpty()) {
+                // trees label taxa by name
+                map.putAll(sharedLabels);
+            }
+            for (Map.Entry<String, String> entry : translate.entrySet()) {
+                String label = sharedTranslate.isEmpty() ? entry.getValue() : sharedLabels.get(entry.getValue());
+                if (label == null) {
+                    throw new IllegalArgumentException("Taxon " + entry.getValue() + " in " + fileName +
+                            " does not occur in the translate table of the first tree file");
+                }
+                if (!label.equals(entry.getKey())) {
+                    map.put(entry.getKey(), label);
+                }
+            }
+            return map.isEmpty() ? null : map;
         }
-        m_out.close();
-        log("Wrote " + (state/m_nSampleInterval + 1) + " lines to " + m_sFileOut + "\n");
     }
 
-    protected long readTreeLogFile(String fileName, int burnInPercentage, long state) throws IOException {
-        log("\nLoading " + fileName);
-        BufferedReader fin = new BufferedReader(new FileReader(fileName));
-        String str = null;
-        m_sPreAmble = "";
-        int data = 0;
-        // first, sweep through the log file to determine size of the log
-        while (fin.ready()) {
-            str = fin.readLine();
-            if (str.matches("^tree STATE.*")) {
-                data++;
-            } else {
-                if (data == 0) {
-                    m_sPreAmble += str + "\n";
-                }
+    final static Pattern WHITESPACE = Pattern.compile("\\s");
+
+    static boolean hasAlphaNumeric(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            final char c = str.charAt(i);
+            if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                return true;
             }
         }
-        if (!preAmpleIsPrinted) {
-        	m_out.println(m_sPreAmble);
-        	preAmpleIsPrinted = true;
+        return false;
+    }
+
+    private static boolean startsWithDigit(String str) {
+        return str.length() > 0 && str.charAt(0) >= '0' && str.charAt(0) <= '9';
+    }
+
+    /**
+     * @return map from numbers to taxon names in the translate block of the
+     * preamble of a tree log, which is empty if there is no translate block
+     */
+    static Map<String, String> parseTranslateTable(String preAmble) {
+        final Map<String, String> translate = new LinkedHashMap<>();
+        final Matcher matcher = Pattern.compile("(?i)^\\s*translate\\s*$", Pattern.MULTILINE).matcher(preAmble);
+        if (!matcher.find()) {
+            return translate;
+        }
+        int end = preAmble.indexOf(';', matcher.end());
+        if (end < 0) {
+            end = preAmble.length();
         }
-        int lines = Math.max(1, data / 80);
-        // reserve memory
-        int burnIn = data * burnInPercentage / 100;
-        int total = data - burnIn;
-        logln(" skipping " + burnIn + " trees\n\n" + BAR);
-        if (m_sTrees == null) {
-            m_sTrees = new ArrayList<>();
+        for (String entry : preAmble.substring(matcher.end(), end).split(",")) {
+            final String[] strs = entry.trim().split("\\s+", 2);
+            if (strs.length == 2) {
+                translate.put(strs[0], strs[1].trim());
+            }
         }
-        fin.close();
-        fin = new BufferedReader(new FileReader(fileName));
-        data = -burnIn - 1;
+        return translate;
+    }
 
-        // grab data from the log, ignoring burn in samples
-        long prevLogState = -1;
-        int reported = 0;
-        while (fin.ready()) {
-            str = fin.readLine();
-            if (str.matches("^tree STATE_.*")) {
-                if (++data >= 0) {
-                    String str2 = str.substring(11, str.indexOf("=")).trim();
-                    str2 = str2.split("\\s")[0];
-                    long logState = Long.parseLong(str2);
-                    if (m_nSampleInterval < 0 && prevLogState >= 0) {
-                        // need to renumber
-                    	if (m_nResample < 0) {
-                    		m_nSampleInterval = (int) (logState - prevLogState);
-                    	} else {
-                    		m_nSampleInterval = m_nResample;
-                    	}
-                   }
-                    prevLogState = logState;
-                	
-                	if (logState % m_nResample == 0 || m_nResample < 0) {
-	                	if (state < 0) {
-	                		state = 0;
-	                	} else {
-	                		state += m_nSampleInterval;
-	                	}
-	                    str = str.replaceAll("^tree STATE_[^\\s]*", "");
-	                	m_out.print("tree STATE_" + state + str);
-	                	m_out.println();
-                	}
+    /** @return tree in Newick format with taxon labels replaced according to map **/
+    static String translate(String tree, Map<String, String> map) {
+        final StringBuilder b = new StringBuilder(tree.length());
+        final int n = tree.length();
+        boolean expectLabel = false;
+        int i = 0;
+        while (i < n) {
+            final char c = tree.charAt(i);
+            if (c == '[') {
+                // skip meta data, which can contain commas
+                int end = tree.indexOf(']', i);
+                end = end < 0 ? n : end + 1;
+                b.append(tree, i, end);
+                i = end;
+            } else if (c == '(' || c == ',') {
+                b.append(c);
+                expectLabel = true;
+                i++;
+            } else if (expectLabel && !Character.isWhitespace(c)) {
+                int end = i;
+                if (c == '\'') {
+                    end = tree.indexOf('\'', i + 1);
+                    end = end < 0 ? n : end + 1;
+                } else {
+                    while (end < n && ":[](),;".indexOf(tree.charAt(end)) < 0 && !Character.isWhitespace(tree.charAt(end))) {
+                        end++;
+                    }
                 }
-            }
-            if (data % lines == 0 && reported < 81) {
-				while (10000 * reported < 810000 * (data + 1)/ total) {
-	                log("*");
-	                reported++;
-        	    }
+                final String label = tree.substring(i, end);
+                final String newLabel = map.get(label);
+                b.append(newLabel == null ? label : newLabel);
+                expectLabel = false;
+                i = end;
+            } else {
+                b.append(c);
+                i++;
             }
         }
-        logln("");
-        return state;
-    } // readTreeLogFile
+        return b.toString();
+    }
 
-    private void printCombinedLogs() {
-        int data = (m_bIsTreeLog ? m_sTrees.size() : m_fCombinedTraces[0].length);
-        logln("Collected " + data + " lines in combined log");
-        if (m_sFileOut != null) {
-            log("Writing to file " + m_sFileOut);
+    /**
+     * Writes the log files one after another into the output file,
+     * renumbering samples as it goes. Files are read by up to threadCount
+     * threads at the same time, but each thread can only get a few chunks ahead
+     * of the writer, so memory use does not depend on the size of the logs.
+     */
+    private void combineLogs(String[] logs, int[] burbIns) throws IOException {
+    	preAmpleIsPrinted = false;
+        log("Writing to file " + m_sFileOut);
+        if (m_sFileOut == null) {
+            m_out = System.out;
+        } else {
             try {
-                m_out = new PrintStream(new File(m_sFileOut));
+                m_out = new PrintStream(new BufferedOutputStream(new FileOutputStream(m_sFileOut), 1 << 16));
             } catch (FileNotFoundException e) {
                 log("Could not open file " + m_sFileOut + " for writing: " + e.getMessage());
                 return;
             }
         }
-        logln("\n\n" + BAR);
-        // preamble
-        m_out.println(m_sPreAmble);
-
-        int lines = 0;
-        if (m_bIsTreeLog) {
-        	int total = m_sTrees.size();
-        	int reported = 0;
-        	int logFreq = Math.max(1, total / 80);
-            for (int i = 0; i < m_sTrees.size(); i++) {
-                if ((m_nSampleInterval * i) % m_nResample == 0) {
-                    String tree = m_sTrees.get(i);
-                    tree = format(tree);
-                    m_out.println("tree STATE_" + (m_nSampleInterval * i) + (Character.isSpaceChar(tree.charAt(0)) ? "" : " ") + tree);
-                    lines++;
+
+        // the translate table of the first tree log is used for all trees
+        Map<String, String> sharedTranslate = null;
+        LogReader[] readers = new LogReader[logs.length];
+        for (int k = 0; k < logs.length; k++) {
+            boolean isTreeLog;
+            if (BinaryTreeLog.isBinaryTreeLog(new File(logs[k]))) {
+                isTreeLog = true;
+                if (sharedTranslate == null) {
+                    try (BinaryTreeLog.Reader reader = new BinaryTreeLog.Reader(new File(logs[k]))) {
+                        sharedTranslate = parseTranslateTable(reader.getNexusHeader());
+                    }
                 }
-                if (i % logFreq == 0 && reported < 81) {
-    				while (10000 * reported < 810000 * (i + 1)/ total) {
-    	                log("*");
-    	                reported++;
-            	    }
+            } else try (BufferedReader fin = new BufferedReader(new FileReader(logs[k]))) {
+                String str = fin.readLine();
+                isTreeLog = str != null && str.toUpperCase().startsWith("#NEXUS");
+                if (isTreeLog && sharedTranslate == null) {
+                    StringBuilder preAmble = new StringBuilder();
+                    while ((str = fin.readLine()) != null && !str.startsWith("tree STATE")) {
+                        preAmble.append(str).append('\n');
+                    }
+                    sharedTranslate = parseTranslateTable(preAmble.toString());
                 }
             }
-            m_out.println("End;");
+            m_bIsTreeLog |= isTreeLog;
+            readers[k] = new LogReader(logs[k], burbIns[k], isTreeLog, sharedTranslate);
+        }
+
+        // process logs
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount, logs.length)));
+        long state = -1;
+        try {
+            for (LogReader reader : readers) {
+                pool.execute(reader);
+            }
+            for (LogReader reader : readers) {
+                state = writeLog(reader, state);
+            }
+            if (m_bIsTreeLog) {
+                m_out.println("End;");
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            pool.shutdownNow();
+            m_out.flush();
+            if (m_out != System.out) {
+                m_out.close();
+            }
+        }
+        log("Wrote " + (state/m_nSampleInterval + 1) + " lines to " + m_sFileOut + "\n");
+    }
+
+    /** copies lines from reader to the output @return sample number of the last line written **/
+    private long writeLog(LogReader reader, long state) throws IOException, InterruptedException {
+        log("\nLoading " + reader.fileName);
+        Chunk chunk = take(reader);
+        if (reader.isTreeLog) {
+            if (!preAmpleIsPrinted) {
+                m_out.println(reader.preAmble);
+                preAmpleIsPrinted = true;
+            }
+            logln(" skipping " + reader.burnIn + " trees\n\n" + BAR);
         } else {
-            // header
-            for (int i = 0; i < m_sLabels.length; i++) {
-                m_out.print(m_sLabels[i] + "\t");
+            m_sPreAmble = reader.preAmble;
+            m_sLabels = reader.labels;
+            if (!preAmpleIsPrinted) {
+                m_out.print(m_sPreAmble);
+                // header
+                for (int i = 0; i < m_sLabels.length; i++) {
+                    m_out.print(m_sLabels[i] + "\t");
+                }
+                m_out.println();
+                preAmpleIsPrinted = true;
             }
-            m_out.println();
-        	int total = m_fCombinedTraces[0].length;
-        	int reported = 0;
-        	int logFreq = Math.max(1, total / 80);
-            for (int i = 0; i < m_fCombinedTraces[0].length; i++) {
-                if (((int) (double) m_fCombinedTraces[0][i]) % m_nResample == 0) {
-                    for (int j = 0; j < m_types.length; j++) {
-                        switch (m_types[j]) {
-                            case INTEGER:
-                                m_out.print((int) (double) m_fCombinedTraces[j][i] + "\t");
-                                break;
-                            case REAL:
-                                m_out.print(format.format(m_fCombinedTraces[j][i]) + "\t");
-                                break;
-                            case NOMINAL:
-                            case BOOL:
-                                m_out.print(m_ranges[(int) (double) m_fCombinedTraces[j][i]] + "\t");
-                                break;
-                        }
-                    }
-                    m_out.print("\n");
-                    lines++;
+            logln(", burnin " + reader.burnInPercentage + "%, skipping " + reader.burnIn + " log lines\n\n" + BAR);
+        }
+        int reported = 0;
+        while (!chunk.isLast) {
+            chunk = take(reader);
+            if (!reader.isTreeLog && chunk.size > 0 && columnCount != chunk.columnCount) {
+                if (columnCount < 0) {
+                    columnCount = chunk.columnCount;
+                } else {
+                    throw new IllegalArgumentException("ERROR: The number of columns in file " + reader.fileName + " does not match that of the first file");
                 }
-                if (i % logFreq == 0 && reported < 81) {
-    				while (10000 * reported < 810000 * (i + 1)/ total) {
-    	                log("*");
-    	                reported++;
-            	    }
+            }
+            for (int i = 0; i <= chunk.size; i++) {
+                if (i == chunk.intervalAt && m_nSampleInterval < 0) {
+                    m_nSampleInterval = (int) chunk.interval;
+                }
+                if (i == chunk.size) {
+                    break;
                 }
+                if (state < 0) {
+                    state = 0;
+                } else {
+                    state += m_nSampleInterval;
+                }
+                if (reader.isTreeLog) {
+                    m_out.print("tree STATE_");
+                    m_out.print(state);
+                } else {
+                    m_out.print(state);
+                    m_out.print('\t');
+                }
+                m_out.print(chunk.lines[i]);
+                m_out.println();
+            }
+            while (reported < 81 && 10000L * reported < 810000L * (chunk.position + 1) / Math.max(1, reader.total)) {
+                log("*");
+                reported++;
             }
         }
-        logln("\n" + lines + " lines in combined log");
+        logln("");
+        return state;
     }
 
-
-    protected String format(String tree) {
-        if (m_bUseDecimalFormat) {
-            // convert scientific to decimal format
-            if (tree.matches(".*[0-9]+\\.[0-9]+[0-9-]+E[0-9-]+.*")) {
-                int k = 0;
-                while (k < tree.length()) {
-                    char c = tree.charAt(k);
-                    if (Character.isDigit(c)) {
-                        int start = k;
-                        while (++k < tree.length() && Character.isDigit(tree.charAt(k))) {
-                        }
-                        if (k < tree.length() && tree.charAt(k) == '.') {
-                            while (++k < tree.length() && Character.isDigit(tree.charAt(k))) {
-                            }
-                            if (k < tree.length() && (tree.charAt(k) == 'E' || tree.charAt(k) == 'e')) {
-                                k++;
-                                if (k < tree.length() && tree.charAt(k) == '-') {
-                                    k++;
-                                }
-                                if (k < tree.length() && Character.isDigit(tree.charAt(k))) {
-                                    while (++k < tree.length() && Character.isDigit(tree.charAt(k))) {
-                                    }
-                                    int end = k;
-                                    String number = tree.substring(start, end);
-                                    double d = Double.parseDouble(number);
-                                    number = format.format(d);
-                                    tree = tree.substring(0, start) + number + tree.substring(end);
-                                    k = start + number.length();
-                                }
-                            }
-                        }
-                    } else {
-                        k++;
-                    }
-                }
+    private Chunk take(LogReader reader) throws IOException, InterruptedException {
+        Chunk chunk = reader.queue.take();
+        if (chunk.error != null) {
+            if (chunk.error instanceof IOException) {
+                throw (IOException) chunk.error;
             }
-        } else {
-            // convert decimal to scientific format
-            if (tree.matches(".*[0-9]+\\.[0-9]+[^E-].*")) {
-                int k = 0;
-                while (k < tree.length()) {
-                    char c = tree.charAt(k);
-                    if (Character.isDigit(c)) {
-                        int start = k;
-                        while (++k < tree.length() && Character.isDigit(tree.charAt(k))) {
-                        }
-                        if (k < tree.length() && tree.charAt(k) == '.') {
-                            while (++k < tree.length() && Character.isDigit(tree.charAt(k))) {
-                            }
-                            if (k < tree.length() && tree.charAt(k) != '-' && tree.charAt(k) != 'E' && tree.charAt(k) != 'e') {
-                                int end = k;
-                                String number = tree.substring(start, end);
-                                double d = Double.parseDouble(number);
-                                number = format.format(d);
-                                tree = tree.substring(0, start) + number + tree.substring(end);
-                                k = start + number.length();
-                            }
-                        }
-                    } else {
-                        k++;
-                    }
-                }
+            if (chunk.error instanceof RuntimeException) {
+                throw (RuntimeException) chunk.error;
             }
+            throw new IOException(chunk.error);
         }
-        return tree;
+        return chunk;
     }
 
     private static String getUsage() {
@@ -498,6 +652,7 @@ public class LogCombiner extends LogAnalyser {
                 "-resample <int>  specify number of states to resample\n" +
                 "-decimal         flag to indicate numbers should converted from scientific into decimal format\n" +
                 "-renumber        flag to indicate output states should be renumbered\n" +
+                "-threads <int>   specify the number of log files read at the same time (default number of cores)\n" +
                 "-help            print this message\n";
     }
 
@@ -627,7 +782,6 @@ public class LogCombiner extends LogAnalyser {
                 } else {
                     // particle log combiner
                     combiner.combineParticleLogs();
-                    combiner.printCombinedLogs();
                 }
             }
         } catch (Exception e) {
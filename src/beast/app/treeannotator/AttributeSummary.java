@@ -0,0 +1,542 @@
+package beast.app.treeannotator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Summary of the values of one attribute (height, rate, location, trait) of a
+ * clade over a tree set, of bounded size, used instead of a list of all values
+ * when TreeAnnotator is run with summaries. Summaries of different parts of a
+ * tree set can be merged.
+ *
+ * The type of the attribute is determined by the first value, as when all values
+ * are kept, and what is stored depends on it:
+ * <ul>
+ * <li>numbers and booleans: sum, minimum and maximum, which give exact means and
+ * ranges, and a quantile sketch for medians and HPD intervals;</li>
+ * <li>strings (and integers when these are treated as discrete): the frequency of
+ * every value, which is exact;</li>
+ * <li>arrays of doubles: the above for every element, and for pairs a uniform
+ * random sample of at most capacity pairs for 2D HPD contours.</li>
+ * </ul>
+ *
+ * Error bounds: as long as at most capacity values were added, summaries are
+ * exact and annotations are the same as those obtained from all values. Beyond
+ * that, the quantile sketch keeps levels of at most capacity values, where a value
+ * at level h represents 2^h values, and a full level that receives another value
+ * is sorted and halved by keeping every other value. Every halving of level h changes the rank of any
+ * value by at most 2^h, so for n values the rank of a median or HPD bound is off
+ * by at most n * L / capacity, where L = ceil(log2(n / capacity)) is the number of
+ * levels that were halved. For capacity 1000 and 100000 trees, that is within 0.7%
+ * of the sample, and in practice much less since errors of consecutive halvings
+ * tend to cancel. 2D contours are those of a uniform sample of capacity pairs,
+ * instead of all pairs, so they carry the Monte Carlo error of that sample size.
+ */
+public class AttributeSummary {
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    public enum Type {
+        /** first value was null, so the attribute is ignored for the clade **/
+        NONE,
+        NUMBER,
+        BOOLEAN,
+        DISCRETE,
+        DOUBLE_ARRAY
+    }
+
+    final private int capacity;
+    final private boolean integersAreDiscrete;
+
+    private Type type;
+    private int count;
+
+    /** for NUMBER and BOOLEAN **/
+    private QuantileSketch sketch;
+    /** smallest and largest values that were numbers, as opposed to values taken as zero **/
+    private double minValue = Double.MAX_VALUE, maxValue = -Double.MAX_VALUE;
+
+    /** for DOUBLE_ARRAY **/
+    private QuantileSketch[] sketches;
+    private double[] minValues, maxValues;
+    private Reservoir pairs;
+
+    /** for DISCRETE **/
+    private HashMap<Object, Integer> frequencies;
+
+    /**
+     * @param capacity maximum number of values per level of the quantile sketches
+     * and of pairs for 2D contours
+     * @param integersAreDiscrete whether integer values are counted as discrete traits
+     */
+    public AttributeSummary(int capacity, boolean integersAreDiscrete) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity should be at least 2");
+        }
+        this.capacity = capacity + (capacity % 2);
+        this.integersAreDiscrete = integersAreDiscrete;
+    }
+
+    public void add(Object value) {
+        if (type == null) {
+            initType(value);
+        }
+        count++;
+        switch (type) {
+            case NONE:
+                break;
+            case DISCRETE:
+                Integer n = frequencies.get(value);
+                frequencies.put(value, n == null ? 1 : n + 1);
+                break;
+            case BOOLEAN:
+                sketch.add(Boolean.TRUE.equals(value) ? 1.0 : 0.0);
+                break;
+            case NUMBER:
+                // other (unknown) types count as zero
+                double x = 0.0;
+                if (value instanceof Number) {
+                    x = ((Number) value).doubleValue();
+                    minValue = Math.min(minValue, x);
+                    maxValue = Math.max(maxValue, x);
+                }
+                sketch.add(x);
+                break;
+            case DOUBLE_ARRAY:
+                addArray(value);
+                break;
+        }
+    }
+
+    private void initType(Object value) {
+        if (value == null) {
+            type = Type.NONE;
+        } else if (value instanceof String || (integersAreDiscrete && value instanceof Integer)) {
+            type = Type.DISCRETE;
+            frequencies = new HashMap<>();
+        } else if (value instanceof Boolean) {
+            type = Type.BOOLEAN;
+            sketch = new QuantileSketch(capacity);
+        } else if (isDoubleArray(value)) {
+            type = Type.DOUBLE_ARRAY;
+            final int length = ((Object[]) value).length;
+            sketches = new QuantileSketch[length];
+            minValues = new double[length];
+            maxValues = new double[length];
+            for (int k = 0; k < length; k++) {
+                sketches[k] = new QuantileSketch(capacity);
+                minValues[k] = Double.MAX_VALUE;
+                maxValues[k] = -Double.MAX_VALUE;
+            }
+            if (length == 2) {
+                pairs = new Reservoir(capacity);
+            }
+        } else {
+            type = Type.NUMBER;
+            sketch = new QuantileSketch(capacity);
+        }
+    }
+
+    private static boolean isDoubleArray(Object value) {
+        if (!(value instanceof Object[]) || ((Object[]) value).length == 0) {
+            return false;
+        }
+        for (Object o : (Object[]) value) {
+            if (!(o instanceof Double)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addArray(Object value) {
+        final int length = sketches.length;
+        final double[] x = new double[length];
+        // elements that are not doubles count as zero, as do the remaining ones
+        if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            for (int k = 0; k < length && k < array.length && array[k] instanceof Double; k++) {
+                x[k] = (Double) array[k];
+                minValues[k] = Math.min(minValues[k], x[k]);
+                maxValues[k] = Math.max(maxValues[k], x[k]);
+            }
+        }
+        for (int k = 0; k < length; k++) {
+            sketches[k].add(x[k]);
+        }
+        if (pairs != null) {
+            pairs.add(x[0], x[1]);
+        }
+    }
+
+    /**
+     * add values summarised by other, which should be of the same attribute
+     * and have the same capacity
+     */
+    public void merge(AttributeSummary other) {
+        if (other.type == null) {
+            return;
+        }
+        if (type == null) {
+            // take over type and allocate what is needed
+            type = other.type;
+            frequencies = other.frequencies == null ? null : new HashMap<>();
+            sketch = other.sketch == null ? null : new QuantileSketch(capacity);
+            if (other.sketches != null) {
+                sketches = new QuantileSketch[other.sketches.length];
+                minValues = new double[sketches.length];
+                maxValues = new double[sketches.length];
+                for (int k = 0; k < sketches.length; k++) {
+                    sketches[k] = new QuantileSketch(capacity);
+                    minValues[k] = Double.MAX_VALUE;
+                    maxValues[k] = -Double.MAX_VALUE;
+                }
+            }
+            pairs = other.pairs == null ? null : new Reservoir(capacity);
+        }
+        if (type != other.type) {
+            throw new IllegalArgumentException("Cannot merge summaries of type " + type + " and " + other.type);
+        }
+        count += other.count;
+        minValue = Math.min(minValue, other.minValue);
+        maxValue = Math.max(maxValue, other.maxValue);
+        if (frequencies != null) {
+            for (Map.Entry<Object, Integer> e : other.frequencies.entrySet()) {
+                Integer n = frequencies.get(e.getKey());
+                frequencies.put(e.getKey(), n == null ? e.getValue() : n + e.getValue());
+            }
+        }
+        if (sketch != null) {
+            sketch.merge(other.sketch);
+        }
+        if (sketches != null) {
+            for (int k = 0; k < sketches.length; k++) {
+                sketches[k].merge(other.sketches[k]);
+                minValues[k] = Math.min(minValues[k], other.minValues[k]);
+                maxValues[k] = Math.max(maxValues[k], other.maxValues[k]);
+            }
+        }
+        if (pairs != null) {
+            pairs.merge(other.pairs);
+        }
+    }
+
+    public Type getType() {
+        return type == null ? Type.NONE : type;
+    }
+
+    /** @return number of values added **/
+    public int getCount() {
+        return count;
+    }
+
+    /** @return number of elements of double arrays, or 0 for other types **/
+    public int getLength() {
+        return sketches == null ? 0 : sketches.length;
+    }
+
+    /** @return sketch of a NUMBER or BOOLEAN attribute **/
+    public QuantileSketch getSketch() {
+        return sketch;
+    }
+
+    /** @return sketch of element k of a DOUBLE_ARRAY attribute **/
+    public QuantileSketch getSketch(int k) {
+        return sketches[k];
+    }
+
+    /** @return whether at least two different numbers were added, ignoring values that are not numbers **/
+    public boolean varies() {
+        return minValue < maxValue;
+    }
+
+    /** @return whether element k of arrays took at least two different values **/
+    public boolean varies(int k) {
+        return minValues[k] < maxValues[k];
+    }
+
+    /** @return frequencies of values of a DISCRETE attribute **/
+    public HashMap<Object, Integer> getFrequencies() {
+        return frequencies;
+    }
+
+    /** @return sample of pairs of a DOUBLE_ARRAY attribute of length 2 as two arrays, x values and y values **/
+    public double[][] getPairs() {
+        return pairs == null ? null : pairs.get();
+    }
+
+    /**
+     * Quantile sketch of bounded size with deterministic rank error, see the
+     * class comment of AttributeSummary. Sums, minimum and maximum are exact.
+     */
+    public static class QuantileSketch {
+        final private int capacity;
+        /** values at level h represent 2^h values each; level 0 is in order of addition **/
+        private double[][] levels = new double[1][];
+        private int[] sizes = new int[1];
+        /** which of the two halves is kept at the next halving of a level, alternating to reduce error **/
+        private boolean[] keepOdd = new boolean[1];
+
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+        public QuantileSketch(int capacity) {
+            this.capacity = capacity;
+            levels[0] = new double[Math.min(8, capacity)];
+        }
+
+        public void add(double x) {
+            count++;
+            sum += x;
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+            append(0, x);
+        }
+
+        private void append(int level, double x) {
+            if (level == levels.length) {
+                levels = Arrays.copyOf(levels, level + 1);
+                sizes = Arrays.copyOf(sizes, level + 1);
+                keepOdd = Arrays.copyOf(keepOdd, level + 1);
+                levels[level] = new double[capacity];
+            }
+            double[] values = levels[level];
+            if (sizes[level] == capacity) {
+                // only halve a full level once it overflows, so capacity values are kept exactly
+                compact(level);
+            } else if (sizes[level] == values.length) {
+                values = Arrays.copyOf(values, Math.min(capacity, 2 * values.length));
+                levels[level] = values;
+            }
+            values[sizes[level]++] = x;
+        }
+
+        /** halve a full level by moving every other value in sorted order to the next level **/
+        private void compact(int level) {
+            final double[] values = levels[level];
+            final int size = sizes[level];
+            Arrays.sort(values, 0, size);
+            sizes[level] = 0;
+            for (int i = keepOdd[level] ? 1 : 0; i < size; i += 2) {
+                append(level + 1, values[i]);
+            }
+            keepOdd[level] = !keepOdd[level];
+        }
+
+        public void merge(QuantileSketch other) {
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            for (int h = 0; h < other.levels.length; h++) {
+                for (int i = 0; i < other.sizes[h]; i++) {
+                    append(h, other.levels[h][i]);
+                }
+            }
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return sum / count;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        /** @return whether no values were discarded, so all values are available **/
+        public boolean isExact() {
+            return levels.length == 1 && sizes[0] == count;
+        }
+
+        /**
+         * @return values held by the sketch: all values in order of addition if the
+         * sketch is exact, otherwise a sample in which values count with different weights
+         */
+        public double[] getValues() {
+            int size = 0;
+            for (int h = 0; h < levels.length; h++) {
+                size += sizes[h];
+            }
+            double[] values = new double[size];
+            int k = 0;
+            for (int h = 0; h < levels.length; h++) {
+                System.arraycopy(levels[h], 0, values, k, sizes[h]);
+                k += sizes[h];
+            }
+            return values;
+        }
+
+        /** values in sorted order in values[0], with their weights in values[1] **/
+        private double[][] sortedValues() {
+            final double[] values = getValues();
+            final double[] weights = new double[values.length];
+            int k = 0;
+            for (int h = 0; h < levels.length; h++) {
+                Arrays.fill(weights, k, k + sizes[h], Math.pow(2, h));
+                k += sizes[h];
+            }
+            Integer[] order = new Integer[values.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (i, j) -> Double.compare(values[i], values[j]));
+            double[][] sorted = new double[2][values.length];
+            for (int i = 0; i < order.length; i++) {
+                sorted[0][i] = values[order[i]];
+                sorted[1][i] = weights[order[i]];
+            }
+            return sorted;
+        }
+
+        /** @return value of given (zero based) rank among all values added, approximately **/
+        private static double valueAtRank(double[][] sorted, double rank) {
+            double cumulative = 0;
+            for (int i = 0; i < sorted[0].length; i++) {
+                cumulative += sorted[1][i];
+                if (cumulative > rank) {
+                    return sorted[0][i];
+                }
+            }
+            return sorted[0][sorted[0].length - 1];
+        }
+
+        /** @return median, defined as for DiscreteStatistics.median **/
+        public double getMedian() {
+            final double[][] sorted = sortedValues();
+            final long pos = count / 2;
+            if (count % 2 == 1) {
+                return valueAtRank(sorted, pos);
+            }
+            return (valueAtRank(sorted, pos - 1) + valueAtRank(sorted, pos)) / 2.0;
+        }
+
+        /**
+         * @return lower and upper bound of the shortest interval containing a fraction
+         * hpd of the values, defined as by TreeAnnotator for all values
+         */
+        public double[] getHPD(double hpd) {
+            final double[][] sorted = sortedValues();
+            final double[] values = sorted[0];
+            final double[] weights = sorted[1];
+            final long diff = Math.round(hpd * count);
+            double minRange = Double.MAX_VALUE;
+            int lower = 0, upper = values.length - 1;
+            // window from i to j contains total weight of values i..j
+            int j = -1;
+            double inWindow = 0;
+            for (int i = 0; i < values.length; i++) {
+                while (inWindow < diff && j < values.length - 1) {
+                    j++;
+                    inWindow += weights[j];
+                }
+                if (inWindow < diff) {
+                    break;
+                }
+                final double range = Math.abs(values[j] - values[i]);
+                if (range < minRange) {
+                    minRange = range;
+                    lower = i;
+                    upper = j;
+                }
+                inWindow -= weights[i];
+            }
+            return new double[]{values[lower], values[upper]};
+        }
+    }
+
+    /** uniform random sample of pairs of bounded size (algorithm R) **/
+    static class Reservoir {
+        final private int capacity;
+        private double[] x = new double[8], y = new double[8];
+        private int size;
+        private long count;
+        /** state of a SplitMix64 generator, with a fixed seed so output is reproducible **/
+        private long state = 0x5DEECE66DL;
+
+        Reservoir(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void add(double x0, double y0) {
+            count++;
+            if (size < capacity) {
+                append(x0, y0);
+            } else {
+                final long i = nextLong(count);
+                if (i < capacity) {
+                    x[(int) i] = x0;
+                    y[(int) i] = y0;
+                }
+            }
+        }
+
+        private void append(double x0, double y0) {
+            if (size == x.length) {
+                x = Arrays.copyOf(x, Math.min(capacity, 2 * size));
+                y = Arrays.copyOf(y, x.length);
+            }
+            x[size] = x0;
+            y[size] = y0;
+            size++;
+        }
+
+        /**
+         * Merge with another sample by drawing from both in proportion to the number
+         * of pairs they represent, once the combined samples exceed the capacity.
+         * The other sample is not changed.
+         */
+        void merge(Reservoir other) {
+            if (size + other.size <= capacity) {
+                for (int i = 0; i < other.size; i++) {
+                    append(other.x[i], other.y[i]);
+                }
+                count += other.count;
+                return;
+            }
+            shuffle();
+            final long total = count + other.count;
+            int fromOther = (int) Math.min(other.size, Math.round((double) capacity * other.count / total));
+            int fromThis = Math.min(size, capacity - fromOther);
+            fromOther = Math.min(other.size, capacity - fromThis);
+            size = fromThis;
+            // selection sampling, so other is left unchanged
+            for (int i = 0; i < other.size && fromOther > 0; i++) {
+                if (nextLong(other.size - i) < fromOther) {
+                    append(other.x[i], other.y[i]);
+                    fromOther--;
+                }
+            }
+            count = total;
+        }
+
+        private void shuffle() {
+            for (int i = size - 1; i > 0; i--) {
+                final int j = (int) nextLong(i + 1);
+                double tmp = x[i]; x[i] = x[j]; x[j] = tmp;
+                tmp = y[i]; y[i] = y[j]; y[j] = tmp;
+            }
+        }
+
+        /** @return random number in [0, n) **/
+        private long nextLong(long n) {
+            long z = (state += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z = z ^ (z >>> 31);
+            return Math.floorMod(z, n);
+        }
+
+        double[][] get() {
+            return new double[][]{Arrays.copyOf(x, size), Arrays.copyOf(y, size)};
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package beast.app.treeannotator;
+
+import java.util.BitSet;
+
+/**
+ * Immutable set of bits identifying a clade in a CladeSystem, packed in a long[]
+ * without trailing zero words, with a precomputed 64 bit hash.
+ *
+ * The hash is the XOR of a pseudo random 64 bit value for each bit in the set,
+ * so the hash of the union of two disjoint sets, like the taxa below the
+ * children of a node, is the XOR of their hashes and can be computed in
+ * constant time. Clades are looked up with a reusable Builder, which can serve
+ * as key for HashMap.get, so no objects are created for clades already seen.
+ */
+public final class CladeKey {
+	final long[] words;
+	final long hash;
+
+	private CladeKey(long[] words, long hash) {
+		this.words = words;
+		this.hash = hash;
+	}
+
+	public static CladeKey valueOf(BitSet bits) {
+		long[] words = bits.toLongArray();
+		long hash = 0;
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			hash ^= bitHash(i);
+		}
+		return new CladeKey(words, hash);
+	}
+
+	public BitSet toBitSet() {
+		return BitSet.valueOf(words);
+	}
+
+	/** @return number of bits in the set **/
+	public int cardinality() {
+		int count = 0;
+		for (long w : words) {
+			count += Long.bitCount(w);
+		}
+		return count;
+	}
+
+	/** pseudo random value for a bit (SplitMix64 finaliser) **/
+	static long bitHash(int bit) {
+		long z = (bit + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o instanceof CladeKey) {
+			CladeKey other = (CladeKey) o;
+			return hash == other.hash && sameWords(other.words, other.words.length, words);
+		}
+		if (o instanceof Builder) {
+			return ((Builder) o).equals(this);
+		}
+		return false;
+	}
+
+	private static boolean sameWords(long[] words, int length, long[] keyWords) {
+		if (length != keyWords.length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (words[i] != keyWords[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return toBitSet().toString();
+	}
+
+	/**
+	 * Mutable bit set with the same hash and equality as CladeKey,
+	 * for building keys without allocating objects.
+	 */
+	static final class Builder {
+		long[] words = new long[1];
+		/** number of words in use, the last of which is non-zero **/
+		int length;
+		long hash;
+
+		void clear() {
+			for (int i = 0; i < length; i++) {
+				words[i] = 0;
+			}
+			length = 0;
+			hash = 0;
+		}
+
+		void set(int bit) {
+			final int w = bit >>> 6;
+			if (w >= words.length) {
+				grow(w + 1);
+			}
+			final long mask = 1L << bit;
+			if ((words[w] & mask) == 0) {
+				words[w] |= mask;
+				hash ^= bitHash(bit);
+				if (w >= length) {
+					length = w + 1;
+				}
+			}
+		}
+
+		void clear(int bit) {
+			final int w = bit >>> 6;
+			final long mask = 1L << bit;
+			if (w < length && (words[w] & mask) != 0) {
+				words[w] &= ~mask;
+				hash ^= bitHash(bit);
+				while (length > 0 && words[length - 1] == 0) {
+					length--;
+				}
+			}
+		}
+
+		/** add all bits of other, which is usually disjoint from this set **/
+		void or(Builder other) {
+			if (other.length > words.length) {
+				grow(other.length);
+			}
+			boolean disjoint = true;
+			for (int i = 0; i < other.length; i++) {
+				disjoint &= (words[i] & other.words[i]) == 0;
+				words[i] |= other.words[i];
+			}
+			if (other.length > length) {
+				length = other.length;
+			}
+			if (disjoint) {
+				hash ^= other.hash;
+			} else {
+				hash = 0;
+				for (int i = 0; i < length; i++) {
+					for (long w = words[i]; w != 0; w &= w - 1) {
+						hash ^= bitHash(64 * i + Long.numberOfTrailingZeros(w));
+					}
+				}
+			}
+		}
+
+		/** add all bits of this set to bits, leaving this set unchanged **/
+		void orInto(BitSet bits) {
+			for (int i = 0; i < length; i++) {
+				for (long w = words[i]; w != 0; w &= w - 1) {
+					bits.set(64 * i + Long.numberOfTrailingZeros(w));
+				}
+			}
+		}
+
+		private void grow(int size) {
+			long[] tmp = new long[Math.max(size, 2 * words.length)];
+			System.arraycopy(words, 0, tmp, 0, words.length);
+			words = tmp;
+		}
+
+		CladeKey toKey() {
+			long[] keyWords = new long[length];
+			System.arraycopy(words, 0, keyWords, 0, length);
+			return new CladeKey(keyWords, hash);
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (hash ^ (hash >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof CladeKey) {
+				CladeKey key = (CladeKey) o;
+				return hash == key.hash && sameWords(words, length, key.words);
+			}
+			return this == o;
+		}
+	}
+}
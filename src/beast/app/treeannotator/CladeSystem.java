@@ -1,8 +1,12 @@
 package beast.app.treeannotator;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -17,7 +21,25 @@ import beast.evolution.tree.Tree;
 public class CladeSystem {
 	private boolean processSA = true;
 
-    protected Map<BitSet, Clade> cladeMap = new HashMap<>();
+    /** if positive, clades keep AttributeSummaries of this capacity instead of all attribute values **/
+    private int summaryCapacity = 0;
+    private boolean integersAreDiscrete = false;
+
+    /** clades by their key, which contains bit 2i for taxon i and bit 2i+1 for sampled ancestor i **/
+    private final Map<CladeKey, Clade> cladesByKey = new HashMap<>();
+
+    /**
+     * clades keyed by BitSets as before clade keys were introduced, with bit 2i for
+     * taxon i and bit 2i+1 for sampled ancestor i. This is a view of the clades, so
+     * changes to it change the clade system, but every access converts between
+     * BitSets and keys.
+     * @deprecated use getClade(BitSet) for lookups
+     */
+    @Deprecated
+    protected Map<BitSet, Clade> cladeMap = new BitSetCladeMap();
+
+    /** per node bits of the taxa below it, reused between trees to avoid allocating keys **/
+    private static final ThreadLocal<CladeKey.Builder[]> scratch = ThreadLocal.withInitial(() -> new CladeKey.Builder[0]);
 
     public CladeSystem() { }
 
@@ -25,104 +47,146 @@ public class CladeSystem {
         add(targetTree, true);
     }
 
+    /** visitor of the clades of a tree, used by traverse **/
+    private interface CladeVisitor {
+        /**
+         * @param node root of the clade
+         * @param key bits of the clade, which should not be modified and is only valid during the call
+         */
+        void visit(Node node, CladeKey.Builder key);
+    }
+
     /**
-     * adds all the clades in the tree
+     * Recurse over the tree, computing clade keys of every node without
+     * allocating objects, and call the visitor for every internal node,
+     * and for the leafs if includeTips is true.
+     * @return bits of the root clade, valid till the next traversal on this thread
      */
-    public void add(Tree tree, boolean includeTips) {
-        // Recurse over the tree and add all the clades (or increment their
-        // frequency if already present). The root clade is added too (for
-        // annotation purposes).
-        addClades(tree.getRoot(), includeTips);
+    private CladeKey.Builder traverse(Tree tree, boolean includeTips, CladeVisitor visitor) {
+        return traverse(tree.getRoot(), includeTips, visitor);
     }
 
-    private BitSet addClades(Node node, boolean includeTips) {
+    private CladeKey.Builder traverse(Node root, boolean includeTips, CladeVisitor visitor) {
+        CladeKey.Builder[] keys = scratch.get();
+        int nodeCount = getMaxNodeNr(root) + 1;
+        if (keys.length > 4 * nodeCount + 64) {
+            // do not hold on to the keys of a much larger tree traversed earlier by this thread
+            keys = Arrays.copyOf(keys, nodeCount);
+            scratch.set(keys);
+        } else if (keys.length < nodeCount) {
+            CladeKey.Builder[] tmp = new CladeKey.Builder[nodeCount];
+            System.arraycopy(keys, 0, tmp, 0, keys.length);
+            for (int i = keys.length; i < nodeCount; i++) {
+                tmp[i] = new CladeKey.Builder();
+            }
+            keys = tmp;
+            scratch.set(keys);
+        }
+        traverse(root, includeTips, visitor, keys);
+        return keys[root.getNr()];
+    }
 
-        BitSet bits = new BitSet();
+    private int getMaxNodeNr(Node node) {
+        int max = node.getNr();
+        for (int i = 0; i < node.getChildCount(); i++) {
+            max = Math.max(max, getMaxNodeNr(node.getChild(i)));
+        }
+        return max;
+    }
 
+    /**
+     * Leaves keys[node.getNr()] with the taxon bits of the clade, and the
+     * sampled ancestor bit of the node itself.
+     */
+    private void traverse(Node node, boolean includeTips, CladeVisitor visitor, CladeKey.Builder[] keys) {
+        final CladeKey.Builder key = keys[node.getNr()];
         if (node.isLeaf()) {
-
-            int index = getTaxonIndex(node);
-            bits.set(2*index);
-
+            final int index = getTaxonIndex(node);
+            if (index < 0) {
+                throw new IllegalArgumentException("Taxon, " + node.getID() + ", not found in target tree");
+            }
+            key.clear();
+            key.set(2 * index);
             if (includeTips) {
-                addClade(bits);
+                visitor.visit(node, key);
             }
-
         } else {
-
             for (int i = 0; i < node.getChildCount(); i++) {
-
-                Node node1 = node.getChild(i);
-
-                bits.or(addClades(node1, includeTips));
+                traverse(node.getChild(i), includeTips, visitor, keys);
             }
-
-            for (int i=1; i<bits.length(); i=i+2) {
-                bits.set(i, false);
+            key.clear();
+            for (int i = 0; i < node.getChildCount(); i++) {
+                final Node child = node.getChild(i);
+                final CladeKey.Builder childKey = keys[child.getNr()];
+                if (!child.isLeaf() && child.isFake() && processSA) {
+                    // sampled ancestor bits only apply to the clade of the node itself
+                    childKey.clear(2 * getTaxonIndex(child.getDirectAncestorChild()) + 1);
+                }
+                key.or(childKey);
             }
             if (node.isFake() && processSA) {
-                int index = getTaxonIndex(node.getDirectAncestorChild());
-                bits.set(2 * index + 1);
+                key.set(2 * getTaxonIndex(node.getDirectAncestorChild()) + 1);
             }
-            addClade(bits);
+            visitor.visit(node, key);
         }
+    }
 
-        return bits;
+    /**
+     * adds all the clades in the tree
+     */
+    public void add(Tree tree, boolean includeTips) {
+        // Recurse over the tree and add all the clades (or increment their
+        // frequency if already present). The root clade is added too (for
+        // annotation purposes).
+        traverse(tree, includeTips, (node, key) -> addClade(key));
     }
 
-    private void addClade(BitSet bits) {
-        Clade clade = cladeMap.get(bits);
+    private void addClade(CladeKey.Builder key) {
+        Clade clade = cladesByKey.get(key);
         if (clade == null) {
-            clade = new Clade(bits);
-            cladeMap.put(bits, clade);
+            clade = new Clade(key.toKey());
+            cladesByKey.put(clade.key, clade);
         }
         clade.setCount(clade.getCount() + 1);
     }
 
-    public void collectAttributes(Tree tree, Set<String> attributeNames) {
-        collectAttributes(tree.getRoot(), attributeNames);
-    }
-
-    private BitSet collectAttributes(Node node, Set<String> attributeNames) {
-
-        BitSet bits = new BitSet();
-
-        if (node.isLeaf()) {
-
-            int index = getTaxonIndex(node);
-            if (index < 0) {
-                throw new IllegalArgumentException("Taxon, " + node.getID() + ", not found in target tree");
-            }
-            bits.set(2*index);
-
-        } else {
-
-            for (int i = 0; i < node.getChildCount(); i++) {
-
-                Node node1 = node.getChild(i);
-
-                bits.or(collectAttributes(node1, attributeNames));
-            }
-
-            for (int i=1; i<bits.length(); i=i+2) {
-                bits.set(i, false);
+    /**
+     * add clade counts of another clade system, for instance one filled by
+     * another thread from a different part of the tree set
+     */
+    public void addAll(CladeSystem other) {
+        for (Map.Entry<CladeKey, Clade> entry : other.cladesByKey.entrySet()) {
+            Clade clade = cladesByKey.get(entry.getKey());
+            if (clade == null) {
+                clade = new Clade(entry.getKey());
+                cladesByKey.put(entry.getKey(), clade);
             }
-            if (node.isFake() && processSA) {
-                int index = getTaxonIndex(node.getDirectAncestorChild());
-                bits.set(2 * index + 1);
+            clade.setCount(clade.getCount() + entry.getValue().getCount());
+            final AttributeSummary[] summaries = entry.getValue().attributeSummaries;
+            if (summaries != null) {
+                if (clade.attributeSummaries == null) {
+                    clade.attributeSummaries = newSummaries(summaries.length);
+                }
+                for (int i = 0; i < summaries.length; i++) {
+                    clade.attributeSummaries[i].merge(summaries[i]);
+                }
             }
         }
+    }
 
-        collectAttributesForClade(bits, node, attributeNames);
-
-        return bits;
+    public void collectAttributes(Tree tree, Set<String> attributeNames) {
+        traverse(tree, true, (node, key) -> collectAttributesForClade(key, node, attributeNames));
     }
 
-    private void collectAttributesForClade(BitSet bits, Node node, Set<String> attributeNames) {
-        Clade clade = cladeMap.get(bits);
+    private void collectAttributesForClade(CladeKey.Builder key, Node node, Set<String> attributeNames) {
+        Clade clade = cladesByKey.get(key);
         if (clade != null) {
 
-            if (clade.attributeValues == null) {
+            if (summaryCapacity > 0) {
+                if (clade.attributeSummaries == null) {
+                    clade.attributeSummaries = newSummaries(attributeNames.size());
+                }
+            } else if (clade.attributeValues == null) {
                 clade.attributeValues = new ArrayList<>();
             }
 
@@ -150,12 +214,26 @@ public class CladeSystem {
 
                 i++;
             }
-            clade.attributeValues.add(values);
+            if (summaryCapacity > 0) {
+                for (i = 0; i < values.length; i++) {
+                    clade.attributeSummaries[i].add(values[i]);
+                }
+            } else {
+                clade.attributeValues.add(values);
+            }
 
             clade.setCount(clade.getCount() + 1);
         }
     }
 
+    private AttributeSummary[] newSummaries(int attributeCount) {
+        AttributeSummary[] summaries = new AttributeSummary[attributeCount];
+        for (int i = 0; i < attributeCount; i++) {
+            summaries[i] = new AttributeSummary(summaryCapacity, integersAreDiscrete);
+        }
+        return summaries;
+    }
+
     private Object getBranchLength(Node node) {
         if (node.isRoot()) {
             return 0;
@@ -163,12 +241,28 @@ public class CladeSystem {
         return node.getParent().getHeight() - node.getHeight();
     }
 
+    /**
+     * @return clades keyed by BitSets, with bit 2i for taxon i and bit 2i+1 for
+     * sampled ancestor i. This is a view of the clades, which can be modified as
+     * before, but converts between BitSets and clade keys on every access. Use
+     * getClade(BitSet) to look up a single clade.
+     */
     public Map<BitSet, Clade> getCladeMap() {
         return cladeMap;
     }
 
+    /** @return number of distinct clades **/
+    public int getCladeCount() {
+        return cladesByKey.size();
+    }
+
+    /** @return clade with bits as in getCladeMap, or null if there is no such clade **/
+    public Clade getClade(BitSet bits) {
+        return cladesByKey.get(CladeKey.valueOf(bits));
+    }
+
     public void calculateCladeCredibilities(int totalTreesUsed) {
-        for (Clade clade : cladeMap.values()) {
+        for (Clade clade : cladesByKey.values()) {
 
             if (clade.getCount() > totalTreesUsed) {
 
@@ -180,82 +274,34 @@ public class CladeSystem {
         }
     }
 
+    /**
+     * @return sum of credibilities of the clades in the subtree below node
+     * @param bits if not null, bits of the clade of node are added to it
+     */
     public double getSumCladeCredibility(Node node, BitSet bits) {
-
-        double sum = 0.0;
-
-        if (node.isLeaf()) {
-
-            int index = getTaxonIndex(node);
-            bits.set(2*index);
-        } else {
-
-            BitSet bits2 = new BitSet();
-            for (int i = 0; i < node.getChildCount(); i++) {
-
-                Node node1 = node.getChild(i);
-
-                sum += getSumCladeCredibility(node1, bits2);
-            }
-
-            for (int i=1; i<bits2.length(); i=i+2) {
-                bits2.set(i, false);
-            }
-
-            if (node.isFake() && processSA) {
-                int index = getTaxonIndex(node.getDirectAncestorChild());
-                bits2.set(2 * index + 1);
-            }
-
-            sum += getCladeCredibility(bits2);
-
-            if (bits != null) {
-                bits.or(bits2);
-            }
+        final double[] sum = new double[1];
+        CladeKey.Builder key = traverse(node, false, (node1, key1) -> sum[0] += getCladeCredibility(key1));
+        if (bits != null) {
+            key.orInto(bits);
         }
-
-        return sum;
+        return sum[0];
     }
 
+    /**
+     * @return sum of log credibilities of the clades in the subtree below node
+     * @param bits if not null, bits of the clade of node are added to it
+     */
     public double getLogCladeCredibility(Node node, BitSet bits) {
-
-        double logCladeCredibility = 0.0;
-
-        if (node.isLeaf()) {
-
-            int index = getTaxonIndex(node);
-            bits.set(2*index);
-        } else {
-
-            BitSet bits2 = new BitSet();
-            for (int i = 0; i < node.getChildCount(); i++) {
-
-                Node node1 = node.getChild(i);
-
-                logCladeCredibility += getLogCladeCredibility(node1, bits2);
-            }
-
-            for (int i=1; i<bits2.length(); i=i+2) {
-                bits2.set(i, false);
-            }
-
-            if (node.isFake() && processSA) {
-                int index = getTaxonIndex(node.getDirectAncestorChild());
-                bits2.set(2 * index + 1);
-            }
-
-            logCladeCredibility += Math.log(getCladeCredibility(bits2));
-
-            if (bits != null) {
-                bits.or(bits2);
-            }
+        final double[] logCladeCredibility = new double[1];
+        CladeKey.Builder key = traverse(node, false, (node1, key1) -> logCladeCredibility[0] += Math.log(getCladeCredibility(key1)));
+        if (bits != null) {
+            key.orInto(bits);
         }
-
-        return logCladeCredibility;
+        return logCladeCredibility[0];
     }
 
-    private double getCladeCredibility(BitSet bits) {
-        Clade clade = cladeMap.get(bits);
+    private double getCladeCredibility(CladeKey.Builder key) {
+        Clade clade = cladesByKey.get(key);
         if (clade == null) {
             return 0.0;
         }
@@ -263,43 +309,14 @@ public class CladeSystem {
     }
 
     public BitSet removeClades(Node node, boolean includeTips) {
-
+        CladeKey.Builder key = traverse(node, includeTips, (node1, key1) -> removeClade(key1));
         BitSet bits = new BitSet();
-
-        if (node.isLeaf()) {
-
-            int index = getTaxonIndex(node);
-            bits.set(2*index);
-
-            if (includeTips) {
-                removeClade(bits);
-            }
-
-        } else {
-
-            for (int i = 0; i < node.getChildCount(); i++) {
-
-                Node node1 = node.getChild(i);
-
-                bits.or(removeClades(node1, includeTips));
-            }
-
-            for (int i=1; i<bits.length(); i=i+2) {
-                bits.set(i, false);
-            }
-            if (node.isFake() && processSA) {
-                int index = getTaxonIndex(node.getDirectAncestorChild());
-                bits.set(2 * index + 1);
-            }
-
-            removeClade(bits);
-        }
-
+        key.orInto(bits);
         return bits;
     }
 
-    private void removeClade(BitSet bits) {
-        Clade clade = cladeMap.get(bits);
+    private void removeClade(CladeKey.Builder key) {
+        Clade clade = cladesByKey.get(key);
         if (clade != null) {
             clade.setCount(clade.getCount() - 1);
         }
@@ -334,9 +351,86 @@ public class CladeSystem {
         return node.getNr();
     }
 
+    /** clades keyed by BitSets, backed by cladesByKey **/
+    private class BitSetCladeMap extends AbstractMap<BitSet, Clade> {
+        @Override
+        public int size() {
+            return cladesByKey.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Clade get(Object key) {
+            return key instanceof BitSet ? cladesByKey.get(CladeKey.valueOf((BitSet) key)) : null;
+        }
+
+        @Override
+        public Clade put(BitSet key, Clade clade) {
+            return cladesByKey.put(CladeKey.valueOf(key), clade);
+        }
+
+        @Override
+        public Clade remove(Object key) {
+            return key instanceof BitSet ? cladesByKey.remove(CladeKey.valueOf((BitSet) key)) : null;
+        }
+
+        @Override
+        public void clear() {
+            cladesByKey.clear();
+        }
+
+        @Override
+        public Set<Map.Entry<BitSet, Clade>> entrySet() {
+            return new AbstractSet<Map.Entry<BitSet, Clade>>() {
+                @Override
+                public Iterator<Map.Entry<BitSet, Clade>> iterator() {
+                    final Iterator<Map.Entry<CladeKey, Clade>> iterator = cladesByKey.entrySet().iterator();
+                    return new Iterator<Map.Entry<BitSet, Clade>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<BitSet, Clade> next() {
+                            final Map.Entry<CladeKey, Clade> entry = iterator.next();
+                            return new SimpleEntry<BitSet, Clade>(entry.getKey().toBitSet(), entry.getValue()) {
+                                private static final long serialVersionUID = 1L;
+
+                                @Override
+                                public Clade setValue(Clade clade) {
+                                    super.setValue(clade);
+                                    return entry.setValue(clade);
+                                }
+                            };
+                        }
+
+                        @Override
+                        public void remove() {
+                            iterator.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return cladesByKey.size();
+                }
+            };
+        }
+    }
+
     public class Clade {
         public Clade(BitSet bits) {
-            this.bits = bits;
+            this(CladeKey.valueOf(bits));
+        }
+
+        Clade(CladeKey key) {
+            this.key = key;
             count = 0;
             credibility = 0.0;
         }
@@ -361,6 +455,19 @@ public class CladeSystem {
             return attributeValues;
         }
 
+        /** @return summaries of attribute values, or null if all values are kept **/
+        public AttributeSummary[] getAttributeSummaries() {
+            return attributeSummaries;
+        }
+
+        public BitSet getBits() {
+            return key.toBitSet();
+        }
+
+        public CladeKey getKey() {
+            return key;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -368,28 +475,40 @@ public class CladeSystem {
 
             final Clade clade = (Clade) o;
 
-            return !(bits != null ? !bits.equals(clade.bits) : clade.bits != null);
+            return key.equals(clade.key);
 
         }
 
         @Override
         public int hashCode() {
-            return (bits != null ? bits.hashCode() : 0);
+            return key.hashCode();
         }
 
         @Override
         public String toString() {
-            return "clade " + bits.toString() + " #" + count;
+            return "clade " + key.toString() + " #" + count;
         }
 
         int count;
         double credibility;
-        BitSet bits;
+        final CladeKey key;
         List<Object[]> attributeValues = null;
+        AttributeSummary[] attributeSummaries = null;
     }
 
 	public void setProcessSA(boolean processSA) {
 		this.processSA = processSA;
 	}
 
+	/**
+	 * Keep bounded summaries of attribute values per clade instead of all values
+	 * when collecting attributes, see AttributeSummary.
+	 * @param capacity capacity of the summaries, or 0 to keep all values
+	 * @param integersAreDiscrete whether integer attributes are discrete traits
+	 */
+	public void setAttributeSummaries(int capacity, boolean integersAreDiscrete) {
+		this.summaryCapacity = capacity;
+		this.integersAreDiscrete = integersAreDiscrete;
+	}
+
 }
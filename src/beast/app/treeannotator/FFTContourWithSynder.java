@@ -0,0 +1,159 @@
+package beast.app.treeannotator;
+
+import beast.math.FFT;
+
+/**
+ * ContourWithSynder with the kernel density estimate computed by binning the
+ * observations on a grid and convolving the bins with the kernel through fast
+ * Fourier transforms, which takes time proportional to the number of observations
+ * plus the grid size, instead of their product.
+ *
+ * Observations are linearly binned on a grid REFINEMENT times finer than the
+ * output grid. Since the Gaussian kernel is separable, the bins are convolved
+ * along y and then along x. The result differs from the direct sum by the binning
+ * error, which is of order (grid spacing / REFINEMENT / bandwidth)^2 relative to the
+ * density, so well below a percent for the default grid and bandwidths.
+ * When observations fall outside the grid, or there are so few that summing is
+ * faster, the direct sum is used.
+ */
+public class FFTContourWithSynder extends ContourWithSynder {
+
+    /** number of bins per grid cell in each dimension **/
+    final static int REFINEMENT = 4;
+
+    public FFTContourWithSynder(final double[] x, final double[] y, final double[] h, final int n, final double[] lims) {
+        super(x, y, h, n, lims);
+    }
+
+    public FFTContourWithSynder(final double[] x, final double[] y, boolean bandwidthLimit) {
+        super(x, y, bandwidthLimit);
+    }
+
+    public FFTContourWithSynder(final double[] x, final double[] y) {
+        super(x, y);
+    }
+
+    @Override
+    protected double[][] density(final double[] gx, final double[] gy, final double[] x, final double[] y, final double[] h) {
+        final int nGridX = gx.length, nGridY = gy.length;
+        if (nGridX < 2 || nGridY < 2 || !(h[0] > 0) || !(h[1] > 0) ||
+                !(gx[1] > gx[0]) || !(gy[1] > gy[0]) ||
+                !inside(x, gx) || !inside(y, gy)) {
+            return super.density(gx, gy, x, y, h);
+        }
+        final int nx = (nGridX - 1) * REFINEMENT + 1;
+        final int ny = (nGridY - 1) * REFINEMENT + 1;
+        if ((double) x.length * nGridX * nGridY < 2 * (fftCost(ny) * nx + fftCost(nx) * nGridY)) {
+            // few observations, summing is faster
+            return super.density(gx, gy, x, y, h);
+        }
+        final double dx = (gx[nGridX - 1] - gx[0]) / (nGridX - 1) / REFINEMENT;
+        final double dy = (gy[nGridY - 1] - gy[0]) / (nGridY - 1) / REFINEMENT;
+
+        // linear binning
+        final double[][] bins = new double[nx][ny];
+        for (int k = 0; k < x.length; k++) {
+            final double fx = (x[k] - gx[0]) / dx;
+            final double fy = (y[k] - gy[0]) / dy;
+            final int i = Math.min(nx - 2, (int) fx);
+            final int j = Math.min(ny - 2, (int) fy);
+            final double tx = fx - i;
+            final double ty = fy - j;
+            bins[i][j] += (1 - tx) * (1 - ty);
+            bins[i + 1][j] += tx * (1 - ty);
+            bins[i][j + 1] += (1 - tx) * ty;
+            bins[i + 1][j + 1] += tx * ty;
+        }
+
+        // convolve along y, keeping only columns of the output grid
+        final Convolution convolutionY = new Convolution(ny, dy / h[1]);
+        final double[][] smoothY = new double[nx][];
+        for (int i = 0; i < nx; i++) {
+            smoothY[i] = convolutionY.apply(bins[i], REFINEMENT);
+        }
+
+        // convolve along x, keeping only rows of the output grid
+        final Convolution convolutionX = new Convolution(nx, dx / h[0]);
+        final double scale = x.length * h[0] * h[1];
+        final double[][] z = new double[nGridX][nGridY];
+        final double[] column = new double[nx];
+        for (int j = 0; j < nGridY; j++) {
+            for (int i = 0; i < nx; i++) {
+                column[i] = smoothY[i][j];
+            }
+            final double[] smooth = convolutionX.apply(column, REFINEMENT);
+            for (int i = 0; i < nGridX; i++) {
+                z[i][j] = smooth[i] / scale;
+            }
+        }
+        return z;
+    }
+
+    /** @return approximate number of operations for convolving a sequence of given length **/
+    private static double fftCost(int length) {
+        final int size = FFT.size(2 * length - 1);
+        return 2.0 * size * Integer.numberOfTrailingZeros(size);
+    }
+
+    private static boolean inside(double[] values, double[] grid) {
+        final double min = grid[0], max = grid[grid.length - 1];
+        for (double v : values) {
+            if (!(v >= min && v <= max)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * linear convolution of sequences of fixed length with a standard normal
+     * density evaluated at multiples of a step, by FFT with zero padding
+     */
+    static class Convolution {
+        final int length;
+        /** FFT size, a power of 2 of at least 2 * length - 1 so the result does not wrap around **/
+        final int size;
+        final double[] kernelRe, kernelIm;
+        final double[] re, im;
+
+        Convolution(int length, double step) {
+            this.length = length;
+            size = FFT.size(2 * length - 1);
+            kernelRe = new double[size];
+            kernelIm = new double[size];
+            for (int d = 0; d < length; d++) {
+                final double k = KernelDensityEstimator2D.pdf(d * step, 0, 1);
+                kernelRe[d] = k;
+                if (d > 0) {
+                    kernelRe[size - d] = k;
+                }
+            }
+            FFT.transform(kernelRe, kernelIm, false);
+            re = new double[size];
+            im = new double[size];
+        }
+
+        /** @return every stride-th element of the convolution of values with the kernel **/
+        double[] apply(double[] values, int stride) {
+            System.arraycopy(values, 0, re, 0, length);
+            for (int i = length; i < size; i++) {
+                re[i] = 0;
+            }
+            for (int i = 0; i < size; i++) {
+                im[i] = 0;
+            }
+            FFT.transform(re, im, false);
+            for (int i = 0; i < size; i++) {
+                final double r = re[i] * kernelRe[i] - im[i] * kernelIm[i];
+                im[i] = re[i] * kernelIm[i] + im[i] * kernelRe[i];
+                re[i] = r;
+            }
+            FFT.transform(re, im, true);
+            final double[] result = new double[(length - 1) / stride + 1];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = re[i * stride] / size;
+            }
+            return result;
+        }
+    }
+}
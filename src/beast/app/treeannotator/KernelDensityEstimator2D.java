@@ -89,14 +89,24 @@ public class KernelDensityEstimator2D implements ContourMaker {
     public void doKDE2D() {
         gx = makeSequence(lims[0], lims[1], n);
         gy = makeSequence(lims[2], lims[3], n);
+        z = density(gx, gy, x, y, h);
+    }
+
+    /**
+     * @return kernel density estimate at the grid points gx x gy, here obtained by
+     * summing the kernels of all observations at every grid point.
+     * Called from the constructor, so implementations should not rely on fields of sub classes.
+     */
+    protected double[][] density(final double[] gx, final double[] gy, final double[] x, final double[] y, final double[] h) {
         double[][] ax = outerMinusScaled(gx, x, h[0]);
         double[][] ay = outerMinusScaled(gy, y, h[1]);
         normalize(ax);
         normalize(ay);
-        z = new double[n][n];
+        final int nx = x.length;
+        double[][] z = new double[gx.length][gy.length];
         double scale = nx * h[0] * h[1];
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
+        for (int i = 0; i < gx.length; i++) {
+            for (int j = 0; j < gy.length; j++) {
                 double value = 0;
                 for (int k = 0; k < nx; k++) {
                     value += ax[i][k] * ay[j][k];
@@ -104,6 +114,7 @@ public class KernelDensityEstimator2D implements ContourMaker {
                 z[i][j] = value / scale;
             }
         }
+        return z;
     }
 
     public double findLevelCorrespondingToMass(double probabilityMass) {
@@ -27,6 +27,11 @@ package beast.app.treeannotator;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import javax.swing.JFrame;
 
@@ -41,8 +46,10 @@ import beast.evolution.tree.Node;
 import beast.evolution.tree.Tree;
 import beast.evolution.tree.TreeUtils;
 import beast.math.statistic.DiscreteStatistics;
+import beast.util.BinaryTreeLog;
 import beast.util.CollectionUtils;
 import beast.util.HeapSort;
+import beast.util.LogIndex;
 import beast.util.NexusParser;
 import beast.util.TreeParser;
 import jam.console.ConsoleApplication;
@@ -67,6 +74,21 @@ public class TreeAnnotator {
 
     static boolean processSA = true;
 
+    /** number of threads used for counting clades and scoring trees **/
+    static int threadCount = 1;
+
+    /**
+     * if positive, attribute values are kept in AttributeSummaries of this capacity
+     * instead of in full, which bounds memory but makes medians and HPDs approximate
+     **/
+    static int summaryCapacity = 0;
+
+    /** whether kernel density estimates for 2D HPD contours are computed by FFT on binned values **/
+    static boolean useFFTKDE = false;
+
+    /** number of consecutive trees handed to a thread at a time **/
+    private final static int BATCH_SIZE = 100;
+
     private boolean SAmode = false;
 
     public abstract class TreeSet {
@@ -80,34 +102,20 @@ public class TreeAnnotator {
         int totalTrees = 0;
         boolean isNexus = true;
 
+        /** index of trees in the file, giving the byte offset of each tree **/
+        LogIndex index;
+
         /** determine number of trees in the file,
     	 * and number of trees to skip as burnin
     	 * @throws IOException
     	 * @throws FileNotFoundException **/
     	void countTrees(int burninPercentage) throws IOException  {
-            BufferedReader fin = new BufferedReader(new FileReader(new File(inputFileName)));
-            if (!fin.ready()) {
+            if (new File(inputFileName).length() == 0) {
             	throw new IOException("File appears empty");
             }
-        	String str = fin.readLine();
-            if (!str.toUpperCase().trim().startsWith("#NEXUS")) {
-            	// the file contains a list of Newick trees instead of a list in Nexus format
-            	isNexus = false;
-            	if (str.trim().length() > 0) {
-            		totalTrees = 1;
-            	}
-            }
-            while (fin.ready()) {
-            	str = fin.readLine();
-                if (isNexus) {
-                    if (str.trim().toLowerCase().startsWith("tree ")) {
-                    	totalTrees++;
-                    }
-                } else if (str.trim().length() > 0) {
-            		totalTrees++;
-                }
-            }
-            fin.close();
+            index = LogIndex.getIndex(inputFileName, true);
+            isNexus = index.getType() != LogIndex.LogType.newick;
+            totalTrees = index.size();
 
             burninCount = Math.max(0, (burninPercentage * totalTrees)/100);
 
@@ -191,10 +199,16 @@ public class TreeAnnotator {
 
 
     	@Override
-    	public void reset() throws FileNotFoundException  {
+    	public void reset() throws IOException  {
     		current = 0;
-            fin = new BufferedReader(new FileReader(new File(inputFileName)));
             lineNr = 0;
+            if (!isNexus) {
+                // list of Newick trees: no header to process, so jump past burnin straight away
+                fin = index.openAt(burninCount);
+                current = burninCount;
+                return;
+            }
+            fin = new BufferedReader(new FileReader(new File(inputFileName)));
             try {
                 while (fin.ready()) {
                     final String str = nextLine();
@@ -267,14 +281,10 @@ public class TreeAnnotator {
                 }
             }
             // we got to the end of the translate block
-            // read bunrinCount trees
-            current = 0;
-            while (current < burninCount && fin.ready()) {
-    			str = nextLine();
-                if (str.toLowerCase().startsWith("tree ")) {
-                	current++;
-                }
-            }
+            // jump past bunrinCount trees
+            fin.close();
+            fin = index.openAt(burninCount);
+            current = burninCount;
         }
 
         private List<String> getIndexedTranslationMap(final Map<String, String> translationMap, final int origin) {
@@ -348,6 +358,7 @@ public class TreeAnnotator {
     	public Tree next() throws IOException {
 			String str = nextLine();
     		if (!isNexus) {
+                current++;
                 TreeParser treeParser;
 
                 if (origin != -1) {
@@ -388,6 +399,48 @@ public class TreeAnnotator {
     		return null;
     	}
     }
+
+    /**
+     * Trees from a binary tree log, read one at a time. Burn-in is skipped by
+     * reading only the topology of each record.
+     */
+    public class BinaryTreeSet extends TreeSet {
+    	int current = 0;
+    	BinaryTreeLog.Reader reader;
+
+    	public BinaryTreeSet(String inputFileName, int burninPercentage) throws IOException  {
+    		this.inputFileName = inputFileName;
+    		totalTrees = BinaryTreeLog.count(new File(inputFileName));
+    		burninCount = Math.max(0, (burninPercentage * totalTrees)/100);
+    		progressStream.println("Processing " + (totalTrees - burninCount) + " trees from file" +
+    				(burninPercentage > 0 ? " after ignoring first " + burninPercentage + "% = " + burninCount + " trees." : "."));
+    	}
+
+    	@Override
+    	public void reset() throws IOException  {
+    		if (reader != null) {
+    			reader.close();
+    		}
+    		reader = new BinaryTreeLog.Reader(new File(inputFileName));
+    		for (current = 0; current < burninCount; current++) {
+    			reader.skip();
+    		}
+    	}
+
+    	@Override
+    	public boolean hasNext() {
+    		return current < totalTrees;
+    	}
+
+    	@Override
+    	public Tree next() throws IOException {
+    		if (!reader.next()) {
+    			throw new IOException("Unexpected end of binary tree log " + inputFileName);
+    		}
+    		current++;
+    		return reader.getTree();
+    	}
+    }
     TreeSet treeSet;
 
 
@@ -459,7 +512,9 @@ public class TreeAnnotator {
         totalTreesUsed = 0;
 
         try {
-        	if (lowMemory) {
+        	if (BinaryTreeLog.isBinaryTreeLog(new File(inputFileName))) {
+        		treeSet = new BinaryTreeSet(inputFileName, burninPercentage);
+        	} else if (lowMemory) {
         		treeSet = new MemoryFriendlyTreeSet(inputFileName, burninPercentage);
         	} else {
         		treeSet = new FastTreeSet(inputFileName, burninPercentage);
@@ -472,24 +527,28 @@ public class TreeAnnotator {
 
         if (targetOption != Target.USER_TARGET_TREE) {
             try {
-            	treeSet.reset();
-                cladeSystem.setProcessSA(false);
-            	while (treeSet.hasNext()) {
-            		Tree tree = treeSet.next();
-                    tree.getLeafNodeCount();
-                    if (tree.getDirectAncestorNodeCount() > 0 && !SAmode && processSA) {
-                        SAmode = true;
-                        Log.err.println("A tree with a sampled ancestor is found. Turning on\n the sampled ancestor " +
-                                "summary analysis.");
-                        if (heightsOption == HeightsSummary.CA_HEIGHTS) {
-                            throw new RuntimeException("The common ancestor height is not \n available for trees with sampled " +
-                                    "ancestors. Please choose \n another height summary option");
-                        }
-                        cladeSystem.setProcessSA(true);
-                    }
-	            	cladeSystem.add(tree, false);
-	                totalTreesUsed++;
-	            }
+            	if (threadCount > 1) {
+            		countCladesParallel(cladeSystem, heightsOption);
+            	} else {
+	            	treeSet.reset();
+	                cladeSystem.setProcessSA(false);
+	            	while (treeSet.hasNext()) {
+	            		Tree tree = treeSet.next();
+	                    tree.getLeafNodeCount();
+	                    if (tree.getDirectAncestorNodeCount() > 0 && !SAmode && processSA) {
+	                        SAmode = true;
+	                        Log.err.println("A tree with a sampled ancestor is found. Turning on\n the sampled ancestor " +
+	                                "summary analysis.");
+	                        if (heightsOption == HeightsSummary.CA_HEIGHTS) {
+	                            throw new RuntimeException("The common ancestor height is not \n available for trees with sampled " +
+	                                    "ancestors. Please choose \n another height summary option");
+	                        }
+	                        cladeSystem.setProcessSA(true);
+	                    }
+		            	cladeSystem.add(tree, false);
+		                totalTreesUsed++;
+		            }
+            	}
 	            totalTrees = totalTreesUsed * 100 / (100-Math.max(burninPercentage, 0));
             } catch (Exception e) {
             	Log.err.println(e.getMessage());
@@ -513,7 +572,7 @@ public class TreeAnnotator {
 
             progressStream.println("Total number of trees " + totalTrees + ", where " + totalTreesUsed + " are used.");
 
-            progressStream.println("Total unique clades: " + cladeSystem.getCladeMap().keySet().size());
+            progressStream.println("Total unique clades: " + cladeSystem.getCladeCount());
             progressStream.println();
         }  else {
             // even when a user specified target tree is provided we still need to count the totalTreesUsed for subsequent steps.
@@ -586,6 +645,7 @@ public class TreeAnnotator {
         // this is remedied with removeClades call after while loop below
         cladeSystem = new CladeSystem();
         cladeSystem.setProcessSA(processSA);
+        cladeSystem.setAttributeSummaries(summaryCapacity, forceIntegerToDiscrete);
         cladeSystem.add(targetTree, true);
         int totalTreesUsedNew = 0;
         try {
@@ -621,7 +681,22 @@ public class TreeAnnotator {
         progressStream.println("Annotating target tree...");
 
         try {
-            annotateTree(cladeSystem, targetTree.getRoot(), null, heightsOption);
+            if (threadCount > 1) {
+                contourPool = Executors.newFixedThreadPool(threadCount);
+            }
+            try {
+                annotateTree(cladeSystem, targetTree.getRoot(), null, heightsOption);
+                // in the order the contours were requested, so warnings appear as with a single thread
+                for (PendingContour contour : pendingContours) {
+                    annotateContours(contour.node, contour.preLabel, contour.postLabel, contour.hpd, contour.paths.get());
+                }
+            } finally {
+                pendingContours.clear();
+                if (contourPool != null) {
+                    contourPool.shutdown();
+                    contourPool = null;
+                }
+            }
 
             if( heightsOption == HeightsSummary.CA_HEIGHTS ) {
                 setTreeHeightsByCA(targetTree, targetOption);
@@ -706,7 +781,136 @@ public class TreeAnnotator {
         }
     }
 
+    /**
+     * As the clade counting loop in the constructor, but with trees handed out in batches
+     * to threadCount threads, each counting clades in a CladeSystem of its own. These are
+     * merged at the end, so counts are the same as when counted by a single thread.
+     */
+    private void countCladesParallel(CladeSystem cladeSystem, HeightsSummary heightsOption) throws Exception {
+        final List<CladeSystem> systems = Collections.synchronizedList(new ArrayList<>());
+        final ThreadLocal<CladeSystem> localSystem = ThreadLocal.withInitial(() -> {
+            CladeSystem system = new CladeSystem();
+            systems.add(system);
+            return system;
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        // limits the number of parsed trees waiting to be processed
+        final Semaphore pending = new Semaphore(2 * threadCount);
+        List<Future<?>> results = new ArrayList<>();
+        try {
+            List<Tree> batch = new ArrayList<>(BATCH_SIZE);
+            treeSet.reset();
+            while (treeSet.hasNext()) {
+                Tree tree = treeSet.next();
+                if (tree.getDirectAncestorNodeCount() > 0 && !SAmode && processSA) {
+                    SAmode = true;
+                    Log.err.println("A tree with a sampled ancestor is found. Turning on\n the sampled ancestor " +
+                            "summary analysis.");
+                    if (heightsOption == HeightsSummary.CA_HEIGHTS) {
+                        throw new RuntimeException("The common ancestor height is not \n available for trees with sampled " +
+                                "ancestors. Please choose \n another height summary option");
+                    }
+                }
+                batch.add(tree);
+                totalTreesUsed++;
+                if (batch.size() == BATCH_SIZE || !treeSet.hasNext()) {
+                    final List<Tree> trees = batch;
+                    // trees before the first one with sampled ancestors do not have fake nodes,
+                    // so processing them with SA processing on gives the same clades
+                    final boolean sa = SAmode;
+                    pending.acquire();
+                    results.add(pool.submit(() -> {
+                        try {
+                            CladeSystem system = localSystem.get();
+                            system.setProcessSA(sa);
+                            for (Tree t : trees) {
+                                system.add(t, false);
+                            }
+                        } finally {
+                            pending.release();
+                        }
+                    }));
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        cladeSystem.setProcessSA(SAmode);
+        for (CladeSystem system : systems) {
+            cladeSystem.addAll(system);
+        }
+    }
+
+    /**
+     * As summarizeTrees, but with trees scored in batches by threadCount threads.
+     * Batches are combined in file order, and ties are resolved in favour of the
+     * earliest tree, so the same tree is selected as by summarizeTrees.
+     */
+    private Tree summarizeTreesParallel(CladeSystem cladeSystem, boolean useSumCladeCredibility) throws IOException  {
+        progressStream.println("Analyzing " + totalTreesUsed + " trees using " + threadCount + " threads...");
+
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        final Semaphore pending = new Semaphore(2 * threadCount);
+        List<Future<Object[]>> results = new ArrayList<>();
+        Tree bestTree = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        try {
+            List<Tree> batch = new ArrayList<>(BATCH_SIZE);
+            treeSet.reset();
+            while (treeSet.hasNext()) {
+                batch.add(treeSet.next());
+                if (batch.size() == BATCH_SIZE || !treeSet.hasNext()) {
+                    final List<Tree> trees = batch;
+                    pending.acquire();
+                    results.add(pool.submit(() -> {
+                        try {
+                            Tree best = null;
+                            double max = Double.NEGATIVE_INFINITY;
+                            for (Tree tree : trees) {
+                                double score = scoreTree(tree, cladeSystem, useSumCladeCredibility);
+                                if (score > max) {
+                                    best = tree;
+                                    max = score;
+                                }
+                            }
+                            return new Object[]{best, max};
+                        } finally {
+                            pending.release();
+                        }
+                    }));
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            for (Future<Object[]> result : results) {
+                Object[] best = result.get();
+                if ((Double) best[1] > bestScore) {
+                    bestTree = (Tree) best[0];
+                    bestScore = (Double) best[1];
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException(e);
+        } finally {
+            pool.shutdown();
+        }
+
+        progressStream.println();
+        if (useSumCladeCredibility) {
+            progressStream.println("Highest Sum Clade Credibility: " + bestScore);
+        } else {
+            progressStream.println("Highest Log Clade Credibility: " + bestScore);
+        }
+        return bestTree;
+    }
+
     private Tree summarizeTrees(CladeSystem cladeSystem, boolean useSumCladeCredibility) throws IOException  {
+        if (threadCount > 1) {
+            return summarizeTreesParallel(cladeSystem, useSumCladeCredibility);
+        }
 
         Tree bestTree = null;
         double bestScore = Double.NEGATIVE_INFINITY;
@@ -792,7 +996,7 @@ public class TreeAnnotator {
     }
 
     private void annotateNode(CladeSystem cladeSystem, Node node, BitSet bits, boolean isTip, HeightsSummary heightsOption) {
-        CladeSystem.Clade clade = cladeSystem.cladeMap.get(bits);
+        CladeSystem.Clade clade = cladeSystem.getClade(bits);
         assert clade != null : "Clade missing?";
 
         boolean filter = false;
@@ -804,6 +1008,11 @@ public class TreeAnnotator {
             }
         }
 
+        if (clade.attributeSummaries != null) {
+            annotateNodeFromSummaries(clade.attributeSummaries, node, filter, heightsOption);
+            return;
+        }
+
         int i = 0;
         for (String attributeName : attributeNames) {
 
@@ -890,23 +1099,9 @@ public class TreeAnnotator {
                     }
                     if (isHeight) {
                         if (heightsOption == HeightsSummary.MEAN_HEIGHTS) {
-                            final double mean = DiscreteStatistics.mean(values);
-                            if (node.isDirectAncestor()) {
-                                node.getParent().setHeight(mean);
-                            }
-                            if (node.isFake() && processSA) {
-                                node.getDirectAncestorChild().setHeight(mean);
-                            }
-                            node.setHeight(mean);
+                            setSummaryHeight(node, DiscreteStatistics.mean(values));
                         } else if (heightsOption == HeightsSummary.MEDIAN_HEIGHTS) {
-                            final double median = DiscreteStatistics.median(values);
-                            if (node.isDirectAncestor()) {
-                                node.getParent().setHeight(median);
-                            }
-                            if (node.isFake() && processSA) {
-                                node.getDirectAncestorChild().setHeight(median);
-                            }
-                            node.setHeight(median);
+                            setSummaryHeight(node, DiscreteStatistics.median(values));
                         } else {
                             // keep the existing height
                         }
@@ -983,6 +1178,130 @@ public class TreeAnnotator {
         }
     }
 
+    private void setSummaryHeight(Node node, double height) {
+        if (node.isDirectAncestor()) {
+            node.getParent().setHeight(height);
+        }
+        if (node.isFake() && processSA) {
+            node.getDirectAncestorChild().setHeight(height);
+        }
+        node.setHeight(height);
+    }
+
+    /**
+     * As annotateNode, but from bounded summaries of the attribute values. Summaries
+     * holding all values give the same annotations as annotateNode does.
+     */
+    private void annotateNodeFromSummaries(AttributeSummary[] summaries, Node node, boolean filter, HeightsSummary heightsOption) {
+        int i = 0;
+        for (String attributeName : attributeNames) {
+            final AttributeSummary summary = summaries[i++];
+            final AttributeSummary.Type type = summary.getType();
+            if (summary.getCount() == 0 || type == AttributeSummary.Type.NONE) {
+                continue;
+            }
+            final AttributeSummary.QuantileSketch sketch = summary.getSketch();
+
+            if (attributeName.equals("height") && sketch != null) {
+                if (heightsOption == HeightsSummary.MEAN_HEIGHTS) {
+                    setSummaryHeight(node, sketch.isExact() ? DiscreteStatistics.mean(sketch.getValues()) : sketch.getMean());
+                } else if (heightsOption == HeightsSummary.MEDIAN_HEIGHTS) {
+                    setSummaryHeight(node, sketch.isExact() ? DiscreteStatistics.median(sketch.getValues()) : sketch.getMedian());
+                }
+            }
+
+            if (filter) {
+                continue;
+            }
+            boolean processed = false;
+            for (TreeAnnotationPlugin beastObject : beastObjects) {
+                // plug-ins get the values retained by the summary
+                if (beastObject.handleAttribute(node, attributeName, sketch != null ? sketch.getValues() : new double[0])) {
+                    processed = true;
+                }
+            }
+            if (processed) {
+                continue;
+            }
+
+            switch (type) {
+                case DISCRETE:
+                    annotateModeAttribute(node, attributeName, summary.getFrequencies());
+                    annotateFrequencyAttribute(node, attributeName, summary.getFrequencies());
+                    break;
+                case BOOLEAN:
+                    annotateMeanAttribute(node, attributeName, sketch);
+                    break;
+                case NUMBER:
+                    annotateMeanAttribute(node, attributeName, sketch);
+                    if (summary.varies()) {
+                        annotateSketchAttributes(node, attributeName, sketch, true);
+                    }
+                    break;
+                case DOUBLE_ARRAY:
+                    final int lenArray = summary.getLength();
+                    for (int k = 0; k < lenArray; k++) {
+                        annotateMeanAttribute(node, attributeName + (k + 1), summary.getSketch(k));
+                    }
+                    boolean want2d = processBivariateAttributes && lenArray == 2 && !attributeName.equals("dmv");
+                    for (int k = 0; k < lenArray; k++) {
+                        if (summary.varies(k)) {
+                            annotateSketchAttributes(node, attributeName + (k + 1), summary.getSketch(k), !want2d);
+                        }
+                    }
+                    if (want2d) {
+                        if (summary.varies(0) && !summary.varies(1)) {
+                            annotateHPDAttribute(node, attributeName + "1" + "_95%_HPD", 0.95, summary.getSketch(0));
+                        }
+                        if (summary.varies(1) && !summary.varies(0)) {
+                            annotateHPDAttribute(node, attributeName + "2" + "_95%_HPD", 0.95, summary.getSketch(1));
+                        }
+                        if (summary.varies(0) && summary.varies(1)) {
+                            annotate2DHPDAttribute(node, attributeName, "_" + (int) (100 * hpd2D) + "%HPD", hpd2D, summary.getPairs());
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void annotateMeanAttribute(Node node, String label, AttributeSummary.QuantileSketch sketch) {
+        if (sketch.isExact()) {
+            annotateMeanAttribute(node, label, sketch.getValues());
+        } else {
+            node.setMetaData(label, sketch.getMean());
+        }
+    }
+
+    /** median, range and (if hpd is true) 95% HPD from a sketch **/
+    private void annotateSketchAttributes(Node node, String label, AttributeSummary.QuantileSketch sketch, boolean hpd) {
+        if (sketch.isExact()) {
+            final double[] values = sketch.getValues();
+            annotateMedianAttribute(node, label + "_median", values);
+            if (hpd) {
+                annotateHPDAttribute(node, label + "_95%_HPD", 0.95, values);
+            }
+            annotateRangeAttribute(node, label + "_range", values);
+        } else {
+            node.setMetaData(label + "_median", sketch.getMedian());
+            if (hpd) {
+                annotateHPDAttribute(node, label + "_95%_HPD", 0.95, sketch);
+            }
+            node.setMetaData(label + "_range", new Object[]{sketch.getMin(), sketch.getMax()});
+        }
+    }
+
+    private void annotateHPDAttribute(Node node, String label, double hpd, AttributeSummary.QuantileSketch sketch) {
+        if (sketch.isExact()) {
+            annotateHPDAttribute(node, label, hpd, sketch.getValues());
+        } else {
+            final double[] bounds = sketch.getHPD(hpd);
+            node.setMetaData(label, new Object[]{bounds[0], bounds[1]});
+        }
+    }
+
     private void annotateMeanAttribute(Node node, String label, double[] values) {
         double mean = DiscreteStatistics.mean(values);
         node.setMetaData(label, mean);
@@ -1175,42 +1494,77 @@ public class TreeAnnotator {
 
 //                KernelDensityEstimator2D kde = new KernelDensityEstimator2D(values[0], values[1], N);
             //ContourMaker kde = new ContourWithSynder(values[0], values[1], N);
-            boolean bandwidthLimit = false;
+            if (contourPool != null) {
+                // contours are computed by the pool, and added to the node in annotateContours
+                final double[] x = values[0], y = values[1];
+                pendingContours.add(new PendingContour(node, preLabel, postLabel, hpd,
+                        contourPool.submit(() -> getContourPaths(x, y, hpd))));
+            } else {
+                annotateContours(node, preLabel, postLabel, hpd, getContourPaths(values[0], values[1], hpd));
+            }
+        }
+    }
 
-            ContourMaker kde = new ContourWithSynder(values[0], values[1], bandwidthLimit);
+    private ContourPath[] getContourPaths(double[] x, double[] y, double hpd) {
+        boolean bandwidthLimit = false;
 
-            ContourPath[] paths = kde.getContourPaths(hpd);
+        ContourMaker kde = useFFTKDE ?
+                new FFTContourWithSynder(x, y, bandwidthLimit) :
+                new ContourWithSynder(x, y, bandwidthLimit);
 
-            node.setMetaData(preLabel + postLabel + "_modality", paths.length);
+        return kde.getContourPaths(hpd);
+    }
 
-            if (paths.length > 1) {
-                Log.err.println("Warning: a node has a disjoint " + 100 * hpd + "% HPD region.  This may be an artifact!");
-                Log.err.println("Try decreasing the enclosed mass or increasing the number of samples.");
+    private void annotateContours(Node node, String preLabel, String postLabel, double hpd, ContourPath[] paths) {
+        node.setMetaData(preLabel + postLabel + "_modality", paths.length);
+
+        if (paths.length > 1) {
+            Log.err.println("Warning: a node has a disjoint " + 100 * hpd + "% HPD region.  This may be an artifact!");
+            Log.err.println("Try decreasing the enclosed mass or increasing the number of samples.");
+        }
+
+        StringBuffer output = new StringBuffer();
+        int i = 0;
+        for (ContourPath p : paths) {
+            output.append("\n<" + CORDINATE + ">\n");
+            double[] xList = p.getAllX();
+            double[] yList = p.getAllY();
+            StringBuffer xString = new StringBuffer("{");
+            StringBuffer yString = new StringBuffer("{");
+            for (int k = 0; k < xList.length; k++) {
+                xString.append(formattedLocation(xList[k])).append(",");
+                yString.append(formattedLocation(yList[k])).append(",");
             }
+            xString.append(formattedLocation(xList[0])).append("}");
+            yString.append(formattedLocation(yList[0])).append("}");
 
-            StringBuffer output = new StringBuffer();
-            int i = 0;
-            for (ContourPath p : paths) {
-                output.append("\n<" + CORDINATE + ">\n");
-                double[] xList = p.getAllX();
-                double[] yList = p.getAllY();
-                StringBuffer xString = new StringBuffer("{");
-                StringBuffer yString = new StringBuffer("{");
-                for (int k = 0; k < xList.length; k++) {
-                    xString.append(formattedLocation(xList[k])).append(",");
-                    yString.append(formattedLocation(yList[k])).append(",");
-                }
-                xString.append(formattedLocation(xList[0])).append("}");
-                yString.append(formattedLocation(yList[0])).append("}");
+            node.setMetaData(preLabel + "1" + postLabel + "_" + (i + 1), xString);
+            node.setMetaData(preLabel + "2" + postLabel + "_" + (i + 1), yString);
+            i++;
 
-                node.setMetaData(preLabel + "1" + postLabel + "_" + (i + 1), xString);
-                node.setMetaData(preLabel + "2" + postLabel + "_" + (i + 1), yString);
-                i++;
+        }
+    }
 
-            }
+    /** 2D HPD contours of a node, computed by another thread **/
+    private static class PendingContour {
+        final Node node;
+        final String preLabel, postLabel;
+        final double hpd;
+        final Future<ContourPath[]> paths;
+
+        PendingContour(Node node, String preLabel, String postLabel, double hpd, Future<ContourPath[]> paths) {
+            this.node = node;
+            this.preLabel = preLabel;
+            this.postLabel = postLabel;
+            this.hpd = hpd;
+            this.paths = paths;
         }
     }
 
+    /** computes 2D HPD contours of clades while annotating the target tree, if more than one thread is used **/
+    private ExecutorService contourPool = null;
+    private final List<PendingContour> pendingContours = new ArrayList<>();
+
     int totalTrees = 0;
     int totalTreesUsed = 0;
     double posteriorLimit = 0.0;
@@ -1406,7 +1760,13 @@ public class TreeAnnotator {
                         new Arguments.Option("lowMem", "use less memory, which is a bit slower."),
                         new Arguments.RealOption("hpd2D", "the HPD interval to be used for the bivariate traits"),
                         new Arguments.Option("nohpd2D", "suppress calculation of HPD intervals for the bivariate traits"),
-                        new Arguments.Option("noSA", "interpret the tree set as begin from a not being from a sampled ancestor analysis, even if there are zero branch lengths in the tree set")
+                        new Arguments.Option("noSA", "interpret the tree set as begin from a not being from a sampled ancestor analysis, even if there are zero branch lengths in the tree set"),
+                        new Arguments.IntegerOption("threads", "number of threads used for counting clades, scoring trees and computing 2D HPD contours (default 1)"),
+                        new Arguments.Option("fftKDE", "compute kernel density estimates for 2D HPD contours by FFT on binned values, " +
+                                "which is faster for many samples and differs from the exact estimate by well below a percent"),
+                        new Arguments.IntegerOption("summaries", "keep summaries of bounded size per clade attribute instead of all values, " +
+                                "so that memory use does not grow with the number of trees; means and ranges are exact, medians, HPD intervals " +
+                                "and 2D contours are approximate once a clade has more values than this size (e.g. " + AttributeSummary.DEFAULT_CAPACITY + ")")
                 });
 
         try {
@@ -1425,6 +1785,18 @@ public class TreeAnnotator {
         	processSA = false;
         }
 
+        if (arguments.hasOption("threads")) {
+            threadCount = Math.max(1, arguments.getIntegerOption("threads"));
+        }
+
+        if (arguments.hasOption("fftKDE")) {
+            useFFTKDE = true;
+        }
+
+        if (arguments.hasOption("summaries")) {
+            summaryCapacity = Math.max(2, arguments.getIntegerOption("summaries"));
+        }
+
         if (arguments.hasOption("forceDiscrete")) {
             Log.info.println("  Forcing integer traits to be treated as discrete traits.");
             forceIntegerToDiscrete = true;
@@ -1542,7 +1914,7 @@ public class TreeAnnotator {
         // this call increments the clade counts and it shouldn't
         // this is remedied with removeClades call after while loop below
         CladeSystem cladeSystem = new CladeSystem(targetTree);
-        final int clades = cladeSystem.getCladeMap().size();
+        final int clades = cladeSystem.getCladeCount();
 
         // allocate posterior tree nodes order once
         int[] postOrderList = new int[clades];
@@ -517,60 +517,57 @@ public class Input<T> {
      */
     public void determineClass(final Object beastObject) {
         try {
-            final Field[] fields = beastObject.getClass().getFields();
+            final InputDescriptor descriptor = InputDescriptor.forClass(beastObject.getClass());
             // find this input in the beastObject
-            for (int i = 0; i < fields.length; i++) {
-                if (fields[i].getType().isAssignableFrom(Input.class)) {
-                    final Input<?> input = (Input<?>) fields[i].get(beastObject);
-                    if (input == this) {
-                        // found the input, now determine the type of the input
-                        Type t = fields[i].getGenericType();
-                        Type[] genericTypes = ((ParameterizedType) t).getActualTypeArguments();
-                        // check if it is a List
-                        // NB: if the List is not initialised, there is no way 
-                        // to determine the type (that I know of...)
-                        if (value != null && value instanceof List<?>) {
-                            Type[] genericTypes2 = ((ParameterizedType) genericTypes[0]).getActualTypeArguments();
-                            try {
-                            	theClass = (Class<?>) genericTypes2[0];
-                            } catch (ClassCastException e) {
-                            	// can get here with parameterised types, e.g Input<List<Parameter.Base<T>>>
-                            	theClass = (Class<?>) ((ParameterizedType)genericTypes2[0]).getRawType();
-                            }
-                            // getting type of map is not possible?!?
-                            //} else if (value != null && value instanceof Map<?,?>) {
-                            //    Type[] genericTypes2 = ((ParameterizedType) genericTypes[0]).getActualTypeArguments();
-                            //    theClass = (Class<?>) genericTypes2[0];
-                        } else {
-                            // it is not a list (or if it is, this will fail)
-                            try {
-                            	Object o = genericTypes[0];
-                            	if (o instanceof ParameterizedType) {
-                                    Type rawType = ((ParameterizedType) genericTypes[0]).getRawType();
-                                    // Log.warning.println(rawType.getTypeName());
-                            		if (rawType.getTypeName().equals("java.util.List")) {
-                            			// if we got here, value==null
-                            			throw new RuntimeException("Programming error: Input<List> not initialised");
-                            		}
-                            	}
-                                theClass = (Class<?>) o;
-                            } catch (Exception e) {
-                                // resolve ID
-                                String id = "";
-                                Method method = beastObject.getClass().getMethod("getID");
-                                if (method != null) {
-                                    id = (String) method.invoke(beastObject);
-                                }
-                                // assemble error message
-                                Log.err.println(beastObject.getClass().getName() + " " + id + " failed. " +
-                                        "Possibly template or abstract BEASTObject used " +
-                                        "or if it is a list, the list was not initilised???");
-                                Log.err.println("class is " + beastObject.getClass());
-                                e.printStackTrace(System.err);
-                                System.exit(1);
-                            }
+            final int i = descriptor.indexOf(beastObject, this);
+            if (i >= 0) {
+                // found the input, now determine the type of the input
+                final Type t = descriptor.getInputType(i);
+                if (t == null) {
+                    throw new ClassCastException("Input is not parameterised");
+                }
+                // check if it is a List
+                // NB: if the List is not initialised, there is no way 
+                // to determine the type (that I know of...)
+                if (value != null && value instanceof List<?>) {
+                    Type[] genericTypes2 = ((ParameterizedType) t).getActualTypeArguments();
+                    try {
+                    	theClass = (Class<?>) genericTypes2[0];
+                    } catch (ClassCastException e) {
+                    	// can get here with parameterised types, e.g Input<List<Parameter.Base<T>>>
+                    	theClass = (Class<?>) ((ParameterizedType)genericTypes2[0]).getRawType();
+                    }
+                    // getting type of map is not possible?!?
+                    //} else if (value != null && value instanceof Map<?,?>) {
+                    //    Type[] genericTypes2 = ((ParameterizedType) genericTypes[0]).getActualTypeArguments();
+                    //    theClass = (Class<?>) genericTypes2[0];
+                } else {
+                    // it is not a list (or if it is, this will fail)
+                    try {
+                    	Object o = t;
+                    	if (o instanceof ParameterizedType) {
+                            Type rawType = ((ParameterizedType) t).getRawType();
+                            // Log.warning.println(rawType.getTypeName());
+                    		if (rawType.getTypeName().equals("java.util.List")) {
+                    			// if we got here, value==null
+                    			throw new RuntimeException("Programming error: Input<List> not initialised");
+                    		}
+                    	}
+                        theClass = (Class<?>) o;
+                    } catch (Exception e) {
+                        // resolve ID
+                        String id = "";
+                        Method method = beastObject.getClass().getMethod("getID");
+                        if (method != null) {
+                            id = (String) method.invoke(beastObject);
                         }
-                        break;
+                        // assemble error message
+                        Log.err.println(beastObject.getClass().getName() + " " + id + " failed. " +
+                                "Possibly template or abstract BEASTObject used " +
+                                "or if it is a list, the list was not initilised???");
+                        Log.err.println("class is " + beastObject.getClass());
+                        e.printStackTrace(System.err);
+                        System.exit(1);
                     }
                 }
             }
@@ -0,0 +1,235 @@
+package beast.core;
+
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import beast.core.util.Log;
+
+/**
+ * Reflective information on the Inputs of a class, determined once per class
+ * and shared by BEASTInterface.listInputs, Input.determineClass, the XML and JSON
+ * parsers and producers, and code copying objects through their inputs.
+ *
+ * It contains the public Input fields (in the order returned by Class.getFields)
+ * with their generic types, and the constructors annotated with Param annotations
+ * with the getters and setters for emulating the Params as Inputs.
+ */
+public class InputDescriptor {
+
+	private static final ClassValue<InputDescriptor> descriptors = new ClassValue<InputDescriptor>() {
+		@Override
+		protected InputDescriptor computeValue(Class<?> type) {
+			return new InputDescriptor(type);
+		}
+	};
+
+	/** @return descriptor for a class, created when the class is first encountered **/
+	public static InputDescriptor forClass(Class<?> clazz) {
+		return descriptors.get(clazz);
+	}
+
+	/** constructor with Param annotations on its parameters **/
+	public static class AnnotatedConstructor {
+		final Constructor<?> constructor;
+		final List<Param> params;
+		final Class<?>[] parameterTypes;
+		final Type[] genericParameterTypes;
+
+		AnnotatedConstructor(Constructor<?> constructor, List<Param> params) {
+			this.constructor = constructor;
+			this.params = Collections.unmodifiableList(params);
+			this.parameterTypes = constructor.getParameterTypes();
+			this.genericParameterTypes = constructor.getGenericParameterTypes();
+		}
+
+		public Constructor<?> getConstructor() {
+			return constructor;
+		}
+
+		public List<Param> getParams() {
+			return params;
+		}
+
+		public Class<?>[] getParameterTypes() {
+			return parameterTypes.clone();
+		}
+
+		/** offset of first Param in parameter list, which is 1 for constructors of inner classes **/
+		public int getOffset() {
+			return parameterTypes.length == params.size() + 1 ? 1 : 0;
+		}
+	}
+
+	/** Param of an annotated constructor as it appears as Input **/
+	public static class ParamInput {
+		final Param param;
+		/** type of the Param, or of the list elements if the Param is a List **/
+		final Class<?> type;
+		final boolean isList;
+		final Method getter, setter;
+
+		ParamInput(Param param, Class<?> type, boolean isList, Method getter, Method setter) {
+			this.param = param;
+			this.type = type;
+			this.isList = isList;
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		public Param getParam() {
+			return param;
+		}
+
+		public Class<?> getType() {
+			return type;
+		}
+
+		public boolean isList() {
+			return isList;
+		}
+	}
+
+	final Class<?> clazz;
+
+	/** public fields of type Input **/
+	final Field[] inputFields;
+	/** type argument T of Input<T> of the input fields **/
+	final Type[] inputTypes;
+
+	final List<AnnotatedConstructor> annotatedConstructors;
+	/** Params of annotated constructors in order of declaration, as listed by listInputs **/
+	final List<ParamInput> paramInputs;
+
+	InputDescriptor(Class<?> clazz) {
+		this.clazz = clazz;
+
+		List<Field> fields = new ArrayList<>();
+		for (final Field field : clazz.getFields()) {
+			if (field.getType().isAssignableFrom(Input.class)) {
+				fields.add(field);
+			}
+		}
+		inputFields = fields.toArray(new Field[fields.size()]);
+		inputTypes = new Type[inputFields.length];
+		for (int i = 0; i < inputFields.length; i++) {
+			Type t = inputFields[i].getGenericType();
+			if (t instanceof ParameterizedType) {
+				inputTypes[i] = ((ParameterizedType) t).getActualTypeArguments()[0];
+			}
+		}
+
+		annotatedConstructors = new ArrayList<>();
+		paramInputs = new ArrayList<>();
+		for (Constructor<?> ctor : clazz.getDeclaredConstructors()) {
+			List<Param> paramAnnotations = new ArrayList<>();
+			for (Annotation [] a0 : ctor.getParameterAnnotations()) {
+				for (Annotation a : a0) {
+					if (a instanceof Param) {
+						paramAnnotations.add((Param) a);
+					}
+				}
+			}
+			if (ctor.getParameterTypes().length > 0 && paramAnnotations.size() > 0) {
+				AnnotatedConstructor annotated = new AnnotatedConstructor(ctor, paramAnnotations);
+				annotatedConstructors.add(annotated);
+				addParamInputs(annotated);
+			}
+		}
+	}
+
+	private void addParamInputs(AnnotatedConstructor ctor) {
+		int offset = ctor.getOffset();
+		for (int i = 0; i < ctor.params.size(); i++) {
+			Param param = ctor.params.get(i);
+			Class<?> type = ctor.parameterTypes[i + offset];
+			boolean isList = type.isAssignableFrom(List.class);
+			if (isList) {
+				Type[] genericTypes2 = ((ParameterizedType) ctor.genericParameterTypes[i + offset]).getActualTypeArguments();
+				type = (Class<?>) genericTypes2[0];
+			}
+			String name = param.name();
+			String suffix = name.length() == 0 ? "" : name.substring(0, 1).toUpperCase() + name.substring(1);
+			Method getter = null, setter = null;
+			try {
+				getter = clazz.getMethod("get" + suffix);
+				setter = clazz.getMethod("set" + suffix, type);
+			} catch (NoSuchMethodException | SecurityException e) {
+				// reported when an input is created for the Param
+			}
+			paramInputs.add(new ParamInput(param, type, isList, getter, setter));
+		}
+	}
+
+	/**
+	 * @return Inputs of object, followed by InputForAnnotatedConstructors for
+	 * Params of annotated constructors (if any)
+	 */
+	public List<Input<?>> listInputs(BEASTInterface beastObject) {
+		final List<Input<?>> inputs = new ArrayList<>(inputFields.length + paramInputs.size());
+		for (final Field field : inputFields) {
+			try {
+				inputs.add((Input<?>) field.get(beastObject));
+			} catch (IllegalAccessException e) {
+				// not a publicly accessible input, ignore
+			}
+		}
+
+		for (ParamInput paramInput : paramInputs) {
+			InputForAnnotatedConstructor<?> t = null;
+			try {
+				t = new InputForAnnotatedConstructor<>(beastObject, paramInput);
+			} catch (NoSuchMethodException | SecurityException e) {
+				e.printStackTrace();
+			}
+			inputs.add(t);
+		}
+		return inputs;
+	}
+
+	/** @return public Input fields of the class **/
+	public Field[] getInputFields() {
+		return inputFields.clone();
+	}
+
+	/** @return index of the field the input is stored in, or -1 if the input is not in a field of the object **/
+	public int indexOf(Object beastObject, Input<?> input) {
+		for (int i = 0; i < inputFields.length; i++) {
+			try {
+				if (inputFields[i].get(beastObject) == input) {
+					return i;
+				}
+			} catch (IllegalAccessException e) {
+				// not a publicly accessible input, ignore
+			}
+		}
+		return -1;
+	}
+
+	/** @return type argument T of Input<T> field i, or null if it is a raw Input **/
+	public Type getInputType(int i) {
+		return inputTypes[i];
+	}
+
+	/** @return constructors with Param annotations in order of declaration **/
+	public List<AnnotatedConstructor> getAnnotatedConstructors() {
+		return Collections.unmodifiableList(annotatedConstructors);
+	}
+
+	/** @return Params of annotated constructors, as they are represented by listInputs **/
+	public List<ParamInput> getParamInputs() {
+		return Collections.unmodifiableList(paramInputs);
+	}
+
+	/** report a Param without getter or setter **/
+	static void warnMissing(String what) {
+		Log.err.println("Programmer error: when getting here an InputType was identified, but no " + what + " for Param annotation found");
+	}
+}
@@ -19,6 +19,33 @@ public class InputForAnnotatedConstructor<T> extends Input<T> {
 	Method getter, setter;
 	
 	
+	/** create Input for a Param using getter and setter already looked up in the InputDescriptor of the class **/
+	InputForAnnotatedConstructor(BEASTInterface beastObject, InputDescriptor.ParamInput paramInput) throws NoSuchMethodException, SecurityException {
+		if (beastObject == null) {
+			throw new NullPointerException();
+		}
+		this.beastObject = beastObject;
+		this.theClass = paramInput.type;
+		Param param = paramInput.param;
+		if (param.description().trim().length() == 0) {
+			Log.warning.println("Param annotation found without proper description " + param.toString());
+		}
+		this.tipText = param.description();
+		this.name = param.name();
+		this.rule = param.optional() ? Validate.OPTIONAL : Validate.REQUIRED;
+
+		getter = paramInput.getter;
+		if (getter == null) {
+			InputDescriptor.warnMissing("getter");
+			throw new NoSuchMethodException("get" + name);
+		}
+		setter = paramInput.setter;
+		if (setter == null) {
+			InputDescriptor.warnMissing("setter");
+			throw new NoSuchMethodException("set" + name);
+		}
+	}
+
 	public InputForAnnotatedConstructor(BEASTInterface beastObject, Class<?> theClass, Param param) throws NoSuchMethodException, SecurityException,  IllegalArgumentException  {
 		if (beastObject == null) {
 			throw new NullPointerException();
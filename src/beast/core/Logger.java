@@ -31,8 +31,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.file.Files;
@@ -45,6 +47,9 @@ import java.util.List;
 import beast.core.Input.Validate;
 import beast.core.util.Log;
 import beast.evolution.tree.Tree;
+import beast.util.BinaryTreeLog;
+import beast.util.LogIndex;
+import beast.util.ThreadContext;
 import beast.util.XMLProducer;
 
 
@@ -54,7 +59,7 @@ public class Logger extends BEASTObject {
      * currently supported modes *
      */
     public enum LOGMODE {
-        autodetect, compound, tree
+        autodetect, compound, tree, binarytree
     }
 
     public enum SORTMODE {
@@ -70,6 +75,10 @@ public class Logger extends BEASTObject {
     final public Input<LOGMODE> modeInput = new Input<>("mode", "logging mode, one of " + Arrays.toString(LOGMODE.values()), LOGMODE.autodetect, LOGMODE.values());
     final public Input<SORTMODE> sortModeInput = new Input<>("sort", "sort items to be logged, one of " + Arrays.toString(SORTMODE.values()), SORTMODE.none, SORTMODE.values());
     final public Input<Boolean> sanitiseHeadersInput = new Input<>("sanitiseHeaders", "whether to remove any clutter introduced by Beauti" , false);
+    final public Input<Boolean> singlePrecisionInput = new Input<>("singlePrecision", "whether node heights and real valued meta data are stored as " +
+    		"floats instead of doubles in binary tree logs (mode=binarytree), which halves their size", false);
+    final public Input<Boolean> indexInput = new Input<>("index", "whether to write an index of sample offsets next to the log file (with extension " + LogIndex.EXTENSION + 
+    		") so that post-processing tools can skip burn-in without reading it", false);
 
     final public Input<List<BEASTObject>> loggersInput = new Input<>("log",
             "Element in a log. This can be any plug in that is Loggable.",
@@ -98,6 +107,13 @@ public class Logger extends BEASTObject {
      */
     static long sampleOffset = -1;
 
+    /**
+     * prefix for file names of analyses run in the current thread, which takes
+     * precedence over the file.name.prefix property, so that jobs sharing a JVM
+     * can write to their own directories *
+     */
+    private static final InheritableThreadLocal<String> threadFileNamePrefix = ThreadContext.register(new InheritableThreadLocal<>());
+
     /**
      * number of samples between logs *
      */
@@ -114,6 +130,16 @@ public class Logger extends BEASTObject {
     long startLogTime = -5;
     long startSample;
 
+    /**
+     * index of byte offsets of logged samples, if an index is to be written,
+     * and the stream counting the bytes written to the log file
+     */
+    LogIndex logIndex;
+    CountingOutputStream countingStream;
+
+    /** writer of records when mode=binarytree **/
+    BinaryTreeLog.Writer binaryWriter;
+
     @Override
     public void initAndValidate() {
 
@@ -141,6 +167,11 @@ public class Logger extends BEASTObject {
         	this.mode = LOGMODE.tree;
         } else if (mode.equals(LOGMODE.compound)) {
         	this.mode = LOGMODE.compound;
+        } else if (mode.equals(LOGMODE.binarytree)) {
+        	this.mode = LOGMODE.binarytree;
+        	if (loggerCount != 1) {
+        		throw new IllegalArgumentException("A binary tree log should log a single tree or TreeWithMetaDataLogger");
+        	}
         } else {
             throw new IllegalArgumentException("Mode '" + mode + "' is not supported. Choose one of " + Arrays.toString(LOGMODE.values()));
         }
@@ -222,7 +253,17 @@ public class Logger extends BEASTObject {
      * initialise log, open file (if necessary) and produce header of log
      */
     public void init() throws IOException {
+        if (mode == LOGMODE.binarytree && isLoggingToStdout()) {
+            throw new IllegalArgumentException("A binary tree log cannot be written to stdout, specify a fileName");
+        }
         final boolean needsHeader = openLogFile();
+        if (mode == LOGMODE.binarytree) {
+            binaryWriter = new BinaryTreeLog.Writer(loggerList.get(0), singlePrecisionInput.get());
+            if (needsHeader) {
+                binaryWriter.writeHeader(m_out);
+            }
+            return;
+        }
         if (needsHeader) {
             if (modelInput.get() != null) {
                 // print model at top of log
@@ -363,8 +404,8 @@ public class Logger extends BEASTObject {
                 fileName = fileName.replace("$(tree)", treeName);
                 fileNameInput.setValue(fileName, this);
             }
-            if (System.getProperty("file.name.prefix") != null) {
-                fileName = System.getProperty("file.name.prefix") + fileName;
+            if (getFileNamePrefix() != null) {
+                fileName = getFileNamePrefix() + fileName;
             }
             switch (FILE_MODE) {
                 case only_new:// only open file if the file does not already exists
@@ -391,7 +432,7 @@ public class Logger extends BEASTObject {
                             System.exit(0);
                         }
                     }
-                    m_out = new PrintStream(fileName);
+                    m_out = newLogStream(new FileOutputStream(fileName), 0);
                     Log.info.println("Writing file " + fileName);
                     return true;
                 }
@@ -401,7 +442,7 @@ public class Logger extends BEASTObject {
                     if (new File(fileName).exists()) {
                         msg = "Warning: Overwriting";
                     }
-                    m_out = new PrintStream(fileName);
+                    m_out = newLogStream(new FileOutputStream(fileName), 0);
                     Log.warning.println(msg + " file " + fileName);
                     return true;
                 }
@@ -409,7 +450,18 @@ public class Logger extends BEASTObject {
                 {
                     final File file = new File(fileName);
                     if (file.exists()) {
-                        if (mode == LOGMODE.compound) {
+                        if (mode == LOGMODE.binarytree) {
+                            // remove incomplete last record, if any, and find the sample nr offset
+                            final long sampleOffset = BinaryTreeLog.resume(file);
+                            if (sampleOffset < 0) {
+                                throw new RuntimeException("Error 402: empty tree log file " + fileName + "?");
+                            }
+                            if (Logger.sampleOffset > 0 && sampleOffset != Logger.sampleOffset) {
+                                throw new RuntimeException("Error 401: Cannot resume: log files do not end in same sample number");
+                            }
+                            Logger.sampleOffset = sampleOffset;
+                            m_out = newLogStream(new FileOutputStream(fileName, true), file.length());
+                        } else if (mode == LOGMODE.compound) {
                             // first find the sample nr offset
                             final BufferedReader fin = new BufferedReader(new FileReader(fileName));
                             String str = null;
@@ -425,7 +477,7 @@ public class Logger extends BEASTObject {
                             Logger.sampleOffset = sampleOffset;
                             // open the file for appending
                             final FileOutputStream out2 = new FileOutputStream(fileName, true);
-                            m_out = new PrintStream(out2);
+                            m_out = newLogStream(out2, file.length());
                         } else {
                             // it is a tree logger, we may need to get rid of the last line!
 
@@ -438,7 +490,7 @@ public class Logger extends BEASTObject {
                             final BufferedReader fin = new BufferedReader(new FileReader(fileName+".bu"));
 
                             final FileOutputStream out2 = new FileOutputStream(fileName);
-                            m_out = new PrintStream(out2);
+                            m_out = newLogStream(out2, 0);
 
                             //final StringBuilder buf = new StringBuilder();
                             String strLast = null;
@@ -475,10 +527,15 @@ public class Logger extends BEASTObject {
                             // it is safe to remove the backup file now
                             new File(fileName + ".bu").delete();
                         }
+                        if (logIndex != null) {
+                            // samples logged before resuming are not in the index,
+                            // so the complete index is rebuilt when closing the log
+                            logIndex = new LogIndex(new File(fileName), null);
+                        }
                         Log.info.println("Appending file " + fileName);
                         return false;
                     } else {
-                        m_out = new PrintStream(fileName);
+                        m_out = newLogStream(new FileOutputStream(fileName), 0);
                         Log.warning.println("WARNING: Resuming, but file " + fileName + " does not exist yet (perhaps the seed number is not the same as before?).");
                         Log.info.println("Writing new file " + fileName);
                         return true;
@@ -490,6 +547,43 @@ public class Logger extends BEASTObject {
         }
     } // openLogFile
 
+    /**
+     * wrap file stream for logging, counting bytes written if an index is required
+     *
+     * @param out file stream to log to
+     * @param offset number of bytes already in the file
+     */
+    private PrintStream newLogStream(final FileOutputStream out, final long offset) {
+        if (!indexInput.get() || mode == LOGMODE.binarytree) {
+            return new PrintStream(out);
+        }
+        logIndex = new LogIndex(new File(fileName), mode == LOGMODE.tree ? LogIndex.LogType.nexus : LogIndex.LogType.trace);
+        countingStream = new CountingOutputStream(out, offset);
+        return new PrintStream(countingStream);
+    }
+
+    /** output stream that keeps track of the number of bytes written through it **/
+    static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(final OutputStream out, final long offset) {
+            super(out);
+            count = offset;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
     /**
      * log the state for given sample nr
      * *
@@ -507,6 +601,15 @@ public class Logger extends BEASTObject {
             sampleNr += sampleOffset;
         }
 
+        if (binaryWriter != null) {
+            try {
+                binaryWriter.write(m_out, sampleNr);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         PrintStream out = new PrintStream(baos);
 
@@ -553,6 +656,10 @@ public class Logger extends BEASTObject {
             m_out.println();
 
         } else {
+            if (countingStream != null && logIndex.getType() != null) {
+                // PrintStream passes every print on to the underlying stream, so the count is up to date
+                logIndex.add(sampleNr, countingStream.count);
+            }
             m_out.println(logContent);
         }
     } // log
@@ -609,6 +716,10 @@ public class Logger extends BEASTObject {
      * stop logging, produce end of log message and close file (if necessary) *
      */
     public void close() {
+        if (binaryWriter != null) {
+            m_out.close();
+            return;
+        }
         for (final Loggable m_logger : loggerList) {
             m_logger.close(m_out);
         }
@@ -616,6 +727,16 @@ public class Logger extends BEASTObject {
         if (m_out != System.out) {
             // close all file, except stdout
             m_out.close();
+            if (logIndex != null) {
+                try {
+                    if (logIndex.getType() == null) {
+                        logIndex = LogIndex.build(new File(fileName), mode == LOGMODE.tree);
+                    }
+                    logIndex.save();
+                } catch (IOException e) {
+                    Log.warning.println("Could not write index for " + fileName + ": " + e.getMessage());
+                }
+            }
         }
     } // close
 
@@ -627,4 +748,25 @@ public class Logger extends BEASTObject {
         return sampleOffset < 0 ? 0 : sampleOffset;
     }
 
+    /**
+     * @return prefix for log and state file names of the current thread if set,
+     * otherwise the file.name.prefix property (which may be null)
+     */
+    public static String getFileNamePrefix() {
+        final String prefix = threadFileNamePrefix.get();
+        return prefix != null ? prefix : System.getProperty("file.name.prefix");
+    }
+
+    /**
+     * set prefix for log and state file names used by the current thread and threads
+     * started from it, or null to use the file.name.prefix property again
+     */
+    public static void setThreadFileNamePrefix(final String prefix) {
+        if (prefix == null) {
+            threadFileNamePrefix.remove();
+        } else {
+            threadFileNamePrefix.set(prefix);
+        }
+    }
+
 } // class Logger
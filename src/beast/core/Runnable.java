@@ -19,8 +19,8 @@ public abstract class Runnable extends BEASTObject {
     	if (System.getProperty("state.file.name") != null) {
     		stateFileName = System.getProperty("state.file.name");
     	} else {
-            if (System.getProperty("file.name.prefix") != null) {
-            	stateFileName = System.getProperty("file.name.prefix") + "/" + fileName;
+            if (Logger.getFileNamePrefix() != null) {
+            	stateFileName = Logger.getFileNamePrefix() + "/" + fileName;
             } else {
             	stateFileName = fileName;
             }
@@ -79,6 +79,7 @@ public interface Parameter<T> extends Function {
             m_fUpper = getMax();
             m_fLower = getMin();
             m_bIsDirty = new boolean[values.length];
+            dirtyIndexCount = 0;
             for (T value : values) {
             	valuesInput.get().add(value);
             }
@@ -98,6 +99,7 @@ public interface Parameter<T> extends Function {
             }
 
             m_bIsDirty = new boolean[dimensionInput.get()];
+            dirtyIndexCount = 0;
 
             minorDimension = minorDimensionInput.get();
             if (minorDimension > 0 && dimensionInput.get() % minorDimension > 0) {
@@ -133,6 +135,13 @@ public interface Parameter<T> extends Function {
          * last element to be changed *
          */
         protected int m_nLastDirty;
+        /**
+         * indices of the elements flagged in m_bIsDirty, in the order they were
+         * changed. Only the first dirtyIndexCount entries are valid, and a count
+         * of -1 means it is not known which elements changed.
+         */
+        protected int[] dirtyIndices;
+        protected int dirtyIndexCount;
 
         /**
          * @param index dimension to check
@@ -150,10 +159,45 @@ public interface Parameter<T> extends Function {
             return m_nLastDirty;
         }
 
+        /**
+         * Returns the number of entries that changed, which are listed in
+         * getDirtyIndices(), or -1 if that is not known (e.g. after
+         * setEverythingDirty(true)), in which case isDirty(int) has to be
+         * checked for every entry.
+         */
+        public int getDirtyIndexCount() {
+            return dirtyIndexCount;
+        }
+
+        /**
+         * Returns the indices of the entries that changed. Only the first
+         * getDirtyIndexCount() entries are valid. Do not modify the array.
+         */
+        public int[] getDirtyIndices() {
+            return dirtyIndices;
+        }
+
+        /**
+         * flag element index as dirty, and add it to the dirty indices *
+         */
+        protected void markDirty(final int index) {
+            if (!m_bIsDirty[index]) {
+                m_bIsDirty[index] = true;
+                if (dirtyIndexCount >= 0) {
+                    if (dirtyIndices == null || dirtyIndices.length < m_bIsDirty.length) {
+                        dirtyIndices = Arrays.copyOf(dirtyIndices == null ? new int[0] : dirtyIndices, m_bIsDirty.length);
+                    }
+                    dirtyIndices[dirtyIndexCount++] = index;
+                }
+            }
+            m_nLastDirty = index;
+        }
+
         @Override
         public void setEverythingDirty(final boolean isDirty) {
             setSomethingIsDirty(isDirty);
             Arrays.fill(m_bIsDirty, isDirty);
+            dirtyIndexCount = isDirty ? -1 : 0;
         }
 
         /*
@@ -186,6 +230,7 @@ public interface Parameter<T> extends Function {
                 //storedValues = (T[]) Array.newInstance(m_fUpper.getClass(), dimension);
             }
             m_bIsDirty = new boolean[dimension];
+            dirtyIndexCount = 0;
             try {
                 dimensionInput.setValue(dimension, this);
             } catch (Exception e) {
@@ -253,8 +298,7 @@ public interface Parameter<T> extends Function {
             startEditing(null);
 
             values[0] = value;
-            m_bIsDirty[0] = true;
-            m_nLastDirty = 0;
+            markDirty(0);
         }
 
         @Override
@@ -262,8 +306,7 @@ public interface Parameter<T> extends Function {
             startEditing(null);
 
             values[param] = value;
-            m_bIsDirty[param] = true;
-            m_nLastDirty = param;
+            markDirty(param);
 
         }
 
@@ -273,8 +316,8 @@ public interface Parameter<T> extends Function {
             final T tmp = values[left];
             values[left] = values[right];
             values[right] = tmp;
-            m_bIsDirty[left] = true;
-            m_bIsDirty[right] = true;
+            markDirty(left);
+            markDirty(right);
         }
 
         /**
@@ -303,6 +346,8 @@ public interface Parameter<T> extends Function {
                 final Parameter.Base<T> copy = (Parameter.Base<T>) this.clone();
                 copy.values = values.clone();//new Boolean[values.length];
                 copy.m_bIsDirty = new boolean[values.length];
+                copy.dirtyIndices = null;
+                copy.dirtyIndexCount = 0;
                 return copy;
             } catch (Exception e) {
                 e.printStackTrace();
@@ -321,6 +366,8 @@ public interface Parameter<T> extends Function {
             copy.m_fLower = m_fLower;
             copy.m_fUpper = m_fUpper;
             copy.m_bIsDirty = new boolean[values.length];
+            copy.dirtyIndices = null;
+            copy.dirtyIndexCount = 0;
         }
 
         @Override
@@ -334,6 +381,7 @@ public interface Parameter<T> extends Function {
             m_fLower = source.m_fLower;
             m_fUpper = source.m_fUpper;
             m_bIsDirty = new boolean[source.values.length];
+            dirtyIndexCount = 0;
         }
 
         @Override
@@ -342,6 +390,7 @@ public interface Parameter<T> extends Function {
             final Parameter.Base<T> source = (Parameter.Base<T>) other;
             System.arraycopy(source.values, 0, values, 0, Math.min(values.length, source.getDimension()));
             Arrays.fill(m_bIsDirty, false);
+            dirtyIndexCount = 0;
         }
 
         /**
@@ -478,6 +527,7 @@ public interface Parameter<T> extends Function {
             hasStartedEditing = false;
             if (m_bIsDirty.length != values.length) {
                 m_bIsDirty = new boolean[values.length];
+                dirtyIndexCount = 0;
             }
         }
     } // class Parameter
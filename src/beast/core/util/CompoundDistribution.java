@@ -41,6 +41,7 @@ import beast.core.Description;
 import beast.core.Distribution;
 import beast.core.Input;
 import beast.core.State;
+import beast.util.ThreadContext;
 
 
 @Description("Takes a collection of distributions, typically a number of likelihoods " +
@@ -75,7 +76,7 @@ public class CompoundDistribution extends Distribution {
 			nrOfThreads = Math.min(maxNrOfThreadsInput.get(), BeastMCMC.m_nThreads);
 		}
 		if (useThreads) {
-		     exec = Executors.newFixedThreadPool(nrOfThreads);
+		     exec = ThreadContext.wrap(Executors.newFixedThreadPool(nrOfThreads));
 		}
 
         ignore = ignoreInput.get();
@@ -1,7 +1,7 @@
 package beast.core.util;
 
 import java.io.PrintStream;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import beast.core.BEASTObject;
@@ -10,6 +10,7 @@ import beast.core.Function;
 import beast.core.Input;
 import beast.core.Input.Validate;
 import beast.core.Loggable;
+import beast.math.FFT;
 
 
 //import beast.core.Distribution;
@@ -17,13 +18,20 @@ import beast.core.Loggable;
 @Description("Report effective sample size of a parameter or log values from a distribution. " +
         "This uses the same criterion as Tracer and assumes 10% burn in.")
 public class ESS extends BEASTObject implements Loggable {
+    public enum Method {ACT, batchMeans}
+
     final public Input<Function> functionInput =
             new Input<>("arg", "value (e.g. parameter or distribution) to report ESS for", Validate.REQUIRED);
+    final public Input<Method> methodInput = new Input<>("method", "how the ESS is estimated while logging, one of " +
+            Arrays.toString(Method.values()) + ". ACT uses the auto correlation of the trace, as Tracer does, " +
+            "which takes time proportional to the maximum lag per sample. batchMeans takes constant time and memory, " +
+            "but is less accurate", Method.ACT, Method.values());
 
     /**
-     * values from which the ESS is calculated *
+     * values from which the ESS is calculated, the first traceSize of which are in use *
      */
-    List<Double> trace;
+    double[] trace;
+    int traceSize;
     /**
      * sum of trace, excluding burn-in *
      */
@@ -31,12 +39,23 @@ public class ESS extends BEASTObject implements Loggable {
     /**
      * keep track of sums of trace(i)*trace(i_+ lag) for all lags, excluding burn-in  *
      */
-    List<Double> squareLaggedSums;
+    double[] squareLaggedSums;
+    /**
+     * auto correlations for all lags, the first maxLag of which are in use, reused between samples *
+     */
+    double[] autoCorrelation;
+
+    /** used instead of the above for the batchMeans method **/
+    OnlineBatchMeans batchMeans;
 
     @Override
     public void initAndValidate() {
-        trace = new ArrayList<>();
-        squareLaggedSums = new ArrayList<>();
+        trace = new double[16];
+        traceSize = 0;
+        sum = 0;
+        squareLaggedSums = new double[MAX_LAG];
+        autoCorrelation = new double[MAX_LAG];
+        batchMeans = methodInput.get() == Method.batchMeans ? new OnlineBatchMeans() : null;
     }
 
     @Override
@@ -64,17 +83,34 @@ public class ESS extends BEASTObject implements Loggable {
 
     @Override
     public void log(final long sample, PrintStream out) {
-        final Double newValue = functionInput.get().getArrayValue();
-        trace.add(newValue);
+        final double newValue = functionInput.get().getArrayValue();
+        final double ess;
+        if (batchMeans != null) {
+            batchMeans.add(newValue);
+            ess = batchMeans.getESS();
+        } else {
+            ess = addToTrace(newValue);
+        }
+        String str = ess + "";
+        str = str.substring(0, str.indexOf('.') + 2);
+        out.print(str + "\t");
+    } // log
+
+    /** add value to the trace and @return ESS of the trace after 10% burn in **/
+    private double addToTrace(final double newValue) {
+        if (traceSize == trace.length) {
+            trace = Arrays.copyOf(trace, 2 * traceSize);
+        }
+        trace[traceSize++] = newValue;
         sum += newValue;
 
-        final int totalSamples = trace.size();
+        final int totalSamples = traceSize;
 
         // take 10% burn in
         final int start = totalSamples / 10;
         if (start != ((totalSamples - 1) / 10)) {
             // compensate for 10% burnin
-            sum -= trace.get((totalSamples - 1) / 10);
+            sum -= trace[(totalSamples - 1) / 10];
         }
         final int sampleCount = totalSamples - start;
         final int maxLag = Math.min(sampleCount, MAX_LAG);
@@ -85,63 +121,113 @@ public class ESS extends BEASTObject implements Loggable {
         if (start != ((totalSamples - 1) / 10)) {
             // compensate for 10% burnin
             int traceIndex = ((totalSamples - 1) / 10);
-            for (int lagIndex = 0; lagIndex < squareLaggedSums.size(); lagIndex++) {
-                squareLaggedSums.set(lagIndex, squareLaggedSums.get(lagIndex) - trace.get(traceIndex) * trace.get(traceIndex + lagIndex));
+            // lags that were in use before this sample was added
+            final int usedLags = Math.min(sampleCount, MAX_LAG);
+            for (int lagIndex = 0; lagIndex < usedLags; lagIndex++) {
+                squareLaggedSums[lagIndex] -= trace[traceIndex] * trace[traceIndex + lagIndex];
             }
         }
 
-        while (squareLaggedSums.size() < maxLag) {
-            squareLaggedSums.add(0.0);
-        }
-
         // calculate auto correlation for selected lag times
-        double[] autoCorrelation = new double[maxLag];
         // sum1 = \sum_{start ... totalSamples-lagIndex-1} trace
         double sum1 = sum;
         // sum2 = \sum_{start+lagIndex ... totalSamples-1} trace
         double sum2 = sum;
         for (int lag = 0; lag < maxLag; lag++) {
-            squareLaggedSums.set(lag, squareLaggedSums.get(lag) + trace.get(totalSamples - lag - 1) * trace.get(totalSamples - 1));
+            squareLaggedSums[lag] += trace[totalSamples - lag - 1] * trace[totalSamples - 1];
             // The following line is the same approximation as in Tracer 
             // (valid since mean *(samples - lag), sum1, and sum2 are approximately the same)
             // though a more accurate estimate would be
             // autoCorrelation[lag] = m_fSquareLaggedSums.get(lag) - sum1 * sum2
-            autoCorrelation[lag] = squareLaggedSums.get(lag) - (sum1 + sum2) * mean + mean * mean * (sampleCount - lag);
+            autoCorrelation[lag] = squareLaggedSums[lag] - (sum1 + sum2) * mean + mean * mean * (sampleCount - lag);
             autoCorrelation[lag] /= (sampleCount - lag);
-            sum1 -= trace.get(totalSamples - 1 - lag);
-            sum2 -= trace.get(start + lag);
-        }
-
-        double integralOfACFunctionTimes2 = 0.0;
-        for (int lagIndex = 0; lagIndex < maxLag; lagIndex++) {
-            if (lagIndex == 0) {
-                integralOfACFunctionTimes2 = autoCorrelation[0];
-            } else if (lagIndex % 2 == 0) {
-                // fancy stopping criterion - see main comment
-                if (autoCorrelation[lagIndex - 1] + autoCorrelation[lagIndex] > 0) {
-                    integralOfACFunctionTimes2 += 2.0 * (autoCorrelation[lagIndex - 1] + autoCorrelation[lagIndex]);
-                } else {
-                    // stop
-                    break;
-                }
-            }
+            sum1 -= trace[totalSamples - 1 - lag];
+            sum2 -= trace[start + lag];
         }
 
         // auto correlation time
-        final double act = integralOfACFunctionTimes2 / autoCorrelation[0];
+        final double act = integralOfACFunctionTimes2(autoCorrelation, maxLag) / autoCorrelation[0];
 
         // effective sample size
-        final double ess = sampleCount / act;
-        String str = ess + "";
-        str = str.substring(0, str.indexOf('.') + 2);
-        out.print(str + "\t");
-    } // log
+        return sampleCount / act;
+    }
 
     @Override
     public void close(PrintStream out) {
         // nothing to do
     }
 
+    /**
+     * ESS estimated by batch means, updated in constant amortised time per sample
+     * and in constant memory. The samples are divided into between MAX_BATCHES / 2
+     * and MAX_BATCHES batches of equal size, and when all batches are full,
+     * neighbouring batches are merged, doubling the batch size. Batches that
+     * start in the first 10% of the samples are ignored as burn in. The ACT is
+     * the batch size times the variance of the batch means divided by the
+     * variance of the samples, which is accurate once batches are considerably
+     * longer than the ACT.
+     */
+    public static class OnlineBatchMeans {
+        final static int MAX_BATCHES = 128;
+
+        final private double[] batchSum = new double[MAX_BATCHES];
+        final private double[] batchSumSquares = new double[MAX_BATCHES];
+        private int batchCount = 0;
+        private long batchSize = 1;
+        /** incomplete batch **/
+        private double sum, sumSquares;
+        private long count;
+        private long sampleCount;
+
+        public void add(double value) {
+            sum += value;
+            sumSquares += value * value;
+            count++;
+            sampleCount++;
+            if (count == batchSize) {
+                batchSum[batchCount] = sum;
+                batchSumSquares[batchCount] = sumSquares;
+                batchCount++;
+                sum = 0;
+                sumSquares = 0;
+                count = 0;
+                if (batchCount == MAX_BATCHES) {
+                    for (int i = 0; i < MAX_BATCHES / 2; i++) {
+                        batchSum[i] = batchSum[2 * i] + batchSum[2 * i + 1];
+                        batchSumSquares[i] = batchSumSquares[2 * i] + batchSumSquares[2 * i + 1];
+                    }
+                    batchCount = MAX_BATCHES / 2;
+                    batchSize *= 2;
+                }
+            }
+        }
+
+        /** @return estimated ESS of the samples after 10% burn in, or NaN if there are fewer than two batches **/
+        public double getESS() {
+            // first batch starting after the burn in
+            final int first = (int) ((sampleCount / 10 + batchSize - 1) / batchSize);
+            final int batches = batchCount - first;
+            if (batches < 2) {
+                return Double.NaN;
+            }
+            double total = 0, totalSquares = 0;
+            for (int i = first; i < batchCount; i++) {
+                total += batchSum[i];
+                totalSquares += batchSumSquares[i];
+            }
+            final double n = (double) batches * batchSize;
+            final double mean = total / n;
+            final double variance = totalSquares / n - mean * mean;
+            double batchVariance = 0;
+            for (int i = first; i < batchCount; i++) {
+                final double d = batchSum[i] / batchSize - mean;
+                batchVariance += d * d;
+            }
+            batchVariance /= batches;
+            final double act = batchSize * batchVariance / variance;
+            return n / act;
+        }
+    }
 
     /**
      * return ESS time of a sample, batch version.
@@ -159,101 +245,131 @@ public class ESS extends BEASTObject implements Loggable {
     }
 
     public static double ACT(Double[] trace, int sampleInterval) {
-        /** sum of trace, excluding burn-in **/
-        double sum = 0.0;
-        /** keep track of sums of trace(i)*trace(i_+ lag) for all lags, excluding burn-in  **/
-        double[] squareLaggedSums = new double[MAX_LAG];
-        double[] autoCorrelation = new double[MAX_LAG];
-        for (int i = 0; i < trace.length; i++) {
-            sum += trace[i];
-            // calculate mean
-            final double mean = sum / (i + 1);
-
-            // calculate auto correlation for selected lag times
-            // sum1 = \sum_{start ... totalSamples-lag-1} trace
-            double sum1 = sum;
-            // sum2 = \sum_{start+lag ... totalSamples-1} trace
-            double sum2 = sum;
-            for (int lagIndex = 0; lagIndex < Math.min(i + 1, MAX_LAG); lagIndex++) {
-                squareLaggedSums[lagIndex] = squareLaggedSums[lagIndex] + trace[i - lagIndex] * trace[i];
-                // The following line is the same approximation as in Tracer
-                // (valid since mean *(samples - lag), sum1, and sum2 are approximately the same)
-                // though a more accurate estimate would be
-                // autoCorrelation[lag] = m_fSquareLaggedSums.get(lag) - sum1 * sum2
-                autoCorrelation[lagIndex] = squareLaggedSums[lagIndex] - (sum1 + sum2) * mean + mean * mean * (i + 1 - lagIndex);
-                autoCorrelation[lagIndex] /= (i + 1 - lagIndex);
-                sum1 -= trace[i - lagIndex];
-                sum2 -= trace[lagIndex];
-            }
-        }
-
-        final int maxLag = Math.min(trace.length, MAX_LAG);
-        double integralOfACFunctionTimes2 = 0.0;
-        for (int lagIndex = 0; lagIndex < maxLag; lagIndex++) //{
-            if (lagIndex == 0) //{
-                integralOfACFunctionTimes2 = autoCorrelation[0];
-            else if (lagIndex % 2 == 0)
-                // fancy stopping criterion - see main comment in Tracer code of BEAST 1
-                if (autoCorrelation[lagIndex - 1] + autoCorrelation[lagIndex] > 0) //{
-                    integralOfACFunctionTimes2 += 2.0 * (autoCorrelation[lagIndex - 1] + autoCorrelation[lagIndex]);
-                else
-                    // stop
-                    break;
-        //}
-        //}
-        //}
+        return ACT(unbox(trace), sampleInterval);
+    }
 
+    /**
+     * @return auto correlation time of trace, as Tracer estimates it from the
+     * auto correlations up to MAX_LAG, computed by FFT in O(n log n) time
+     */
+    public static double ACT(double[] trace, int sampleInterval) {
+        if (trace.length == 0) {
+            return Double.NaN;
+        }
+        final double[] autoCorrelation = autoCorrelation(trace, MAX_LAG);
         // auto correlation time
-        return sampleInterval * integralOfACFunctionTimes2 / autoCorrelation[0];
+        return sampleInterval * integralOfACFunctionTimes2(autoCorrelation) / autoCorrelation[0];
     }
 
     public static double stdErrorOfMean(Double[] trace, int sampleInterval) {
-        /** sum of trace, excluding burn-in **/
-        double sum = 0.0;
-        /** keep track of sums of trace(i)*trace(i_+ lag) for all lags, excluding burn-in  **/
-        double[] squareLaggedSums = new double[MAX_LAG];
-        double[] autoCorrelation = new double[MAX_LAG];
-        for (int i = 0; i < trace.length; i++) {
-            sum += trace[i];
-            // calculate mean
-            final double mean = sum / (i + 1);
-
-            // calculate auto correlation for selected lag times
-            // sum1 = \sum_{start ... totalSamples-lag-1} trace
-            double sum1 = sum;
-            // sum2 = \sum_{start+lag ... totalSamples-1} trace
-            double sum2 = sum;
-            for (int lagIndex = 0; lagIndex < Math.min(i + 1, MAX_LAG); lagIndex++) {
-                squareLaggedSums[lagIndex] = squareLaggedSums[lagIndex] + trace[i - lagIndex] * trace[i];
-                // The following line is the same approximation as in Tracer
-                // (valid since mean *(samples - lag), sum1, and sum2 are approximately the same)
-                // though a more accurate estimate would be
-                // autoCorrelation[lag] = m_fSquareLaggedSums.get(lag) - sum1 * sum2
-                autoCorrelation[lagIndex] = squareLaggedSums[lagIndex] - (sum1 + sum2) * mean + mean * mean * (i + 1 - lagIndex);
-                autoCorrelation[lagIndex] /= (i + 1 - lagIndex);
-                sum1 -= trace[i - lagIndex];
-                sum2 -= trace[lagIndex];
-            }
+        return stdErrorOfMean(unbox(trace), sampleInterval);
+    }
+
+    public static double stdErrorOfMean(double[] trace, int sampleInterval) {
+        if (trace.length == 0) {
+            return Double.NaN;
         }
+        final double[] autoCorrelation = autoCorrelation(trace, MAX_LAG);
+        return Math.sqrt(integralOfACFunctionTimes2(autoCorrelation) / trace.length);
+    }
 
-        final int maxLag = Math.min(trace.length, MAX_LAG);
+    public static double calcESS(double[] trace, int sampleInterval) {
+        return trace.length / (ACT(trace, sampleInterval) / sampleInterval);
+    }
+
+    /**
+     * @return auto covariance of trace for lags 0 up to min(maxLag, trace.length) - 1,
+     * that is, the sum of (trace[t] - mean) * (trace[t + lag] - mean) divided by the
+     * number of terms, where mean is the mean of the whole trace.
+     * This equals the approximation used by Tracer (and earlier versions of this class)
+     * computed by accumulating sums lag by lag.
+     */
+    public static double[] autoCorrelation(double[] trace, int maxLag) {
+        final int n = trace.length;
+        double mean = 0;
+        for (double x : trace) {
+            mean += x;
+        }
+        mean /= n;
+        // centring does not change the auto covariance, but reduces rounding errors
+        final double[] centred = new double[n];
+        for (int i = 0; i < n; i++) {
+            centred[i] = trace[i] - mean;
+        }
+        final double[] autoCorrelation = FFT.autoCorrelation(centred, maxLag);
+        for (int lag = 0; lag < autoCorrelation.length; lag++) {
+            autoCorrelation[lag] /= (n - lag);
+        }
+        return autoCorrelation;
+    }
+
+    /**
+     * @return twice the integral of the auto correlation function, up to the first
+     * lag where the sum of two consecutive auto correlations is no longer positive
+     */
+    static double integralOfACFunctionTimes2(double[] autoCorrelation) {
+        return integralOfACFunctionTimes2(autoCorrelation, autoCorrelation.length);
+    }
+
+    /**
+     * as integralOfACFunctionTimes2(double[]), using only the first maxLag auto correlations
+     */
+    static double integralOfACFunctionTimes2(double[] autoCorrelation, int maxLag) {
         double integralOfACFunctionTimes2 = 0.0;
-        for (int lagIndex = 0; lagIndex < maxLag; lagIndex++) //{
-            if (lagIndex == 0) //{
+        for (int lagIndex = 0; lagIndex < maxLag; lagIndex++) {
+            if (lagIndex == 0) {
                 integralOfACFunctionTimes2 = autoCorrelation[0];
-            else if (lagIndex % 2 == 0)
+            } else if (lagIndex % 2 == 0) {
                 // fancy stopping criterion - see main comment in Tracer code of BEAST 1
-                if (autoCorrelation[lagIndex - 1] + autoCorrelation[lagIndex] > 0) //{
+                if (autoCorrelation[lagIndex - 1] + autoCorrelation[lagIndex] > 0) {
                     integralOfACFunctionTimes2 += 2.0 * (autoCorrelation[lagIndex - 1] + autoCorrelation[lagIndex]);
-                else
+                } else {
                     // stop
                     break;
-        //}
-        //}
-        //}
+                }
+            }
+        }
+        return integralOfACFunctionTimes2;
+    }
 
-        // auto correlation time
-        return Math.sqrt(integralOfACFunctionTimes2 / trace.length);
+    /**
+     * @return auto correlation time of trace estimated by the method of batch means,
+     * with about sqrt(n) batches of about sqrt(n) samples, in O(n) time. This is less
+     * accurate than ACT, but does not limit the auto correlation time to MAX_LAG.
+     */
+    public static double ACTBatchMeans(double[] trace, int sampleInterval) {
+        final int batchSize = (int) Math.sqrt(trace.length);
+        final int batches = batchSize == 0 ? 0 : trace.length / batchSize;
+        if (batches < 2) {
+            return Double.NaN;
+        }
+        final int n = batches * batchSize;
+        double mean = 0;
+        for (int i = 0; i < n; i++) {
+            mean += trace[i];
+        }
+        mean /= n;
+        double variance = 0, batchVariance = 0;
+        for (int b = 0; b < batches; b++) {
+            double batchMean = 0;
+            for (int i = b * batchSize; i < (b + 1) * batchSize; i++) {
+                variance += (trace[i] - mean) * (trace[i] - mean);
+                batchMean += trace[i];
+            }
+            batchMean = batchMean / batchSize - mean;
+            batchVariance += batchMean * batchMean;
+        }
+        variance /= n;
+        batchVariance /= batches;
+        return sampleInterval * batchSize * batchVariance / variance;
+    }
+
+    private static double[] unbox(Double[] trace) {
+        double[] values = new double[trace.length];
+        for (int i = 0; i < trace.length; i++) {
+            values[i] = trace[i];
+        }
+        return values;
     }
 
 } // class ESS
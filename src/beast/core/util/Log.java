@@ -92,6 +92,10 @@ public class Log {
 	final static public int DEBUG = 3;
 	final static public int TRACE = 4;
 	
+	static public Level getLevel() {
+		return level;
+	}
+
 	/** Determines the level of logging that actually
 	 * reaches output. Only newLevel and below will 
 	 * be shown, the rest is suppressed.
@@ -4,10 +4,12 @@ package beast.evolution.branchratemodel;
 import beast.core.Description;
 import beast.core.Input;
 import beast.core.parameter.BooleanParameter;
+import beast.core.parameter.Parameter;
 import beast.core.parameter.RealParameter;
 import beast.core.util.Log;
 import beast.evolution.tree.Node;
 import beast.evolution.tree.Tree;
+import beast.math.SegmentTree;
 
 /**
  * @author Alexei Drummond
@@ -45,7 +47,12 @@ public class RandomLocalClockModel extends BranchRateModel.Base {
             indicators.setDimension(m_tree.getNodeCount() - 1);
         }
 
-        unscaledBranchRates = new double[m_tree.getNodeCount()];
+        final int nodeCount = m_tree.getNodeCount();
+        unscaledBranchRates = new double[nodeCount];
+        storedUnscaledBranchRates = new double[nodeCount];
+        changedNodes = new int[nodeCount];
+        isChanged = new boolean[nodeCount];
+        branchTotals = new SegmentTree(nodeCount);
 
         RealParameter rates = rateParamInput.get();
         if (rates.lowerValueInput.get() == null || rates.lowerValueInput.get() < 0.0) {
@@ -78,18 +85,10 @@ public class RandomLocalClockModel extends BranchRateModel.Base {
      */
     private void calculateUnscaledBranchRates(Node node, double rate, BooleanParameter indicators, RealParameter rates) {
 
-        int nodeNumber = getNr(node);
-
         if (!node.isRoot()) {
-            if (indicators.getValue(nodeNumber)) {
-                if (ratesAreMultipliers) {
-                    rate *= rates.getValue(nodeNumber);
-                } else {
-                    rate = rates.getValue(nodeNumber);
-                }
-            }
+            rate = getBranchRate(node, rate, indicators, rates);
         }
-        unscaledBranchRates[nodeNumber] = rate;
+        setUnscaledBranchRate(node, rate);
 
         if (!node.isLeaf()) {
             calculateUnscaledBranchRates(node.getLeft(), rate, indicators, rates);
@@ -97,6 +96,50 @@ public class RandomLocalClockModel extends BranchRateModel.Base {
         }
     }
 
+    /**
+     * @param rate the rate of the parent node
+     * @return unscaled rate of the branch above node
+     */
+    private double getBranchRate(Node node, double rate, BooleanParameter indicators, RealParameter rates) {
+        int nodeNumber = getNr(node);
+        if (indicators.getValue(nodeNumber)) {
+            if (ratesAreMultipliers) {
+                rate *= rates.getValue(nodeNumber);
+            } else {
+                rate = rates.getValue(nodeNumber);
+            }
+        }
+        return rate;
+    }
+
+    /**
+     * Recomputes the rate of the branch above node after its indicator or rate changed,
+     * and passes changes on down the tree, up to branches that keep their rate, which
+     * are branches with a rate change unless rates are multipliers.
+     */
+    private void updateUnscaledBranchRates(Node node, BooleanParameter indicators, RealParameter rates) {
+        final double rate = getBranchRate(node, unscaledBranchRates[node.getParent().getNr()], indicators, rates);
+        if (rate != unscaledBranchRates[node.getNr()]) {
+            setUnscaledBranchRate(node, rate);
+            if (!node.isLeaf()) {
+                updateUnscaledBranchRates(node.getLeft(), indicators, rates);
+                updateUnscaledBranchRates(node.getRight(), indicators, rates);
+            }
+        }
+    }
+
+    /** sets the rate of the branch above node, keeping the old rate for restore() **/
+    private void setUnscaledBranchRate(Node node, double rate) {
+        final int nr = node.getNr();
+        if (!isChanged[nr]) {
+            isChanged[nr] = true;
+            changedNodes[changedNodeCount++] = nr;
+            storedUnscaledBranchRates[nr] = unscaledBranchRates[nr];
+        }
+        unscaledBranchRates[nr] = rate;
+        branchTotals.set(nr, node.isRoot() ? 0.0 : (node.getParent().getHeight() - node.getHeight()) * rate);
+    }
+
     private void recalculateScaleFactor() {
 
         BooleanParameter indicators = indicatorParamInput.get();
@@ -104,39 +147,37 @@ public class RandomLocalClockModel extends BranchRateModel.Base {
 
         calculateUnscaledBranchRates(m_tree.getRoot(), 1.0, indicators, rates);
 
-        double timeTotal = 0.0;
-        double branchTotal = 0.0;
-
+        timeTotal = 0.0;
         for (int i = 0; i < m_tree.getNodeCount(); i++) {
             Node node = m_tree.getNode(i);
             if (!node.isRoot()) {
-
-                double branchInTime = node.getParent().getHeight() - node.getHeight();
-
-                double branchLength = branchInTime * unscaledBranchRates[node.getNr()];
-
-                timeTotal += branchInTime;
-                branchTotal += branchLength;
+                timeTotal += node.getParent().getHeight() - node.getHeight();
             }
         }
 
-        scaleFactor = timeTotal / branchTotal;
+        updateScaleFactor();
+    }
+
+    private void updateScaleFactor() {
+        scaleFactor = timeTotal / branchTotals.total();
 
         scaleFactor *= meanRate.getValue();
     }
 
     @Override
     public double getRateForBranch(Node node) {
-        // this must be synchronized to avoid being called simultaneously by
-        // two different likelihood threads
-    	synchronized (this) {
-    		if (recompute) {
-                recalculateScaleFactor();
-                recompute = false;
-			}
+        if (recompute) {
+            // this must be synchronized to avoid being called simultaneously by
+            // two different likelihood threads
+            synchronized (this) {
+                if (recompute) {
+                    recalculateScaleFactor();
+                    recompute = false;
+                }
+            }
         }
 
-        return unscaledBranchRates[getNr(node)] * scaleFactor;
+        return unscaledBranchRates[node.getNr()] * scaleFactor;
     }
 
     private int getNr(Node node) {
@@ -150,24 +191,89 @@ public class RandomLocalClockModel extends BranchRateModel.Base {
     @Override
     protected boolean requiresRecalculation() {
         // this is only called if any of its inputs is dirty, hence we need to recompute
-        recompute = true;
+        if (recompute || m_tree.somethingIsDirty()) {
+            // the tree walk is done by the first call of getRateForBranch
+            recompute = true;
+            return true;
+        }
+
+        BooleanParameter indicators = indicatorParamInput.get();
+        RealParameter rates = rateParamInput.get();
+        if (indicators.somethingIsDirty()) {
+            updateDirtyBranches(indicators, indicators, rates);
+        }
+        if (rates.somethingIsDirty()) {
+            updateDirtyBranches(rates, indicators, rates);
+        }
+        updateScaleFactor();
         return true;
     }
 
+    /**
+     * Recomputes rates of branches whose indicator or rate changed, and of the
+     * branches below them that inherit the rate
+     */
+    private void updateDirtyBranches(Parameter.Base<?> parameter, BooleanParameter indicators, RealParameter rates) {
+        final int rootNr = m_tree.getRoot().getNr();
+        int dirtyCount = parameter.getDirtyIndexCount();
+        if (dirtyCount < 0) {
+            for (int i = 0; i < parameter.getDimension(); i++) {
+                if (parameter.isDirty(i)) {
+                    updateUnscaledBranchRates(m_tree.getNode(i < rootNr ? i : i + 1), indicators, rates);
+                }
+            }
+        } else {
+            int[] dirtyIndices = parameter.getDirtyIndices();
+            for (int k = 0; k < dirtyCount; k++) {
+                final int i = dirtyIndices[k];
+                updateUnscaledBranchRates(m_tree.getNode(i < rootNr ? i : i + 1), indicators, rates);
+            }
+        }
+    }
+
     @Override
     protected void store() {
-        recompute = true;
+        for (int i = 0; i < changedNodeCount; i++) {
+            isChanged[changedNodes[i]] = false;
+        }
+        changedNodeCount = 0;
+        branchTotals.store();
+        storedTimeTotal = timeTotal;
+        storedScaleFactor = scaleFactor;
+        storedRecompute = recompute;
         super.store();
     }
 
     @Override
     protected void restore() {
-        recompute = true;
+        for (int i = 0; i < changedNodeCount; i++) {
+            final int nr = changedNodes[i];
+            unscaledBranchRates[nr] = storedUnscaledBranchRates[nr];
+            isChanged[nr] = false;
+        }
+        changedNodeCount = 0;
+        branchTotals.restore();
+        timeTotal = storedTimeTotal;
+        scaleFactor = storedScaleFactor;
+        // rates stored before being computed are still out of date
+        recompute = storedRecompute;
         super.restore();
     }
 
-    private boolean recompute = true;
+    private volatile boolean recompute = true;
+    private boolean storedRecompute = true;
+    // unscaled rate of the branch above every node, by node number
     double[] unscaledBranchRates;
+    // rates that changed since the last store(), for restore()
+    double[] storedUnscaledBranchRates;
+    int[] changedNodes;
+    int changedNodeCount;
+    boolean[] isChanged;
+    // length of every branch in time times its unscaled rate, and total length in time
+    SegmentTree branchTotals;
+    double timeTotal;
+    double storedTimeTotal;
     double scaleFactor;
+    double storedScaleFactor;
     boolean ratesAreMultipliers = false;
 }
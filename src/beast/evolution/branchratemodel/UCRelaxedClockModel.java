@@ -9,6 +9,7 @@ import beast.core.Citation;
 import beast.core.Description;
 import beast.core.Input;
 import beast.core.parameter.IntegerParameter;
+import beast.core.parameter.Parameter;
 import beast.core.parameter.RealParameter;
 import beast.core.util.Log;
 import beast.evolution.tree.Node;
@@ -16,6 +17,7 @@ import beast.evolution.tree.Tree;
 import beast.math.distributions.ParametricDistribution;
 import beast.util.Randomizer;
 import beast.math.distributions.LogNormalDistributionModel;
+import beast.math.distributions.Normal;
 
 /**
  * @author Alexei Drummond
@@ -46,12 +48,11 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
     IntegerParameter categories; //when mode=categories
     RealParameter quantiles; // when mode=quantiles
 
-    // if using categories, then it is set to be true; otherwise, it is set to be false.
-    boolean usingcategories;
-
     ParametricDistribution distribution; //the distribution of the rates
     // i.e. LogNormal(M,S,MeanInRealSpace), then get the three parameters
     double M;double S;boolean MeanInRealSpace;
+    // set if the rates are log-normal, so that quantiles can be computed directly
+    private LogNormalDistributionModel logNormal;
 
     RealParameter meanRate;
     Tree tree;
@@ -61,6 +62,19 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
     private boolean renormalize = true;//
     private double[] rates; //the output rates
     private double[] storedRates; //
+    // raw rate for every entry of categories or quantiles, so that the inverse cumulative
+    // probability is only calculated for entries that changed, or when the distribution changed
+    private double[] branchRates;
+    private double[] storedBranchRates;
+    // branch rates changed since store(), whose old values are kept in storedBranchRates,
+    // or all of them if allBranchRatesStored
+    private int[] changedBranches;
+    private int changedBranchCount = 0;
+    private boolean[] isBranchRateStored;
+    private boolean allBranchRatesStored = false;
+    // set when prepare() moved the rates of the categories to storedRates
+    private boolean ratesStored = false;
+    private boolean storedRecompute = true;
     private double scaleFactor = 1.0; //initial
     private double storedScaleFactor = 1.0; //initial
     int LATTICE_SIZE_FOR_DISCRETIZED_RATES = 100;//
@@ -80,6 +94,9 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
              M=mylognormal.MParameterInput.get().getValue();
              S=mylognormal.SParameterInput.get().getValue();
              MeanInRealSpace=mylognormal.hasMeanInRealSpaceInput.get();
+            if (distribution.getClass() == LogNormalDistributionModel.class) {
+                logNormal = mylognormal;
+            }
         }
         // if categories is null, then usingcategories is false; otherwise, it is set to be true.
         //if(categories==null){
@@ -91,8 +108,9 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
             } else if (rateParameter != null) {
                 mode = Mode.rates;
             }
-       } else
-           mode = Mode.categories; usingcategories = false; //right or wrong?
+       } else {
+           mode = Mode.categories;
+       }
         //Initialization for three modes
         //(1)// print information about which mode is used
         if (mode == Mode.categories) {
@@ -161,6 +179,13 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
             storedRates = new double[LATTICE_SIZE_FOR_DISCRETIZED_RATES];
             //System.arraycopy(rates, 0, storedRates, 0, rates.length);
         }
+        if (mode != Mode.rates) {
+            // branch rates are computed by prepare() when first needed
+            branchRates = new double[branchCount];
+            storedBranchRates = new double[branchCount];
+            changedBranches = new int[branchCount];
+            isBranchRateStored = new boolean[branchCount];
+        }
         normalize = normalizeInput.get();
         meanRate = meanRateInput.get();
         if (meanRate == null) {
@@ -224,32 +249,33 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
      * Computes Raw rate for node
      */
     private double getRawRate(Node node) {
-        switch (mode) {
-            case categories: return getRawRateForCategory(node);
-            case quantiles: return getRawRateForQuantile(node);
-            case rates:default: return getRawRateFromRates(node);
-        }
-    }
-    // when mode=rates, return the value in rateParameter, i.e. what is input
-    private double getRawRateFromRates(Node node) {
         int nodeNumber = node.getNr();
         if (nodeNumber == branchCount) {
             // root node has nr less than #categories, so use that nr
             nodeNumber = node.getTree().getRoot().getNr();
         }
-        return rateParameter.getValue(nodeNumber);
+        if (mode == Mode.rates) {
+            // when mode=rates, return the value in rateParameter, i.e. what is input
+            return rateParameter.getValue(nodeNumber);
+        }
+        return branchRates[nodeNumber];
     }
-    // when mode=categories
-    private double getRawRateForCategory(Node node) {
-        int nodeNumber = node.getNr();
-        if (nodeNumber == branchCount) {
-            // root node has nr less than #categories, so use that nr
-            nodeNumber = node.getTree().getRoot().getNr();
+
+    /**
+     * Computes raw rate for entry i of categories or quantiles
+     */
+    private double calcRawRate(int i) {
+        switch (mode) {
+            case categories: return getRawRateForCategory(i);
+            case quantiles:default: return getRawRateForQuantile(i);
         }
+    }
+    // when mode=categories
+    private double getRawRateForCategory(int nodeNumber) {
         int category = categories.getValue(nodeNumber);
         if (rates[category] == 0.0) {
             try {
-                rates[category] = distribution.inverseCumulativeProbability((category + 0.5) / rates.length);
+                rates[category] = inverseCumulativeProbability((category + 0.5) / rates.length);
             } catch (MathException e) {
                 throw new RuntimeException("Failed to compute inverse cumulative probability!");
             }
@@ -257,83 +283,176 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
         return rates[category];
     }
     // when mode=quantiles
-    private double getRawRateForQuantile(Node node) {
-        int nodeNumber = node.getNr();
-        if (nodeNumber == branchCount) {
-            // root node has nr less than #categories, so use that nr
-            nodeNumber = node.getTree().getRoot().getNr();
-        }
+    private double getRawRateForQuantile(int nodeNumber) {
         try {
-            return distribution.inverseCumulativeProbability(quantiles.getValue(nodeNumber));
+            return inverseCumulativeProbability(quantiles.getValue(nodeNumber));
         } catch (MathException e) {
             throw new RuntimeException("Failed to compute inverse cumulative probability!");
         }
     }
 
-   //???
-  private void prepare() {
-        if (usingcategories) {
+    /**
+     * Inverse cumulative probability of the rate distribution. For a log-normal
+     * distribution this is calculated here with Normal.standardQuantile, which is
+     * much faster than the root finding that LogNormalDistributionModel uses, so
+     * that other users of LogNormalDistributionModel are not affected.
+     */
+    private double inverseCumulativeProbability(double p) throws MathException {
+        if (logNormal == null) {
+            return distribution.inverseCumulativeProbability(p);
+        }
+        // same parameterisation as LogNormalDistributionModel.refresh()
+        RealParameter mParameter = logNormal.MParameterInput.get();
+        RealParameter sParameter = logNormal.SParameterInput.get();
+        double sigma = sParameter == null ? 1 : sParameter.getValue();
+        double mean = mParameter == null ? 0 : mParameter.getValue();
+        if (logNormal.hasMeanInRealSpaceInput.get()) {
+            mean = Math.log(mean) - (0.5 * sigma * sigma);
+        }
+        return logNormal.getOffset() + Math.exp(mean + sigma * Normal.standardQuantile(p));
+    }
+
+    /**
+     * Recomputes rates of all branches, after the distribution changed
+     */
+    private void prepare() {
+        if (mode == Mode.categories) {
+            if (!ratesStored) {
+                // keep the rates of the categories for restore()
+                double[] tmp = rates;
+                rates = storedRates;
+                storedRates = tmp;
+                ratesStored = true;
+            }
             // rates array initialized to correct length in initAndValidate
-            // here we just reset rates to zero and they are computed by getRawRate(int i) as needed
-           Arrays.fill(rates, 0.0);
+            // here we just reset rates to zero and they are computed by getRawRateForCategory(int i) as needed
+            Arrays.fill(rates, 0.0);
+        }
+        if (mode != Mode.rates) {
+            if (!allBranchRatesStored) {
+                // undo changes since store(), and keep all branch rates for restore()
+                for (int k = 0; k < changedBranchCount; k++) {
+                    branchRates[changedBranches[k]] = storedBranchRates[changedBranches[k]];
+                }
+                double[] tmp = branchRates;
+                branchRates = storedBranchRates;
+                storedBranchRates = tmp;
+                allBranchRatesStored = true;
+            }
+            for (int i = 0; i < branchCount; i++) {
+                branchRates[i] = calcRawRate(i);
+            }
+        }
+    }
+
+    /**
+     * Recomputes rates of branches whose category or quantile changed
+     */
+    private void updateDirtyRates(Parameter.Base<?> parameter) {
+        int dirtyCount = parameter.getDirtyIndexCount();
+        if (dirtyCount < 0) {
+            for (int i = 0; i < branchCount; i++) {
+                if (parameter.isDirty(i)) {
+                    setBranchRate(i, calcRawRate(i));
+                }
+            }
+        } else {
+            int[] dirtyIndices = parameter.getDirtyIndices();
+            for (int k = 0; k < dirtyCount; k++) {
+                setBranchRate(dirtyIndices[k], calcRawRate(dirtyIndices[k]));
+            }
         }
     }
 
-    //???
+    private void setBranchRate(int i, double rate) {
+        if (!allBranchRatesStored && !isBranchRateStored[i]) {
+            isBranchRateStored[i] = true;
+            storedBranchRates[i] = branchRates[i];
+            changedBranches[changedBranchCount++] = i;
+        }
+        branchRates[i] = rate;
+    }
+
+    /**
+     * Forgets which branch rates were kept for restore()
+     */
+    private void clearStoredBranchRates() {
+        for (int k = 0; k < changedBranchCount; k++) {
+            isBranchRateStored[changedBranches[k]] = false;
+        }
+        changedBranchCount = 0;
+        allBranchRatesStored = false;
+        ratesStored = false;
+    }
+
     @Override
     protected boolean requiresRecalculation() {
-        recompute = false;
-        renormalize = true;
-
-//        if (treeInput.get().somethingIsDirty()) {
-//        	recompute = true;
-//            return true;
-//        }
-        // rateDistInput cannot be dirty?!?
+        boolean isDirty = false;
         if (rateDistInput.get().isDirtyCalculation()) {
+            // all rates change with the distribution, and are recomputed by prepare()
             recompute = true;
-            return true;
+            isDirty = true;
         }
         // NOT processed as trait on the tree, so DO mark as dirty
-        if (categoryInput.get() != null && categoryInput.get().somethingIsDirty()) {
-            //recompute = true;
-            return true;
+        if (categories != null && categories.somethingIsDirty()) {
+            if (!recompute) {
+                updateDirtyRates(categories);
+            }
+            isDirty = true;
         }
 
-        if (quantileInput.get() != null && quantileInput.get().somethingIsDirty()) {
-            return true;
+        if (quantiles != null && quantiles.somethingIsDirty()) {
+            if (!recompute) {
+                updateDirtyRates(quantiles);
+            }
+            isDirty = true;
         }
 
-        if (rateInput.get() != null && rateInput.get().somethingIsDirty()) {
-            return true;
+        if (rateParameter != null && rateParameter.somethingIsDirty()) {
+            isDirty = true;
         }
+        // the scale factor only changes with branch rates and branch lengths, not with the mean rate
+        renormalize = isDirty || tree.somethingIsDirty();
+
         if (meanRate.somethingIsDirty()) {
-            return true;
+            isDirty = true;
         }
 
-        return recompute;
+        return isDirty;
     }
 
     @Override
     public void store() {
-        //used to "if (!usingquantiles)", which means categories are used
-            if (usingcategories) {
-           System.arraycopy(rates, 0, storedRates, 0, rates.length);
-            //double[] tmp1 = rates;
-            //rates = storedRates;
-            //storedRates = tmp1;
+        // rates are kept for restore() only when they change, by prepare() and setBranchRate()
+        if (branchRates != null) {
+            clearStoredBranchRates();
         }
+        storedRecompute = recompute;
         storedScaleFactor = scaleFactor;
         super.store();
     }
 
     @Override
     public void restore() {
-        if(usingcategories){
+        if (ratesStored) {
             double[] tmp = rates;
             rates = storedRates;
             storedRates = tmp;
         }
+        if (branchRates != null) {
+            if (allBranchRatesStored) {
+                double[] tmp = branchRates;
+                branchRates = storedBranchRates;
+                storedBranchRates = tmp;
+            } else {
+                for (int k = 0; k < changedBranchCount; k++) {
+                    branchRates[changedBranches[k]] = storedBranchRates[changedBranches[k]];
+                }
+            }
+            clearStoredBranchRates();
+        }
+        // stored rates are out of date if they were stored before being recomputed
+        recompute = storedRecompute;
         scaleFactor = storedScaleFactor;
         super.restore();
     }
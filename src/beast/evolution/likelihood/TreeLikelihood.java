@@ -43,6 +43,7 @@ import beast.evolution.sitemodel.SiteModel;
 import beast.evolution.substitutionmodel.SubstitutionModel;
 import beast.evolution.tree.Node;
 import beast.evolution.tree.Tree;
+import beast.evolution.tree.TreeArrays;
 import beast.evolution.tree.TreeInterface;
 
 @Description("Calculates the probability of sequence data on a beast.tree given a site and substitution model using " +
@@ -94,6 +95,11 @@ public class TreeLikelihood extends GenericTreeLikelihood {
     protected double[] m_branchLengths;
     protected double[] storedBranchLengths;
 
+    /**
+     * dirtiness of every node after it was visited by traverse(), by node number
+     */
+    private int[] updates;
+
     /**
      * memory allocation for likelihoods for each of the patterns *
      */
@@ -352,7 +358,7 @@ public class TreeLikelihood extends GenericTreeLikelihood {
         final TreeInterface tree = treeInput.get();
 
         try {
-        	if (traverse(tree.getRoot()) != Tree.IS_CLEAN)
+        	if (traverse(tree) != Tree.IS_CLEAN)
         		calcLogP();
         }
         catch (ArithmeticException e) {
@@ -375,7 +381,7 @@ public class TreeLikelihood extends GenericTreeLikelihood {
             likelihoodCore.setUseScaling(m_fScale);
             likelihoodCore.unstore();
             hasDirt = Tree.IS_FILTHY;
-            traverse(tree.getRoot());
+            traverse(tree);
             calcLogP();
             return logP;
         }
@@ -396,83 +402,94 @@ public class TreeLikelihood extends GenericTreeLikelihood {
         }
     }
 
-    /* Assumes there IS a branch rate model as opposed to traverse() */
-    int traverse(final Node node) {
-
-        int update = (node.isDirty() | hasDirt);
-
-        final int nodeIndex = node.getNr();
-
-        final double branchRate = branchRateModel.getRateForBranch(node);
-        final double branchTime = node.getLength() * branchRate;
-
-        // First update the transition probability matrix(ices) for this branch
-        //if (!node.isRoot() && (update != Tree.IS_CLEAN || branchTime != m_StoredBranchLengths[nodeIndex])) {
-        if (!node.isRoot() && (update != Tree.IS_CLEAN || branchTime != m_branchLengths[nodeIndex])) {
-            m_branchLengths[nodeIndex] = branchTime;
-            final Node parent = node.getParent();
-            likelihoodCore.setNodeMatrixForUpdate(nodeIndex);
-            for (int i = 0; i < m_siteModel.getCategoryCount(); i++) {
-                final double jointBranchRate = m_siteModel.getRateForCategory(i, node) * branchRate;
-                substitutionModel.getTransitionProbabilities(node, parent.getHeight(), node.getHeight(), jointBranchRate, probabilities);
-                //System.out.println(node.getNr() + " " + Arrays.toString(m_fProbabilities));
-                likelihoodCore.setNodeMatrix(nodeIndex, i, probabilities);
-            }
-            update |= Tree.IS_DIRTY;
+    /**
+     * Updates transition probabilities of branches and partials of nodes that changed, visiting
+     * the nodes of the tree arrays with children before parents.
+     * Assumes there IS a branch rate model.
+     *
+     * @return dirtiness of the root, Tree.IS_CLEAN if nothing was updated
+     */
+    int traverse(final TreeInterface tree) {
+        final TreeArrays arrays = tree.getTreeArrays();
+        final Node[] nodes = tree.getNodesAsArray();
+        final int[] parents = arrays.getParents();
+        final int[] lefts = arrays.getLefts();
+        final int[] rights = arrays.getRights();
+        final double[] heights = arrays.getHeights();
+        final int[] dirty = arrays.getDirty();
+        if (updates == null || updates.length != arrays.getNodeCount()) {
+            updates = new int[arrays.getNodeCount()];
         }
 
-        // If the node is internal, update the partial likelihoods.
-        if (!node.isLeaf()) {
-
-            // Traverse down the two child nodes
-            final Node child1 = node.getLeft(); //Two children
-            final int update1 = traverse(child1);
-
-            final Node child2 = node.getRight();
-            final int update2 = traverse(child2);
-
-            // If either child node was updated then update this node too
-            if (update1 != Tree.IS_CLEAN || update2 != Tree.IS_CLEAN) {
-
-                final int childNum1 = child1.getNr();
-                final int childNum2 = child2.getNr();
-
-                likelihoodCore.setNodePartialsForUpdate(nodeIndex);
-                update |= (update1 | update2);
-                if (update >= Tree.IS_FILTHY) {
-                    likelihoodCore.setNodeStatesForUpdate(nodeIndex);
-                }
-
-                if (m_siteModel.integrateAcrossCategories()) {
-                    likelihoodCore.calculatePartials(childNum1, childNum2, nodeIndex);
-                } else {
-                    throw new RuntimeException("Error TreeLikelihood 201: Site categories not supported");
-                    //m_pLikelihoodCore->calculatePartials(childNum1, childNum2, nodeNum, siteCategories);
+        for (final int nodeIndex : arrays.getPostOrder()) {
+            final Node node = nodes[nodeIndex];
+            final int parentIndex = parents[nodeIndex];
+            int update = (dirty[nodeIndex] | hasDirt);
+
+            final double branchRate = branchRateModel.getRateForBranch(node);
+            final double branchTime = (parentIndex < 0 ? 0 : heights[parentIndex] - heights[nodeIndex]) * branchRate;
+
+            // First update the transition probability matrix(ices) for this branch
+            if (parentIndex >= 0 && (update != Tree.IS_CLEAN || branchTime != m_branchLengths[nodeIndex])) {
+                m_branchLengths[nodeIndex] = branchTime;
+                likelihoodCore.setNodeMatrixForUpdate(nodeIndex);
+                for (int i = 0; i < m_siteModel.getCategoryCount(); i++) {
+                    final double jointBranchRate = m_siteModel.getRateForCategory(i, node) * branchRate;
+                    substitutionModel.getTransitionProbabilities(node, heights[parentIndex], heights[nodeIndex], jointBranchRate, probabilities);
+                    likelihoodCore.setNodeMatrix(nodeIndex, i, probabilities);
                 }
+                update |= Tree.IS_DIRTY;
+            }
 
-                if (node.isRoot()) {
-                    // No parent this is the root of the beast.tree -
-                    // calculate the pattern likelihoods
-                    final double[] frequencies = //m_pFreqs.get().
-                            substitutionModel.getFrequencies();
+            // If the node is internal, update the partial likelihoods.
+            final int childNum1 = lefts[nodeIndex];
+            if (childNum1 >= 0) {
+                // the two children come before their parent
+                final int childNum2 = rights[nodeIndex];
+                final int update1 = updates[childNum1];
+                final int update2 = updates[childNum2];
+
+                // If either child node was updated then update this node too
+                if (update1 != Tree.IS_CLEAN || update2 != Tree.IS_CLEAN) {
+
+                    likelihoodCore.setNodePartialsForUpdate(nodeIndex);
+                    update |= (update1 | update2);
+                    if (update >= Tree.IS_FILTHY) {
+                        likelihoodCore.setNodeStatesForUpdate(nodeIndex);
+                    }
 
-                    final double[] proportions = m_siteModel.getCategoryProportions(node);
-                    likelihoodCore.integratePartials(node.getNr(), proportions, m_fRootPartials);
+                    if (m_siteModel.integrateAcrossCategories()) {
+                        likelihoodCore.calculatePartials(childNum1, childNum2, nodeIndex);
+                    } else {
+                        throw new RuntimeException("Error TreeLikelihood 201: Site categories not supported");
+                        //m_pLikelihoodCore->calculatePartials(childNum1, childNum2, nodeNum, siteCategories);
+                    }
 
-                    if (constantPattern != null) { // && !SiteModel.g_bUseOriginal) {
-                        proportionInvariant = m_siteModel.getProportionInvariant();
-                        // some portion of sites is invariant, so adjust root partials for this
-                        for (final int i : constantPattern) {
-                            m_fRootPartials[i] += proportionInvariant;
+                    if (parentIndex < 0) {
+                        // No parent this is the root of the beast.tree -
+                        // calculate the pattern likelihoods
+                        final double[] frequencies = //m_pFreqs.get().
+                                substitutionModel.getFrequencies();
+
+                        final double[] proportions = m_siteModel.getCategoryProportions(node);
+                        likelihoodCore.integratePartials(nodeIndex, proportions, m_fRootPartials);
+
+                        if (constantPattern != null) { // && !SiteModel.g_bUseOriginal) {
+                            proportionInvariant = m_siteModel.getProportionInvariant();
+                            // some portion of sites is invariant, so adjust root partials for this
+                            for (final int i : constantPattern) {
+                                m_fRootPartials[i] += proportionInvariant;
+                            }
                         }
+
+                        likelihoodCore.calculateLogLikelihoods(m_fRootPartials, frequencies, patternLogLikelihoods);
                     }
 
-                    likelihoodCore.calculateLogLikelihoods(m_fRootPartials, frequencies, patternLogLikelihoods);
                 }
-
             }
+            updates[nodeIndex] = update;
         }
-        return update;
+        return updates[arrays.getRootNr()];
     } // traverseWithBRM
 
     /* return copy of pattern log likelihoods for each of the patterns in the alignment */
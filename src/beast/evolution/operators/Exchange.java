@@ -53,6 +53,7 @@ import beast.core.Description;
 import beast.core.Input;
 import beast.evolution.tree.Node;
 import beast.evolution.tree.Tree;
+import beast.evolution.tree.TreeArrays;
 import beast.util.Randomizer;
 
 
@@ -77,12 +78,14 @@ public class Exchange extends TreeOperator {
      */
     @Override
     public double proposal() {
+        // the array view is still valid when the tree did not change since it was last used
+        final TreeArrays arrays = treeInput.get().getTreeArrays();
         final Tree tree = treeInput.get(this);
 
         double logHastingsRatio = 0;
 
         if (isNarrowInput.get()) {
-            logHastingsRatio = narrow(tree);
+            logHastingsRatio = narrow(tree, arrays);
         } else {
             logHastingsRatio = wide(tree);
         }
@@ -102,16 +105,19 @@ public class Exchange extends TreeOperator {
      * WARNING: Assumes strictly bifurcating beast.tree.
      */
     public double narrow(final Tree tree) {
+        return narrow(tree, tree.getTreeArrays());
+    }
+
+    private double narrow(final Tree tree, final TreeArrays arrays) {
 
         final int internalNodes = tree.getInternalNodeCount();
         if (internalNodes <= 1) {
             return Double.NEGATIVE_INFINITY;
         }
 
-        Node grandParent = tree.getNode(internalNodes + 1 + Randomizer.nextInt(internalNodes));
-        while (grandParent.getLeft().isLeaf() && grandParent.getRight().isLeaf()) {
-            grandParent = tree.getNode(internalNodes + 1 + Randomizer.nextInt(internalNodes));
-        }
+        // internal nodes with at least one internal child
+        final int validGP = arrays.getGrandParentCount();
+        final Node grandParent = tree.getNode(arrays.getGrandParents()[Randomizer.nextInt(validGP)]);
 
         Node parentIndex = grandParent.getLeft();
         Node uncle = grandParent.getRight();
@@ -125,13 +131,6 @@ public class Exchange extends TreeOperator {
             return Double.NEGATIVE_INFINITY;
         }
 
-        int validGP = 0;
-        {
-            for(int i = internalNodes + 1; i < 1 + 2*internalNodes; ++i) {
-                validGP += isg(tree.getNode(i));
-            }
-        }
-
         final int c2 = sisg(parentIndex) + sisg(uncle);
 
         final Node i = (Randomizer.nextBoolean() ? parentIndex.getLeft() : parentIndex.getRight());
@@ -150,16 +149,9 @@ public class Exchange extends TreeOperator {
 
         final int nodeCount = tree.getNodeCount();
 
-        Node i = tree.getRoot();
-
-        while (i.isRoot()) {
-            i = tree.getNode(Randomizer.nextInt(nodeCount));
-        }
-
-        Node j = i;
-        while (j.getNr() == i.getNr() || j.isRoot()) {
-            j = tree.getNode(Randomizer.nextInt(nodeCount));
-        }
+        final int rootNr = tree.getRoot().getNr();
+        final Node i = tree.getNode(randomNodeNr(nodeCount, rootNr));
+        final Node j = tree.getNode(randomNodeNr(nodeCount, rootNr, i.getNr()));
 
         final Node p = i.getParent();
         final Node jP = j.getParent();
@@ -51,8 +51,6 @@ package beast.evolution.operators;
 
 
 import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.List;
 
 import beast.core.Description;
 import beast.core.Input;
@@ -79,6 +77,10 @@ public class SubtreeSlide extends TreeOperator {
     double size;
     private double limit;
 
+    // destinations of a downward slide, reused between proposals
+    private Node[] newChildren;
+    private int newChildCount;
+
     @Override
     public void initAndValidate() {
         size = sizeInput.get();
@@ -96,13 +98,10 @@ public class SubtreeSlide extends TreeOperator {
 
         double logq;
 
-        Node i;
         final boolean markClades = markCladesInput.get();
         // 1. choose a random node avoiding root
         final int nodeCount = tree.getNodeCount();
-        do {
-            i = tree.getNode(Randomizer.nextInt(nodeCount));
-        } while (i.isRoot());
+        final Node i = tree.getNode(randomNodeNr(nodeCount, tree.getRoot().getNr()));
 
         final Node p = i.getParent();
         final Node CiP = getOtherChild(p, i);
@@ -170,17 +169,20 @@ public class SubtreeSlide extends TreeOperator {
             // 4.1 will the move change the topology
             if (CiP.getHeight() > newHeight) {
 
-                final List<Node> newChildren = new ArrayList<>();
+                if (newChildren == null || newChildren.length < nodeCount) {
+                    newChildren = new Node[nodeCount];
+                }
+                newChildCount = 0;
                 final int possibleDestinations = intersectingEdges(CiP, newHeight, newChildren);
 
                 // if no valid destinations then return a failure
-                if (newChildren.size() == 0) {
+                if (newChildCount == 0) {
                     return Double.NEGATIVE_INFINITY;
                 }
 
                 // pick a random parent/child destination edge uniformly from options
-                final int childIndex = Randomizer.nextInt(newChildren.size());
-                final Node newChild = newChildren.get(childIndex);
+                final int childIndex = Randomizer.nextInt(newChildCount);
+                final Node newChild = newChildren[childIndex];
                 final Node newParent = newChild.getParent();
 
                 // 4.1.1 if p was root
@@ -225,13 +227,16 @@ public class SubtreeSlide extends TreeOperator {
         }
     }
 
-    private int intersectingEdges(Node node, double height, List<Node> directChildren) {
+    /**
+     * @param directChildren if not null, the nodes below the intersected edges are added after the first newChildCount
+     */
+    private int intersectingEdges(Node node, double height, Node[] directChildren) {
         final Node parent = node.getParent();
 
         if (parent.getHeight() < height) return 0;
 
         if (node.getHeight() < height) {
-            if (directChildren != null) directChildren.add(node);
+            if (directChildren != null) directChildren[newChildCount++] = node;
             return 1;
         }
 
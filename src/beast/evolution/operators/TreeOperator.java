@@ -31,6 +31,7 @@ import beast.core.Input.Validate;
 import beast.core.Operator;
 import beast.evolution.tree.Node;
 import beast.evolution.tree.Tree;
+import beast.util.Randomizer;
 
 
 @Description("This operator changes a beast.tree.")
@@ -52,6 +53,29 @@ abstract public class TreeOperator extends Operator {
         }
     }
 
+    /**
+     * @return node number drawn uniformly from 0,...,nodeCount-1 other than excluded, without retrying
+     */
+    protected static int randomNodeNr(final int nodeCount, final int excluded) {
+        final int nr = Randomizer.nextInt(nodeCount - 1);
+        return nr < excluded ? nr : nr + 1;
+    }
+
+    /**
+     * @return node number drawn uniformly from 0,...,nodeCount-1 other than two different excluded ones,
+     * without retrying
+     */
+    protected static int randomNodeNr(final int nodeCount, final int excluded1, final int excluded2) {
+        int nr = Randomizer.nextInt(nodeCount - 2);
+        if (nr >= Math.min(excluded1, excluded2)) {
+            nr++;
+        }
+        if (nr >= Math.max(excluded1, excluded2)) {
+            nr++;
+        }
+        return nr;
+    }
+
     /**
      * replace child with another node
      *
@@ -85,18 +85,15 @@ public class Uniform extends TreeOperator {
     public double proposal() {
         final Tree tree = treeInput.get(this);
 
-        // randomly select internal node
-        final int nodeCount = tree.getNodeCount();
-        
         // Abort if no non-root internal nodes
         if (tree.getInternalNodeCount()==1)
             return Double.NEGATIVE_INFINITY;
         
-        Node node;
-        do {
-            final int nodeNr = nodeCount / 2 + 1 + Randomizer.nextInt(nodeCount / 2);
-            node = tree.getNode(nodeNr);
-        } while (node.isRoot() || node.isLeaf());
+        // randomly select internal node other than the root, internal nodes are numbered after the leaves
+        final int leafNodeCount = tree.getLeafNodeCount();
+        final int internalNodeCount = tree.getNodeCount() - leafNodeCount;
+        final int nodeNr = leafNodeCount + randomNodeNr(internalNodeCount, tree.getRoot().getNr() - leafNodeCount);
+        final Node node = tree.getNode(nodeNr);
         final double upper = node.getParent().getHeight();
         final double lower = Math.max(node.getLeft().getHeight(), node.getRight().getHeight());
         final double newValue = (Randomizer.nextDouble() * (upper - lower)) + lower;
@@ -85,10 +85,7 @@ public class WilsonBalding extends TreeOperator {
 
         // choose a random node avoiding root
         final int nodeCount = tree.getNodeCount();
-        Node i;
-        do {
-            i = tree.getNode(Randomizer.nextInt(nodeCount));
-        } while (i.isRoot());
+        final Node i = tree.getNode(randomNodeNr(nodeCount, tree.getRoot().getNr()));
         final Node p = i.getParent();
 
         // choose another random node to insert i above
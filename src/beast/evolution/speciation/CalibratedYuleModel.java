@@ -64,8 +64,7 @@ public class CalibratedYuleModel extends SpeciesTreeDistribution {
 
     final public Input<Type> correctionTypeInput = new Input<>("type", "Type of correction: none for no correction " +
             "(same as BEAST1), full for Yule-like over calibrated times, and restricted for Yule-like over calibrated" +
-            " times and ranked topology (default 'full'). However, 'full'" +
-            " is generally slow except for in a few special cases, such as a single clade or two nested clades.",
+            " times and ranked topology (default 'full').",
             Type.OVER_ALL_TOPOS, Type.values());
 
     final public Input<RPNcalculator> userMarInput = new Input<>("logMarginal",
@@ -261,7 +260,7 @@ public class CalibratedYuleModel extends SpeciesTreeDistribution {
                         // closed form formulas
                     } else {
                         setUpTables(tree.getLeafNodeCount() + 1);
-                        linsIter = new CalibrationLineagesIterator(this.xclades, this.taxaPartialOrder, maximal,
+                        linsIter = new CalibrationLineages(this.xclades, this.taxaPartialOrder, maximal,
                                 tree.getLeafNodeCount());
                         lastHeights = new double[calCount];
                     }
@@ -401,21 +400,17 @@ public class CalibratedYuleModel extends SpeciesTreeDistribution {
         return logL;
     }
 
-    private static double calculateYuleLikelihood(final TreeInterface tree, final double lam) {
+    private double calculateYuleLikelihood(final TreeInterface tree, final double lam) {
         final int taxonCount = tree.getLeafNodeCount();
 
         // add all lambda multipliers here
         // No normalization at the moment.  for n! use logGamma(taxonCount + 1);
         double logL = (taxonCount - 1) * Math.log(lam);
 
-        final Node[] nodes = tree.getNodesAsArray();
-        for (int i = taxonCount; i < nodes.length; i++) {
-            final Node node = nodes[i];
-            assert (!node.isLeaf());
-            final double height = node.getHeight();
-            final double mrh = -lam * height;
-            logL += mrh + (node.isRoot() ? mrh : 0);
-        }
+        logL += nodeTerms.logSum(tree, lam, 1, 0, node -> {
+            final double mrh = -lam * node.getHeight();
+            return mrh + (node.isRoot() ? mrh : 0);
+        });
         return logL;
     }
 
@@ -625,7 +620,7 @@ public class CalibratedYuleModel extends SpeciesTreeDistribution {
     }
 
     private double logMarginalDensity(final double lam, final double[] hs, final int[] ranks,
-                                      final CalibrationLineagesIterator cli) {
+                                      final CalibrationLineages cli) {
 
         final int ni = cli.setup(ranks);
 
@@ -653,45 +648,7 @@ public class CalibratedYuleModel extends SpeciesTreeDistribution {
             lebase[heights] = lehs[heights];
         }
 
-        final int[] linsAtLevel = new int[levels];
-
-        final int[][] joiners = cli.allJoiners();
-
-        double val = 0;
-        boolean first = true;
-
-        int[][] linsInLevels;
-        int ccc = 0;
-        while ((linsInLevels = cli.next()) != null) {
-            ccc++;
-            if( ccc > 30000000 ) {
-                issueSlowWarning();
-                //return Double.POSITIVE_INFINITY;
-            }
-            double v = countRankedTrees(levels, linsInLevels, joiners, linsAtLevel);
-            // 1 for root formula, 1 for kludge in iterator which sets root as 2 lineages
-            if (noRoot) {
-                final int ll = linsAtLevel[levels - 1] + 2;
-                linsAtLevel[levels - 1] = ll;
-
-                v -= lc2[ll] + lg2;
-            }
-
-            for (int i = 0; i < levels; ++i) {
-                v += linsAtLevel[i] * lebase[i];
-            }
-
-            if (first) {
-                val = v;
-                first = false;
-            } else {
-                if (val > v) {
-                    val += Math.log1p(Math.exp(v - val));
-                } else {
-                    val = v + Math.log1p(Math.exp(val - v));
-                }
-            }
-        }
+        double val = cli.logSum(lebase);
 
         double logc0 = 0.0;
         int totLin = 0;
@@ -724,45 +681,10 @@ public class CalibratedYuleModel extends SpeciesTreeDistribution {
         return val;
     }
 
-    private boolean warningIssued = false;
-    private void issueSlowWarning() {
-        if( ! warningIssued )
-        Log.warning("This calibrated Yule analysis with " + orderedCalibrations.length + " calibrations will take a looong time.\n"
-                +"Possibly will never complete even a single step. You can change the type of the calibration to 'none' (type=\"none\"\n"
-                + "in the XML) and get the non-calibrated Yule just like in BEAST1, or set type to \"restricted\", a variant of the\n" +
-                "calibrated Yule which runs faster and where the proterior distribution of the node times is more similar to the\n" +
-                "actual calibration than the \"none\" case. In both cases test to see how far your posterior calibrations are from the " +
-                "specifications.");
-        warningIssued = true;
-    }
-
-    private double
-    countRankedTrees(final int levels, final int[][] linsAtCrossings, final int[][] joiners, final int[] linsAtLevel) {
-        double logCount = 0;
-
-        for (int i = 0; i < levels; ++i) {
-            int sumLins = 0;
-            for (int k = i; k < levels; ++k) {
-                final int[] lack = linsAtCrossings[k];
-                int cki = lack[i];
-                if (joiners[k][i] > 0) {
-                    ++cki;
-                    if (cki > 1) {
-                        // can be 1 if iterator without lins - for joiners only - need to check this is correct
-                        logCount += lc2[cki];
-                    } //assert(cki >= 2);
-                }
-                final int l = cki - lack[i + 1];   //assert(l >= 0);
-                logCount -= lfactorials[l];
-                sumLins += l;
-            }
-            linsAtLevel[i] = sumLins;
-        }
-
-        return logCount;
-    }
+    private CalibrationLineages linsIter = null;
 
-    private CalibrationLineagesIterator linsIter = null;
+    // per node contributions, updated for the nodes that moved since the last calculation
+    private final NodeHeightTerms nodeTerms = new NodeHeightTerms();
 
     double lastLam = Double.NEGATIVE_INFINITY;
     double[] lastHeights;
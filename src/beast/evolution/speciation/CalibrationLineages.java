@@ -0,0 +1,274 @@
+package beast.evolution.speciation;
+
+import java.util.Arrays;
+
+/**
+ * Sum over the number of lineages of every calibrated clade at the calibration times below its
+ * root, as needed for the marginal density of calibration times of the calibrated Yule and
+ * birth-death priors.
+ * <p/>
+ * Given the ranking of the calibration times, the terms of the sum factorise over clades, since each
+ * clade only constrains its own lineages, and the lineages of a clade form a path through the calibration
+ * times. Instead of enumerating all combinations of paths, the sum is a product over clades of sums over
+ * paths, and each of those is accumulated one calibration time at a time, which takes polynomial instead
+ * of exponential time in the number of calibrations. The sum for a clade only depends on the calibration
+ * times up to its root, so after a step that leaves the ranking and the lowest calibration times unchanged,
+ * only the clades above the lowest change are summed again.
+ *
+ * @author Joseph Heled
+ */
+public class CalibrationLineages {
+    // taxaPartialOrder[i] contains clades immediately contained in the i'th clade as indices (so, strictly smaller than i)
+    final int[][] taxaPartialOrder;
+
+    // Per calibration point, the number of taxa which is not below any other point.
+    final int[] cladesFreeLins;
+
+    private final boolean rootCalibrated;
+
+    // Number of taxa not below any calibration point
+    private final int freeLineages;
+
+    // indices of maximal clades
+    private final int[] maximalClades;
+
+    // ranks of the calibration points at the last setup
+    private int[] ranks;
+
+    // per rank - 1 (and the root last if it is not calibrated): free lineages of the clade with that rank,
+    // and joiners[r][i] is 1 if the clade of rank i joins the clade of rank r + 1 at the i'th calibration time.
+    private final int[] start;
+    private final int[][] joiners;
+
+    // log of the sum for the clade of each rank, and lebase it was calculated for
+    private final double[] cladeLogSums;
+    private double[] lastLebase;
+    // lowest rank whose sum has to be calculated again
+    private int dirtyRank;
+
+    private final double[] noBase;
+
+    // work arrays, indexed by number of lineages
+    private final double[] logSums, nextLogSums, terms;
+
+    // speedup constants
+    private final double lg2 = Math.log(2.0);
+    private final double[] lc2;
+    private final double[] lfactorials;
+
+    CalibrationLineages(final int[][] clades, final int[][] taxaPartialOrder,
+                        final boolean[] maximal, final int leafCount) {
+        cladesFreeLins = new int[clades.length];
+        for (int k = 0; k < cladesFreeLins.length; ++k) {
+            cladesFreeLins[k] = clades[k].length;
+            for (final int l : taxaPartialOrder[k]) {
+                cladesFreeLins[k] -= clades[l].length;
+            }
+            assert cladesFreeLins[k] >= 0;
+        }
+
+        this.taxaPartialOrder = taxaPartialOrder;
+
+        // number of maximal clades
+        int max = 0;
+        for (final boolean b : maximal) {
+            max += b ? 1 : 0;
+        }
+
+        // indices of maximal clades in a list
+        maximalClades = new int[max];
+        int free = leafCount;
+
+        max = 0;
+        for (int m = 0; m < maximal.length; ++m) {
+            if (maximal[m]) {
+                maximalClades[max] = m;
+                ++max;
+                free -= clades[m].length;
+            }
+        }
+        freeLineages = free;
+
+        rootCalibrated = (max == 1 && clades[maximalClades[0]].length == leafCount);
+
+        assert !(rootCalibrated && freeLineages > 0);
+        assert freeLineages >= 0;
+
+        final int levels = clades.length + (rootCalibrated ? 0 : 1);
+        start = new int[levels];
+        joiners = new int[levels][];
+        for (int r = 0; r < levels; ++r) {
+            joiners[r] = new int[r + 1];
+        }
+        cladeLogSums = new double[levels];
+        noBase = new double[levels];
+
+        logSums = new double[leafCount + 2];
+        nextLogSums = new double[leafCount + 2];
+        terms = new double[leafCount + 2];
+
+        lc2 = new double[leafCount + 2];
+        lfactorials = new double[leafCount + 2];
+        lc2[0] = lc2[1] = Double.NEGATIVE_INFINITY;
+        for (int i = 2; i < lc2.length; ++i) {
+            lc2[i] = Math.log(i) + Math.log(i - 1) - lg2;
+        }
+        for (int i = 1; i < lfactorials.length; ++i) {
+            lfactorials[i] = lfactorials[i - 1] + Math.log(i);
+        }
+    }
+
+    boolean isRootCalibrated() {
+        return rootCalibrated;
+    }
+
+    /**
+     * Prepare for ranks[i] giving the rank of the i'th clade. ranks is a permutation of (1,2,...,#points)
+     *
+     * @return number of clades including the root, when it is not calibrated
+     */
+    int setup(final int[] ranks) {
+        final int n = cladesFreeLins.length;
+        if (this.ranks != null && Arrays.equals(this.ranks, ranks)) {
+            return start.length;
+        }
+        this.ranks = ranks.clone();
+
+        for (int k = 0; k < n; ++k) {
+            setOneClade(taxaPartialOrder[k], cladesFreeLins[k], ranks[k]);
+        }
+
+        if (!rootCalibrated) {
+            setOneClade(maximalClades, freeLineages, n + 1);
+        }
+        dirtyRank = 0;
+        return start.length;
+    }
+
+    private void setOneClade(final int[] joinerClades, final int nl, final int rank) {
+        start[rank - 1] = nl;
+        final int[] j = joiners[rank - 1];
+        Arrays.fill(j, 0);
+        for (final int c : joinerClades) {
+            j[ranks[c]] = 1;
+        }
+    }
+
+    public int start(final int i) {
+        return start[i];
+    }
+
+    /**
+     * @param lebase log of the weight of a single coalescence between the i'th and i+1'th calibration time
+     *               (from time 0 and to infinity), or null to count ranked trees only
+     * @return log of the sum over all lineage counts at calibration times of the number of ranked trees with
+     * those counts, times the weights of their coalescences
+     */
+    double logSum(double[] lebase) {
+        if (lebase == null) {
+            lebase = noBase;
+        }
+        if (lastLebase == null || lastLebase.length != lebase.length) {
+            lastLebase = lebase.clone();
+            dirtyRank = 0;
+        } else {
+            int i = 0;
+            while (i < lebase.length && lebase[i] == lastLebase[i]) {
+                ++i;
+            }
+            dirtyRank = Math.min(dirtyRank, i);
+            System.arraycopy(lebase, i, lastLebase, i, lebase.length - i);
+        }
+
+        double val = 0;
+        for (int r = 0; r < start.length; ++r) {
+            if (r >= dirtyRank) {
+                cladeLogSums[r] = cladeLogSum(r, lebase);
+            }
+            val += cladeLogSums[r];
+        }
+        dirtyRank = start.length;
+        return val;
+    }
+
+    /**
+     * Sum over paths of the lineage count of the clade with rank r+1, from its free lineages at time 0 to
+     * the two lineages just below its root.
+     */
+    private double cladeLogSum(final int r, final double[] lebase) {
+        final int[] j = joiners[r];
+        final int s = start[r];
+        // the root of an uncalibrated tree is the last "clade"
+        final boolean isRoot = !rootCalibrated && r == start.length - 1;
+
+        // first and last joiner, 0 if none
+        int firstJoiner = 0, lastJoiner = 0;
+        for (int i = 1; i <= r; ++i) {
+            if (j[i] > 0) {
+                if (firstJoiner == 0) {
+                    firstJoiner = i;
+                }
+                lastJoiner = i;
+            }
+        }
+
+        Arrays.fill(logSums, Double.NEGATIVE_INFINITY);
+        logSums[s] = 0.0;
+        int maxLins = s;
+
+        for (int i = 0; i <= r; ++i) {
+            // lineages at time i+1 range from lo to at most the lineages at time i plus the joiner,
+            // with at least two once all joiners joined, and exactly two just below the root of the clade
+            final int lo;
+            if (i == r || i + 1 > lastJoiner) {
+                lo = 2;
+            } else if (s > 0 || i + 1 > firstJoiner) {
+                lo = 1;
+            } else {
+                lo = 0;
+            }
+            final int nextMax = (i == r) ? 2 : maxLins + j[i];
+
+            for (int b = lo; b <= nextMax; ++b) {
+                final int from = Math.max(0, b - j[i]);
+                double max = Double.NEGATIVE_INFINITY;
+                for (int a = from; a <= maxLins; ++a) {
+                    terms[a] = logSums[a] + weight(i, a + j[i], b, j[i] > 0, isRoot && i == r, lebase);
+                    max = Math.max(max, terms[a]);
+                }
+                if (max == Double.NEGATIVE_INFINITY) {
+                    nextLogSums[b] = max;
+                    continue;
+                }
+                double sum = 0;
+                for (int a = from; a <= maxLins; ++a) {
+                    sum += Math.exp(terms[a] - max);
+                }
+                nextLogSums[b] = max + Math.log(sum);
+            }
+            for (int b = 0; b <= Math.max(maxLins, nextMax); ++b) {
+                logSums[b] = (b >= lo && b <= nextMax) ? nextLogSums[b] : Double.NEGATIVE_INFINITY;
+            }
+            maxLins = nextMax;
+        }
+        return logSums[2];
+    }
+
+    /**
+     * log of the number of ways, times weight, in which c lineages just above the i'th calibration time
+     * coalesce to b lineages at the next calibration time
+     */
+    private double weight(final int i, final int c, final int b, final boolean joined, final boolean root,
+                          final double[] lebase) {
+        final int l = c - b;
+        double w = l * lebase[i] - lfactorials[l];
+        if (joined && c > 1) {
+            w += lc2[c];
+        }
+        if (root) {
+            // 1 for root formula, 1 for the root being counted as 2 lineages
+            w += 2 * lebase[i] - lc2[l + 2] - lg2;
+        }
+        return w;
+    }
+}
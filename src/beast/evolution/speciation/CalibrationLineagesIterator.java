@@ -3,9 +3,12 @@ package beast.evolution.speciation;
 // Arguably the most complex iterator I have ever written.
 /**
 * @author Joseph Heled
+* @deprecated enumerates every combination of lineage counts, which takes exponential time in
+* the number of calibrations. The calibrated Yule and birth-death models use CalibrationLineages.
  */
 
 
+@Deprecated
 public class CalibrationLineagesIterator {
     // taxaPartialOrder[i] contains clades immediately contained in the i'th clade as indices (so, strictly smaller than i)
     final int[][] taxaPartialOrder;
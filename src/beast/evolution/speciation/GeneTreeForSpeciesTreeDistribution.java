@@ -4,7 +4,6 @@ package beast.evolution.speciation;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.PriorityQueue;
 import java.util.Random;
 
 import beast.core.Description;
@@ -41,10 +40,21 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
     final public Input<TreeTopFinder> treeTopFinderInput =
             new Input<>("treetop", "calculates height of species tree, required only for linear *beast analysis");
 
-    // intervals for each of the species tree branches
-    private PriorityQueue<Double>[] intervalsInput;
+    // times in each of the species tree branches: times[timesStart[i]] is the bottom of branch i, followed by
+    // the sorted coalescent times in the branch, and times[timesStart[i+1] - 1] is the top of the branch.
+    private double[] times;
+    private int[] timesStart;
+    // nr of coalescent times in each of the species tree branches
+    private int[] coalescentCount;
+    // species tree branch containing each internal gene tree node, indexed by node number
+    private int[] branchOfNode;
     // count nr of lineages at the bottom of species tree branches
     private int[] nrOfLineages;
+    // whether the gene tree fits in the species tree
+    private boolean fits;
+    // whether times, nrOfLineages and fits are up to date, and whether they were calculated since the last store
+    private boolean intervalsKnown = false;
+    private boolean intervalsChanged = false;
     // maps gene tree leaf nodes to species tree leaf nodes. Indexed by node number.
     protected int[] nrOfLineageToSpeciesMap;
 
@@ -60,8 +70,7 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
         treeInput.setRule(Validate.REQUIRED);
     }
 
-    @SuppressWarnings("unchecked")
-	@Override
+    @Override
     public void initAndValidate() {
     	ploidy = ploidyInput.get();
 //    	switch (m_ploidy.get()) {
@@ -83,11 +92,11 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
         }
 
 
-        // reserve memory for priority queues
-        intervalsInput = new PriorityQueue[speciesCount];
-        for (int i = 0; i < speciesCount; i++) {
-            intervalsInput[i] = new PriorityQueue<>();
-        }
+        // reserve memory for intervals
+        times = new double[gtNodes.length - gtLineages + 2 * speciesCount];
+        timesStart = new int[speciesCount + 1];
+        coalescentCount = new int[speciesCount];
+        branchOfNode = new int[gtNodes.length];
 
         // sanity check lineage nodes are all at height=0
         for (int i = 0; i < gtLineages; i++) {
@@ -155,26 +164,52 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
     @Override
     public double calculateLogP() {
         logP = 0;
-        for (final PriorityQueue<Double> m_interval : intervalsInput) {
-            m_interval.clear();
+        final TreeInterface stree = speciesTreeInput.get();
+        final TreeInterface tree = treeInput.get();
+        if (!intervalsKnown || tree.somethingIsDirty() || stree.somethingIsDirty()) {
+            calculateIntervals();
         }
 
+        // if the gene tree does not fit the species tree, logP = -infinity
+        if (!fits) {
+            logP = Double.NEGATIVE_INFINITY;
+        } else {
+            traverseSpeciesTree(stree.getRoot());
+        }
+        return logP;
+    }
+
+    /**
+     * collect the coalescent times of the gene tree for each of the branches of the species tree,
+     * only needed when the gene tree or species tree changed, not when population sizes changed.
+     */
+    private void calculateIntervals() {
         Arrays.fill(nrOfLineages, 0);
+        Arrays.fill(coalescentCount, 0);
+        fits = true;
 
-        final TreeInterface stree = speciesTreeInput.get();
-        final Node[] speciesNodes = stree.getNodesAsArray();
+        final SpeciesTreePrior popInfo = speciesTreePriorInput.get();
+        traverseLineageTree(popInfo.getSpeciesParents(), popInfo.getSpeciesParentHeights(), treeInput.get().getRoot());
 
-        traverseLineageTree(speciesNodes, treeInput.get().getRoot());
-//		System.err.println(getID());
-//		for (int i = 0; i < m_intervals.length; i++) {
-//			System.err.println(m_intervals[i]);
-//		}
-        // if the gene tree does not fit the species tree, logP = -infinity by now
-        if (logP == 0) {
-            traverseSpeciesTree(stree.getRoot());
+        // leave room for the bottom and top of every branch
+        for (int i = 0; i < coalescentCount.length; i++) {
+            timesStart[i + 1] = timesStart[i] + coalescentCount[i] + 2;
         }
-//		System.err.println("logp=" + logP);
-        return logP;
+        final int[] next = coalescentCount;
+        for (int i = 0; i < next.length; i++) {
+            next[i] = timesStart[i] + 1;
+        }
+        final Node[] gtNodes = treeInput.get().getNodesAsArray();
+        for (int i = treeInput.get().getLeafNodeCount(); i < gtNodes.length; i++) {
+            times[next[branchOfNode[i]]++] = gtNodes[i].getHeight();
+        }
+        for (int i = 0; i < next.length; i++) {
+            // back to counts, with times sorted per branch
+            Arrays.sort(times, timesStart[i] + 1, next[i]);
+            next[i] -= timesStart[i] + 1;
+        }
+        intervalsKnown = true;
+        intervalsChanged = true;
     }
 
     /**
@@ -191,27 +226,22 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
         final int nodeIndex = node.getNr();
 
         // k, as defined in the paper
-        //System.err.println(Arrays.toString(m_nLineages));
-        final int k = intervalsInput[nodeIndex].size();
-        final double[] times = new double[k + 2];
-        times[0] = node.getHeight();
-        for (int i = 1; i <= k; i++) {
-            times[i] = intervalsInput[nodeIndex].poll();
-        }
+        final int k = coalescentCount[nodeIndex];
+        final int from = timesStart[nodeIndex];
+        times[from] = node.getHeight();
         if (!node.isRoot()) {
-            times[k + 1] = node.getParent().getHeight();
+            times[from + k + 1] = node.getParent().getHeight();
         } else {
             if (isConstantPopFunction == TreePopSizeFunction.linear) {
-                times[k + 1] = treeTopFinderInput.get().getHighestTreeHeight();
+                times[from + k + 1] = treeTopFinderInput.get().getHighestTreeHeight();
             } else {
-                times[k + 1] = Math.max(node.getHeight(), treeInput.get().getRoot().getHeight());
+                times[from + k + 1] = Math.max(node.getHeight(), treeInput.get().getRoot().getHeight());
             }
         }
         // sanity check
         for (int i = 0; i <= k; i++) {
-            if (times[i] > times[i + 1]) {
+            if (times[from + i] > times[from + i + 1]) {
             	Log.warning.println("invalid times");
-                calculateLogP();
             }
         }
 
@@ -219,17 +249,17 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
 
         switch (isConstantPopFunction) {
             case constant:
-                calcConstantPopSizeContribution(lineagesBottom, popSizesBottom.getValue(nodeIndex), times, k);
+                calcConstantPopSizeContribution(lineagesBottom, popSizesBottom.getValue(nodeIndex), from, k);
                 break;
             case linear:
-                logP += calcLinearPopSizeContributionJH(lineagesBottom, nodeIndex, times, k, node);
+                logP += calcLinearPopSizeContributionJH(lineagesBottom, nodeIndex, from, k, node);
                 break;
             case linear_with_constant_root:
                 if (node.isRoot()) {
                     final double popSize = getTopPopSize(node.getLeft().getNr()) + getTopPopSize(node.getRight().getNr());
-                    calcConstantPopSizeContribution(lineagesBottom, popSize, times, k);
+                    calcConstantPopSizeContribution(lineagesBottom, popSize, from, k);
                 } else {
-                    logP += calcLinearPopSizeContribution(lineagesBottom, nodeIndex, times, k, node);
+                    logP += calcLinearPopSizeContribution(lineagesBottom, nodeIndex, from, k, node);
                 }
                 break;
         }
@@ -239,20 +269,18 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
       * the log probability, for constant population function.
       */
     private void calcConstantPopSizeContribution(final int lineagesBottom, final double popSize2,
-                                                 final double[] times, final int k) {
+                                                 final int from, final int k) {
         final double popSize = popSize2 * ploidy;
         logP += -k * Math.log(popSize);
-//		System.err.print(logP);
         for (int i = 0; i <= k; i++) {
-            logP += -((lineagesBottom - i) * (lineagesBottom - i - 1.0) / 2.0) * (times[i + 1] - times[i]) / popSize;
+            logP += -((lineagesBottom - i) * (lineagesBottom - i - 1.0) / 2.0) * (times[from + i + 1] - times[from + i]) / popSize;
         }
-//		System.err.println(" " + logP + " " + Arrays.toString(times) + " " + nodeIndex + " " + k);
     }
 
     /* the contribution of a branch in the species tree to
       * the log probability, for linear population function.
       */
-    private double calcLinearPopSizeContribution(final int lineagesBottom, final int nodeIndex, final double[] times,
+    private double calcLinearPopSizeContribution(final int lineagesBottom, final int nodeIndex, final int from,
                                                  final int k, final Node node) {
         double lp = 0.0;
         final double popSizeBottom;
@@ -263,27 +291,27 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
             popSizeBottom = (getTopPopSize(node.getLeft().getNr()) + getTopPopSize(node.getRight().getNr())) * ploidy;
         }
         final double popSizeTop = getTopPopSize(nodeIndex) * ploidy;
-        final double a = (popSizeTop - popSizeBottom) / (times[k + 1] - times[0]);
+        final double a = (popSizeTop - popSizeBottom) / (times[from + k + 1] - times[from]);
         final double b = popSizeBottom;
         for (int i = 0; i < k; i++) {
             //double popSize = popSizeBottom + (popSizeTop-popSizeBottom) * times[i+1]/(times[k]-times[0]);
-            final double popSize = a * (times[i + 1] - times[0]) + b;
+            final double popSize = a * (times[from + i + 1] - times[from]) + b;
             lp += -Math.log(popSize);
         }
         for (int i = 0; i <= k; i++) {
             if (Math.abs(popSizeTop - popSizeBottom) < 1e-10) {
                 // slope = 0, so population function is constant
-                final double popSize = a * (times[i + 1] - times[0]) + b;
-                lp += -((lineagesBottom - i) * (lineagesBottom - i - 1.0) / 2.0) * (times[i + 1] - times[i]) / popSize;
+                final double popSize = a * (times[from + i + 1] - times[from]) + b;
+                lp += -((lineagesBottom - i) * (lineagesBottom - i - 1.0) / 2.0) * (times[from + i + 1] - times[from + i]) / popSize;
             } else {
-                final double f = (a * (times[i + 1] - times[0]) + b) / (a * (times[i] - times[0]) + b);
+                final double f = (a * (times[from + i + 1] - times[from]) + b) / (a * (times[from + i] - times[from]) + b);
                 lp += -((lineagesBottom - i) * (lineagesBottom - i - 1.0) / 2.0) * Math.log(f) / a;
             }
         }
         return lp;
     }
 
-    private double calcLinearPopSizeContributionJH(final int lineagesBottom, final int nodeIndex, final double[] times,
+    private double calcLinearPopSizeContributionJH(final int lineagesBottom, final int nodeIndex, final int from,
                                                    final int k, final Node node) {
         double lp = 0.0;
         double popSizeBottom;
@@ -297,14 +325,14 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
 
         final double popSizeTop = getTopPopSize(nodeIndex) * ploidy;
         final double d5 = popSizeTop - popSizeBottom;
-        final double time0 = times[0];
-        final double a = d5 / (times[k + 1] - time0);
+        final double time0 = times[from];
+        final double a = d5 / (times[from + k + 1] - time0);
         final double b = popSizeBottom;
 
         if (Math.abs(d5) < 1e-10) {
             // use approximation for small values to bypass numerical instability
             for (int i = 0; i <= k; i++) {
-                final double timeip1 = times[i + 1];
+                final double timeip1 = times[from + i + 1];
                 final double popSize = a * (timeip1 - time0) + b;
                 if( i < k ) {
                   lp += -Math.log(popSize);
@@ -312,16 +340,16 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
                 // slope = 0, so population function is constant
 
                 final int i1 = lineagesBottom - i;
-                lp -= (i1 * (i1 - 1.0) / 2.0) * (timeip1 - times[i]) / popSize;
+                lp -= (i1 * (i1 - 1.0) / 2.0) * (timeip1 - times[from + i]) / popSize;
             }
         } else {
             final double vv = b - a * time0;
             for (int i = 0; i <= k; i++) {
-                final double popSize = a * times[i + 1] + vv;
+                final double popSize = a * times[from + i + 1] + vv;
                 if( i < k ) {
                   lp += -Math.log(popSize);
                 }
-                final double f = popSize / (a * times[i] + vv);
+                final double f = popSize / (a * times[from + i] + vv);
 
                 final int i1 = lineagesBottom - i;
                 lp += -(i1 * (i1 - 1.0) / 2.0) * Math.log(f) / a;
@@ -334,35 +362,37 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
      * collect intervals for each of the branches of the species tree
      * as defined by the lineage tree.
      *
-     * @param speciesNodes
+     * @param speciesParents       parents of species tree nodes, -1 for the root
+     * @param speciesParentHeights heights of parents of species tree nodes, infinity for the root
      * @param node
-     * @return
+     * @return species tree branch containing node
      */
-    private int traverseLineageTree(final Node[] speciesNodes, final Node node) {
+    private int traverseLineageTree(final int[] speciesParents, final double[] speciesParentHeights, final Node node) {
         if (node.isLeaf()) {
             final int species = nrOfLineageToSpeciesMap[node.getNr()];
             nrOfLineages[species]++;
             return species;
         } else {
-            int speciesLeft = traverseLineageTree(speciesNodes, node.getLeft());
-            int speciesRight = traverseLineageTree(speciesNodes, node.getRight());
+            int speciesLeft = traverseLineageTree(speciesParents, speciesParentHeights, node.getLeft());
+            int speciesRight = traverseLineageTree(speciesParents, speciesParentHeights, node.getRight());
             final double height = node.getHeight();
 
-            while (!speciesNodes[speciesLeft].isRoot() && height > speciesNodes[speciesLeft].getParent().getHeight()) {
-                speciesLeft = speciesNodes[speciesLeft].getParent().getNr();
+            while (height > speciesParentHeights[speciesLeft]) {
+                speciesLeft = speciesParents[speciesLeft];
                 nrOfLineages[speciesLeft]++;
             }
-            while (!speciesNodes[speciesRight].isRoot() && height > speciesNodes[speciesRight].getParent().getHeight()) {
-                speciesRight = speciesNodes[speciesRight].getParent().getNr();
+            while (height > speciesParentHeights[speciesRight]) {
+                speciesRight = speciesParents[speciesRight];
                 nrOfLineages[speciesRight]++;
             }
             // validity check
             if (speciesLeft != speciesRight) {
                 // if we got here, it means the gene tree does
                 // not fit in the species tree
-                logP = Double.NEGATIVE_INFINITY;
+                fits = false;
             }
-            intervalsInput[speciesRight].add(height);
+            branchOfNode[node.getNr()] = speciesRight;
+            coalescentCount[speciesRight]++;
             return speciesRight;
         }
     }
@@ -382,8 +412,32 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
 
     @Override
     public boolean requiresRecalculation() {
-        // TODO: check whether this is worth optimising?
-        return true;
+        final TreeInterface tree = treeInput.get();
+        if (tree.somethingIsDirty()) {
+            return true;
+        }
+        // changes to the species tree above the root of the gene tree do not affect it
+        if (speciesTreeInput.get().somethingIsDirty()
+                && speciesTreePriorInput.get().getLowestChangedHeight() <= tree.getRoot().getHeight()) {
+            return true;
+        }
+        // other inputs of the species tree prior, like the gamma parameter, do not affect gene trees
+        return popSizesBottom.somethingIsDirty() || (popSizesTop != null && popSizesTop.somethingIsDirty())
+                || (isConstantPopFunction == TreePopSizeFunction.linear && treeTopFinderInput.get().isDirtyCalculation());
+    }
+
+    @Override
+    public void store() {
+        intervalsChanged = false;
+        super.store();
+    }
+
+    @Override
+    public void restore() {
+        if (intervalsChanged) {
+            intervalsKnown = false;
+        }
+        super.restore();
     }
 
     @Override
@@ -0,0 +1,75 @@
+package beast.evolution.speciation;
+
+import beast.evolution.tree.Node;
+import beast.evolution.tree.TreeInterface;
+import beast.math.SegmentTree;
+
+/**
+ * Sum over the internal nodes of a tree of a term that only depends on the height of the node,
+ * on whether it is the root, and on the rates of the speciation process, as in the Yule and
+ * birth-death priors.
+ * <p/>
+ * Heights and terms are kept by node number. Every call scans the heights of all internal
+ * nodes and compares them with the cached heights, which takes O(n) time, since trees do not
+ * report which nodes moved. Only the terms of nodes that moved or changed root status are
+ * calculated again, and their sum is updated in time logarithmic in the number of nodes. When
+ * the rates change, all terms are calculated again. Since the cache is checked against the tree
+ * and the rates instead of being stored and restored, it stays valid after a rejected step.
+ */
+class NodeHeightTerms {
+
+    interface Term {
+        /** @return log of the contribution of an internal node, given its height and whether it is the root **/
+        double logP(Node node);
+    }
+
+    // heights of the internal nodes when their terms were last calculated, by node number - leaf count
+    private double[] heights;
+    private SegmentTree terms;
+    private int rootIndex = -1;
+
+    // rates the terms were calculated for
+    private double r = Double.NaN, rho = Double.NaN, a = Double.NaN;
+
+    /**
+     * @param r    relative birth rate (birth rate - death rate)
+     * @param rho  sampling proportion
+     * @param a    death rate relative to birth rate
+     * @param term contribution of a single node for these rates
+     * @return sum of the terms of all internal nodes of the tree
+     */
+    double logSum(final TreeInterface tree, final double r, final double rho, final double a, final Term term) {
+        final Node[] nodes = tree.getNodesAsArray();
+        final int leafCount = tree.getLeafNodeCount();
+        final int internalCount = nodes.length - leafCount;
+        boolean all = r != this.r || rho != this.rho || a != this.a;
+        if (heights == null || heights.length != internalCount) {
+            heights = new double[internalCount];
+            terms = new SegmentTree(internalCount);
+            all = true;
+        }
+        this.r = r;
+        this.rho = rho;
+        this.a = a;
+
+        final int root = tree.getRoot().getNr() - leafCount;
+        if (all) {
+            for (int i = 0; i < internalCount; i++) {
+                heights[i] = nodes[leafCount + i].getHeight();
+            }
+            for (int i = 0; i < internalCount; i++) {
+                terms.set(i, term.logP(nodes[leafCount + i]));
+            }
+        } else {
+            for (int i = 0; i < internalCount; i++) {
+                final double height = nodes[leafCount + i].getHeight();
+                if (height != heights[i] || (i == root) != (i == rootIndex)) {
+                    heights[i] = height;
+                    terms.set(i, term.logP(nodes[leafCount + i]));
+                }
+            }
+        }
+        rootIndex = root;
+        return terms.total();
+    }
+}
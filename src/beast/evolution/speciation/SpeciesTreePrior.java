@@ -49,6 +49,20 @@ public class SpeciesTreePrior extends TreeDistribution {
     private Gamma gamma2Prior;
     private Gamma gamma4Prior;
 
+    // heights and parents of the species tree nodes, and the heights of their parents, by node number
+    // (-1 and infinity for the root). Shared by all gene trees, and updated once after the species tree
+    // changed by the first to ask for it.
+    private double[] speciesHeights;
+    private int[] speciesParents;
+    private double[] speciesParentHeights;
+    private volatile boolean speciesTreeChanged = true;
+    // the same for the last accepted species tree
+    private double[] acceptedHeights;
+    private int[] acceptedParents;
+    private double[] acceptedParentHeights;
+    // species tree branches below this height are the same as in the last accepted species tree
+    private double lowestChangedHeight;
+
     @Override
     public void initAndValidate() {
         popFunction = popFunctionInput.get();
@@ -175,11 +189,130 @@ public class SpeciesTreePrior extends TreeDistribution {
         return logP;
     }
 
+    /**
+     * @return parent of each species tree node by node number, -1 for the root
+     */
+    int[] getSpeciesParents() {
+        updateSpeciesTree();
+        return speciesParents;
+    }
+
+    /**
+     * @return height of the parent of each species tree node by node number, infinity for the root
+     */
+    double[] getSpeciesParentHeights() {
+        updateSpeciesTree();
+        return speciesParentHeights;
+    }
+
+    /**
+     * A gene tree lies entirely below the height of its root, and the branches of the
+     * species tree above it contain at most one lineage and no coalescences, so they
+     * do not contribute to its density. Gene trees with a root below this height are
+     * therefore not affected by the changes to the species tree since the last accept.
+     *
+     * @return lowest height at which the species tree branches differ from the last
+     * accepted species tree, or negative infinity if that is not known
+     */
+    double getLowestChangedHeight() {
+        updateSpeciesTree();
+        return lowestChangedHeight;
+    }
+
+    private void updateSpeciesTree() {
+        if (speciesTreeChanged) {
+            // gene trees may be evaluated in parallel
+            synchronized (this) {
+                if (speciesTreeChanged) {
+                    final Node[] speciesNodes = treeInput.get().getNodesAsArray();
+                    if (speciesParents == null || speciesParents.length != speciesNodes.length) {
+                        speciesHeights = new double[speciesNodes.length];
+                        speciesParents = new int[speciesNodes.length];
+                        speciesParentHeights = new double[speciesNodes.length];
+                    }
+                    for (final Node node : speciesNodes) {
+                        final Node parent = node.getParent();
+                        speciesHeights[node.getNr()] = node.getHeight();
+                        speciesParents[node.getNr()] = parent == null ? -1 : parent.getNr();
+                        speciesParentHeights[node.getNr()] = parent == null ? Double.POSITIVE_INFINITY : parent.getHeight();
+                    }
+                    if (!treeInput.get().somethingIsDirty()) {
+                        // a clean species tree is the accepted one
+                        storeAccepted();
+                    } else {
+                        lowestChangedHeight = calcLowestChangedHeight();
+                    }
+                    speciesTreeChanged = false;
+                }
+            }
+        }
+    }
+
+    private double calcLowestChangedHeight() {
+        if (acceptedParents == null || acceptedParents.length != speciesParents.length) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double lowest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < speciesParents.length; i++) {
+            final double lowerHeight = Math.min(speciesHeights[i], acceptedHeights[i]);
+            if (speciesHeights[i] != acceptedHeights[i]) {
+                lowest = Math.min(lowest, lowerHeight);
+            }
+            if (speciesParents[i] != acceptedParents[i] || speciesParentHeights[i] != acceptedParentHeights[i]) {
+                if (popFunction == TreePopSizeFunction.constant) {
+                    // only the part of the branch above the lower of the two parents changed
+                    lowest = Math.min(lowest, Math.min(speciesParentHeights[i], acceptedParentHeights[i]));
+                } else {
+                    // population sizes along the whole branch changed
+                    lowest = Math.min(lowest, lowerHeight);
+                }
+            }
+        }
+        return lowest;
+    }
+
+    private void storeAccepted() {
+        if (acceptedParents == null || acceptedParents.length != speciesParents.length) {
+            acceptedHeights = new double[speciesParents.length];
+            acceptedParents = new int[speciesParents.length];
+            acceptedParentHeights = new double[speciesParents.length];
+        }
+        System.arraycopy(speciesHeights, 0, acceptedHeights, 0, speciesHeights.length);
+        System.arraycopy(speciesParents, 0, acceptedParents, 0, speciesParents.length);
+        System.arraycopy(speciesParentHeights, 0, acceptedParentHeights, 0, speciesParentHeights.length);
+        lowestChangedHeight = Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public void store() {
+        // called after a proposal, before gene trees decide whether they need to be recalculated
+        if (treeInput.get().somethingIsDirty()) {
+            speciesTreeChanged = true;
+        }
+        super.store();
+    }
+
     @Override
     protected boolean requiresRecalculation() {
+        if (treeInput.get().somethingIsDirty()) {
+            speciesTreeChanged = true;
+        }
         return true;
     }
 
+    @Override
+    public void restore() {
+        speciesTreeChanged = true;
+        super.restore();
+    }
+
+    @Override
+    protected void accept() {
+        updateSpeciesTree();
+        storeAccepted();
+        super.accept();
+    }
+
     @Override
     public List<String> getArguments() {
         return null;
@@ -37,11 +37,16 @@ public class YuleModel extends SpeciesTreeDistribution {
     protected boolean conditionalOnRoot;
     protected boolean conditionalOnOrigin;
 
+    // per node contributions, updated for the nodes that moved since the last calculation
+    private NodeHeightTerms nodeTerms;
+
     @Override
     public void initAndValidate() {
         super.initAndValidate();
         conditionalOnRoot = conditionalOnRootInput.get();
         conditionalOnOrigin = originHeightParameterInput.get() != null;
+        // node terms depend on what the process is conditioned on
+        nodeTerms = new NodeHeightTerms();
 
         if (conditionalOnRoot && conditionalOnOrigin) {
             throw new RuntimeException("ERROR: Cannot condition on both root and origin.");
@@ -75,11 +80,8 @@ public class YuleModel extends SpeciesTreeDistribution {
 
         double logL = logTreeProbability(taxonCount, r, rho, a);
 
-        final Node[] nodes = tree.getNodesAsArray();
-        for (int i = taxonCount; i < nodes.length; i++) {
-            assert (!nodes[i].isLeaf());
-            logL += calcLogNodeProbability(nodes[i], r, rho, a, taxonCount);
-        }
+        logL += nodeTerms.logSum(tree, r, rho, a,
+                node -> calcLogNodeProbability(node, r, rho, a, taxonCount));
 
         return logL;
     }
@@ -120,6 +122,9 @@ public class YuleModel extends SpeciesTreeDistribution {
      * r = relative birth rate (birth rate - death rate)
      * rho = rho parameter in Gernhard 2008 birth death model
      * a = death rate relative to birth rate
+     * It is only called for nodes that moved or became or stopped being the root since the
+     * last calculation, so it should only depend on the height of the node, on whether it is
+     * the root, and on the rates.
      *
      * @param node
      * @param r
@@ -0,0 +1,103 @@
+package beast.evolution.tree;
+
+import java.util.List;
+
+/**
+ * Clade membership of all nodes of a tree. Leaves are ranked in depth first order,
+ * so the leaves below any node have consecutive ranks, and a node is an ancestor of
+ * a leaf iff the rank of the leaf is in the range of the node. The common ancestor of
+ * a set of leaves is then the first ancestor of the leaf with lowest rank whose range
+ * includes the highest rank, and the set is monophyletic iff that range is as large
+ * as the set.
+ * <p/>
+ * Obtained through Tree.getCladeIndex(), which updates it once after the tree changed,
+ * so that any number of MRCAPriors on the same tree share a single pass over the tree.
+ * The arrays are reused for every update.
+ */
+public class CladeIndex {
+    /** depth first rank of every leaf, by node number **/
+    final int[] leafRank;
+    /** ranks of the first and last leaf below every node, by node number **/
+    final int[] firstLeaf;
+    final int[] lastLeaf;
+    /** scratch space for the traversal **/
+    private final Node[] stack;
+    private final int[] nextChild;
+
+    CladeIndex(final int nodeCount) {
+        leafRank = new int[nodeCount];
+        firstLeaf = new int[nodeCount];
+        lastLeaf = new int[nodeCount];
+        stack = new Node[nodeCount];
+        nextChild = new int[nodeCount];
+    }
+
+    /** @return number of nodes this index has room for **/
+    int getNodeCount() {
+        return leafRank.length;
+    }
+
+    /**
+     * reads the clades of all nodes of the tree, which should have getNodeCount() nodes
+     */
+    void update(final Tree tree) {
+        // iterative post order traversal, since trees can be too deep for recursion
+        int top = 0;
+        stack[0] = tree.getRoot();
+        nextChild[0] = 0;
+        int rank = 0;
+        while (top >= 0) {
+            final Node node = stack[top];
+            // children read directly, since getChildren() wraps the list
+            final List<Node> children = node.children;
+            if (nextChild[top] < children.size()) {
+                final Node child = children.get(nextChild[top]++);
+                top++;
+                stack[top] = child;
+                nextChild[top] = 0;
+            } else {
+                final int nr = node.getNr();
+                if (children.isEmpty()) {
+                    leafRank[nr] = rank;
+                    firstLeaf[nr] = rank;
+                    lastLeaf[nr] = rank;
+                    rank++;
+                } else {
+                    firstLeaf[nr] = firstLeaf[children.get(0).getNr()];
+                    lastLeaf[nr] = lastLeaf[children.get(children.size() - 1).getNr()];
+                }
+                stack[top] = null;
+                top--;
+            }
+        }
+    }
+
+    /**
+     * @param tree    the tree this index was obtained from
+     * @param leafNrs node numbers of at least one leaf
+     * @return most recent common ancestor of the leaves
+     */
+    public Node getCommonAncestor(final Tree tree, final int[] leafNrs) {
+        int first = leafNrs[0];
+        int lastRank = leafRank[first];
+        for (int i = 1; i < leafNrs.length; i++) {
+            final int rank = leafRank[leafNrs[i]];
+            if (rank < leafRank[first]) {
+                first = leafNrs[i];
+            }
+            if (rank > lastRank) {
+                lastRank = rank;
+            }
+        }
+        Node node = tree.getNode(first);
+        while (lastLeaf[node.getNr()] < lastRank) {
+            node = node.getParent();
+        }
+        return node;
+    }
+
+    /** @return number of leaves below node, or 1 if node is a leaf **/
+    public int getLeafCount(final Node node) {
+        return lastLeaf[node.getNr()] - firstLeaf[node.getNr()] + 1;
+    }
+}
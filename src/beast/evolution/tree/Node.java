@@ -158,10 +158,12 @@ public class Node extends BEASTObject {
 
     public void makeDirty(final int dirty) {
         isDirty |= dirty;
+        nodeChanged();
     }
 
     public void makeAllDirty(final int dirty) {
         isDirty = dirty;
+        nodeChanged();
         if (!isLeaf()) {
             getLeft().makeAllDirty(dirty);
             if (getRight() != null) {
@@ -319,8 +321,9 @@ public class Node extends BEASTObject {
      */
     public int getNodeCount() {
         int nodes = 1;
-        for (final Node child : children) {
-            nodes += child.getNodeCount();
+        // no iterator, since operators that change the root count nodes during proposals
+        for (int i = 0; i < children.size(); i++) {
+            nodes += children.get(i).getNodeCount();
         }
         return nodes;
     }
@@ -830,6 +833,14 @@ public class Node extends BEASTObject {
         if (m_tree != null && m_tree.getState() != null) {
             m_tree.startEditing(null);
         }
+        nodeChanged();
+    }
+
+    /** tell the tree this node changed, so that its array view reads the node again **/
+    private void nodeChanged() {
+        if (m_tree != null) {
+            m_tree.nodeChanged(labelNr);
+        }
     }
 
     /**
@@ -860,6 +871,7 @@ public class Node extends BEASTObject {
             children.add(null);
         }
         children.set(childIndex, node);
+        nodeChanged();
     }
 
     /**
@@ -875,6 +887,7 @@ public class Node extends BEASTObject {
         } else {
             children.set(0, leftChild);
         }
+        nodeChanged();
     }
 
     /**
@@ -911,6 +924,7 @@ public class Node extends BEASTObject {
                 children.set(1, rightChild);
                 break;
         }
+        nodeChanged();
     }
 
     /**
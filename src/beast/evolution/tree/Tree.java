@@ -189,6 +189,9 @@ public class Tree extends StateNode implements TreeInterface {
         final Node copy = root.copy();
         listNodes(copy, m_storedNodes);
         postCache = null;
+        cladeIndex = null;
+        cladeIndexKnown = false;
+        invalidateTreeArrays();
     }
 
 
@@ -311,7 +314,12 @@ public class Tree extends StateNode implements TreeInterface {
             m_nodes[root.labelNr] = tmp;
             tmp.labelNr = root.labelNr;
             m_nodes[rootPos].labelNr = rootPos;
+            // the neighbours of both nodes refer to them by their new numbers
+            nodeChanged(tmp.labelNr);
         }
+        nodeChanged(root.labelNr);
+        cladeIndex = null;
+        cladeIndexKnown = false;
     }
 
     /**
@@ -324,6 +332,9 @@ public class Tree extends StateNode implements TreeInterface {
         //TODO should we flag this with startEditing since it is an operator call?
 
         this.root = root;
+        nodeChanged(root.labelNr);
+        cladeIndex = null;
+        cladeIndexKnown = false;
     }
 
     @Override
@@ -493,6 +504,77 @@ public class Tree extends StateNode implements TreeInterface {
         return postCache;
     }
 
+    protected CladeIndex cladeIndex = null;
+    protected volatile boolean cladeIndexKnown = false;
+
+    /**
+     * @return clade membership of all nodes, shared by everything that needs it until the
+     *         tree changes. Trees outside a State do not notice node changes, so it is
+     *         read again on every call for them.
+     */
+    public CladeIndex getCladeIndex() {
+        if (!cladeIndexKnown || getState() == null) {
+            // priors on the same tree may be calculated in parallel
+            synchronized (this) {
+                if (!cladeIndexKnown || getState() == null) {
+                    if (cladeIndex == null || cladeIndex.getNodeCount() != m_nodes.length) {
+                        cladeIndex = new CladeIndex(m_nodes.length);
+                    }
+                    cladeIndex.update(this);
+                    cladeIndexKnown = true;
+                }
+            }
+        }
+        return cladeIndex;
+    }
+
+    protected TreeArrays treeArrays = null;
+    protected volatile boolean treeArraysKnown = false;
+
+    /**
+     * @return array view of the tree, shared by everything that needs it until the next change.
+     *         Nodes report their changes, so after a change only the changed nodes and their
+     *         neighbours are read again. Trees outside a State do not notice node changes, so
+     *         the view is read completely on every call for them.
+     */
+    @Override
+    public TreeArrays getTreeArrays() {
+        if (!treeArraysKnown || getState() == null) {
+            // likelihoods of the same tree may be calculated in parallel
+            synchronized (this) {
+                if (!treeArraysKnown || getState() == null) {
+                    if (treeArrays == null || treeArrays.getNodeCount() != getNodeCount()) {
+                        treeArrays = new TreeArrays(getNodeCount());
+                    }
+                    if (getState() == null) {
+                        treeArrays.update(this);
+                    } else {
+                        treeArrays.refresh(this);
+                    }
+                    treeArraysKnown = true;
+                }
+            }
+        }
+        return treeArrays;
+    }
+
+    /** called by nodes when they change, so that the array view and clade index read them again **/
+    void nodeChanged(final int nr) {
+        cladeIndexKnown = false;
+        if (treeArrays != null) {
+            treeArrays.nodeChanged(nr);
+            treeArraysKnown = false;
+        }
+    }
+
+    /** make the array view read the complete tree when it is next obtained **/
+    protected void invalidateTreeArrays() {
+        if (treeArrays != null) {
+            treeArrays.invalidate();
+        }
+        treeArraysKnown = false;
+    }
+
     /**
      * @return list of nodes in array format.
      *         *
@@ -564,6 +646,8 @@ public class Tree extends StateNode implements TreeInterface {
     public void assignFromFragile(final StateNode other) {
         // invalidate cache
         postCache = null;
+        cladeIndexKnown = false;
+        invalidateTreeArrays();
 
         final Tree tree = (Tree) other;
         if (m_nodes == null) {
@@ -621,6 +705,10 @@ public class Tree extends StateNode implements TreeInterface {
     @Override
     public void setEverythingDirty(final boolean isDirty) {
         setSomethingIsDirty(isDirty);
+        if (treeArrays != null) {
+            // only the dirtiness changes
+            treeArrays.setEverythingDirty(isDirty ? IS_FILTHY : IS_CLEAN);
+        }
         if (!isDirty) {
             for( Node n : m_nodes ) {
                 n.isDirty = IS_CLEAN;
@@ -798,6 +886,9 @@ public class Tree extends StateNode implements TreeInterface {
 
         storeNodes(0, nodeCount);
         storedRoot = m_storedNodes[root.getNr()];
+        if (treeArrays != null) {
+            treeArrays.store();
+        }
     }
 
 
@@ -853,6 +944,7 @@ public class Tree extends StateNode implements TreeInterface {
     public void startEditing(final Operator operator) {
         super.startEditing(operator);
         postCache = null;
+        cladeIndexKnown = false;
     }
 
     @Override
@@ -882,6 +974,12 @@ public class Tree extends StateNode implements TreeInterface {
         }
 
         postCache = null;
+        cladeIndexKnown = false;
+        if (treeArrays != null) {
+            // only the nodes changed since storing differ
+            treeArrays.restore();
+        }
+        treeArraysKnown = false;
     }
 
     /**
@@ -972,6 +1070,7 @@ public class Tree extends StateNode implements TreeInterface {
         }
         m_nodes = tmp;
         nodeCount--;
+        invalidateTreeArrays();
         if (i < leafNodeCount)
             leafNodeCount--;
         else
@@ -989,6 +1088,7 @@ public class Tree extends StateNode implements TreeInterface {
         newNode.setNr(nodeCount);
         m_nodes = tmp;
         nodeCount++;
+        invalidateTreeArrays();
         if (newNode.getChildCount() > 0)
             internalNodeCount++;
         else
@@ -0,0 +1,349 @@
+package beast.evolution.tree;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Structure, heights and dirtiness of the nodes of a binary tree in arrays indexed by node number,
+ * for calculations that visit many nodes, so they can loop over primitive arrays instead of
+ * following Node references, and without allocating lists or recursing.
+ * <p/>
+ * Obtained through TreeInterface.getTreeArrays(). A Tree in a State keeps a single view, which
+ * its nodes notify of their changes, so that only the changed nodes and their neighbours are read
+ * again when the view is next obtained. The post-order is traversed again only after a change of
+ * topology, since its consumers visit all nodes anyway. Other trees cannot report changes, so their
+ * view is cached per tree and read completely on every call. A view reflects the tree as it was when
+ * obtained, and should not be kept across changes of the tree.
+ */
+public class TreeArrays {
+    /** parent of every node, -1 for the root **/
+    final int[] parent;
+    /** first and second child of every node, -1 for leaves **/
+    final int[] left;
+    final int[] right;
+    final double[] height;
+    /** Tree.IS_CLEAN, IS_DIRTY or IS_FILTHY for every node **/
+    final int[] dirty;
+    /** node numbers with children before parents **/
+    final int[] postOrder;
+    int rootNr;
+    /** node numbers of internal nodes with at least one internal child, in no particular order **/
+    final int[] grandParents;
+    int grandParentCount;
+    /** position of every node in grandParents, -1 if it is not there **/
+    private final int[] grandParentPosition;
+
+    // work arrays for the post order traversal
+    private final Node[] stack;
+    private final int[] nextChild;
+
+    // nodes changed since the view was last updated, and since the tree was last stored
+    private final int[] pending;
+    private int pendingCount;
+    private final int[] changed;
+    private int changedCount;
+    private final boolean[] isPending;
+    private final boolean[] isChanged;
+    // whether the view has to be read completely at the next update, and whether that was
+    // the case at some point since the tree was last stored
+    private boolean invalid = true;
+    private boolean invalidSinceStore = true;
+
+    // nodes to be read again in an update
+    private final int[] affected;
+    private final boolean[] isAffected;
+
+    /** views of trees that do not report their changes **/
+    private static final Map<TreeInterface, TreeArrays> VIEWS = new WeakHashMap<>();
+
+    TreeArrays(final int nodeCount) {
+        parent = new int[nodeCount];
+        left = new int[nodeCount];
+        right = new int[nodeCount];
+        height = new double[nodeCount];
+        dirty = new int[nodeCount];
+        postOrder = new int[nodeCount];
+        grandParents = new int[nodeCount];
+        grandParentPosition = new int[nodeCount];
+        stack = new Node[nodeCount];
+        nextChild = new int[nodeCount];
+        pending = new int[nodeCount];
+        isPending = new boolean[nodeCount];
+        changed = new int[nodeCount];
+        isChanged = new boolean[nodeCount];
+        affected = new int[nodeCount];
+        isAffected = new boolean[nodeCount];
+    }
+
+    /** @return view of the tree as it is now **/
+    public TreeArrays(final TreeInterface tree) {
+        this(tree.getNodeCount());
+        update(tree);
+    }
+
+    /**
+     * @return view of a tree that does not report its changes, kept per tree
+     * and read completely on every call
+     */
+    static TreeArrays of(final TreeInterface tree) {
+        synchronized (VIEWS) {
+            TreeArrays arrays = VIEWS.get(tree);
+            if (arrays == null || arrays.getNodeCount() != tree.getNodeCount()) {
+                arrays = new TreeArrays(tree.getNodeCount());
+                VIEWS.put(tree, arrays);
+            }
+            arrays.update(tree);
+            return arrays;
+        }
+    }
+
+    /** record that a node changed, so that it is read again at the next update **/
+    void nodeChanged(final int nr) {
+        if (nr < 0 || nr >= parent.length) {
+            invalidate();
+            return;
+        }
+        if (!invalid && !isPending[nr]) {
+            isPending[nr] = true;
+            pending[pendingCount++] = nr;
+        }
+        if (!isChanged[nr]) {
+            isChanged[nr] = true;
+            changed[changedCount++] = nr;
+        }
+    }
+
+    /** forget about changes before the tree was stored **/
+    void store() {
+        for (int i = 0; i < changedCount; i++) {
+            isChanged[changed[i]] = false;
+        }
+        changedCount = 0;
+        invalidSinceStore = invalid;
+    }
+
+    /** nodes changed since the tree was stored are read again after it is restored **/
+    void restore() {
+        for (int i = 0; i < changedCount; i++) {
+            final int nr = changed[i];
+            isChanged[nr] = false;
+            if (!invalid && !isPending[nr]) {
+                isPending[nr] = true;
+                pending[pendingCount++] = nr;
+            }
+        }
+        changedCount = 0;
+        if (invalidSinceStore) {
+            invalid = true;
+        }
+        // as the nodes of the tree
+        Arrays.fill(dirty, Tree.IS_CLEAN);
+    }
+
+    /** make the next update read the complete tree **/
+    void invalidate() {
+        invalid = true;
+        invalidSinceStore = true;
+    }
+
+    /** @return whether the view is up to date with the tree **/
+    boolean isKnown() {
+        return !invalid && pendingCount == 0;
+    }
+
+    /**
+     * bring the arrays up to date with the tree, reading only nodes that changed and their
+     * neighbours, unless the view is invalid or has a different size
+     */
+    void refresh(final TreeInterface tree) {
+        final Node[] nodes = tree.getNodesAsArray();
+        if (invalid || nodes.length != parent.length) {
+            update(tree);
+            return;
+        }
+
+        // changed nodes, and their children and parents before and after the change
+        int affectedCount = 0;
+        for (int i = 0; i < pendingCount; i++) {
+            final int nr = pending[i];
+            isPending[nr] = false;
+            affectedCount = affect(nr, affectedCount);
+            affectedCount = affect(parent[nr], affectedCount);
+            affectedCount = affect(left[nr], affectedCount);
+            affectedCount = affect(right[nr], affectedCount);
+            final Node node = nodes[nr];
+            if (node.getParent() != null) {
+                affectedCount = affect(node.getParent().getNr(), affectedCount);
+            }
+            final List<Node> children = node.children;
+            for (int k = 0; k < children.size() && k < 2; k++) {
+                if (children.get(k) != null) {
+                    affectedCount = affect(children.get(k).getNr(), affectedCount);
+                }
+            }
+        }
+        pendingCount = 0;
+
+        boolean topologyChanged = false;
+        for (int i = 0; i < affectedCount; i++) {
+            final int nr = affected[i];
+            isAffected[nr] = false;
+            final Node node = nodes[nr];
+            final Node p = node.getParent();
+            final List<Node> children = node.children;
+            final int newParent = p == null ? -1 : p.getNr();
+            final int newLeft = children.size() > 0 ? children.get(0).getNr() : -1;
+            final int newRight = children.size() > 1 ? children.get(1).getNr() : -1;
+            if (newParent != parent[nr] || newLeft != left[nr] || newRight != right[nr]) {
+                parent[nr] = newParent;
+                left[nr] = newLeft;
+                right[nr] = newRight;
+                topologyChanged = true;
+            }
+            height[nr] = node.getHeight();
+            dirty[nr] = node.isDirty();
+        }
+        final int newRootNr = tree.getRoot().getNr();
+        if (newRootNr != rootNr) {
+            rootNr = newRootNr;
+            topologyChanged = true;
+        }
+        if (topologyChanged) {
+            // only nodes with changed children can join or leave the candidates
+            for (int i = 0; i < affectedCount; i++) {
+                updateGrandParent(affected[i]);
+            }
+            updatePostOrder(tree);
+        }
+    }
+
+    private int affect(final int nr, int affectedCount) {
+        if (nr >= 0 && !isAffected[nr]) {
+            isAffected[nr] = true;
+            affected[affectedCount++] = nr;
+        }
+        return affectedCount;
+    }
+
+    /** copy the tree into the arrays, which should have the size of the tree **/
+    void update(final TreeInterface tree) {
+        final Node[] nodes = tree.getNodesAsArray();
+        for (int nr = 0; nr < parent.length; nr++) {
+            final Node node = nodes[nr];
+            final Node p = node.getParent();
+            parent[nr] = p == null ? -1 : p.getNr();
+            // not getChildren(), which wraps the list in a new object
+            final List<Node> children = node.children;
+            left[nr] = children.size() > 0 ? children.get(0).getNr() : -1;
+            right[nr] = children.size() > 1 ? children.get(1).getNr() : -1;
+            height[nr] = node.getHeight();
+            dirty[nr] = node.isDirty();
+        }
+        rootNr = tree.getRoot().getNr();
+        updateGrandParents();
+        updatePostOrder(tree);
+
+        for (int i = 0; i < pendingCount; i++) {
+            isPending[pending[i]] = false;
+        }
+        pendingCount = 0;
+        invalid = false;
+    }
+
+    private void updateGrandParents() {
+        grandParentCount = 0;
+        Arrays.fill(grandParentPosition, -1);
+        for (int nr = 0; nr < parent.length; nr++) {
+            updateGrandParent(nr);
+        }
+    }
+
+    /** add node to or remove it from the grandparents, as it has internal children or not **/
+    private void updateGrandParent(final int nr) {
+        final boolean isGrandParent = left[nr] >= 0 && (left[left[nr]] >= 0 || (right[nr] >= 0 && left[right[nr]] >= 0));
+        final int position = grandParentPosition[nr];
+        if (isGrandParent && position < 0) {
+            grandParentPosition[nr] = grandParentCount;
+            grandParents[grandParentCount++] = nr;
+        } else if (!isGrandParent && position >= 0) {
+            // the last one fills the gap
+            final int last = grandParents[--grandParentCount];
+            grandParents[position] = last;
+            grandParentPosition[last] = position;
+            grandParentPosition[nr] = -1;
+        }
+    }
+
+    private void updatePostOrder(final TreeInterface tree) {
+        // iterative post order traversal, since trees can be too deep for recursion
+        int top = 0;
+        stack[0] = tree.getRoot();
+        nextChild[0] = 0;
+        int k = 0;
+        while (top >= 0) {
+            final Node node = stack[top];
+            final List<Node> children = node.children;
+            if (nextChild[top] < children.size()) {
+                top++;
+                stack[top] = children.get(nextChild[top - 1]++);
+                nextChild[top] = 0;
+            } else {
+                postOrder[k++] = node.getNr();
+                stack[top] = null;
+                top--;
+            }
+        }
+    }
+
+    void setEverythingDirty(final int isDirty) {
+        Arrays.fill(dirty, isDirty);
+    }
+
+    public int getNodeCount() {
+        return parent.length;
+    }
+
+    public int getRootNr() {
+        return rootNr;
+    }
+
+    /** @return parent node number by node number, -1 for the root **/
+    public int[] getParents() {
+        return parent;
+    }
+
+    /** @return first child node number by node number, -1 for leaves **/
+    public int[] getLefts() {
+        return left;
+    }
+
+    /** @return second child node number by node number, -1 for leaves **/
+    public int[] getRights() {
+        return right;
+    }
+
+    public double[] getHeights() {
+        return height;
+    }
+
+    /** @return Tree.IS_CLEAN, IS_DIRTY or IS_FILTHY by node number **/
+    public int[] getDirty() {
+        return dirty;
+    }
+
+    /** @return node numbers with children before parents **/
+    public int[] getPostOrder() {
+        return postOrder;
+    }
+
+    /** @return node numbers of internal nodes with at least one internal child, in the first getGrandParentCount() entries **/
+    public int[] getGrandParents() {
+        return grandParents;
+    }
+
+    public int getGrandParentCount() {
+        return grandParentCount;
+    }
+}
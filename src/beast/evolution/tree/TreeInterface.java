@@ -52,6 +52,14 @@ public interface TreeInterface {
         return nodes;
     }
 
+    /**
+     * @return structure and heights of the tree in arrays indexed by node number,
+     * kept per tree and read completely on every call, since the tree does not report its changes
+     */
+    default TreeArrays getTreeArrays() {
+        return TreeArrays.of(this);
+    }
+
     static int
     getNodesPostOrder(final Node node, final Node[] nodes, int pos) {
         //node.m_tree = this;
@@ -23,9 +23,15 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import beast.util.BinaryTreeLog;
 import beast.util.CredibleSet;
 import beast.util.FrequencySet;
 import beast.util.NexusParser;
@@ -39,7 +45,11 @@ import beast.util.NexusParser;
  * Represents an analysis of a list of trees obtained either directly
  * from a logger or from a trace file. The set of tree topologies is
  * calculated by given credible set probability threshold (default 95%).
- *
+ * <p/>
+ * Topologies are identified by a hash computed from clade hashes, which does
+ * not depend on the order of children, so the sorted Newick string of a
+ * topology is only built the first time it is seen. A second, independent
+ * hash guards against collisions, in which case the Newick string is used.
  *
  * @author Walter Xie
  * @author Alexei Drummond
@@ -54,6 +64,29 @@ public class TreeTraceAnalysis {
 
     protected boolean displayTaxonLabels = true; // false to display node index instead
 
+    /** maximum number of threads used to hash topologies in addAllTrees **/
+    protected static int threadCount = Runtime.getRuntime().availableProcessors();
+
+    public static void setThreadCount(int threadCount) {
+        TreeTraceAnalysis.threadCount = Math.max(1, threadCount);
+    }
+
+    /** topologies seen so far by hash, with their second hash and Newick string **/
+    private final Map<Long, Topology> topologies = new HashMap<>();
+
+    /** hashes of the tree being added by addAllTrees, which computes them in advance **/
+    private long[] nextHash;
+
+    private static class Topology {
+        final long hash2;
+        final String newick;
+
+        Topology(long hash2, String newick) {
+            this.hash2 = hash2;
+            this.newick = newick;
+        }
+    }
+
     public TreeTraceAnalysis() { };
 
     public TreeTraceAnalysis(List<Tree> posteriorTreeList, double burninFraction) {
@@ -74,8 +107,54 @@ public class TreeTraceAnalysis {
     public void addAllTrees(List<Tree> trees, double burninFraction) {
         int burnin = (int)Math.round(trees.size()*burninFraction);
 
-        for (int i=burnin; i<trees.size(); i++)
-            addTree(trees.get(i));
+        final long[][] hashes = topologyHashes(trees.subList(burnin, trees.size()));
+        try {
+            for (int i=burnin; i<trees.size(); i++) {
+                nextHash = hashes[i - burnin];
+                addTree(trees.get(i));
+            }
+        } finally {
+            nextHash = null;
+        }
+    }
+
+    /** @return topology hashes of trees, computed in parallel for long lists **/
+    private long[][] topologyHashes(List<Tree> trees) {
+        final long[][] hashes = new long[trees.size()][];
+        final int threads = Math.min(threadCount, trees.size() / 64);
+        if (threads <= 1) {
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = topologyHash(trees.get(i));
+            }
+            return hashes;
+        }
+        // each thread fills its own range of hashes
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int k = 0; k < threads; k++) {
+                final int start = (int) ((long) hashes.length * k / threads);
+                final int end = (int) ((long) hashes.length * (k + 1) / threads);
+                results.add(pool.submit(() -> {
+                    for (int i = start; i < end; i++) {
+                        hashes[i] = topologyHash(trees.get(i));
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return hashes;
     }
 
     public void addAllTrees(List<Tree> trees) {
@@ -89,7 +168,18 @@ public class TreeTraceAnalysis {
      * @param tree tree being added
      */
     public void analyzeTree(Tree tree) {
-        String topology = uniqueNewick(tree);
+        final long[] hash = nextHash != null ? nextHash : topologyHash(tree);
+        String topology;
+        Topology known = topologies.get(hash[0]);
+        if (known == null) {
+            topology = uniqueNewick(tree);
+            topologies.put(hash[0], new Topology(hash[1], topology));
+        } else if (known.hash2 == hash[1]) {
+            topology = known.newick;
+        } else {
+            // hash collision
+            topology = uniqueNewick(tree);
+        }
         topologiesFrequencySet.add(topology, 1);
     }
 
@@ -181,6 +271,54 @@ public class TreeTraceAnalysis {
         return TreeUtils.sortedNewickTopology(tree.getRoot(), displayTaxonLabels);
     }
 
+    /**
+     * Hash of the topology of a tree, consistent with uniqueNewick(): trees with the
+     * same topology have the same hash, and trees with different topologies almost
+     * surely differ in both of the two independent hashes.
+     *
+     * @return two independent 64 bit hashes of the topology
+     */
+    public long[] topologyHash(Tree tree) {
+        final long[] hash = new long[2];
+        topologyHash(tree.getRoot(), hash);
+        return hash;
+    }
+
+    private void topologyHash(Node node, long[] hash) {
+        if (node.isLeaf()) {
+            if (displayTaxonLabels) {
+                // FNV-1a hash of the label, like uniqueNewick() including "null" for missing IDs
+                final String label = String.valueOf(node.getID());
+                long h = 0xcbf29ce484222325L;
+                for (int i = 0; i < label.length(); i++) {
+                    h = (h ^ label.charAt(i)) * 0x100000001b3L;
+                }
+                hash[0] = mix(h);
+                hash[1] = mix(h ^ 0x9e3779b97f4a7c15L);
+            } else {
+                hash[0] = mix(node.getNr() + 1);
+                hash[1] = mix((node.getNr() + 1) ^ 0x9e3779b97f4a7c15L);
+            }
+            return;
+        }
+        // sums do not depend on the order of the children
+        long sum0 = 0, sum1 = 0;
+        for (Node child : node.getChildren()) {
+            topologyHash(child, hash);
+            sum0 += hash[0];
+            sum1 += hash[1];
+        }
+        hash[0] = mix(sum0 + 0x632be59bd9b4e019L);
+        hash[1] = mix(sum1 ^ 0x2545f4914f6cdd1dL);
+    }
+
+    /** finaliser of SplitMix64, which spreads every bit of x over the result **/
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
     public Map<String, Integer> getTopologyCounts() {
         return topologiesFrequencySet.getFrequencyMap();
     }
@@ -210,6 +348,15 @@ public class TreeTraceAnalysis {
          * @throws IOException 
          */
         public static List<Tree> getTrees (File treeFile) throws IOException {
+            if (BinaryTreeLog.isBinaryTreeLog(treeFile)) {
+                List<Tree> trees = new ArrayList<>();
+                try (BinaryTreeLog.Reader reader = new BinaryTreeLog.Reader(treeFile)) {
+                    while (reader.next()) {
+                        trees.add(reader.getTree());
+                    }
+                }
+                return trees;
+            }
             NexusParser parser = new NexusParser();
             parser.parseFile(treeFile);
             return parser.trees;
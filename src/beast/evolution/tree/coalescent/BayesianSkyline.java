@@ -7,6 +7,7 @@ import beast.core.parameter.IntegerParameter;
 import beast.evolution.tree.Tree;
 import beast.evolution.tree.TreeDistribution;
 import beast.math.Binomial;
+import beast.math.SegmentTree;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -47,6 +48,14 @@ public class BayesianSkyline extends TreeDistribution {
     int[] cumulativeGroupSizes;
     boolean m_bIsPrepared = false;
 
+    /**
+     * choose2(lineage count) times width of every interval, so that the area under
+     * each group is a range sum and only intervals that changed with the tree need updating
+     */
+    SegmentTree intervalAreas;
+    /** whether intervalAreas was stored, so that it can be restored **/
+    boolean intervalAreasStored;
+
     public BayesianSkyline() {
     }
 
@@ -122,18 +131,24 @@ public class BayesianSkyline extends TreeDistribution {
     }
 
     public void prepare() {
-        cumulativeGroupSizes = new int[groupSizes.getDimension()];
+        calcCumulativeGroupSizes();
+
+        coalescentTimes = intervals.getCoalescentTimes(coalescentTimes);
+
+        assert (intervals.getSampleCount() == cumulativeGroupSizes[cumulativeGroupSizes.length - 1]);
+        m_bIsPrepared = true;
+    }
+
+    private void calcCumulativeGroupSizes() {
+        if (cumulativeGroupSizes == null || cumulativeGroupSizes.length != groupSizes.getDimension()) {
+            cumulativeGroupSizes = new int[groupSizes.getDimension()];
+        }
 
         int intervalCount = 0;
         for (int i = 0; i < cumulativeGroupSizes.length; i++) {
             intervalCount += groupSizes.getValue(i);
             cumulativeGroupSizes[i] = intervalCount;
         }
-
-        coalescentTimes = intervals.getCoalescentTimes(coalescentTimes);
-
-        assert (intervals.getSampleCount() == intervalCount);
-        m_bIsPrepared = true;
     }
 
     /**
@@ -148,12 +163,21 @@ public class BayesianSkyline extends TreeDistribution {
     @Override
     public void store() {
         m_bIsPrepared = false;
+        if (intervalAreas != null) {
+            intervalAreas.store();
+            intervalAreasStored = true;
+        }
         super.store();
     }
 
     @Override
     public void restore() {
         m_bIsPrepared = false;
+        if (intervalAreasStored) {
+            intervalAreas.restore();
+        } else {
+            intervalAreas = null;
+        }
         super.restore();
     }
 
@@ -172,11 +196,84 @@ public class BayesianSkyline extends TreeDistribution {
      */
     @Override
     public double calculateLogP() {
+        if (intervals.multifurcationLimit < 0) {
+            logP = calculateLogPByGroup();
+        } else {
+            logP = calculateLogPByInterval();
+        }
+        return logP;
+    }
+
+    /**
+     * Within a group the population size is constant, so its log likelihood is
+     * -(sum of choose2(k) * width over its intervals) / N - (number of coalescences) * log(N).
+     * Only intervals that changed since the last calculation, which TreeIntervals keeps
+     * track of, are updated, and groups are located by binary search, so a local change
+     * of the tree takes logarithmic instead of linear time. Requires that every node has
+     * its own interval, which is the case without a multifurcation limit.
+     */
+    private double calculateLogPByGroup() {
+        final int n = intervals.getIntervalCount();
+        int from = intervals.changedFrom, to = Math.min(n, intervals.changedTo);
+        if (intervalAreas == null || intervalAreas.size() != n) {
+            intervalAreas = new SegmentTree(n);
+            intervalAreasStored = false;
+            from = 0;
+            to = n;
+        }
+        for (int j = from; j < to; j++) {
+            intervalAreas.set(j, Binomial.choose2(intervals.getLineageCount(j)) * intervals.getInterval(j));
+        }
+
+        calcCumulativeGroupSizes();
+        final int internalNodeCount = intervals.getSampleCount();
+        double logL = 0.0;
+        int start = 0;
+        for (int g = 0; g < cumulativeGroupSizes.length; g++) {
+            final int end = g == cumulativeGroupSizes.length - 1 ? n : firstIntervalAfter(cumulativeGroupSizes[g], n);
+            if (end > start) {
+                final double popSize = popSizes.getArrayValue(Math.min(g, popSizes.getDimension() - 1));
+                final int coalescences = (end == n ? internalNodeCount : coalescencesBefore(end)) - coalescencesBefore(start);
+                final double area = intervalAreas.sum(start, end);
+                if (area != 0.0) {
+                    logL -= area / popSize;
+                }
+                if (coalescences > 0) {
+                    logL -= coalescences * Math.log(popSize);
+                }
+                start = end;
+            }
+        }
+        return logL;
+    }
+
+    /** @return number of coalescent intervals before interval j **/
+    private int coalescencesBefore(int j) {
+        // j = leaves + internal nodes before j, lineage count = leaves - internal nodes before j
+        return (j - intervals.getLineageCount(j)) / 2;
+    }
+
+    /** @return first interval that has at least coalescences coalescent intervals before it, or n if there is none **/
+    private int firstIntervalAfter(int coalescences, int n) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (coalescencesBefore(mid) < coalescences) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** log likelihood interval by interval, taking population size at the middle of each interval **/
+    private double calculateLogPByInterval() {
         if (!m_bIsPrepared) {
             prepare();
         }
 
-        logP = 0.0;
+        double logP = 0.0;
 
         double currentTime = 0.0;
 
@@ -12,6 +12,7 @@ import beast.core.Input.Validate;
 import beast.core.State;
 import beast.evolution.tree.TreeDistribution;
 import beast.math.Binomial;
+import beast.math.SegmentTree;
 
 
 /**
@@ -27,6 +28,15 @@ public class Coalescent extends TreeDistribution {
 
     TreeIntervals intervals;
 
+    /**
+     * log likelihood of every interval, so that only intervals that changed with the
+     * tree are recalculated, unless the population size function changed
+     */
+    SegmentTree intervalLogP;
+    /** whether intervalLogP was stored, so that it can be restored **/
+    boolean intervalLogPStored;
+    boolean populationChanged = true;
+
     @Override
     public void initAndValidate() {
         intervals = treeIntervalsInput.get();
@@ -43,7 +53,11 @@ public class Coalescent extends TreeDistribution {
     @Override
     public double calculateLogP() {
 
-        logP = calculateLogLikelihood(intervals, popSizeInput.get());
+        if (intervals.multifurcationLimit < 0) {
+            logP = calculateLogLikelihoodIncrementally();
+        } else {
+            logP = calculateLogLikelihood(intervals, popSizeInput.get());
+        }
 
         if (Double.isInfinite(logP)) {
         	logP = Double.NEGATIVE_INFINITY;
@@ -75,6 +89,58 @@ public class Coalescent extends TreeDistribution {
     }
 
 
+    /**
+     * As calculateLogLikelihood(intervals, popSizeInput.get()), but recalculates only
+     * intervals that changed since the last calculation, which TreeIntervals keeps
+     * track of, unless the population size function changed. Start and finish times
+     * of intervals are taken from the sorted node heights instead of being
+     * accumulated, so they do not depend on other intervals.
+     */
+    private double calculateLogLikelihoodIncrementally() {
+        final PopulationFunction popSizeFunction = popSizeInput.get();
+        final int n = intervals.getIntervalCount();
+        int from = intervals.changedFrom, to = Math.min(n, intervals.changedTo);
+        if (intervalLogP == null || intervalLogP.size() != n) {
+            intervalLogP = new SegmentTree(n);
+            intervalLogPStored = false;
+            from = 0;
+            to = n;
+        } else if (populationChanged || from == 0) {
+            // all start times are relative to the first node
+            from = 0;
+            to = n;
+        }
+        populationChanged = false;
+
+        final double[] times = intervals.sortedTimes;
+        for (int i = from; i < to; i++) {
+            final double startTime = i == 0 ? 0.0 : times[i - 1] - times[0];
+            final double finishTime = times[i] - times[0];
+            intervalLogP.set(i, intervalLogLikelihood(popSizeFunction, intervals.getInterval(i), startTime, finishTime,
+                    intervals.getLineageCount(i), intervals.getIntervalType(i)));
+        }
+        return intervalLogP.total();
+    }
+
+    /** @return log likelihood of a single interval, as calculateLogLikelihood() computes it with threshold 0 **/
+    private static double intervalLogLikelihood(PopulationFunction popSizeFunction, double duration,
+                                                double startTime, double finishTime, int lineageCount, IntervalType type) {
+        final double intervalArea = popSizeFunction.getIntegral(startTime, finishTime);
+        if (intervalArea == 0 && duration > 1e-10) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double logL = -Binomial.choose2(lineageCount) * intervalArea;
+        if (type == IntervalType.COALESCENT) {
+            final double demographicAtCoalPoint = popSizeFunction.getPopSize(finishTime);
+            if (duration == 0.0 || demographicAtCoalPoint * (intervalArea / duration) >= 0.0) {
+                logL -= Math.log(demographicAtCoalPoint);
+            } else {
+                return Double.NEGATIVE_INFINITY;
+            }
+        }
+        return logL;
+    }
+
     /**
      * Calculates the log likelihood of this set of coalescent intervals,
      * given a demographic model.
@@ -145,6 +211,30 @@ public class Coalescent extends TreeDistribution {
 
     @Override
     protected boolean requiresRecalculation() {
-        return ((CalculationNode) popSizeInput.get()).isDirtyCalculation() || super.requiresRecalculation();
+        if (((CalculationNode) popSizeInput.get()).isDirtyCalculation()) {
+            populationChanged = true;
+            return true;
+        }
+        return super.requiresRecalculation();
+    }
+
+    @Override
+    public void store() {
+        if (intervalLogP != null) {
+            intervalLogP.store();
+            intervalLogPStored = true;
+        }
+        super.store();
+    }
+
+    @Override
+    public void restore() {
+        if (intervalLogPStored) {
+            intervalLogP.restore();
+        } else {
+            intervalLogP = null;
+        }
+        populationChanged = false;
+        super.restore();
     }
 }
@@ -11,7 +11,7 @@ import beast.core.Input;
 import beast.core.Input.Validate;
 import beast.evolution.tree.Node;
 import beast.evolution.tree.Tree;
-import beast.util.HeapSort;
+import beast.evolution.tree.TreeArrays;
 
 
 /*
@@ -41,6 +41,12 @@ import beast.util.HeapSort;
 
 /**
  * Extracts the intervals from a beast.tree.
+ * <p/>
+ * Node numbers are kept sorted by height. When the tree changes, only nodes whose
+ * height changed are moved to their new place in the order, and only the
+ * intervals between the old and new places of moved nodes are recalculated,
+ * so a local change of the tree costs O(log n) plus the distance moved, and
+ * storing and restoring copies only the part of the arrays that changed.
  *
  * @author Andrew Rambaut
  * @author Alexei Drummond
@@ -80,29 +86,47 @@ public class TreeIntervals extends CalculationNode implements IntervalList {
 
     @Override
     protected void restore() {
-        //intervalsKnown = false;
-        double[] tmp = storedIntervals;
-        storedIntervals = intervals;
-        intervals = tmp;
-
-        int[] tmp2 = storedLineageCounts;
-        storedLineageCounts = lineageCounts;
-        lineageCounts = tmp2;
-
-        int tmp3 = storedIntervalCount;
-        storedIntervalCount = intervalCount;
-        intervalCount = tmp3;
+        if (changedFrom < changedTo) {
+            final int length = changedTo - changedFrom;
+            System.arraycopy(storedOrder, changedFrom, order, changedFrom, length);
+            System.arraycopy(storedSortedTimes, changedFrom, sortedTimes, changedFrom, length);
+            System.arraycopy(storedIntervals, changedFrom, intervals, changedFrom, length);
+            System.arraycopy(storedLineageCounts, changedFrom, lineageCounts, changedFrom, length);
+            for (int k = changedFrom; k < changedTo; k++) {
+                position[order[k]] = k;
+            }
+        }
+        intervalCount = storedIntervalCount;
+        intervalsKnown = storedIntervalsKnown;
+        resetChanges();
         super.restore();
     }
 
     @Override
     protected void store() {
-        System.arraycopy(lineageCounts, 0, storedLineageCounts, 0, lineageCounts.length);
-        System.arraycopy(intervals, 0, storedIntervals, 0, intervals.length);
+        if (changedFrom < changedTo) {
+            final int length = changedTo - changedFrom;
+            System.arraycopy(order, changedFrom, storedOrder, changedFrom, length);
+            System.arraycopy(sortedTimes, changedFrom, storedSortedTimes, changedFrom, length);
+            System.arraycopy(intervals, changedFrom, storedIntervals, changedFrom, length);
+            System.arraycopy(lineageCounts, changedFrom, storedLineageCounts, changedFrom, length);
+        }
         storedIntervalCount = intervalCount;
+        storedIntervalsKnown = intervalsKnown;
+        resetChanges();
         super.store();
     }
 
+    private void resetChanges() {
+        changedFrom = Integer.MAX_VALUE;
+        changedTo = 0;
+    }
+
+    private void markChanged(int from, int to) {
+        changedFrom = Math.min(changedFrom, from);
+        changedTo = Math.max(changedTo, to);
+    }
+
     /**
      * Specifies that the intervals are unknown (i.e., the beast.tree has changed).
      */
@@ -121,6 +145,7 @@ public class TreeIntervals extends CalculationNode implements IntervalList {
         if (this.multifurcationLimit != multifurcationLimit) {
             this.multifurcationLimit = multifurcationLimit;
             intervalsKnown = false;
+            rebuildAll = true;
         }
     }
 
@@ -177,7 +202,7 @@ public class TreeIntervals extends CalculationNode implements IntervalList {
 
         double time = 0;
         int coalescentIndex = 0;
-        for (int i = 0; i < intervals.length; i++) {
+        for (int i = 0; i < intervalCount; i++) {
             time += intervals[i];
             for (int j = 0; j < getCoalescentEvents(i); j++) {
                 coalescentTimes[coalescentIndex] = time;
@@ -316,48 +341,188 @@ public class TreeIntervals extends CalculationNode implements IntervalList {
     }
 
     /**
-     * Recalculates all the intervals for the given beast.tree.
+     * Recalculates the intervals for the given beast.tree, by moving nodes whose
+     * height changed to their new place in the height order, or sorting all nodes
+     * if the tree is new or changed a lot.
      */
-    @SuppressWarnings("unchecked")
     protected void calculateIntervals() {
         Tree tree = treeInput.get();
 
         final int nodeCount = tree.getNodeCount();
 
-        times = new double[nodeCount];
-        int[] childCounts = new int[nodeCount];
+        final boolean isNew = order == null || order.length != nodeCount;
+        if (isNew) {
+            initArrays(nodeCount);
+            sortAll();
+        } else {
+            // moving a node costs the distance it moves, so sort when nodes move too far in total
+            int budget = 4 * nodeCount;
+            final double[] heights = tree.getTreeArrays().getHeights();
+            for (int nr = 0; nr < nodeCount; nr++) {
+                final double height = heights[nr];
+                if (height != sortedTimes[position[nr]]) {
+                    if (budget < 0) {
+                        sortAll();
+                        break;
+                    }
+                    budget -= move(nr, height);
+                }
+            }
+        }
 
-        collectTimes(tree, times, childCounts);
+        if (multifurcationLimit < 0 && !rebuildAll) {
+            if (changedFrom < changedTo) {
+                // intervals of moved nodes, and the ones following them, which start at a moved node
+                updateIntervals(changedFrom, Math.min(nodeCount, changedTo + 1));
+            }
+        } else {
+            rebuildIntervals();
+        }
+        rebuildAll = false;
+        intervalsKnown = true;
 
-        indices = new int[nodeCount];
+        if (isNew) {
+            // stored arrays should hold a consistent state, and restoring it should trigger an update
+            System.arraycopy(order, 0, storedOrder, 0, nodeCount);
+            System.arraycopy(sortedTimes, 0, storedSortedTimes, 0, nodeCount);
+            System.arraycopy(intervals, 0, storedIntervals, 0, nodeCount);
+            System.arraycopy(lineageCounts, 0, storedLineageCounts, 0, nodeCount);
+            storedIntervalCount = intervalCount;
+            storedIntervalsKnown = false;
+        }
+    }
 
-        HeapSort.sort(times, indices);
+    private void initArrays(final int nodeCount) {
+        order = new int[nodeCount];
+        position = new int[nodeCount];
+        sortedTimes = new double[nodeCount];
+        isLeaf = new boolean[nodeCount];
+        buffer = new int[nodeCount];
+        nodeTimes = new double[nodeCount];
+        childCounts = new int[nodeCount];
+        intervals = new double[nodeCount];
+        lineageCounts = new int[nodeCount];
+
+        storedOrder = new int[nodeCount];
+        storedSortedTimes = new double[nodeCount];
+        storedIntervals = new double[nodeCount];
+        storedLineageCounts = new int[nodeCount];
+        rebuildAll = true;
+    }
 
-        if (intervals == null || intervals.length != nodeCount) {
-            intervals = new double[nodeCount];
-            lineageCounts = new int[nodeCount];
-            lineagesAdded = new List[nodeCount];
-            lineagesRemoved = new List[nodeCount];
-//            lineages = new List[nodeCount];
+    /** sort all nodes by height, and node number for equal heights **/
+    private void sortAll() {
+        final int nodeCount = order.length;
+        collectTimes(treeInput.get(), nodeTimes, childCounts);
+        for (int nr = 0; nr < nodeCount; nr++) {
+            isLeaf[nr] = childCounts[nr] == 0;
+            order[nr] = nr;
+        }
+        mergeSort(nodeTimes, 0, nodeCount);
+        for (int k = 0; k < nodeCount; k++) {
+            position[order[k]] = k;
+            sortedTimes[k] = nodeTimes[order[k]];
+        }
+        markChanged(0, nodeCount);
+        rebuildAll = true;
+    }
+
+    /** stable merge sort of order[from..to) by times, using buffer **/
+    private void mergeSort(final double[] times, final int from, final int to) {
+        if (to - from < 2) {
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        mergeSort(times, from, mid);
+        mergeSort(times, mid, to);
+        if (times[order[mid - 1]] <= times[order[mid]]) {
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        int i = from, j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && times[buffer[i]] <= times[buffer[j]])) {
+                order[k] = buffer[i++];
+            } else {
+                order[k] = buffer[j++];
+            }
+        }
+    }
 
-            storedIntervals = new double[nodeCount];
-            storedLineageCounts = new int[nodeCount];
+    /** @return whether node nr at the given height sorts before the node at position k **/
+    private boolean before(final int nr, final double height, final int k) {
+        return height < sortedTimes[k] || (height == sortedTimes[k] && nr < order[k]);
+    }
 
-        } else {
-            for (List<Node> l : lineagesAdded) {
-                if (l != null) {
-                    l.clear();
+    /**
+     * move node nr to its place in the order for the given height
+     * @return number of positions moved
+     */
+    private int move(final int nr, final double height) {
+        final int p = position[nr];
+        final int nodeCount = order.length;
+        int q = p;
+        if (p + 1 < nodeCount && !before(nr, height, p + 1)) {
+            // moves up: find the last position after p the node does not sort before
+            int lo = p + 1, hi = nodeCount - 1;
+            while (lo < hi) {
+                final int mid = (lo + hi + 1) >>> 1;
+                if (before(nr, height, mid)) {
+                    hi = mid - 1;
+                } else {
+                    lo = mid;
                 }
             }
-            for (List<Node> l : lineagesRemoved) {
-                if (l != null) {
-                    l.clear();
+            q = lo;
+            System.arraycopy(order, p + 1, order, p, q - p);
+            System.arraycopy(sortedTimes, p + 1, sortedTimes, p, q - p);
+        } else if (p > 0 && before(nr, height, p - 1)) {
+            // moves down: find the first position before p the node sorts before
+            int lo = 0, hi = p - 1;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (before(nr, height, mid)) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
                 }
             }
+            q = lo;
+            System.arraycopy(order, q, order, q + 1, p - q);
+            System.arraycopy(sortedTimes, q, sortedTimes, q + 1, p - q);
+        }
+        order[q] = nr;
+        sortedTimes[q] = height;
+        final int from = Math.min(p, q), to = Math.max(p, q) + 1;
+        for (int k = from; k < to; k++) {
+            position[order[k]] = k;
+        }
+        markChanged(from, to);
+        return to - from;
+    }
+
+    /**
+     * Without merging of events, every node is an event that ends an interval: the
+     * first interval is empty, and the lineage count of an interval is the number
+     * of leaves minus the number of internal nodes below it.
+     */
+    private void updateIntervals(final int from, final int to) {
+        int numLines = from == 0 ? 0 : lineageCounts[from - 1] + (isLeaf[order[from - 1]] ? 1 : -1);
+        for (int k = from; k < to; k++) {
+            intervals[k] = k == 0 ? 0.0 : sortedTimes[k] - sortedTimes[k - 1];
+            lineageCounts[k] = numLines;
+            numLines += isLeaf[order[k]] ? 1 : -1;
         }
+        intervalCount = order.length;
+        markChanged(from, to);
+    }
+
+    /** calculate all intervals, merging events that are within the multifurcation limit **/
+    private void rebuildIntervals() {
+        final int nodeCount = order.length;
 
         // start is the time of the first tip
-        double start = times[indices[0]];
+        double start = sortedTimes[0];
         int numLines = 0;
         int nodeNo = 0;
         intervalCount = 0;
@@ -366,31 +531,17 @@ public class TreeIntervals extends CalculationNode implements IntervalList {
             int lineagesRemoved = 0;
             int lineagesAdded = 0;
 
-            double finish = times[indices[nodeNo]];
+            double finish = sortedTimes[nodeNo];
             double next;
 
             do {
-                final int childIndex = indices[nodeNo];
-                final int childCount = childCounts[childIndex];
+                final boolean leaf = isLeaf[order[nodeNo]];
                 // don't use nodeNo from here on in do loop
                 nodeNo += 1;
-                if (childCount == 0) {
-                    addLineage(intervalCount, tree.getNode(childIndex));
+                if (leaf) {
                     lineagesAdded += 1;
                 } else {
-                    lineagesRemoved += (childCount - 1);
-
-                    // record removed lineages
-                    final Node parent = tree.getNode(childIndex);
-                    //assert childCounts[indices[nodeNo]] == beast.tree.getChildCount(parent);
-                    //for (int j = 0; j < lineagesRemoved + 1; j++) {
-                    for (int j = 0; j < childCount; j++) {
-                        Node child = j == 0 ? parent.getLeft() : parent.getRight();
-                        removeLineage(intervalCount, child);
-                    }
-
-                    // record added lineages
-                    addLineage(intervalCount, parent);
+                    lineagesRemoved += 1;
                     // no mix of removed lineages when 0 th
                     if (multifurcationLimit == 0.0) {
                         break;
@@ -398,7 +549,7 @@ public class TreeIntervals extends CalculationNode implements IntervalList {
                 }
 
                 if (nodeNo < nodeCount) {
-                    next = times[indices[nodeNo]];
+                    next = sortedTimes[nodeNo];
                 } else break;
             } while (Math.abs(next - finish) <= multifurcationLimit);
 
@@ -426,8 +577,7 @@ public class TreeIntervals extends CalculationNode implements IntervalList {
             // coalescent event
             numLines -= lineagesRemoved;
         }
-
-        intervalsKnown = true;
+        markChanged(0, nodeCount);
     }
 
     /**
@@ -440,15 +590,33 @@ public class TreeIntervals extends CalculationNode implements IntervalList {
         if (!intervalsKnown) {
             calculateIntervals();
         }
-        return times[indices[i]];
+        return sortedTimes[i];
     }
-    
+
+    /**
+     * @deprecated calculateIntervals no longer records the lineages of each interval,
+     * so this is not called and lineagesAdded is only filled by subclasses calling it.
+     */
+    @Deprecated
+    @SuppressWarnings("unchecked")
     protected void addLineage(int interval, Node node) {
+        if (lineagesAdded == null || lineagesAdded.length <= interval) {
+            lineagesAdded = new List[treeInput.get().getNodeCount()];
+        }
         if (lineagesAdded[interval] == null) lineagesAdded[interval] = new ArrayList<>();
         lineagesAdded[interval].add(node);
     }
 
+    /**
+     * @deprecated calculateIntervals no longer records the lineages of each interval,
+     * so this is not called and lineagesRemoved is only filled by subclasses calling it.
+     */
+    @Deprecated
+    @SuppressWarnings("unchecked")
     protected void removeLineage(int interval, Node node) {
+        if (lineagesRemoved == null || lineagesRemoved.length <= interval) {
+            lineagesRemoved = new List[treeInput.get().getNodeCount()];
+        }
         if (lineagesRemoved[interval] == null) lineagesRemoved[interval] = new ArrayList<>();
         lineagesRemoved[interval].add(node);
     }
@@ -469,11 +637,12 @@ public class TreeIntervals extends CalculationNode implements IntervalList {
      * @param childCounts the number of children of each node
      */
     protected static void collectTimes(Tree tree, double[] times, int[] childCounts) {
-        Node[] nodes = tree.getNodesAsArray();
-        for (int i = 0; i < nodes.length; i++) {
-            Node node = nodes[i];
-            times[i] = node.getHeight();
-            childCounts[i] = node.isLeaf() ? 0 : 2;
+        final TreeArrays arrays = tree.getTreeArrays();
+        final double[] heights = arrays.getHeights();
+        final int[] lefts = arrays.getLefts();
+        for (int i = 0; i < heights.length; i++) {
+            times[i] = heights[i];
+            childCounts[i] = lefts[i] < 0 ? 0 : 2;
         }
     }
 
@@ -488,10 +657,26 @@ public class TreeIntervals extends CalculationNode implements IntervalList {
     protected double[] intervals;
     protected double[] storedIntervals;
 
-    /** interval times **/
-    double[] times;
-    int[] indices;
-    
+    /** node numbers sorted by height, and node number for equal heights **/
+    int[] order;
+    int[] storedOrder;
+    /** position of every node number in order **/
+    int[] position;
+    /** heights of nodes in order **/
+    double[] sortedTimes;
+    double[] storedSortedTimes;
+    boolean[] isLeaf;
+    /** scratch space for sorting **/
+    int[] buffer;
+    double[] nodeTimes;
+    int[] childCounts;
+
+    /** range of positions that changed since the last store **/
+    int changedFrom = Integer.MAX_VALUE;
+    int changedTo = 0;
+    /** whether all intervals should be recalculated, instead of the changed range only **/
+    boolean rebuildAll = true;
+
     /**
      * The number of uncoalesced lineages within a particular interval.
      */
@@ -500,10 +685,12 @@ public class TreeIntervals extends CalculationNode implements IntervalList {
 
     /**
      * The lineages in each interval (stored by node ref).
+     * @deprecated no longer filled by calculateIntervals, see addLineage and removeLineage
      */
+    @Deprecated
     protected List<Node>[] lineagesAdded;
+    @Deprecated
     protected List<Node>[] lineagesRemoved;
-//    private List<Node>[] lineages;
 
     protected int intervalCount = 0;
     protected int storedIntervalCount = 0;
@@ -512,6 +699,7 @@ public class TreeIntervals extends CalculationNode implements IntervalList {
      * are the intervals known?
      */
     protected boolean intervalsKnown = false;
+    protected boolean storedIntervalsKnown = false;
 
     protected double multifurcationLimit = -1.0;
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package beast.math;
+
+/**
+ * Fast Fourier transform of complex sequences whose length is a power of 2,
+ * and convolution and autocorrelation of real sequences based on it.
+ */
+public class FFT {
+
+    /** @return smallest power of 2 that is at least n **/
+    public static int size(int n) {
+        int size = 1;
+        while (size < n) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    /**
+     * In place radix 2 FFT of re + i * im, whose length should be a power of 2.
+     * The inverse transform is not scaled by 1/n.
+     */
+    public static void transform(double[] re, double[] im, boolean inverse) {
+        final int n = re.length;
+        if (n != im.length || Integer.bitCount(n) > 1) {
+            throw new IllegalArgumentException("length should be a power of 2 and the same for both arrays");
+        }
+        // bit reversal permutation
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double tmp = re[i]; re[i] = re[j]; re[j] = tmp;
+                tmp = im[i]; im[i] = im[j]; im[j] = tmp;
+            }
+        }
+        // twiddle factors computed directly rather than by recurrence, to keep rounding errors small for long sequences
+        final double[] cos = new double[n / 2];
+        final double[] sin = new double[n / 2];
+        for (int k = 0; k < n / 2; k++) {
+            final double angle = 2 * Math.PI * k / n;
+            cos[k] = Math.cos(angle);
+            sin[k] = inverse ? Math.sin(angle) : -Math.sin(angle);
+        }
+        for (int len = 2; len <= n; len <<= 1) {
+            final int half = len / 2, stride = n / len;
+            for (int i = 0; i < n; i += len) {
+                for (int k = 0; k < half; k++) {
+                    final double wRe = cos[k * stride], wIm = sin[k * stride];
+                    final int a = i + k, b = a + half;
+                    final double vRe = re[b] * wRe - im[b] * wIm;
+                    final double vIm = re[b] * wIm + im[b] * wRe;
+                    re[b] = re[a] - vRe;
+                    im[b] = im[a] - vIm;
+                    re[a] += vRe;
+                    im[a] += vIm;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return sums x[t] * x[t + lag] over t for lags 0 to maxLag - 1,
+     * computed by FFT in O(n log n) time
+     */
+    public static double[] autoCorrelation(double[] x, int maxLag) {
+        maxLag = Math.min(maxLag, x.length);
+        // padding with at least maxLag zeros prevents wrapping around for the lags of interest
+        final int n = size(x.length + maxLag);
+        final double[] re = new double[n];
+        final double[] im = new double[n];
+        System.arraycopy(x, 0, re, 0, x.length);
+        transform(re, im, false);
+        for (int i = 0; i < n; i++) {
+            re[i] = re[i] * re[i] + im[i] * im[i];
+            im[i] = 0;
+        }
+        transform(re, im, true);
+        final double[] sums = new double[maxLag];
+        for (int lag = 0; lag < maxLag; lag++) {
+            sums[lag] = re[lag] / n;
+        }
+        return sums;
+    }
+}
@@ -0,0 +1,109 @@
+package beast.math;
+
+import java.util.Arrays;
+
+/**
+ * Sums over ranges of a fixed number of values, kept in a binary tree of
+ * partial sums. Changed values are added up again lazily, by the next query,
+ * in time proportional to the range of values that changed plus the depth of
+ * the tree. Sums only depend on the values, not on the order in which they were
+ * set, so updating some values gives exactly the same sums as setting all.
+ * Changes since the last store() are undone by restore().
+ */
+public class SegmentTree {
+    /** number of values **/
+    final int size;
+    /** index of the first value in sums, a power of 2 **/
+    final int offset;
+    /** partial sums, with sums[1] the total and sums[offset + i] value i **/
+    final double[] sums;
+    final double[] storedValues;
+
+    /** range of values changed since sums were last added up **/
+    int pendingFrom, pendingTo;
+    /** range of values changed since the last store **/
+    int changedFrom, changedTo;
+
+    public SegmentTree(int size) {
+        this.size = size;
+        offset = FFT.size(Math.max(1, size));
+        sums = new double[2 * offset];
+        storedValues = new double[size];
+        pendingFrom = changedFrom = Integer.MAX_VALUE;
+        pendingTo = changedTo = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double get(int i) {
+        return sums[offset + i];
+    }
+
+    public void set(int i, double value) {
+        sums[offset + i] = value;
+        pendingFrom = Math.min(pendingFrom, i);
+        pendingTo = Math.max(pendingTo, i + 1);
+        changedFrom = Math.min(changedFrom, i);
+        changedTo = Math.max(changedTo, i + 1);
+    }
+
+    /** @return sum of all values **/
+    public double total() {
+        update();
+        return sums[1];
+    }
+
+    /** @return sum of values from (inclusive) to (exclusive) **/
+    public double sum(int from, int to) {
+        update();
+        double left = 0, right = 0;
+        for (int lo = offset + from, hi = offset + to; lo < hi; lo >>= 1, hi >>= 1) {
+            if ((lo & 1) == 1) {
+                left += sums[lo++];
+            }
+            if ((hi & 1) == 1) {
+                right = sums[--hi] + right;
+            }
+        }
+        return left + right;
+    }
+
+    /** add up partial sums above the values that changed **/
+    private void update() {
+        if (pendingFrom >= pendingTo) {
+            return;
+        }
+        for (int lo = (offset + pendingFrom) >> 1, hi = (offset + pendingTo - 1) >> 1; lo > 0; lo >>= 1, hi >>= 1) {
+            for (int p = lo; p <= hi; p++) {
+                sums[p] = sums[2 * p] + sums[2 * p + 1];
+            }
+        }
+        pendingFrom = Integer.MAX_VALUE;
+        pendingTo = 0;
+    }
+
+    public void store() {
+        if (changedFrom < changedTo) {
+            System.arraycopy(sums, offset + changedFrom, storedValues, changedFrom, changedTo - changedFrom);
+        }
+        changedFrom = Integer.MAX_VALUE;
+        changedTo = 0;
+    }
+
+    public void restore() {
+        if (changedFrom < changedTo) {
+            System.arraycopy(storedValues, changedFrom, sums, offset + changedFrom, changedTo - changedFrom);
+            pendingFrom = Math.min(pendingFrom, changedFrom);
+            pendingTo = Math.max(pendingTo, changedTo);
+        }
+        changedFrom = Integer.MAX_VALUE;
+        changedTo = 0;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOfRange(sums, offset, offset + size));
+    }
+}
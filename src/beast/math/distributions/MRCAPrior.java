@@ -105,6 +105,13 @@ public class MRCAPrior extends Distribution {
     boolean [] nodesTraversed;
     int nseen;
 
+    /**
+     * Common ancestor of two nodes, found by walking up from the lower node, which
+     * marks every node visited in nodesTraversed and counts them in nseen.
+     *
+     * @deprecated use getCommonAncestor(), which uses the clade index of the tree
+     */
+    @Deprecated
     protected Node getCommonAncestor(Node n1, Node n2) {
         // assert n1.getTree() == n2.getTree();
         if( ! nodesTraversed[n1.getNr()] ) {
@@ -171,25 +178,40 @@ public class MRCAPrior extends Distribution {
 
     // A lightweight version for finding the most recent common ancestor of a group of taxa.
     // return the node-ref of the MRCA.
+    // Uses the clade index of the tree, which is shared with other MRCAPriors on the same tree,
+    // so this takes time proportional to the number of taxa plus the depth of the MRCA.
 
     // would be nice to use nodeRef's, but they are not preserved :(
     public Node getCommonAncestor() {
         if (!initialised) {
             initialise();
         }
-        nodesTraversed = new boolean[tree.getNodeCount()];
-        Node n = getCommonAncestorInternal();
+        Node n = tree.getCladeIndex().getCommonAncestor(tree, taxonIndex);
         assert ! (useRoot && !n.isRoot() ) ;
         return n;
     }
 
-    private Node getCommonAncestorInternal() {
-        Node cur = tree.getNode(taxonIndex[0]);
-
-        for (int k = 1; k < taxonIndex.length; ++k) {
-            cur = getCommonAncestor(cur, tree.getNode(taxonIndex[k]));
+    /**
+     * Determines MRCATime and isMonophyletic for the taxon set, unless only tips are used
+     */
+    private void calcMRCATime() {
+        Node m;
+        if (taxonIndex.length == 1) {
+            isMonophyletic = true;
+            m = tree.getNode(taxonIndex[0]);
+        } else {
+            m = getCommonAncestor();
+            isMonophyletic = (tree.getCladeIndex().getLeafCount(m) == taxonIndex.length);
+        }
+        if (useOriginate) {
+            if (!m.isRoot()) {
+                MRCATime = m.getParent().getDate();
+            } else {
+                MRCATime = m.getDate();
+            }
+        } else {
+            MRCATime = m.getDate();
         }
-        return cur;
     }
 
     @Override
@@ -216,28 +238,7 @@ public class MRCAPrior extends Distribution {
     		return logP;
         } else {
             // internal node
-            if( false) {
-                calcMRCAtime(tree.getRoot(), new int[1]);
-            } else {
-            	Node m;
-            	if (taxonIndex.length == 1) {
-            		isMonophyletic = true;
-            		m = tree.getNode(taxonIndex[0]);
-            	} else {
-	                nseen = 0;
-                	m = getCommonAncestor();
-	                isMonophyletic = (nseen == 2 * taxonIndex.length - 1);
-            	}
-            	if (useOriginate) {
-            		if (!m.isRoot()) {
-            			MRCATime = m.getParent().getDate();
-            		} else {
-            			MRCATime = m.getDate();
-            		}
-            	} else {
-            		MRCATime = m.getDate();
-            	}
-            }
+            calcMRCATime();
         }
         if (isMonophyleticInput.get() && !isMonophyletic) {
     		logP = Double.NEGATIVE_INFINITY;
@@ -262,6 +263,7 @@ public class MRCAPrior extends Distribution {
         }
 
         taxonIndex = new int[nrOfTaxa];
+        nodesTraversed = new boolean[tree.getNodeCount()];
         if ( set != null )  {  // m_taxonset.get() != null) {
             isInTaxaSet.clear();
             int k = 0;
@@ -284,55 +286,6 @@ public class MRCAPrior extends Distribution {
         initialised = true;
  	}
 
-	/**
-     * Recursively visit all leaf nodes, and collect number of taxa in the taxon
-     * set. When all taxa in the set are visited, record the time.
-     * *
-     * @param node
-     * @param taxonCount2
-     */
-    int calcMRCAtime(final Node node, final int[] taxonCount2) {
-        if (node.isLeaf()) {
-            taxonCount2[0]++;
-            if (isInTaxaSet.contains(node.getID())) {
-                return 1;
-            } else {
-                return 0;
-            }
-        } else {
-            int taxonCount = calcMRCAtime(node.getLeft(), taxonCount2);
-            final int leftTaxa = taxonCount2[0];
-            taxonCount2[0] = 0;
-            if (node.getRight() != null) {
-                taxonCount += calcMRCAtime(node.getRight(), taxonCount2);
-                final int rightTaxa = taxonCount2[0];
-                taxonCount2[0] = leftTaxa + rightTaxa;
-                if (taxonCount == nrOfTaxa) {
-                	if (nrOfTaxa == 1 && useOriginate) {
-            			MRCATime = node.getDate();
-                        isMonophyletic = true;
-                        return taxonCount + 1;
-                	}
-                    // we are at the MRCA, so record the height
-                	if (useOriginate) {
-                		Node parent = node.getParent();
-                		if (parent != null) {
-                			MRCATime = parent.getDate();
-                		} else {
-                			MRCATime = node.getDate();
-                		}
-                	} else {
-                		MRCATime = node.getDate();
-                	}
-                    isMonophyletic = (taxonCount2[0] == nrOfTaxa);
-                    return taxonCount + 1;
-                }
-            }
-            return taxonCount;
-        }
-    }
-
-
     @Override
     public void store() {
         storedMRCATime = MRCATime;
@@ -397,7 +350,7 @@ public class MRCAPrior extends Distribution {
             if (dist != null) {
                 out.print(getCurrentLogP() + "\t");
             } else {
-                calcMRCAtime(tree.getRoot(), new int[1]);
+                calcMRCATime();
             }
             out.print(MRCATime + "\t");
         }
@@ -0,0 +1,822 @@
+package beast.util;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import beast.core.BEASTObject;
+import beast.core.Function;
+import beast.core.Loggable;
+import beast.core.StateNode;
+import beast.core.parameter.BooleanParameter;
+import beast.core.parameter.IntegerParameter;
+import beast.core.parameter.Parameter;
+import beast.evolution.branchratemodel.BranchRateModel;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.Tree;
+import beast.evolution.tree.TreeWithMetaDataLogger;
+
+/**
+ * Compact binary alternative to Nexus tree logs, written by a Logger with
+ * mode="binarytree" and read by TreeAnnotator, LogCombiner and TreeTraceAnalysis,
+ * or converted to a Nexus tree log by running this class.
+ *
+ * The header lists the taxa once, followed by the names and types of the meta
+ * data columns. Each sample is a length prefixed record containing
+ * <ul>
+ * <li>the sample number,</li>
+ * <li>the topology, as parent of every node, either in full or as the entries
+ * that changed since the previous record,</li>
+ * <li>leaf heights, only if they changed since the previous record,</li>
+ * <li>internal node heights,</li>
+ * <li>meta data of every node, column by column.</li>
+ * </ul>
+ * Heights and real valued meta data are stored as double, or as float to halve
+ * the size of the log.
+ *
+ * Nodes are numbered canonically, independent of the node numbers in the tree:
+ * leaves by taxon, and an internal node as leaf count - 1 + the larger of the
+ * lowest taxon numbers below its two children, which is unique for every
+ * internal node. Since this number only depends on the clade, operations that
+ * change a small part of the tree change few parents, which keeps deltas small.
+ * Children are ordered by the lowest taxon number below them, as Node.sort() does.
+ */
+public class BinaryTreeLog {
+
+	/** 'BTLG' **/
+	final static int MAGIC = 0x42544c47;
+	final static int VERSION = 1;
+
+	final static byte RECORD = 1;
+	final static byte FULL_TOPOLOGY = 0;
+	final static byte TOPOLOGY_DELTA = 1;
+
+	/** column types **/
+	final static byte DOUBLE = 0;
+	final static byte FLOAT = 1;
+	final static byte INT = 2;
+	final static byte BOOLEAN = 3;
+
+	final static String RATE = "rate";
+
+	/** @return true if file starts like a binary tree log **/
+	public static boolean isBinaryTreeLog(File file) throws IOException {
+		if (!file.isFile() || file.length() < 8) {
+			return false;
+		}
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			return in.readInt() == MAGIC;
+		}
+	}
+
+	/**
+	 * Writes the header and records of a binary tree log for the tree of a Tree
+	 * or TreeWithMetaDataLogger, with the meta data and rates of the latter.
+	 * Branch lengths in substitutions are not supported, since heights are stored,
+	 * and neither is rounding to decimal places (dp), since values are stored as
+	 * doubles or floats.
+	 */
+	public static class Writer {
+		final Tree tree;
+		final List<Function> metadata;
+		final BranchRateModel.Base branchRateModel;
+		/** type used for heights and real valued meta data **/
+		final byte realType;
+		final byte[] columnTypes;
+		final int[] columnDims;
+		final int leafCount;
+		final int nodeCount;
+
+		/** node at each canonical position, and parent and lowest taxon below it **/
+		final Node[] nodes;
+		int[] parents;
+		int[] prevParents;
+		final int[] minTaxon;
+		final double[] prevLeafHeights;
+		boolean isFirst = true;
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		/** record type and size of the record, written before its bytes **/
+		final byte[] recordHeader = new byte[5];
+
+		public Writer(Loggable loggable, boolean singlePrecision) {
+			if (loggable instanceof TreeWithMetaDataLogger) {
+				final TreeWithMetaDataLogger logger = (TreeWithMetaDataLogger) loggable;
+				tree = logger.treeInput.get();
+				metadata = logger.parameterInput.get();
+				branchRateModel = logger.clockModelInput.get();
+				if (branchRateModel != null && logger.substitutionsInput.get()) {
+					throw new IllegalArgumentException("Binary tree logs store node heights, so cannot log branch lengths in substitutions");
+				}
+				if (logger.decimalPlacesInput.get() >= 0) {
+					throw new IllegalArgumentException("Binary tree logs store values as doubles or floats, so cannot round them to " +
+							logger.decimalPlacesInput.get() + " decimal places: remove dp, or use singlePrecision to halve their size");
+				}
+			} else if (loggable instanceof Tree) {
+				tree = (Tree) loggable;
+				metadata = new ArrayList<>();
+				branchRateModel = null;
+			} else {
+				throw new IllegalArgumentException("Binary tree logs can only log a Tree or TreeWithMetaDataLogger, not " +
+						loggable.getClass().getName());
+			}
+			realType = singlePrecision ? FLOAT : DOUBLE;
+			leafCount = tree.getLeafNodeCount();
+			nodeCount = 2 * leafCount - 1;
+			if (tree.getNodeCount() != nodeCount) {
+				throw new IllegalArgumentException("Binary tree logs require binary trees");
+			}
+
+			final int columnCount = metadata.size() + (branchRateModel != null ? 1 : 0);
+			columnTypes = new byte[columnCount];
+			columnDims = new int[columnCount];
+			Arrays.fill(columnTypes, realType);
+			Arrays.fill(columnDims, 1);
+			for (int i = 0; i < metadata.size(); i++) {
+				final Function f = metadata.get(i);
+				if (f instanceof IntegerParameter) {
+					columnTypes[i] = INT;
+				} else if (f instanceof BooleanParameter) {
+					columnTypes[i] = BOOLEAN;
+				}
+				if (f instanceof Parameter<?>) {
+					columnDims[i] = Math.max(1, ((Parameter<?>) f).getMinorDimension1());
+				}
+			}
+
+			nodes = new Node[nodeCount];
+			parents = new int[nodeCount];
+			prevParents = new int[nodeCount];
+			minTaxon = new int[nodeCount];
+			prevLeafHeights = new double[leafCount];
+		}
+
+		public void writeHeader(OutputStream stream) throws IOException {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeByte(realType);
+			writeVarInt(out, leafCount);
+			for (int i = 0; i < leafCount; i++) {
+				out.writeUTF(tree.getNode(i).getID());
+			}
+			writeVarInt(out, columnTypes.length);
+			for (int i = 0; i < columnTypes.length; i++) {
+				out.writeUTF(i < metadata.size() ? ((BEASTObject) metadata.get(i)).getID() : RATE);
+				out.writeByte(columnTypes[i]);
+				writeVarInt(out, columnDims[i]);
+			}
+			bytes.writeTo(stream);
+			bytes.reset();
+			stream.flush();
+		}
+
+		/** append record for the current state of the tree **/
+		public void write(OutputStream stream, long sample) throws IOException {
+			final Tree tree = (Tree) this.tree.getCurrent();
+			final int root = canonise(tree.getRoot());
+			parents[root] = -1;
+
+			out.writeLong(sample);
+			int changes = 0;
+			if (!isFirst) {
+				for (int i = 0; i < nodeCount; i++) {
+					if (parents[i] != prevParents[i]) {
+						changes++;
+					}
+				}
+			}
+			if (isFirst || 2 * changes > nodeCount) {
+				out.writeByte(FULL_TOPOLOGY);
+				for (int i = 0; i < nodeCount; i++) {
+					writeVarInt(out, parents[i] + 1);
+				}
+			} else {
+				out.writeByte(TOPOLOGY_DELTA);
+				writeVarInt(out, changes);
+				for (int i = 0; i < nodeCount; i++) {
+					if (parents[i] != prevParents[i]) {
+						writeVarInt(out, i);
+						writeVarInt(out, parents[i] + 1);
+					}
+				}
+			}
+
+			boolean leafHeightsChanged = isFirst;
+			for (int i = 0; i < leafCount && !leafHeightsChanged; i++) {
+				leafHeightsChanged = nodes[i].getHeight() != prevLeafHeights[i];
+			}
+			out.writeBoolean(leafHeightsChanged);
+			if (leafHeightsChanged) {
+				for (int i = 0; i < leafCount; i++) {
+					prevLeafHeights[i] = nodes[i].getHeight();
+					writeValue(out, realType, prevLeafHeights[i]);
+				}
+			}
+			for (int i = leafCount; i < nodeCount; i++) {
+				writeValue(out, realType, nodes[i].getHeight());
+			}
+
+			for (int c = 0; c < columnTypes.length; c++) {
+				if (c == metadata.size()) {
+					for (final Node node : nodes) {
+						writeValue(out, realType, branchRateModel.getRateForBranch(node));
+					}
+					continue;
+				}
+				Function f = metadata.get(c);
+				if (f instanceof StateNode) {
+					f = ((StateNode) f).getCurrent();
+				}
+				for (final Node node : nodes) {
+					if (columnDims[c] > 1) {
+						final Parameter<?> p = (Parameter<?>) f;
+						for (int j = 0; j < columnDims[c]; j++) {
+							final Object value = p.getMatrixValue(node.getNr(), j);
+							writeValue(out, columnTypes[c], value instanceof Boolean ?
+									((Boolean) value ? 1 : 0) : ((Number) value).doubleValue());
+						}
+					} else {
+						writeValue(out, columnTypes[c], f.getArrayValue(node.getNr()));
+					}
+				}
+			}
+
+			final int size = bytes.size();
+			recordHeader[0] = RECORD;
+			recordHeader[1] = (byte) (size >>> 24);
+			recordHeader[2] = (byte) (size >>> 16);
+			recordHeader[3] = (byte) (size >>> 8);
+			recordHeader[4] = (byte) size;
+			stream.write(recordHeader);
+			bytes.writeTo(stream);
+			bytes.reset();
+			stream.flush();
+
+			final int[] tmp = prevParents;
+			prevParents = parents;
+			parents = tmp;
+			isFirst = false;
+		}
+
+		/** fill in canonical positions below node @return canonical position of node **/
+		private int canonise(Node node) {
+			if (node.isLeaf()) {
+				final int i = node.getNr();
+				nodes[i] = node;
+				minTaxon[i] = i;
+				return i;
+			}
+			if (node.getChildCount() != 2) {
+				throw new IllegalArgumentException("Binary tree logs require binary trees");
+			}
+			final int left = canonise(node.getChild(0));
+			final int right = canonise(node.getChild(1));
+			final int i = leafCount - 1 + Math.max(minTaxon[left], minTaxon[right]);
+			nodes[i] = node;
+			minTaxon[i] = Math.min(minTaxon[left], minTaxon[right]);
+			parents[left] = i;
+			parents[right] = i;
+			return i;
+		}
+	}
+
+	/**
+	 * Reads a binary tree log record by record. A log that ends in an incomplete
+	 * record, for instance because the run was interrupted, ends at the last
+	 * complete record.
+	 */
+	public static class Reader implements Closeable {
+		final DataInputStream in;
+		final List<String> taxa = new ArrayList<>();
+		final byte realType;
+		final String[] columnNames;
+		final byte[] columnTypes;
+		final int[] columnDims;
+		final int leafCount;
+		final int nodeCount;
+
+		/** node numbers of leaves in trees returned by getTree() **/
+		final int[] leafNrs;
+
+		/** number of bytes of the header and the records read so far **/
+		long offset;
+
+		long sample;
+		final int[] parents;
+		final double[] heights;
+		/** meta data by column, dims[c] values per node **/
+		final double[][] values;
+		/** whether the heights and meta data of the current record were read **/
+		boolean complete;
+		byte[] record = new byte[1024];
+
+		public Reader(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			try {
+				if (in.readInt() != MAGIC) {
+					throw new IOException(file.getPath() + " is not a binary tree log");
+				}
+				final int version = in.readInt();
+				if (version > VERSION) {
+					throw new IOException(file.getPath() + " has version " + version + " but only up to " + VERSION + " is supported");
+				}
+				realType = in.readByte();
+				leafCount = readVarInt(in);
+				for (int i = 0; i < leafCount; i++) {
+					taxa.add(in.readUTF());
+				}
+				final int columnCount = readVarInt(in);
+				columnNames = new String[columnCount];
+				columnTypes = new byte[columnCount];
+				columnDims = new int[columnCount];
+				values = new double[columnCount][];
+				nodeCount = 2 * leafCount - 1;
+				for (int i = 0; i < columnCount; i++) {
+					columnNames[i] = in.readUTF();
+					columnTypes[i] = in.readByte();
+					columnDims[i] = readVarInt(in);
+					values[i] = new double[nodeCount * columnDims[i]];
+				}
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			}
+			parents = new int[nodeCount];
+			heights = new double[nodeCount];
+			offset = headerSize();
+
+			final Integer[] order = new Integer[leafCount];
+			for (int i = 0; i < leafCount; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (i, j) -> taxa.get(i).compareTo(taxa.get(j)));
+			leafNrs = new int[leafCount];
+			for (int i = 0; i < leafCount; i++) {
+				leafNrs[order[i]] = i;
+			}
+		}
+
+		private long headerSize() {
+			long size = 4 + 4 + 1 + varIntSize(leafCount) + varIntSize(columnNames.length);
+			for (String taxon : taxa) {
+				size += utfSize(taxon);
+			}
+			for (int i = 0; i < columnNames.length; i++) {
+				size += utfSize(columnNames[i]) + 1 + varIntSize(columnDims[i]);
+			}
+			return size;
+		}
+
+		public List<String> getTaxa() {
+			return Collections.unmodifiableList(taxa);
+		}
+
+		/** @return sample number of the current record **/
+		public long getSample() {
+			return sample;
+		}
+
+		/** read the next record @return false at the end of the log **/
+		public boolean next() throws IOException {
+			return read(true);
+		}
+
+		/** read the topology of the next record, which is faster than next() when skipping burn-in @return false at the end of the log **/
+		public boolean skip() throws IOException {
+			return read(false);
+		}
+
+		private boolean read(boolean readAll) throws IOException {
+			final int length;
+			try {
+				final int tag = in.read();
+				if (tag != RECORD) {
+					// end of log, or garbage at the end of an interrupted run
+					return false;
+				}
+				length = in.readInt();
+				if (length > record.length) {
+					record = new byte[Math.max(length, 2 * record.length)];
+				}
+				in.readFully(record, 0, length);
+			} catch (EOFException e) {
+				return false;
+			}
+			offset += 5 + length;
+
+			final ByteBuffer buf = ByteBuffer.wrap(record, 0, length);
+			sample = buf.getLong();
+			if (buf.get() == FULL_TOPOLOGY) {
+				for (int i = 0; i < nodeCount; i++) {
+					parents[i] = readVarInt(buf) - 1;
+				}
+			} else {
+				final int changes = readVarInt(buf);
+				for (int k = 0; k < changes; k++) {
+					final int i = readVarInt(buf);
+					parents[i] = readVarInt(buf) - 1;
+				}
+			}
+			if (buf.get() != 0) {
+				for (int i = 0; i < leafCount; i++) {
+					heights[i] = readValue(buf, realType);
+				}
+			}
+			complete = readAll;
+			if (readAll) {
+				for (int i = leafCount; i < nodeCount; i++) {
+					heights[i] = readValue(buf, realType);
+				}
+				for (int c = 0; c < values.length; c++) {
+					final double[] v = values[c];
+					for (int i = 0; i < v.length; i++) {
+						v[i] = readValue(buf, columnTypes[c]);
+					}
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return current tree, with leaves numbered in alphabetical order of the taxa
+		 * and meta data as NexusParser would produce them
+		 */
+		public Tree getTree() {
+			checkComplete();
+			final Node[] nodes = new Node[nodeCount];
+			for (int i = 0; i < nodeCount; i++) {
+				nodes[i] = new Node();
+				nodes[i].setNr(i < leafCount ? leafNrs[i] : i);
+				nodes[i].setHeight(heights[i]);
+				if (i < leafCount) {
+					nodes[i].setID(taxa.get(i));
+				}
+				for (int c = 0; c < values.length; c++) {
+					final int dim = columnDims[c];
+					Object value;
+					if (dim == 1) {
+						value = values[c][i];
+					} else if (columnTypes[c] == BOOLEAN) {
+						final String[] strs = new String[dim];
+						for (int j = 0; j < dim; j++) {
+							strs[j] = (values[c][i * dim + j] != 0) + "";
+						}
+						value = strs;
+					} else {
+						final Double[] array = new Double[dim];
+						for (int j = 0; j < dim; j++) {
+							array[j] = values[c][i * dim + j];
+						}
+						value = array;
+					}
+					nodes[i].setMetaData(columnNames[c], value);
+				}
+			}
+			final int[][] children = children();
+			int root = -1;
+			for (int i = 0; i < nodeCount; i++) {
+				if (parents[i] < 0) {
+					root = i;
+				}
+				if (i >= leafCount) {
+					nodes[i].addChild(nodes[children[i][0]]);
+					nodes[i].addChild(nodes[children[i][1]]);
+				}
+			}
+			if (root != nodeCount - 1) {
+				// the root is the last node by convention
+				nodes[nodeCount - 1].setNr(root);
+				nodes[root].setNr(nodeCount - 1);
+			}
+			return new Tree(nodes[root]);
+		}
+
+		/**
+		 * @return current tree in Newick format, with taxa numbered from 1 and
+		 * meta data in the format of TreeWithMetaDataLogger
+		 */
+		public String getNewick() {
+			checkComplete();
+			final int[][] children = children();
+			final StringBuilder buf = new StringBuilder();
+			for (int i = 0; i < nodeCount; i++) {
+				if (parents[i] < 0) {
+					toNewick(i, children, buf);
+				}
+			}
+			return buf.toString();
+		}
+
+		private void toNewick(int i, int[][] children, StringBuilder buf) {
+			if (i < leafCount) {
+				buf.append(i + 1);
+			} else {
+				buf.append('(');
+				toNewick(children[i][0], children, buf);
+				buf.append(',');
+				toNewick(children[i][1], children, buf);
+				buf.append(')');
+			}
+			if (values.length > 0) {
+				buf.append("[&");
+				for (int c = 0; c < values.length; c++) {
+					if (c > 0) {
+						buf.append(',');
+					}
+					buf.append(columnNames[c]).append('=');
+					final int dim = columnDims[c];
+					if (dim > 1) {
+						buf.append('{');
+					}
+					for (int j = 0; j < dim; j++) {
+						if (j > 0) {
+							buf.append(',');
+						}
+						final double value = values[c][i * dim + j];
+						if (dim > 1 && columnTypes[c] == INT) {
+							buf.append((int) value);
+						} else if (dim > 1 && columnTypes[c] == BOOLEAN) {
+							buf.append(value != 0);
+						} else {
+							appendReal(buf, value, columnTypes[c]);
+						}
+					}
+					if (dim > 1) {
+						buf.append('}');
+					}
+				}
+				buf.append(']');
+			}
+			buf.append(':');
+			appendReal(buf, parents[i] < 0 ? 0.0 : heights[parents[i]] - heights[i], realType);
+		}
+
+		private static void appendReal(StringBuilder buf, double value, byte type) {
+			if (type == FLOAT) {
+				buf.append((float) value);
+			} else {
+				buf.append(value);
+			}
+		}
+
+		/** @return Nexus header of a tree log with the same taxa, as Tree.init() writes it **/
+		public String getNexusHeader() {
+			final Node[] leaves = new Node[leafCount];
+			Node root = null;
+			for (int i = 0; i < leafCount; i++) {
+				leaves[i] = new Node(taxa.get(i));
+				leaves[i].setNr(i);
+				if (root == null) {
+					root = leaves[i];
+				} else {
+					final Node parent = new Node();
+					parent.setNr(leafCount + i - 1);
+					parent.addChild(root);
+					parent.addChild(leaves[i]);
+					root = parent;
+				}
+			}
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final PrintStream out = new PrintStream(bytes);
+			new Tree(root).init(out);
+			out.println();
+			out.flush();
+			return bytes.toString();
+		}
+
+		/**
+		 * @return children by canonical position of internal nodes, the first
+		 * being the one with the lowest taxon number below it
+		 */
+		private int[][] children() {
+			final int[][] children = new int[nodeCount][];
+			for (int i = leafCount; i < nodeCount; i++) {
+				children[i] = new int[]{-1, -1};
+			}
+			int root = -1;
+			for (int i = 0; i < nodeCount; i++) {
+				final int p = parents[i];
+				if (p >= 0) {
+					children[p][children[p][0] < 0 ? 0 : 1] = i;
+				} else {
+					root = i;
+				}
+			}
+			sortChildren(root, children);
+			return children;
+		}
+
+		/** @return lowest taxon number below the node at canonical position i **/
+		private int sortChildren(int i, int[][] children) {
+			if (i < leafCount) {
+				return i;
+			}
+			final int[] c = children[i];
+			final int left = sortChildren(c[0], children);
+			final int right = sortChildren(c[1], children);
+			if (left > right) {
+				final int tmp = c[0];
+				c[0] = c[1];
+				c[1] = tmp;
+			}
+			return Math.min(left, right);
+		}
+
+		private void checkComplete() {
+			if (!complete) {
+				throw new IllegalStateException("only the topology of the current record was read");
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/** @return number of records in a binary tree log **/
+	public static int count(File file) throws IOException {
+		final long fileLength = file.length();
+		int count = 0;
+		try (Reader reader = new Reader(file)) {
+			final DataInputStream in = reader.in;
+			long offset = reader.offset;
+			while (true) {
+				final int tag = in.read();
+				if (tag != RECORD) {
+					return count;
+				}
+				final int length = in.readInt();
+				offset += 5 + length;
+				if (offset > fileLength) {
+					// incomplete record; skip() may move past the end of the file, so this is checked first
+					return count;
+				}
+				long remaining = length;
+				while (remaining > 0) {
+					final long skipped = in.skip(remaining);
+					if (skipped > 0) {
+						remaining -= skipped;
+					} else if (in.read() >= 0) {
+						remaining--;
+					} else {
+						return count;
+					}
+				}
+				count++;
+			}
+		} catch (EOFException e) {
+			return count;
+		}
+	}
+
+	/**
+	 * Prepare a binary tree log for appending when resuming a run, by removing
+	 * an incomplete record at the end, if any.
+	 * @return sample number of the last record, or -1 if there are no records
+	 */
+	public static long resume(File file) throws IOException {
+		long sample = -1;
+		long end;
+		try (Reader reader = new Reader(file)) {
+			end = reader.offset;
+			while (reader.skip()) {
+				sample = reader.getSample();
+				end = reader.offset;
+			}
+		}
+		if (end < file.length()) {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(end);
+			}
+		}
+		return sample;
+	}
+
+	/** write binary tree log as Nexus tree log, in the format of a tree Logger **/
+	public static void toNexus(File file, PrintStream out) throws IOException {
+		try (Reader reader = new Reader(file)) {
+			out.print(reader.getNexusHeader());
+			while (reader.next()) {
+				out.println("tree STATE_" + reader.getSample() + " = " + reader.getNewick() + ";");
+			}
+			out.print("End;");
+		}
+		out.flush();
+	}
+
+	static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			final int b = in.readByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	static int readVarInt(ByteBuffer buf) {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			final int b = buf.get();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	private static int varIntSize(int value) {
+		int size = 1;
+		while ((value & ~0x7f) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	private static int utfSize(String str) {
+		int size = 2;
+		for (int i = 0; i < str.length(); i++) {
+			final char c = str.charAt(i);
+			size += (c >= 0x0001 && c <= 0x007f) ? 1 : (c > 0x07ff ? 3 : 2);
+		}
+		return size;
+	}
+
+	static void writeValue(DataOutputStream out, byte type, double value) throws IOException {
+		switch (type) {
+			case DOUBLE:
+				out.writeDouble(value);
+				break;
+			case FLOAT:
+				out.writeFloat((float) value);
+				break;
+			case INT:
+				out.writeInt((int) value);
+				break;
+			case BOOLEAN:
+				out.writeBoolean(value != 0);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown column type " + type);
+		}
+	}
+
+	static double readValue(ByteBuffer buf, byte type) {
+		switch (type) {
+			case DOUBLE:
+				return buf.getDouble();
+			case FLOAT:
+				return buf.getFloat();
+			case INT:
+				return buf.getInt();
+			case BOOLEAN:
+				return buf.get();
+			default:
+				throw new IllegalArgumentException("unknown column type " + type);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.out.println("Usage: BinaryTreeLog <binary tree log> [<Nexus tree log>]\n" +
+					"converts a binary tree log to a Nexus tree log, which is written to stdout if no output file is given");
+			return;
+		}
+		if (args.length == 1) {
+			toNexus(new File(args[0]), System.out);
+		} else {
+			try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(args[1]), 1 << 16))) {
+				toNexus(new File(args[0]), out);
+			}
+		}
+	}
+}
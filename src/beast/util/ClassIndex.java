@@ -0,0 +1,404 @@
+package beast.util;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import beast.core.util.Log;
+
+/**
+ * Index of classes on the class path, recording for each class its modifiers,
+ * super class and directly implemented interfaces as read from the class file,
+ * so that PackageManager.find can decide which classes derive from a given class
+ * or implement a given interface without loading every candidate class.
+ *
+ * The index of every jar file is cached in a file in the package user directory,
+ * and is only rebuilt when the modification time or size of the jar file changes.
+ * Class directories (as used during development) are scanned every time.
+ */
+public class ClassIndex {
+	public final static String CACHE_FILE = "classindex.dat";
+
+	/** 'BCIX' **/
+	final static int MAGIC = 0x42434958;
+	final static int VERSION = 1;
+
+	/** class file information required for deciding on sub-typing **/
+	static class ClassInfo {
+		final int modifiers;
+		/** super class name, or null for java.lang.Object and interfaces without super class **/
+		final String superName;
+		final String [] interfaces;
+
+		ClassInfo(int modifiers, String superName, String [] interfaces) {
+			this.modifiers = modifiers;
+			this.superName = superName;
+			this.interfaces = interfaces;
+		}
+	}
+
+	/** classes in a jar, together with size and modification time of the jar when indexed **/
+	static class JarIndex {
+		final long length;
+		final long lastModified;
+		final Map<String, ClassInfo> classes;
+
+		JarIndex(long length, long lastModified, Map<String, ClassInfo> classes) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.classes = classes;
+		}
+	}
+
+	/** cached jar indices, keyed by absolute path of the jar **/
+	Map<String, JarIndex> jars = new LinkedHashMap<>();
+	boolean changed = false;
+
+	/** all classes added to the index, in class path order **/
+	Map<String, ClassInfo> classes = new LinkedHashMap<>();
+
+	/** classes outside the index (typically from the JRE) that were looked up through reflection **/
+	Map<String, ClassInfo> reflected = new HashMap<>();
+
+	/** whether candidate classes could be loaded, by class name **/
+	Map<String, Boolean> loadable = new HashMap<>();
+
+	final File cacheFile;
+
+	public ClassIndex(File cacheFile) {
+		this.cacheFile = cacheFile;
+	}
+
+	/** @return index with jar indices read from the cache file, if it exists and is readable **/
+	public static ClassIndex load(File cacheFile) {
+		ClassIndex index = new ClassIndex(cacheFile);
+		if (cacheFile == null || !cacheFile.exists()) {
+			return index;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return index;
+			}
+			int jarCount = in.readInt();
+			for (int i = 0; i < jarCount; i++) {
+				String path = in.readUTF();
+				long length = in.readLong();
+				long lastModified = in.readLong();
+				int classCount = in.readInt();
+				Map<String, ClassInfo> classes = new LinkedHashMap<>();
+				for (int j = 0; j < classCount; j++) {
+					String name = in.readUTF();
+					int modifiers = in.readInt();
+					String superName = in.readUTF();
+					String [] interfaces = new String[in.readInt()];
+					for (int k = 0; k < interfaces.length; k++) {
+						interfaces[k] = in.readUTF();
+					}
+					classes.put(name, new ClassInfo(modifiers, superName.length() == 0 ? null : superName, interfaces));
+				}
+				index.jars.put(path, new JarIndex(length, lastModified, classes));
+			}
+		} catch (IOException e) {
+			Log.debug.println("Ignoring class index cache " + cacheFile.getPath() + ": " + e.getMessage());
+			index.jars.clear();
+		}
+		return index;
+	}
+
+	/** write jar indices to the cache file, if anything changed and the cache directory exists **/
+	public void save() {
+		if (!changed || cacheFile == null || cacheFile.getParentFile() == null || !cacheFile.getParentFile().isDirectory()) {
+			return;
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			// forget about jars that no longer exist
+			List<String> paths = new ArrayList<>();
+			for (String path : jars.keySet()) {
+				if (new File(path).exists()) {
+					paths.add(path);
+				}
+			}
+			out.writeInt(paths.size());
+			for (String path : paths) {
+				JarIndex jarIndex = jars.get(path);
+				out.writeUTF(path);
+				out.writeLong(jarIndex.length);
+				out.writeLong(jarIndex.lastModified);
+				out.writeInt(jarIndex.classes.size());
+				for (Map.Entry<String, ClassInfo> entry : jarIndex.classes.entrySet()) {
+					ClassInfo info = entry.getValue();
+					out.writeUTF(entry.getKey());
+					out.writeInt(info.modifiers);
+					out.writeUTF(info.superName == null ? "" : info.superName);
+					out.writeInt(info.interfaces.length);
+					for (String intf : info.interfaces) {
+						out.writeUTF(intf);
+					}
+				}
+			}
+			changed = false;
+		} catch (IOException e) {
+			Log.debug.println("Could not write class index cache " + cacheFile.getPath() + ": " + e.getMessage());
+		}
+	}
+
+	/** @return names of all classes in the index, in class path order **/
+	public List<String> getClassNames() {
+		return new ArrayList<>(classes.keySet());
+	}
+
+	/** add classes from jar, using the cached index if the jar did not change **/
+	public void addJar(File jar) throws IOException {
+		String path = jar.getAbsolutePath();
+		JarIndex jarIndex = jars.get(path);
+		if (jarIndex == null || jarIndex.length != jar.length() || jarIndex.lastModified != jar.lastModified()) {
+			long length = jar.length();
+			long lastModified = jar.lastModified();
+			Map<String, ClassInfo> jarClasses = new LinkedHashMap<>();
+			try (JarFile jarFile = new JarFile(jar)) {
+				for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements(); ) {
+					JarEntry entry = entries.nextElement();
+					String name = entry.getName();
+					if (name.endsWith(".class") && !name.startsWith("META-INF")) {
+						try (InputStream in = jarFile.getInputStream(entry)) {
+							jarClasses.put(toClassName(name), readClassInfo(in));
+						} catch (IOException e) {
+							Log.debug.println("WARNING: could not read " + name + " from " + path);
+						}
+					}
+				}
+			}
+			jarIndex = new JarIndex(length, lastModified, jarClasses);
+			jars.put(path, jarIndex);
+			changed = true;
+		}
+		for (Map.Entry<String, ClassInfo> entry : jarIndex.classes.entrySet()) {
+			if (!classes.containsKey(entry.getKey())) {
+				classes.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/** add classes from directory and its sub-directories **/
+	public void addDirectory(File dir) {
+		addDirectory(dir, dir.getAbsolutePath().length());
+	}
+
+	private void addDirectory(File dir, int len) {
+		try {
+			// No point in checking directories that cannot be read.
+			if (dir.canRead()) {
+				for (File file : dir.listFiles()) {
+					if (file.isDirectory()) {
+						addDirectory(file, len);
+					} else if (file.getName().endsWith(".class")) {
+						String name = toClassName(file.getAbsolutePath().substring(len));
+						if (!classes.containsKey(name)) {
+							try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+								classes.put(name, readClassInfo(in));
+							} catch (IOException e) {
+								Log.debug.println("WARNING: could not read " + file.getPath());
+							}
+						}
+					}
+				}
+			}
+		} catch (Exception e) {
+			// ignore
+			// windows appears to throw exceptions on unaccessible directories
+		}
+	}
+
+	/** convert path of class file in jar or directory to a class name **/
+	static String toClassName(String path) {
+		String name = path.substring(0, path.length() - 6).replace('\\', '.').replace('/', '.');
+		if (name.startsWith(".")) {
+			name = name.substring(1);
+		}
+		return name;
+	}
+
+	/**
+	 * Decide whether a class is found by PackageManager.find for a given class or
+	 * interface, using the same rules as when the class is loaded: if cls is an interface,
+	 * the class must not be abstract and it or one of its super classes must directly
+	 * implement the interface; if cls is a class, the class must not be an interface
+	 * and cls must be the class or one of its super classes. Like when loading every class,
+	 * a class that qualifies but cannot be loaded, for instance because a class it depends
+	 * on is missing, is not a candidate.
+	 *
+	 * @return whether the class qualifies, or null if the class is not in the index
+	 */
+	public Boolean isCandidate(Class<?> cls, String className) {
+		ClassInfo info = classes.get(className);
+		if (info == null) {
+			return null;
+		}
+		return isSubType(cls, className, info) && canLoad(className);
+	}
+
+	/** decide on sub-typing from the class file information only **/
+	private boolean isSubType(Class<?> cls, String className, ClassInfo info) {
+		String target = cls.getName();
+		if (cls.isInterface()) {
+			if (Modifier.isAbstract(info.modifiers)) {
+				return false;
+			}
+			String current = className;
+			while (current != null && !current.equals("java.lang.Object")) {
+				ClassInfo currentInfo = getInfo(current);
+				if (currentInfo == null) {
+					return false;
+				}
+				for (String intf : currentInfo.interfaces) {
+					if (intf.equals(target)) {
+						return true;
+					}
+				}
+				current = currentInfo.superName;
+			}
+			return false;
+		} else {
+			if (Modifier.isInterface(info.modifiers)) {
+				return false;
+			}
+			String current = className;
+			while (current != null) {
+				if (current.equals(target)) {
+					return true;
+				}
+				ClassInfo currentInfo = getInfo(current);
+				if (currentInfo == null) {
+					return false;
+				}
+				current = currentInfo.superName;
+			}
+			return false;
+		}
+	}
+
+	/** @return whether the class and the classes it depends on can be loaded **/
+	private boolean canLoad(String className) {
+		Boolean canLoad = loadable.get(className);
+		if (canLoad == null) {
+			try {
+				Class.forName(className, false, ClassIndex.class.getClassLoader());
+				canLoad = true;
+			} catch (Throwable e) {
+				Log.debug.println("Checking class: " + className + ": " + e);
+				canLoad = false;
+			}
+			loadable.put(className, canLoad);
+		}
+		return canLoad;
+	}
+
+	/** information for a class, from the index if available, otherwise using reflection without initialising the class **/
+	private ClassInfo getInfo(String className) {
+		ClassInfo info = classes.get(className);
+		if (info != null) {
+			return info;
+		}
+		if (reflected.containsKey(className)) {
+			return reflected.get(className);
+		}
+		try {
+			Class<?> c = Class.forName(className, false, ClassIndex.class.getClassLoader());
+			Class<?>[] intfs = c.getInterfaces();
+			String [] interfaces = new String[intfs.length];
+			for (int i = 0; i < intfs.length; i++) {
+				interfaces[i] = intfs[i].getName();
+			}
+			info = new ClassInfo(c.getModifiers(), c.getSuperclass() == null ? null : c.getSuperclass().getName(), interfaces);
+		} catch (Throwable e) {
+			// class cannot be loaded, so it cannot be a candidate
+			info = null;
+		}
+		reflected.put(className, info);
+		return info;
+	}
+
+	/**
+	 * Read access flags, super class and interfaces from the start of a class file.
+	 * See chapter 4 of the Java Virtual Machine Specification for the format.
+	 */
+	static ClassInfo readClassInfo(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		if (in.readInt() != 0xCAFEBABE) {
+			throw new IOException("not a class file");
+		}
+		in.readUnsignedShort(); // minor version
+		in.readUnsignedShort(); // major version
+		int constantPoolCount = in.readUnsignedShort();
+		String [] utf8 = new String[constantPoolCount];
+		int [] classNameIndex = new int[constantPoolCount];
+		for (int i = 1; i < constantPoolCount; i++) {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+			case 1: // Utf8
+				utf8[i] = in.readUTF();
+				break;
+			case 7: // Class
+				classNameIndex[i] = in.readUnsignedShort();
+				break;
+			case 8: // String
+			case 16: // MethodType
+			case 19: // Module
+			case 20: // Package
+				in.readUnsignedShort();
+				break;
+			case 15: // MethodHandle
+				in.readUnsignedByte();
+				in.readUnsignedShort();
+				break;
+			case 3: // Integer
+			case 4: // Float
+			case 9: // Fieldref
+			case 10: // Methodref
+			case 11: // InterfaceMethodref
+			case 12: // NameAndType
+			case 17: // Dynamic
+			case 18: // InvokeDynamic
+				in.readInt();
+				break;
+			case 5: // Long
+			case 6: // Double
+				in.readLong();
+				// eight byte constants take up two entries
+				i++;
+				break;
+			default:
+				throw new IOException("unknown constant pool tag " + tag);
+			}
+		}
+		int accessFlags = in.readUnsignedShort();
+		in.readUnsignedShort(); // this class
+		int superClass = in.readUnsignedShort();
+		String [] interfaces = new String[in.readUnsignedShort()];
+		for (int i = 0; i < interfaces.length; i++) {
+			interfaces[i] = utf8[classNameIndex[in.readUnsignedShort()]].replace('/', '.');
+		}
+		String superName = superClass == 0 ? null : utf8[classNameIndex[superClass]].replace('/', '.');
+		// class file access flags share their values with the ones in java.lang.reflect.Modifier
+		return new ClassInfo(accessFlags, superName, interfaces);
+	}
+
+} // class ClassIndex
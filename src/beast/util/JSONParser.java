@@ -34,7 +34,6 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Type;
@@ -51,6 +50,7 @@ import org.json.JSONObject;
 import beast.app.beauti.PartitionContext;
 import beast.core.BEASTInterface;
 import beast.core.Input;
+import beast.core.InputDescriptor;
 import beast.core.Input.Validate;
 import beast.core.Param;
 import beast.core.Runnable;
@@ -1021,24 +1021,15 @@ public class JSONParser {
 			// cannot get here, since we checked the class existed before
 			e.printStackTrace();
 		}
-	    Constructor<?>[] allConstructors = clazz.getDeclaredConstructors();
-	    for (Constructor<?> ctor : allConstructors) {
-	    	// collect Param annotations on constructor parameters
-	    	Annotation[][] annotations = ctor.getParameterAnnotations();
-	    	List<Param> paramAnnotations = new ArrayList<>();
-	    	for (Annotation [] a0 : annotations) {
-		    	for (Annotation a : a0) {
-		    		if (a instanceof Param) {
-		    			paramAnnotations.add((Param) a);
-		    		}
-	    		}
-	    	}
+	    for (InputDescriptor.AnnotatedConstructor annotated : InputDescriptor.forClass(clazz).getAnnotatedConstructors()) {
+	    	Constructor<?> ctor = annotated.getConstructor();
+	    	List<Param> paramAnnotations = annotated.getParams();
 	    	
 	    	for (NameValuePair pair : inputInfo) {
 	    		pair.processed = false;
 	    	}
 	    	
-	    	Class<?>[] types  = ctor.getParameterTypes();	    	
+	    	Class<?>[] types  = annotated.getParameterTypes();	    	
 	    	if (types.length > 0 && paramAnnotations.size() == types.length) {
 				try {
 			    	// if all constructor parameters have Param annotations, try to call constructor
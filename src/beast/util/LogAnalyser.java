@@ -10,6 +10,10 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import beast.app.BEASTVersion2;
 import beast.app.util.Utils;
@@ -41,8 +45,15 @@ public class LogAnalyser {
     protected List<String>[] m_ranges;
 
     /**
-     * data from log file with burn-in removed *
+     * data from log file with burn-in removed, one array per column *
      */
+    protected double[][] traceValues;
+
+    /**
+     * boxed copy of traceValues, which is null until getBoxedTraces() is called.
+     * @deprecated use traceValues, which holds the data as primitive values
+     */
+    @Deprecated
     protected Double[][] m_fTraces;
 
     /**
@@ -62,6 +73,13 @@ public class LogAnalyser {
 
     final protected static String BAR = "|---------|---------|---------|---------|---------|---------|---------|---------|";
 
+    /** number of threads used for calculating statistics of columns **/
+    protected static int threadCount = Runtime.getRuntime().availableProcessors();
+
+    public static void setThreadCount(int threadCount) {
+        LogAnalyser.threadCount = Math.max(1, threadCount);
+    }
+
     public LogAnalyser() {
         fileName = null;
     }
@@ -113,22 +131,41 @@ public class LogAnalyser {
     @SuppressWarnings("unchecked")
 	protected void readLogFile(String fileName, int burnInPercentage) throws IOException {
         log("\nLoading " + fileName);
-        BufferedReader fin = new BufferedReader(new FileReader(fileName));
+        // the index gives the number of samples and the position of the first sample after burn-in
+        LogIndex index = LogIndex.getIndex(fileName, false);
         String str;
         m_sPreAmble = "";
         m_sLabels = null;
         int data = 0;
-        // first, sweep through the log file to determine size of the log
-        while (fin.ready()) {
-            str = fin.readLine();
-            if (str.indexOf('#') < 0 && str.matches(".*[0-9a-zA-Z].*")) {
-                if (m_sLabels == null)
-                    m_sLabels = str.split("\\s");
-                else
-                    data++;
-            } else {
-                m_sPreAmble += str + "\n";
+        if (index.getType() == LogIndex.LogType.trace) {
+            // only the part of the log before the first sample needs to be inspected
+            for (String line : index.readHeader().split("\\r?\\n")) {
+                if (line.indexOf('#') < 0 && line.matches(".*[0-9a-zA-Z].*") && m_sLabels == null) {
+                    m_sLabels = line.split("\\s");
+                } else {
+                    m_sPreAmble += line + "\n";
+                }
             }
+            data = index.size();
+        }
+        if (m_sLabels == null) {
+            m_sPreAmble = "";
+            data = 0;
+            BufferedReader fin = new BufferedReader(new FileReader(fileName));
+            // first, sweep through the log file to determine size of the log
+            while (fin.ready()) {
+                str = fin.readLine();
+                if (str.indexOf('#') < 0 && str.matches(".*[0-9a-zA-Z].*")) {
+                    if (m_sLabels == null)
+                        m_sLabels = str.split("\\s");
+                    else
+                        data++;
+                } else {
+                    m_sPreAmble += str + "\n";
+                }
+            }
+            fin.close();
+            index = null;
         }
         int lines = Math.max(1, data / 80);
         // reserve memory
@@ -136,10 +173,17 @@ public class LogAnalyser {
         m_ranges = new List[items];
         int burnIn = data * burnInPercentage / 100;
         int total = data - burnIn;
-        m_fTraces = new Double[items][data - burnIn];
-        fin.close();
-        fin = new BufferedReader(new FileReader(fileName));
-        data = -burnIn - 1;
+        traceValues = new double[items][data - burnIn];
+        m_fTraces = null;
+        BufferedReader fin;
+        if (index != null) {
+            // jump straight past the burn-in
+            fin = index.openAt(burnIn);
+            data = -1;
+        } else {
+            fin = new BufferedReader(new FileReader(fileName));
+            data = -burnIn - 1;
+        }
         logln(", burnin " + burnInPercentage + "%, skipping " + burnIn + " log lines\n\n" + BAR);
         // grab data from the log, ignoring burn in samples
         m_types = new type[items];
@@ -147,29 +191,11 @@ public class LogAnalyser {
         int reported = 0; 
         while (fin.ready()) {
             str = fin.readLine();
-            int i = 0;
-            if (str.indexOf('#') < 0 && str.matches("[0-9].*")) // {
-                //data++;
-                if (++data >= 0) //{
-                    for (String str2 : str.split("\\s")) {
-                        try {
-                            if (str2.indexOf('.') >= 0) {
-                                m_types[i] = type.REAL;
-                            }
-                            m_fTraces[i][data] = Double.parseDouble(str2);
-                        } catch (Exception e) {
-                            if (m_ranges[i] == null) {
-                                m_ranges[i] = new ArrayList<>();
-                            }
-                            if (!m_ranges[i].contains(str2)) {
-                                m_ranges[i].add(str2);
-                            }
-                            m_fTraces[i][data] = 1.0 * m_ranges[i].indexOf(str2);
-                        }
-                        i++;
-                    }
-            //}
-            //}
+            if (str.length() > 0 && str.charAt(0) >= '0' && str.charAt(0) <= '9' && str.indexOf('#') < 0) {
+                if (++data >= 0) {
+                    parseLine(str, data);
+                }
+            }
             if (data > 0 && data % lines == 0 && reported < 81) {
 				while (10000 * reported < 810000 * (data + 1)/ total) {
 	                log("*");
@@ -190,6 +216,123 @@ public class LogAnalyser {
         fin.close();
     } // readLogFile
 
+    /**
+     * Parse a line of data into row of traceValues, splitting fields at every white
+     * space character as String.split("\\s") does, without creating Strings for
+     * fields that are numbers.
+     */
+    private void parseLine(String str, int row) {
+        int end = str.length();
+        // trailing empty fields are dropped, like String.split does
+        while (end > 0 && isWhiteSpace(str.charAt(end - 1))) {
+            end--;
+        }
+        int i = 0;
+        for (int start = 0; start <= end; i++) {
+            int stop = start;
+            boolean isReal = false;
+            while (stop < end && !isWhiteSpace(str.charAt(stop))) {
+                if (str.charAt(stop) == '.') {
+                    isReal = true;
+                }
+                stop++;
+            }
+            if (isReal) {
+                m_types[i] = type.REAL;
+            }
+            try {
+                traceValues[i][row] = parseDouble(str, start, stop);
+            } catch (NumberFormatException e) {
+                final String str2 = str.substring(start, stop);
+                if (m_ranges[i] == null) {
+                    m_ranges[i] = new ArrayList<>();
+                }
+                if (!m_ranges[i].contains(str2)) {
+                    m_ranges[i].add(str2);
+                }
+                traceValues[i][row] = 1.0 * m_ranges[i].indexOf(str2);
+            }
+            start = stop + 1;
+        }
+    }
+
+    private static boolean isWhiteSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    private final static double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Parse characters start to end of str as Double.parseDouble does. Decimal
+     * numbers with at most 15 significant digits and small exponents are converted
+     * directly, which is exact since both the digits and the power of ten are
+     * exactly representable as double; anything else goes to Double.parseDouble.
+     * @throws NumberFormatException if the field is not a number
+     */
+    static double parseDouble(String str, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (str.charAt(i) == '-' || str.charAt(i) == '+')) {
+            negative = str.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0, exponent = 0;
+        boolean seenDigit = false, seenDot = false;
+        for (; i < end; i++) {
+            final char c = str.charAt(i);
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa > 0 || c != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (seenDot) {
+                    exponent--;
+                }
+                if (digits > 15) {
+                    return Double.parseDouble(str.substring(start, end));
+                }
+            } else if (c == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                break;
+            }
+        }
+        if (i < end && seenDigit && (str.charAt(i) == 'e' || str.charAt(i) == 'E')) {
+            int j = i + 1;
+            boolean negativeExponent = false;
+            if (j < end && (str.charAt(j) == '-' || str.charAt(j) == '+')) {
+                negativeExponent = str.charAt(j) == '-';
+                j++;
+            }
+            int e = 0;
+            final int firstDigit = j;
+            while (j < end && str.charAt(j) >= '0' && str.charAt(j) <= '9' && e < 1000) {
+                e = e * 10 + (str.charAt(j) - '0');
+                j++;
+            }
+            if (j == firstDigit) {
+                return Double.parseDouble(str.substring(start, end));
+            }
+            exponent += negativeExponent ? -e : e;
+            i = j;
+        }
+        if (i != end || !seenDigit || exponent < -22 || exponent > 22) {
+            return Double.parseDouble(str.substring(start, end));
+        }
+        double value = mantissa;
+        if (exponent < 0) {
+            value /= POWERS_OF_TEN[-exponent];
+        } else {
+            value *= POWERS_OF_TEN[exponent];
+        }
+        return negative ? -value : value;
+    }
+
     /**
      * calculate statistics on the data, one per column.
      * First column (sample nr) is not set *
@@ -197,7 +340,7 @@ public class LogAnalyser {
     public void calcStats() {
         logln("\nCalculating statistics\n\n" + BAR);
         int stars = 0;
-        int items = m_sLabels.length;
+        final int items = m_sLabels.length;
         m_fMean = new Double[items];
         m_fStdError = new Double[items];
         m_fStdDev = new Double[items];
@@ -207,89 +350,139 @@ public class LogAnalyser {
         m_fESS = new Double[items];
         m_fACT = new Double[items];
         m_fGeometricMean = new Double[items];
-        int sampleInterval = (int) (m_fTraces[0][1] - m_fTraces[0][0]);
-        for (int i = 1; i < items; i++) {
-            // calc mean and standard deviation
-            Double[] trace = m_fTraces[i];
-            double sum = 0, sum2 = 0;
-            for (double f : trace) {
-                sum += f;
-                sum2 += f * f;
-            }
-            if (m_types[i] != type.NOMINAL) {
-                m_fMean[i] = sum / trace.length;
-                m_fStdDev[i] = Math.sqrt(sum2 / trace.length - m_fMean[i] * m_fMean[i]);
-            } else {
-                m_fMean[i] = Double.NaN;
-                m_fStdDev[i] = Double.NaN;
-            }
-
-            if (m_types[i] == type.REAL || m_types[i] == type.INTEGER) {
-                // calc median, and 95% HPD interval
-                Double[] sorted = trace.clone();
-                Arrays.sort(sorted);
-                m_fMedian[i] = sorted[trace.length / 2];
-                // n instances cover 95% of the trace, reduced down by 1 to match Tracer
-                int n = (int) ((sorted.length - 1) * 95.0 / 100.0);
-                double minRange = Double.MAX_VALUE;
-                int hpdIndex = 0;
-                for (int k = 0; k < sorted.length - n; k++) {
-                    double range = sorted[k + n] - sorted[k];
-                    if (range < minRange) {
-                        minRange = range;
-                        hpdIndex = k;
+        final int sampleInterval = (int) (traceValues[0][1] - traceValues[0][0]);
+        if (threadCount > 1 && items > 2) {
+            // columns are independent, and each fills its own entries of the statistics
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threadCount, items - 1));
+            try {
+                List<Future<?>> results = new ArrayList<>();
+                for (int i = 1; i < items; i++) {
+                    final int column = i;
+                    results.add(pool.submit(() -> calcStats(column, sampleInterval)));
+                }
+                for (int i = 1; i < items; i++) {
+                    results.get(i - 1).get();
+                    while (stars < 80 * (i + 1) / items) {
+                        log("*");
+                        stars++;
                     }
                 }
-                m_f95HPDlow[i] = sorted[hpdIndex];
-                m_f95HPDup[i] = sorted[hpdIndex + n];
-
-                // calc effective sample size
-                m_fACT[i] = ESS.ACT(m_fTraces[i], sampleInterval);
-                m_fStdError[i] = ESS.stdErrorOfMean(trace, sampleInterval);
-                m_fESS[i] = trace.length / (m_fACT[i] / sampleInterval);
-
-                // calc geometric mean
-                if (sorted[0] > 0) {
-                    // geometric mean is only defined when all elements are positive
-                    double gm = 0;
-                    for (double f : trace)
-                        gm += Math.log(f);
-                    m_fGeometricMean[i] = Math.exp(gm / trace.length);
-                } else
-                    m_fGeometricMean[i] = Double.NaN;
-            } else {
-                m_fMedian[i] = Double.NaN;
-                m_f95HPDlow[i] = Double.NaN;
-                m_f95HPDup[i] = Double.NaN;
-                m_fACT[i] = Double.NaN;
-                m_fESS[i] = Double.NaN;
-                m_fGeometricMean[i] = Double.NaN;
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } finally {
+                pool.shutdown();
             }
-            while (stars < 80 * (i + 1) / items) {
-                log("*");
-                stars++;
+        } else {
+            for (int i = 1; i < items; i++) {
+                calcStats(i, sampleInterval);
+                while (stars < 80 * (i + 1) / items) {
+                    log("*");
+                    stars++;
+                }
             }
         }
         logln("\n");
     } // calcStats
 
+    /** calculate statistics of column i **/
+    private void calcStats(int i, int sampleInterval) {
+        // calc mean and standard deviation
+        double[] trace = traceValues[i];
+        double sum = 0, sum2 = 0;
+        for (double f : trace) {
+            sum += f;
+            sum2 += f * f;
+        }
+        if (m_types[i] != type.NOMINAL) {
+            m_fMean[i] = sum / trace.length;
+            m_fStdDev[i] = Math.sqrt(sum2 / trace.length - m_fMean[i] * m_fMean[i]);
+        } else {
+            m_fMean[i] = Double.NaN;
+            m_fStdDev[i] = Double.NaN;
+        }
+
+        if (m_types[i] == type.REAL || m_types[i] == type.INTEGER) {
+            // calc median, and 95% HPD interval
+            double[] sorted = trace.clone();
+            Arrays.sort(sorted);
+            m_fMedian[i] = sorted[trace.length / 2];
+            // n instances cover 95% of the trace, reduced down by 1 to match Tracer
+            int n = (int) ((sorted.length - 1) * 95.0 / 100.0);
+            double minRange = Double.MAX_VALUE;
+            int hpdIndex = 0;
+            for (int k = 0; k < sorted.length - n; k++) {
+                double range = sorted[k + n] - sorted[k];
+                if (range < minRange) {
+                    minRange = range;
+                    hpdIndex = k;
+                }
+            }
+            m_f95HPDlow[i] = sorted[hpdIndex];
+            m_f95HPDup[i] = sorted[hpdIndex + n];
+
+            // calc effective sample size
+            m_fACT[i] = ESS.ACT(trace, sampleInterval);
+            m_fStdError[i] = ESS.stdErrorOfMean(trace, sampleInterval);
+            m_fESS[i] = trace.length / (m_fACT[i] / sampleInterval);
+
+            // calc geometric mean
+            if (sorted[0] > 0) {
+                // geometric mean is only defined when all elements are positive
+                double gm = 0;
+                for (double f : trace)
+                    gm += Math.log(f);
+                m_fGeometricMean[i] = Math.exp(gm / trace.length);
+            } else
+                m_fGeometricMean[i] = Double.NaN;
+        } else {
+            m_fMedian[i] = Double.NaN;
+            m_f95HPDlow[i] = Double.NaN;
+            m_f95HPDup[i] = Double.NaN;
+            m_fACT[i] = Double.NaN;
+            m_fESS[i] = Double.NaN;
+            m_fGeometricMean[i] = Double.NaN;
+        }
+    }
+
     public void setData(Double[][] traces, String[] labels, type[] types) {
-        m_fTraces = traces.clone();
+        double[][] values = new double[traces.length][];
+        for (int i = 0; i < traces.length; i++) {
+            values[i] = unbox(traces[i]);
+        }
+        setData(values, labels, types);
+    }
+
+    public void setData(double[][] traces, String[] labels, type[] types) {
+        traceValues = traces.clone();
+        m_fTraces = null;
         m_sLabels = labels.clone();
         m_types = types.clone();
         calcStats();
     }
 
     public void setData(Double[] trace, int sampleStep) {
-        Double[][] traces = new Double[2][];
-        traces[0] = new Double[trace.length];
+        double[][] traces = new double[2][];
+        traces[0] = new double[trace.length];
         for (int i = 0; i < trace.length; i++) {
             traces[0][i] = (double) i * sampleStep;
         }
-        traces[1] = trace.clone();
+        traces[1] = unbox(trace);
         setData(traces, new String[]{"column", "data"}, new type[]{type.REAL, type.REAL});
     }
 
+    private static double[] unbox(Double[] trace) {
+        double[] values = new double[trace.length];
+        for (int i = 0; i < trace.length; i++) {
+            values[i] = trace[i];
+        }
+        return values;
+    }
+
     public int indexof(String label) {
         return CollectionUtils.indexof(label, m_sLabels);
 	}
@@ -305,11 +498,34 @@ public class LogAnalyser {
     }
 
     public Double [] getTrace(int index) {
-    	return m_fTraces[index].clone();
+    	double [] trace = traceValues[index];
+    	Double [] copy = new Double[trace.length];
+    	for (int i = 0; i < trace.length; i++) {
+    		copy[i] = trace[i];
+    	}
+    	return copy;
+    }
+
+    /**
+     * @return all columns as boxed values, which are also kept in m_fTraces
+     */
+    protected Double [][] getBoxedTraces() {
+    	if (m_fTraces == null) {
+    		m_fTraces = new Double[traceValues.length][];
+    		for (int i = 0; i < traceValues.length; i++) {
+    			m_fTraces[i] = getTrace(i);
+    		}
+    	}
+    	return m_fTraces;
     }
 
     public Double [] getTrace(String label) {
-    	return m_fTraces[indexof(label)].clone();
+    	return getTrace(indexof(label));
+    }
+
+    /** @return copy of column index as primitive values **/
+    public double [] getTraceValues(int index) {
+    	return traceValues[index].clone();
     }
 
     public double getMean(String label) {
@@ -537,6 +753,7 @@ public class LogAnalyser {
                 "         Header is generated from the first file only.\n" +
                 "         (Implies quiet mode.)");
         System.out.println("-quiet Quiet mode.  Avoid printing status updates to stderr.");
+        System.out.println("-threads <threads> number of threads used for calculating statistics, default number of cores");
     	System.out.println("-help");
     	System.out.println("--help");
     	System.out.println("-h print this message");
@@ -580,6 +797,15 @@ public class LogAnalyser {
                         i += 1;
                         break;
 
+                    case "-threads":
+                        if (i+1 >= args.length) {
+                            Log.warning.println("-threads argument requires another argument");
+                            printUsageAndExit();
+                        }
+                        setThreadCount(Integer.parseInt(args[i+1]));
+                        i += 2;
+                        break;
+
             		case "-h":
             		case "-help":
             		case "--help":
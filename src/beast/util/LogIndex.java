@@ -0,0 +1,384 @@
+package beast.util;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import beast.core.util.Log;
+
+/**
+ * Sidecar index for trace and tree logs, mapping entry number to the sample
+ * number and the byte offset of the line the entry starts at. An entry is
+ * a data line in a trace log, a "tree" line in a Nexus tree log, or a non-empty
+ * line in a file containing a list of Newick trees.
+ *
+ * The index is stored next to the log in a file with extension .idx, and is
+ * either written by the Logger during the run (see Logger.indexInput) or built
+ * on demand by a single pass through the log. An index is only used when the
+ * length and modification time of the log match those recorded in the index,
+ * so a log that is appended to after the index was written is rescanned.
+ *
+ * Post-processing tools can use the index to determine the number of samples
+ * without parsing, and to jump straight past burn-in or to selected samples.
+ *
+ * Built indices are saved only if the system property beast.log.index=true is
+ * set, so by default no files are created next to logs by analysis tools.
+ */
+public class LogIndex {
+
+	public enum LogType {
+		/** tab delimited trace log, one entry per line starting with a sample number **/
+		trace,
+		/** Nexus tree log, one entry per line starting with "tree" **/
+		nexus,
+		/** list of Newick trees, one entry per non-empty line **/
+		newick
+	}
+
+	public final static String EXTENSION = ".idx";
+
+	/** when set to true, indices built on demand are saved next to the log **/
+	public final static String SAVE_PROPERTY = "beast.log.index";
+
+	/** 'BLIX' **/
+	final static int MAGIC = 0x424c4958;
+	final static int VERSION = 1;
+
+	/** number of bytes of a line inspected to classify it **/
+	final static int PREFIX_LENGTH = 64;
+
+	final File logFile;
+	LogType type;
+
+	/** length and modification time of the log at the time the index was completed **/
+	long logLength = -1;
+	long logModified = -1;
+
+	long [] samples = new long[16];
+	long [] offsets = new long[16];
+	int size = 0;
+
+	public LogIndex(File logFile, LogType type) {
+		this.logFile = logFile;
+		this.type = type;
+	}
+
+	/** add entry at end of index **/
+	public void add(long sample, long offset) {
+		if (size == offsets.length) {
+			int newCapacity = size * 3 / 2 + 1;
+			samples = Arrays.copyOf(samples, newCapacity);
+			offsets = Arrays.copyOf(offsets, newCapacity);
+		}
+		samples[size] = sample;
+		offsets[size] = offset;
+		size++;
+	}
+
+	public LogType getType() {
+		return type;
+	}
+
+	public File getLogFile() {
+		return logFile;
+	}
+
+	/** number of entries (samples) in the log **/
+	public int size() {
+		return size;
+	}
+
+	/** byte offset of the start of entry i **/
+	public long getOffset(int i) {
+		return offsets[i];
+	}
+
+	/** sample number of entry i. For Newick lists, this is the entry number **/
+	public long getSample(int i) {
+		return samples[i];
+	}
+
+	/** number of entries to skip for a burn-in percentage, rounded down as by the tools **/
+	public int getBurnInCount(int burnInPercentage) {
+		return Math.max(0, size * burnInPercentage / 100);
+	}
+
+	/**
+	 * @return index of the first entry with sample number at least sampleNr,
+	 * or size() if there is no such entry
+	 */
+	public int indexOfSample(long sampleNr) {
+		int lo = 0, hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (samples[mid] < sampleNr) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/** @return true if the index was made for the log as it currently is on disk **/
+	public boolean isValid() {
+		return logLength == logFile.length() && logModified == logFile.lastModified();
+	}
+
+	/**
+	 * @return reader positioned at the start of entry i, or at the end of file when i == size()
+	 */
+	public BufferedReader openAt(int i) throws IOException {
+		long offset = i < size ? offsets[i] : logFile.length();
+		return openAtOffset(offset);
+	}
+
+	private BufferedReader openAtOffset(long offset) throws IOException {
+		FileInputStream in = new FileInputStream(logFile);
+		try {
+			in.getChannel().position(offset);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return new BufferedReader(new InputStreamReader(in));
+	}
+
+	/** @return line of entry i, without line terminator, using random access **/
+	public String readEntry(int i) throws IOException {
+		try (BufferedReader fin = openAt(i)) {
+			return fin.readLine();
+		}
+	}
+
+	/** @return content of the log before the first entry, including the header line of trace logs **/
+	public String readHeader() throws IOException {
+		long end = size > 0 ? offsets[0] : logFile.length();
+		byte [] bytes = new byte[(int) end];
+		try (RandomAccessFile raf = new RandomAccessFile(logFile, "r")) {
+			raf.readFully(bytes);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/** name of the sidecar index file for a log file **/
+	public static File indexFile(File logFile) {
+		return new File(logFile.getPath() + EXTENSION);
+	}
+
+	/**
+	 * write index next to the log, recording the current length
+	 * and modification time of the log. Should be called after the log is closed.
+	 */
+	public void save() throws IOException {
+		logLength = logFile.length();
+		logModified = logFile.lastModified();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile(logFile))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(type.name());
+			out.writeLong(logLength);
+			out.writeLong(logModified);
+			out.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				out.writeLong(samples[i]);
+				out.writeLong(offsets[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return index stored next to the log file, or null if there is no index,
+	 * or if the index is unreadable or out of date.
+	 */
+	public static LogIndex load(File logFile) {
+		File file = indexFile(logFile);
+		if (!file.exists()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			LogIndex index = new LogIndex(logFile, LogType.valueOf(in.readUTF()));
+			index.logLength = in.readLong();
+			index.logModified = in.readLong();
+			if (!index.isValid()) {
+				return null;
+			}
+			int size = in.readInt();
+			index.samples = new long[size];
+			index.offsets = new long[size];
+			for (int i = 0; i < size; i++) {
+				index.samples[i] = in.readLong();
+				index.offsets[i] = in.readLong();
+			}
+			index.size = size;
+			return index;
+		} catch (IOException | IllegalArgumentException e) {
+			Log.warning.println("Ignoring index " + file.getPath() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Load index for log, or build it if there is no valid index of the expected kind.
+	 * A built index is saved if the beast.log.index property is set.
+	 *
+	 * @param isTreeLog whether the log is expected to contain trees, and a trace log otherwise
+	 */
+	public static LogIndex getIndex(String fileName, boolean isTreeLog) throws IOException {
+		File logFile = new File(fileName);
+		LogIndex index = load(logFile);
+		if (index != null && (index.type != LogType.trace) != isTreeLog) {
+			index = null;
+		}
+		if (index == null) {
+			index = build(logFile, isTreeLog);
+			if (Boolean.getBoolean(SAVE_PROPERTY)) {
+				try {
+					index.save();
+				} catch (IOException e) {
+					Log.warning.println("Could not save index " + indexFile(logFile).getPath() + ": " + e.getMessage());
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Build index by a single pass through the log. A tree log is a Nexus
+	 * file if its first non-empty line is #NEXUS, and a list of Newick trees otherwise.
+	 *
+	 * @param isTreeLog whether the log contains trees, and a trace log otherwise
+	 */
+	public static LogIndex build(File logFile, boolean isTreeLog) throws IOException {
+		// the type of a tree log is determined by its first line
+		LogIndex index = new LogIndex(logFile, isTreeLog ? null : LogType.trace);
+		long length = logFile.length();
+		long modified = logFile.lastModified();
+
+		byte [] prefix = new byte[PREFIX_LENGTH];
+		int prefixLength = 0;
+		boolean hasHash = false;
+		long lineStart = 0;
+		long position = 0;
+
+		byte [] buf = new byte[1 << 16];
+		try (InputStream in = new FileInputStream(logFile)) {
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				for (int k = 0; k < n; k++) {
+					byte b = buf[k];
+					if (b == '\n') {
+						index.addLine(prefix, prefixLength, hasHash, lineStart);
+						prefixLength = 0;
+						hasHash = false;
+						lineStart = position + k + 1;
+					} else {
+						if (b == '#') {
+							hasHash = true;
+						}
+						// leading white space is not part of the prefix
+						if (prefixLength < PREFIX_LENGTH && (prefixLength > 0 || !Character.isWhitespace(b))) {
+							prefix[prefixLength++] = b;
+						}
+					}
+				}
+				position += n;
+			}
+		}
+		if (lineStart < position) {
+			index.addLine(prefix, prefixLength, hasHash, lineStart);
+		}
+		if (index.type == null) {
+			index.type = LogType.newick;
+		}
+		index.logLength = length;
+		index.logModified = modified;
+		return index;
+	}
+
+	/** classify line for index being built, and add an entry if it is one **/
+	private void addLine(byte [] prefix, int prefixLength, boolean hasHash, long offset) {
+		// strip trailing \r
+		while (prefixLength > 0 && Character.isWhitespace(prefix[prefixLength - 1])) {
+			prefixLength--;
+		}
+		if (prefixLength == 0) {
+			return;
+		}
+		if (type == null) {
+			if (startsWithIgnoreCase(prefix, prefixLength, "#nexus")) {
+				type = LogType.nexus;
+				return;
+			} else {
+				type = LogType.newick;
+			}
+		}
+		switch (type) {
+		case trace:
+			// same criterion as used by LogAnalyser for data lines
+			if (!hasHash && prefix[0] >= '0' && prefix[0] <= '9') {
+				add(parseLong(prefix, 0, prefixLength, size), offset);
+			}
+			break;
+		case nexus:
+			if (startsWithIgnoreCase(prefix, prefixLength, "tree ")) {
+				int i = 5;
+				while (i < prefixLength && prefix[i] == ' ') {
+					i++;
+				}
+				if (startsWithIgnoreCase(prefix, prefixLength, i, "state_")) {
+					add(parseLong(prefix, i + 6, prefixLength, size), offset);
+				} else {
+					add(size, offset);
+				}
+			}
+			break;
+		case newick:
+			add(size, offset);
+			break;
+		}
+	}
+
+	private static boolean startsWithIgnoreCase(byte [] prefix, int prefixLength, String str) {
+		return startsWithIgnoreCase(prefix, prefixLength, 0, str);
+	}
+
+	private static boolean startsWithIgnoreCase(byte [] prefix, int prefixLength, int start, String str) {
+		if (prefixLength - start < str.length()) {
+			return false;
+		}
+		for (int i = 0; i < str.length(); i++) {
+			if (Character.toLowerCase(prefix[start + i]) != str.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** parse the digits starting at position start, or return defaultValue if there are none **/
+	private static long parseLong(byte [] prefix, int start, int prefixLength, long defaultValue) {
+		long value = 0;
+		int i = start;
+		while (i < prefixLength && prefix[i] >= '0' && prefix[i] <= '9') {
+			value = value * 10 + (prefix[i] - '0');
+			i++;
+		}
+		return i == start ? defaultValue : value;
+	}
+
+} // class LogIndex
@@ -161,7 +161,7 @@ public class MersenneTwisterFast implements Serializable {
      *
      * @param seed generator starting number, often the time of day.
      */
-    private MersenneTwisterFast(long seed) {
+    public MersenneTwisterFast(long seed) {
         if (seed == 0) {
             setSeed(GOOD_SEED);
         } else {
@@ -0,0 +1,280 @@
+package beast.util;
+
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import beast.core.BEASTInterface;
+import beast.core.Distribution;
+import beast.core.Input;
+import beast.core.InputDescriptor;
+import beast.core.Logger;
+import beast.core.Operator;
+import beast.core.OperatorSchedule;
+import beast.core.Runnable;
+import beast.core.State;
+import beast.core.StateNode;
+import beast.core.parameter.Parameter;
+
+/**
+ * Copies a complete model graph in memory, for instance an MCMC with its State,
+ * CalculationNodes, Operators and Loggers, without going through XML.
+ *
+ * Objects that cannot change during the analysis -- those that do not depend on
+ * a StateNode in a State, such as alignments, taxon sets, data types and
+ * substitution models with fixed parameters -- are shared between the original
+ * and the copy. All other objects are created anew, get their inputs connected
+ * to the copies of the originals' inputs, and are initialised in dependency
+ * order, so that every copy allocates its own buffers. Finally, the values of
+ * the StateNodes are copied, so the copy starts where the original currently is.
+ *
+ * Only inputs stored in public fields and Params of annotated constructors are
+ * copied, so objects created by initAndValidate (like the TreeLikelihoods of
+ * ThreadedTreeLikelihood) are not duplicated. Every copied object needs a public
+ * no-argument constructor. IDs are retained, so Loggers of the copy write to the
+ * same file names unless these are changed before Logger.init() is called.
+ *
+ * Usage: MCMC copy = (MCMC) new ModelCopier().copy(mcmc);
+ */
+public class ModelCopier {
+
+	/** maps original objects to copies, or to themselves if they are shared **/
+	final private Map<BEASTInterface, BEASTInterface> copies = new IdentityHashMap<>();
+
+	/** objects of the graph with inputs before outputs **/
+	final private List<BEASTInterface> order = new ArrayList<>();
+
+	/** objects that are shared between original and copy **/
+	final private Map<BEASTInterface, Boolean> shared = new IdentityHashMap<>();
+
+	/** StateNodes that are in a State of the graph, or null if the graph contains no State **/
+	private Map<StateNode, Boolean> estimated;
+
+	/**
+	 * @return copy of the graph rooted at beastObject. Objects that do not depend on
+	 * estimated StateNodes are shared with the original graph.
+	 */
+	public BEASTInterface copy(BEASTInterface root) {
+		copies.clear();
+		order.clear();
+		shared.clear();
+		estimated = null;
+
+		sortGraph(root);
+		for (BEASTInterface o : order) {
+			if (o instanceof State) {
+				if (estimated == null) {
+					estimated = new IdentityHashMap<>();
+				}
+				for (StateNode stateNode : ((State) o).stateNodeInput.get()) {
+					estimated.put(stateNode, Boolean.TRUE);
+				}
+			}
+		}
+
+		for (BEASTInterface o : order) {
+			boolean isShared = canShare(o);
+			if (isShared) {
+				for (Input<?> input : copyableInputs(o)) {
+					for (Object value : values(input)) {
+						if (value instanceof BEASTInterface && shared.get(value) != Boolean.TRUE) {
+							isShared = false;
+							break;
+						}
+					}
+				}
+			}
+			shared.put(o, isShared);
+			copies.put(o, isShared ? o : newInstance(o));
+		}
+
+		for (BEASTInterface o : order) {
+			if (!shared.get(o)) {
+				connectInputs(o, copies.get(o));
+			}
+		}
+		for (BEASTInterface o : order) {
+			if (!shared.get(o)) {
+				copies.get(o).initAndValidate();
+			}
+		}
+
+		// copy values of StateNodes, after initialisers had their go in initAndValidate
+		List<State> states = new ArrayList<>();
+		for (BEASTInterface o : order) {
+			BEASTInterface copy = copies.get(o);
+			if (o instanceof StateNode && copy != o) {
+				assignState((StateNode) copy, (StateNode) o);
+			} else if (o instanceof Operator && copy != o) {
+				((Operator) copy).setCoercableParameterValue(((Operator) o).getCoercableParameterValue());
+			} else if (o instanceof State && copy != o) {
+				states.add((State) copy);
+			}
+		}
+		// stored copies of StateNodes were made from the values before assignment
+		for (State state : states) {
+			state.initialise();
+		}
+		return copies.get(root);
+	}
+
+	/** @return copy of beastObject made by the last call to copy(), or null if it was not part of the graph **/
+	public BEASTInterface getCopy(BEASTInterface beastObject) {
+		return copies.get(beastObject);
+	}
+
+	/**
+	 * Whether an object can be shared between original and copy, provided none of
+	 * its inputs need to be copied. Override to prevent sharing of further classes.
+	 */
+	protected boolean canShare(BEASTInterface o) {
+		if (o instanceof StateNode) {
+			return estimated != null && !estimated.containsKey(o);
+		}
+		// these keep track of the progress of an analysis
+		return !(o instanceof Distribution ||
+				o instanceof Operator ||
+				o instanceof OperatorSchedule ||
+				o instanceof Logger ||
+				o instanceof State ||
+				o instanceof Runnable);
+	}
+
+	/** post-order traversal of the graph, iterative since graphs of large models can be deep **/
+	private void sortGraph(BEASTInterface root) {
+		// FALSE while its inputs are being visited, TRUE once added to order
+		Map<BEASTInterface, Boolean> visited = new IdentityHashMap<>();
+		List<BEASTInterface> stack = new ArrayList<>();
+		List<Boolean> expanded = new ArrayList<>();
+		stack.add(root);
+		expanded.add(false);
+		while (stack.size() > 0) {
+			int last = stack.size() - 1;
+			BEASTInterface o = stack.get(last);
+			if (expanded.get(last)) {
+				// all inputs are done
+				stack.remove(last);
+				expanded.remove(last);
+				visited.put(o, Boolean.TRUE);
+				order.add(o);
+				continue;
+			}
+			if (visited.containsKey(o)) {
+				// pushed more than once, or a cycle
+				stack.remove(last);
+				expanded.remove(last);
+				continue;
+			}
+			visited.put(o, Boolean.FALSE);
+			expanded.set(last, true);
+			List<Input<?>> inputs = copyableInputs(o);
+			for (int i = inputs.size() - 1; i >= 0; i--) {
+				List<Object> values = values(inputs.get(i));
+				for (int j = values.size() - 1; j >= 0; j--) {
+					Object value = values.get(j);
+					if (value instanceof BEASTInterface && !visited.containsKey(value)) {
+						stack.add((BEASTInterface) value);
+						expanded.add(false);
+					}
+				}
+			}
+		}
+	}
+
+	/** @return inputs stored in public fields, followed by those emulating Params of annotated constructors **/
+	private List<Input<?>> copyableInputs(BEASTInterface o) {
+		InputDescriptor descriptor = InputDescriptor.forClass(o.getClass());
+		List<Input<?>> inputs = new ArrayList<>();
+		for (Field field : descriptor.getInputFields()) {
+			try {
+				Input<?> input = (Input<?>) field.get(o);
+				if (input != null) {
+					inputs.add(input);
+				}
+			} catch (IllegalAccessException e) {
+				// not a publicly accessible input, ignore
+			}
+		}
+		if (descriptor.getParamInputs().size() > 0) {
+			List<Input<?>> all = descriptor.listInputs(o);
+			inputs.addAll(all.subList(all.size() - descriptor.getParamInputs().size(), all.size()));
+		}
+		return inputs;
+	}
+
+	/** @return value of an input as list, which is empty if the input is not set **/
+	private static List<Object> values(Input<?> input) {
+		List<Object> values = new ArrayList<>();
+		Object value = input.get();
+		if (value instanceof List<?>) {
+			values.addAll((List<?>) value);
+		} else if (value != null) {
+			values.add(value);
+		}
+		return values;
+	}
+
+	private static BEASTInterface newInstance(BEASTInterface o) {
+		try {
+			BEASTInterface copy = o.getClass().getDeclaredConstructor().newInstance();
+			copy.setID(o.getID());
+			return copy;
+		} catch (InvocationTargetException e) {
+			// the constructor itself failed, so report what went wrong there
+			final Throwable cause = e.getTargetException();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalArgumentException("Cannot copy " + o.getID() + ": " + cause.getMessage(), cause);
+		} catch (InstantiationException | IllegalAccessException | NoSuchMethodException e) {
+			throw new IllegalArgumentException("Cannot copy " + o.getID() + ": every object that is not shared " +
+					"should have a default constructor that is publicly accessible: " + o.getClass().getName());
+		}
+	}
+
+	/** set inputs of copy to the copies of the input values of the original **/
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void connectInputs(BEASTInterface original, BEASTInterface copy) {
+		List<Input<?>> inputs = copyableInputs(original);
+		List<Input<?>> copyInputs = copyableInputs(copy);
+		for (int i = 0; i < inputs.size(); i++) {
+			Object value = inputs.get(i).get();
+			Input<?> copyInput = copyInputs.get(i);
+			if (value == null) {
+				continue;
+			}
+			if (value instanceof List<?>) {
+				for (Object o : (List<?>) value) {
+					if (o instanceof BEASTInterface) {
+						copyInput.setValue(copies.get(o), copy);
+					} else {
+						// add as is, since setValue would parse strings
+						((List) copyInput.get()).add(o);
+					}
+				}
+			} else if (value instanceof BEASTInterface) {
+				copyInput.setValue(copies.get(value), copy);
+			} else if (value != copyInput.get()) {
+				copyInput.setValue(value, copy);
+			}
+		}
+	}
+
+	private static void assignState(StateNode copy, StateNode original) {
+		if (copy instanceof Parameter.Base &&
+				((Parameter.Base<?>) copy).getDimension() == ((Parameter.Base<?>) original).getDimension()) {
+			// values only, bounds and dimension follow from the inputs
+			copy.assignFromFragile(original);
+		} else {
+			// trees get new nodes, including node labels and meta data
+			copy.assignFromWithoutID(original);
+		}
+	}
+}
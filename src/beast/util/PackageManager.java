@@ -147,6 +147,8 @@ public class PackageManager {
      * list of all classes found in the class path *
      */
     private static List<String> all_classes;
+    /** super class and interface information of all_classes, to avoid loading classes in find **/
+    private static ClassIndex classIndex;
 
     /**
      * @return URLs containing list of downloadable packages.
@@ -1378,7 +1380,9 @@ public class PackageManager {
             }
         }
 
-        all_classes = new ArrayList<String>();
+        // class hierarchy information of jars is cached between runs
+        classIndex = ClassIndex.load(new File(getPackageUserDir() + File.separator + ClassIndex.CACHE_FILE));
+        List<String> otherClasses = new ArrayList<String>();
         String pathSep = System.getProperty("path.separator");
         String classpath = System.getProperty("java.class.path");
 
@@ -1387,71 +1391,25 @@ public class PackageManager {
             File filepath = new File(path);
 
             if (filepath.isDirectory()) {
-                addDirContent(filepath, filepath.getAbsolutePath().length());
+                classIndex.addDirectory(filepath);
             } else if (path.endsWith(".jar")) {
-
-                JarFile jar = null;
                 try {
-                    jar = new JarFile(filepath);
+                    classIndex.addJar(filepath);
                 } catch (IOException e) {
                     Log.debug.println("WARNING: " + filepath + " could not be opened!");
                     continue;
                 }
-
-                for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
-                    JarEntry entry = entries.nextElement();
-                    if (entry.getName().endsWith(".class")) {
-                        all_classes.add(entry.getName());
-                    }
-                }
-                try {
-					jar.close();
-				} catch (IOException e) {
-                    Log.debug.println("WARNING: " + filepath + " could not be closed!");
-				}
             } else if (path.endsWith(".class")) {
-                all_classes.add(path);
+                otherClasses.add(ClassIndex.toClassName(path));
             } else {
                 Log.debug.println("Warning: corrupt classpath entry: " + path);
             }
 
         }
+        classIndex.save();
 
-        String fileSep = System.getProperty("file.separator");
-        if (fileSep.equals("\\")) {
-            fileSep = "\\\\";
-        }
-        for (int i = 0; i < all_classes.size(); i++) {
-            String str = all_classes.get(i);
-            str = str.substring(0, str.length() - 6);
-            str = str.replaceAll(fileSep, ".");
-            if (str.startsWith(".")) {
-                str = str.substring(1);
-            }
-            all_classes.set(i, str);
-        }
-
-    }
-
-    private static void addDirContent(File dir, int len) {
-    	try {
-    	// No point in checking directories that cannot be read.
-    	// Need check here since these potentially can cause exceptions
-	    	if (dir.canRead()) {
-		        for (File file : dir.listFiles()) {
-		            if (file.isDirectory()) {
-		                addDirContent(file, len);
-		            } else {
-		                if (file.getName().endsWith(".class")) {
-		                    all_classes.add(file.getAbsolutePath().substring(len));
-		                }
-		            }
-		        }
-	    	}
-    	} catch (Exception e) {
-    		// ignore
-    		// windows appears to throw exceptions on unaccessible directories
-    	}
+        all_classes = classIndex.getClassNames();
+        all_classes.addAll(otherClasses);
     }
 
 
@@ -1635,6 +1593,13 @@ public class PackageManager {
             // must match package
             if (className.startsWith(pkgname)) {
                 //Log.debug.println(className);
+                Boolean isCandidate = classIndex.isCandidate(cls, className);
+                if (isCandidate != null) {
+                    if (isCandidate) {
+                        result.add(className);
+                    }
+                    continue;
+                }
                 try {
                     Class<?> clsNew = Class.forName(className);
 
@@ -73,7 +73,42 @@ public class Randomizer {
      * has synchronization.
      */
     //private static final MersenneTwisterFast random = MersenneTwisterFast.DEFAULT_INSTANCE;
-    final private static MersenneTwisterFast random = MersenneTwisterFast.DEFAULT_INSTANCE;
+    final private static MersenneTwisterFast defaultRandom = MersenneTwisterFast.DEFAULT_INSTANCE;
+
+    /**
+     * Generator used instead of the default one by the current thread and threads it
+     * starts, which allows independent analyses to run in a single JVM, each with its
+     * own seed. Only consulted once a thread generator was set, so single analyses
+     * do not pay for the thread local lookup.
+     */
+    final private static InheritableThreadLocal<MersenneTwisterFast> threadRandom = ThreadContext.register(new InheritableThreadLocal<>());
+    private static volatile boolean hasThreadRandom = false;
+
+    private static MersenneTwisterFast random() {
+        if (hasThreadRandom) {
+            final MersenneTwisterFast random = threadRandom.get();
+            if (random != null) {
+                return random;
+            }
+        }
+        return defaultRandom;
+    }
+
+    /**
+     * Let the current thread, and threads subsequently started from it, use a
+     * generator of its own initialised with seed.
+     */
+    public static void setThreadSeed(long seed) {
+        threadRandom.set(new MersenneTwisterFast(seed));
+        hasThreadRandom = true;
+    }
+
+    /**
+     * Let the current thread use the default generator again.
+     */
+    public static void clearThreadSeed() {
+        threadRandom.remove();
+    }
 
     /**
      * Chooses one category if a cumulative probability distribution is given
@@ -83,7 +118,7 @@ public class Randomizer {
      */
     public static int randomChoice(double[] cf) {
 
-        double U = random.nextDouble();
+        double U = random().nextDouble();
 
         int s;
         if (U <= cf[0]) {
@@ -106,7 +141,7 @@ public class Randomizer {
      */
     public static int randomChoicePDF(double[] pdf) {
 
-        double U = random.nextDouble() * getTotal(pdf);
+        double U = random().nextDouble() * getTotal(pdf);
         for (int i = 0; i < pdf.length; i++) {
 
             U -= pdf[i];
@@ -167,6 +202,7 @@ public class Randomizer {
      * @return 
      */
     public static long getSeed() {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.getSeed();
         }
@@ -176,6 +212,7 @@ public class Randomizer {
      * Access a default instance of this class, access is synchronized
      */
     public static void setSeed(long seed) {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             random.setSeed(seed);
         }
@@ -185,6 +222,7 @@ public class Randomizer {
      * Access a default instance of this class, access is synchronized
      */
     public static byte nextByte() {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.nextByte();
         }
@@ -194,6 +232,7 @@ public class Randomizer {
      * Access a default instance of this class, access is synchronized
      */
     public static boolean nextBoolean() {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.nextBoolean();
         }
@@ -203,6 +242,7 @@ public class Randomizer {
      * Access a default instance of this class, access is synchronized
      */
     public static void nextBytes(byte[] bs) {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             random.nextBytes(bs);
         }
@@ -212,6 +252,7 @@ public class Randomizer {
      * Access a default instance of this class, access is synchronized
      */
     public static char nextChar() {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.nextChar();
         }
@@ -224,6 +265,7 @@ public class Randomizer {
      * @return sample
      */
     public static double nextGaussian() {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.nextGaussian();
         }
@@ -239,6 +281,7 @@ public class Randomizer {
      * @return sample
      */
     public static double nextGamma(double alpha, double lambda) {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.nextGamma(alpha, lambda);
         }
@@ -252,6 +295,7 @@ public class Randomizer {
      * @return sample (as double for historical reasons)
      */
     public static long nextPoisson(double lambda) {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.nextPoisson(lambda);
         }
@@ -263,6 +307,7 @@ public class Randomizer {
      * @return a pseudo random double precision floating point number in [01)
      */
     public static double nextDouble() {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.nextDouble();
         }
@@ -283,6 +328,7 @@ public class Randomizer {
      * @return number drawn from distribution
      */
     public static double nextExponential(double lambda) {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return -1.0 * Math.log(1 - random.nextDouble()) / lambda;
         }
@@ -299,6 +345,7 @@ public class Randomizer {
      * @return number drawn from distribution
      */
     public static long nextGeometric(double p) {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             double lambda = -Math.log(1.0-p);
             return Math.round(Math.floor(nextExponential(lambda)));
@@ -312,6 +359,7 @@ public class Randomizer {
      * @return sample
      */
     public static float nextFloat() {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.nextFloat();
         }
@@ -325,6 +373,7 @@ public class Randomizer {
      * @return sample
      */
     public static long nextLong() {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.nextLong();
         }
@@ -339,6 +388,7 @@ public class Randomizer {
      * @return sample
      */
     public static short nextShort() {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.nextShort();
         }
@@ -352,6 +402,7 @@ public class Randomizer {
      * @return sample
      */
     public static int nextInt() {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.nextInt();
         }
@@ -365,6 +416,7 @@ public class Randomizer {
      * @return sample
      */
     public static int nextInt(int n) {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.nextInt(n);
         }
@@ -389,6 +441,7 @@ public class Randomizer {
             //double z=Math.exp(S*S)-1;
             //StdEv=y*z;
         }
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             double L=StdEv * random.nextGaussian() + Mean;
             return Math.exp(L);
@@ -412,6 +465,7 @@ public class Randomizer {
      * @param array
      */
     public static void shuffle(int[] array) {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             random.shuffle(array);
         }
@@ -423,6 +477,7 @@ public class Randomizer {
      * @param numberOfShuffles
      */
     public static void shuffle(int[] array, int numberOfShuffles) {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             random.shuffle(array, numberOfShuffles);
         }
@@ -435,6 +490,7 @@ public class Randomizer {
      * @return array
      */
     public static int[] shuffled(int l) {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.shuffled(l);
         }
@@ -449,6 +505,7 @@ public class Randomizer {
      * @return array
      */
     public static int[] sampleIndicesWithReplacement(int l) {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             int[] result = new int[l];
             for (int i = 0; i < l; i++)
@@ -463,6 +520,7 @@ public class Randomizer {
      * @param array
      */
     public static void permute(int[] array) {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             random.permute(array);
         }
@@ -475,6 +533,7 @@ public class Randomizer {
      * @return array containing permuted indices
      */
     public static int[] permuted(int l) {
+        final MersenneTwisterFast random = random();
         synchronized (random) {
             return random.permuted(l);
         }
@@ -0,0 +1,115 @@
+package beast.util;
+
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Values of thread locals that make up the context of an analysis, like its random
+ * number generator, so that several analyses can share a JVM. Inheritable thread
+ * locals are only copied when a thread is started, which is not enough for thread
+ * pools that are shared between analyses: their threads keep the context of the
+ * analysis that started them. Pools wrapped by wrap(ExecutorService) run every task
+ * in the context of the thread that submitted it instead.
+ */
+public class ThreadContext {
+	final private static List<ThreadLocal<Object>> locals = new CopyOnWriteArrayList<>();
+
+	final private Object[] values;
+
+	private ThreadContext(Object[] values) {
+		this.values = values;
+	}
+
+	/** add local to the thread locals that are part of the context @return local **/
+	@SuppressWarnings("unchecked")
+	public static <T> InheritableThreadLocal<T> register(InheritableThreadLocal<T> local) {
+		locals.add((ThreadLocal<Object>) (ThreadLocal<?>) local);
+		return local;
+	}
+
+	/** @return context of the current thread **/
+	public static ThreadContext capture() {
+		final Object[] values = new Object[locals.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = locals.get(i).get();
+		}
+		return new ThreadContext(values);
+	}
+
+	/** make this the context of the current thread @return previous context of the current thread **/
+	public ThreadContext apply() {
+		final ThreadContext previous = capture();
+		for (int i = 0; i < values.length; i++) {
+			set(locals.get(i), values[i]);
+		}
+		return previous;
+	}
+
+	private static void set(ThreadLocal<Object> local, Object value) {
+		if (value == null) {
+			local.remove();
+		} else {
+			local.set(value);
+		}
+	}
+
+	/** @return task that runs in the context of the current thread, whichever thread runs it **/
+	public static Runnable wrap(Runnable task) {
+		final ThreadContext context = capture();
+		return () -> {
+			final ThreadContext previous = context.apply();
+			try {
+				task.run();
+			} finally {
+				previous.apply();
+			}
+		};
+	}
+
+	/** @return executor that runs tasks in the context of the thread that submitted them **/
+	public static ExecutorService wrap(ExecutorService exec) {
+		return new ContextExecutor(exec);
+	}
+
+	static class ContextExecutor extends AbstractExecutorService {
+		final private ExecutorService exec;
+
+		ContextExecutor(ExecutorService exec) {
+			this.exec = exec;
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			exec.execute(wrap(command));
+		}
+
+		@Override
+		public void shutdown() {
+			exec.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return exec.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return exec.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return exec.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return exec.awaitTermination(timeout, unit);
+		}
+	}
+}
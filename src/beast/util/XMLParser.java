@@ -30,7 +30,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringReader;
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Type;
@@ -55,6 +54,7 @@ import beast.app.beauti.PartitionContext;
 import beast.core.BEASTInterface;
 import beast.core.Distribution;
 import beast.core.Input;
+import beast.core.InputDescriptor;
 import beast.core.Input.Validate;
 import beast.core.Logger;
 import beast.core.Operator;
@@ -906,23 +906,15 @@ public class XMLParser {
 			// cannot get here, since we checked the class existed before
 			e.printStackTrace();
 		}
-	    Constructor<?>[] allConstructors = clazz.getDeclaredConstructors();
-	    for (Constructor<?> ctor : allConstructors) {
-	    	Annotation[][] annotations = ctor.getParameterAnnotations();
-	    	List<Param> paramAnnotations = new ArrayList<>();
-	    	for (Annotation [] a0 : annotations) {
-		    	for (Annotation a : a0) {
-		    		if (a instanceof Param) {
-		    			paramAnnotations.add((Param) a);
-		    		}
-	    		}
-	    	}
+	    for (InputDescriptor.AnnotatedConstructor annotated : InputDescriptor.forClass(clazz).getAnnotatedConstructors()) {
+	    	Constructor<?> ctor = annotated.getConstructor();
+	    	List<Param> paramAnnotations = annotated.getParams();
 	    	
 	    	for (NameValuePair pair : inputInfo) {
 	    		pair.processed = false;
 	    	}
 
-	    	Class<?>[] types  = ctor.getParameterTypes();
+	    	Class<?>[] types  = annotated.getParameterTypes();
     		//Type[] gtypes = ctor.getGenericParameterTypes();
 	    	if (types.length > 0 && paramAnnotations.size() == types.length) {
 		    	try {
@@ -1,10 +1,6 @@
 package beast.util;
 
 import java.io.File;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -25,6 +21,7 @@ import org.w3c.dom.NodeList;
 
 import beast.core.BEASTInterface;
 import beast.core.Input;
+import beast.core.InputDescriptor;
 import beast.core.InputForAnnotatedConstructor;
 import beast.core.Param;
 import beast.core.util.Log;
@@ -334,45 +331,9 @@ public class XMLParserUtils {
 
 				
 		// Second, collect types of annotated constructor
-	    Constructor<?>[] allConstructors = clazz.getDeclaredConstructors();
-	    for (Constructor<?> ctor : allConstructors) {
-	    	Annotation[][] annotations = ctor.getParameterAnnotations();
-	    	List<Param> paramAnnotations = new ArrayList<>();
-	    	for (Annotation [] a0 : annotations) {
-		    	for (Annotation a : a0) {
-		    		if (a instanceof Param) {
-		    			paramAnnotations.add((Param) a);
-		    		}
-		    	}
-	    	}
-	    	Class<?>[] types  = ctor.getParameterTypes();	    	
-    		Type[] gtypes = ctor.getGenericParameterTypes();
-	    	if (types.length > 0 && paramAnnotations.size() > 0) {
-	    		int offset = 0;
-	    		if (types.length == paramAnnotations.size() + 1) {
-	    			offset = 1;
-	    		}
-	    		for (int i = 0; i < paramAnnotations.size(); i++) {
-	    			Param param = paramAnnotations.get(i);
-	    			Type type = types[i + offset];
-	    			Class<?> clazz2 = null;
-					try {
-						clazz2 = Class.forName(type.getTypeName());
-					} catch (ClassNotFoundException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-	    			if (clazz2.isAssignableFrom(List.class)) {
-                        Type[] genericTypes2 = ((ParameterizedType) gtypes[i + offset]).getActualTypeArguments();
-                        Class<?> theClass = (Class<?>) genericTypes2[0];
-	    				InputType t = new InputType(param.name(), theClass, false, param.defaultValue());
-	    				inputTypes.add(t);
-	    			} else {
-	    				InputType t = new InputType(param.name(), types[i + offset], false, param.defaultValue());
-	    				inputTypes.add(t);
-	    			}
-	    		}
-	    	}
+		for (InputDescriptor.ParamInput paramInput : InputDescriptor.forClass(clazz).getParamInputs()) {
+			Param param = paramInput.getParam();
+			inputTypes.add(new InputType(param.name(), paramInput.getType(), false, param.defaultValue()));
 		}
 		
 		return inputTypes;
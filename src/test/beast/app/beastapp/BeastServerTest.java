@@ -0,0 +1,202 @@
+package test.beast.app.beastapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import beast.app.BeastMCMC;
+import beast.app.beastapp.BeastServer;
+import beast.core.Input;
+import beast.core.Logger;
+import beast.core.Runnable;
+import beast.core.parameter.RealParameter;
+import beast.core.util.Log;
+import beast.util.Randomizer;
+import junit.framework.TestCase;
+
+public class BeastServerTest extends TestCase {
+
+	/** jobs wait for each other, so that they are known to run at the same time **/
+	static CyclicBarrier barrier;
+
+	/**
+	 * prints its message with a random number, from a thread it starts, and from the
+	 * shared thread pool with another random number and its log file name prefix
+	 **/
+	public static class Job extends Runnable {
+		final public Input<String> messageInput = new Input<>("message", "text to print", Input.Validate.REQUIRED);
+
+		@Override
+		public void initAndValidate() {
+		}
+
+		@Override
+		public void run() throws Exception {
+			final String message = messageInput.get();
+			barrier.await(60, TimeUnit.SECONDS);
+			System.out.println(message + " job " + Randomizer.nextDouble());
+			Thread thread = new Thread(() -> Log.info.println(message + " worker"));
+			thread.start();
+			thread.join();
+			// both jobs wait for the pool, so its single thread runs tasks of both
+			BeastMCMC.g_exec.submit(() -> System.out.println(message + " pool " + Randomizer.nextDouble()
+					+ " " + Logger.getFileNamePrefix())).get(60, TimeUnit.SECONDS);
+			barrier.await(60, TimeUnit.SECONDS);
+		}
+	}
+
+	/** writes a log file, which should not be overwritten **/
+	public static class LogJob extends Runnable {
+		final public Input<String> fileNameInput = new Input<>("fileName", "name of log file", Input.Validate.REQUIRED);
+
+		@Override
+		public void initAndValidate() {
+		}
+
+		@Override
+		public void run() throws Exception {
+			Logger logger = new Logger();
+			logger.initByName("fileName", fileNameInput.get(), "log", new RealParameter("1.0"), "logEvery", 1);
+			logger.init();
+			logger.log(0);
+			logger.close();
+		}
+	}
+
+	private void writeJob(File file, String message) throws Exception {
+		try (PrintStream out = new PrintStream(file)) {
+			out.println("<beast version='2.0' namespace='beast.core'>");
+			out.println("<run spec='" + Job.class.getName() + "' message='" + message + "'/>");
+			out.println("</beast>");
+		}
+	}
+
+	private String waitFor(File file) throws Exception {
+		for (int i = 0; i < 600 && !file.exists(); i++) {
+			Thread.sleep(100);
+		}
+		assertTrue("missing " + file.getPath(), file.exists());
+		return new String(Files.readAllBytes(file.toPath()));
+	}
+
+	/** @return index-th random number, starting at 0, drawn after seeding with seed **/
+	private double random(long seed, int index) {
+		Randomizer.setThreadSeed(seed);
+		try {
+			for (int i = 0; i < index; i++) {
+				Randomizer.nextDouble();
+			}
+			return Randomizer.nextDouble();
+		} finally {
+			Randomizer.clearThreadSeed();
+		}
+	}
+
+	/** start server in a thread of its own **/
+	private BeastServer start(File queue, int port, long seed) {
+		final PrintStream stderr = System.err;
+		BeastServer server = new BeastServer(queue, port, 2, seed);
+		Thread thread = new Thread(() -> {
+			try {
+				server.run();
+			} catch (Exception e) {
+				e.printStackTrace(stderr);
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return server;
+	}
+
+	@Test
+	public void testJobIsolation() throws Exception {
+		File queue = Files.createTempDirectory("BeastServerTest").toFile();
+		// written under another extension and renamed, so they are not picked up half written
+		File tmp = new File(queue, "alpha.tmp");
+		writeJob(tmp, "alpha");
+		assertTrue(tmp.renameTo(new File(queue, "alpha.xml")));
+		tmp = new File(queue, "beta.tmp");
+		writeJob(tmp, "beta");
+		assertTrue(tmp.renameTo(new File(queue, "beta.xml")));
+		barrier = new CyclicBarrier(2);
+
+		final long seed = 123;
+		final BeastServer server = start(queue, 0, seed);
+		try {
+			File alphaDir = new File(queue, "alpha"), betaDir = new File(queue, "beta");
+			String alphaDone = waitFor(new File(alphaDir, "alpha.done"));
+			String betaDone = waitFor(new File(betaDir, "beta.done"));
+			String alpha = waitFor(new File(alphaDir, "alpha.out"));
+			String beta = waitFor(new File(betaDir, "beta.out"));
+
+			// jobs are claimed in order of file name, and seeded with the server seed plus the job number
+			assertTrue(alphaDone, alphaDone.startsWith("done alpha seed=" + (seed + 1)));
+			assertTrue(betaDone, betaDone.startsWith("done beta seed=" + (seed + 2)));
+			// each job has its own output, including that of threads it started, and its own random numbers
+			assertTrue(alpha, alpha.contains("alpha job " + random(seed + 1, 0)));
+			assertTrue(alpha, alpha.contains("alpha worker"));
+			assertFalse(alpha, alpha.contains("beta"));
+			assertTrue(beta, beta.contains("beta job " + random(seed + 2, 0)));
+			assertTrue(beta, beta.contains("beta worker"));
+			assertFalse(beta, beta.contains("alpha"));
+			// the same holds for tasks run by shared thread pools
+			assertTrue(alpha, alpha.contains("alpha pool " + random(seed + 1, 1) + " " + alphaDir.getAbsolutePath() + File.separator));
+			assertTrue(beta, beta.contains("beta pool " + random(seed + 2, 1) + " " + betaDir.getAbsolutePath() + File.separator));
+		} finally {
+			server.shutdown();
+		}
+	}
+
+	@Test
+	public void testExistingLogFile() throws Exception {
+		File dir = Files.createTempDirectory("BeastServerTest").toFile();
+		File job = new File(dir, "gamma.xml");
+		try (PrintStream out = new PrintStream(job)) {
+			out.println("<beast version='2.0' namespace='beast.core'>");
+			out.println("<run spec='" + LogJob.class.getName() + "' fileName='gamma.log'/>");
+			out.println("</beast>");
+		}
+		File output = new File(dir, "output");
+		assertTrue(output.mkdir());
+		File log = new File(output, "gamma.log");
+		Files.write(log.toPath(), "previous run".getBytes());
+
+		int port;
+		try (ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			port = socket.getLocalPort();
+		}
+		final BeastServer server = start(null, port, 1);
+		try {
+			String reply = null;
+			for (int i = 0; i < 100 && reply == null; i++) {
+				try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+						PrintStream request = new PrintStream(socket.getOutputStream(), true);
+						BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+					request.println(job.getAbsolutePath() + " dir=" + output.getAbsolutePath());
+					reply = in.readLine();
+				} catch (ConnectException e) {
+					// server not listening yet
+					Thread.sleep(100);
+				}
+			}
+			// the job fails instead of asking whether to overwrite the log
+			assertNotNull(reply);
+			assertTrue(reply, reply.startsWith("failed gamma"));
+			assertTrue(reply, reply.contains("Use overwrite or resume option, or remove the file"));
+			assertTrue(waitFor(new File(output, "gamma.failed")).startsWith("failed gamma"));
+			assertEquals("previous run", new String(Files.readAllBytes(log.toPath())));
+		} finally {
+			server.shutdown();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package test.beast.app.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import beast.app.tools.EBSPAnalyser;
+import junit.framework.TestCase;
+
+public class EBSPAnalyserTest extends TestCase {
+
+	/** write EBSP log with population sizes at some of the times, spanning more than one batch of lines **/
+	static void createEBSPLog(File file) throws IOException {
+		Random random = new Random(17);
+		PrintStream out = new PrintStream(file);
+		out.println("# EBSP log for testing");
+		out.print("Sample\tpopsSize0");
+		for (int i = 0; i < 8; i++) {
+			out.print("\tdemographic.times." + i);
+		}
+		out.println();
+		for (int sample = 0; sample < 5000; sample++) {
+			out.print(sample * 1000 + "\t0:" + (0.5 + random.nextDouble()));
+			double time = 0;
+			for (int i = 0; i < 8; i++) {
+				time += 0.1 + random.nextDouble();
+				out.print("\t" + time);
+				if (i % 3 == 1 || i == 7) {
+					out.print(":" + (0.5 + random.nextDouble()));
+				}
+			}
+			out.println();
+		}
+		out.close();
+	}
+
+	private String[] analyse(File log, String type, int threads) throws IOException {
+		File output = File.createTempFile("EBSPAnalyserTest", ".txt");
+		output.deleteOnExit();
+		EBSPAnalyser.main(new String[] { "-i", log.getPath(), "-o", output.getPath(), "-type", type,
+				"-burnin", "10", "-threads", threads + "" });
+		return Files.readAllLines(output.toPath()).toArray(new String[0]);
+	}
+
+	/** output is the same as that of the analyser before it evaluated samples in batches **/
+	@Test
+	public void testAgainstPreviousOutput() throws IOException {
+		File log = File.createTempFile("EBSPAnalyserTest", ".log");
+		log.deleteOnExit();
+		createEBSPLog(log);
+		for (int threads : new int[] { 1, 4 }) {
+			assertEquals(Arrays.toString(LINEAR), Arrays.toString(analyse(log, "linear", threads)));
+			assertEquals(Arrays.toString(STEPWISE), Arrays.toString(analyse(log, "stepwise", threads)));
+		}
+	}
+
+	// output of EBSPAnalyser before samples were evaluated in batches, for the log of createEBSPLog
+	final static String[] LINEAR = {
+			"time\tmean\tmedian\t95HPD lower\t95HPD upper",
+			"0.0\t1.006494647206267\t1.012797639414435\t0.5008896703335534\t1.4485543059015136",
+			"0.6043711600510582\t1.005339760569916\t1.0050457675445579\t0.6044519457214259\t1.414756911503429",
+			"1.2011545944286433\t1.005869837228062\t1.006078979406857\t0.5945784817718607\t1.4521798664976753",
+			"1.8028151616043653\t1.0034920233557678\t1.007598086041998\t0.5854577947294616\t1.4225735187120077",
+			"2.4042209458851755\t1.0007282528925106\t0.9997691130486246\t0.5879807544473142\t1.420197784440428",
+			"3.0047884055943817\t1.0014677890241088\t0.9966346517717115\t0.5826297058144314\t1.4343521061380693",
+			"3.605591806008832\t1.0043972549966258\t1.0023451898369278\t0.5888577595619681\t1.448746434925848",
+			"4.211129642209919\t1.0036308610857418\t1.000564223744769\t0.571609279318665\t1.4546248733377793",
+			"4.808839891587323\t1.0013839929473438\t0.9982102866212782\t0.5627779765475004\t1.4821564157479368"
+	};
+	final static String[] STEPWISE = {
+			"time\tmean\tmedian\t95HPD lower\t95HPD upper",
+			"0.0\t1.005007911945378\t1.004334175763781\t0.5504623425523885\t1.4961406439949592",
+			"0.6043711600510582\t1.0055754948354336\t1.009383736629605\t0.5544536207436518\t1.4982765563331228",
+			"1.2011545944286433\t1.0044317105672376\t1.0117234962144468\t0.5530363881830109\t1.4980099785168757",
+			"1.8028151616043653\t0.9982402400319881\t1.0003044659279143\t0.5421409628755768\t1.487581803663557",
+			"2.4042209458851755\t0.9993464976899086\t0.997510918800775\t0.5419795672997105\t1.4887714505410257",
+			"3.0047884055943817\t1.005768945359833\t1.003391370198286\t0.5483216726848412\t1.4948736855021325",
+			"3.605591806008832\t1.0026119744419637\t0.9992507529701307\t0.5287658679536098\t1.4787421867433475",
+			"4.211129642209919\t0.9990461149693167\t0.9913788880015086\t0.5476349317776621\t1.4984162154783855",
+			"4.808839891587323\t0.999023332214468\t0.9916097417219563\t0.5498156010867281\t1.4998283770703726"
+	};
+}
@@ -179,6 +179,40 @@ public class LogCombinerTest extends TestCase {
 		assertEquals(302, lastTreeStateNr("tmp_out.trees"));
 	}
 
+	@Test
+	public void testTreeLogCombinerTranslate() throws IOException {
+		// the same tree, with taxa numbered differently in each file, or not at all
+		String[] translates = {"1 bonobo,\n2 siamang\n", "1 siamang,\n2 bonobo\n", null};
+		String[] trees = {"(1[&rate=1.0,x=2]:0.1,2:0.2):0.0;", "(2[&rate=1.0,x=2]:0.1,1:0.2):0.0;", "(bonobo[&rate=1.0,x=2]:0.1,siamang:0.2):0.0;"};
+		for (int i = 0; i < trees.length; i++) {
+			StringBuilder b = new StringBuilder();
+			b.append("#NEXUS\n\nBegin trees;\n");
+			if (translates[i] != null) {
+				b.append("\tTranslate\n" + translates[i] + ";\n");
+			}
+			for (int j = 0; j < 10; j++) {
+				b.append("tree STATE_" + j * 1000 + " = " + trees[i] + "\n");
+			}
+			b.append("End;\n");
+			FileWriter outfile = new FileWriter(new File("tmp_in" + i + ".trees"));
+			outfile.write(b.toString());
+			outfile.close();
+		}
+
+		LogCombiner.main(new String[] { "-log", "tmp_in0.trees", "tmp_in1.trees", "tmp_in2.trees", "-o", "tmp_out.trees",
+				"-burnin", "0", "-threads", "3" });
+		NexusParser parser = new NexusParser();
+		parser.parseFile(new File("tmp_out.trees"));
+		assertEquals(30, parser.trees.size());
+		for (Tree tree : parser.trees) {
+			for (int i = 0; i < 2; i++) {
+				String taxon = tree.getNode(i).getID();
+				assertEquals(taxon, taxon.equals("bonobo") ? 0.1 : 0.2, tree.getNode(i).getLength(), 1e-10);
+			}
+		}
+		assertEquals(9000 * 3 + 2000, lastTreeStateNr("tmp_out.trees"));
+	}
+
 	private int treeCount(String file) throws IOException {
 		NexusParser analyser = new NexusParser();
 		analyser.parseFile(new File(file));
@@ -13,6 +13,7 @@ import beast.core.BEASTInterface;
 import beast.core.Citation;
 import beast.core.Description;
 import beast.core.Input;
+import beast.core.InputDescriptor;
 import beast.core.Input.Validate;
 import junit.framework.TestCase;
 
@@ -182,6 +183,21 @@ public class BEASTInterfaceTest extends TestCase {
 		
 		
 	}
-	
-	
+
+	@Test
+	public void testInputDescriptor() throws Exception {
+		// descriptor is shared between instances of a class
+		InputDescriptor descriptor = InputDescriptor.forClass(BEASTi.class);
+		assertSame(descriptor, InputDescriptor.forClass(new BEASTi().getClass()));
+		assertEquals(2, descriptor.getInputFields().length);
+		assertEquals(0, descriptor.getAnnotatedConstructors().size());
+
+		// but inputs are those of the instance
+		BEASTi o1 = new BEASTi();
+		BEASTi o2 = new BEASTi();
+		assertTrue(o1.listInputs().contains(o1.msgInput));
+		assertFalse(o1.listInputs().contains(o2.msgInput));
+		assertEquals(-1, descriptor.indexOf(o1, o2.msgInput));
+		assertEquals(String.class, descriptor.getInputType(descriptor.indexOf(o1, o1.msgInput)));
+	}
 }
@@ -2,6 +2,7 @@ package test.beast.core.parameter;
 
 import org.junit.Test;
 
+import beast.core.State;
 import beast.core.parameter.RealParameter;
 import junit.framework.TestCase;
 
@@ -28,4 +29,31 @@ public class ParameterTest extends TestCase {
         parameter = new RealParameter(x);
         assertEquals(parameter.getDimension(), 6);
     }
+
+    @Test
+    public void testDirtyIndices() throws Exception {
+        RealParameter parameter = new RealParameter();
+        parameter.initByName("value", "1.0", "dimension", 10);
+        State state = new State();
+        state.initByName("stateNode", parameter);
+        state.initialise();
+
+        state.store(0);
+        parameter.setValue(7, 2.0);
+        parameter.swap(3, 7);
+        parameter.setValue(3, 3.0);
+        assertEquals(2, parameter.getDirtyIndexCount());
+        assertEquals(7, parameter.getDirtyIndices()[0]);
+        assertEquals(3, parameter.getDirtyIndices()[1]);
+        assertEquals(3, parameter.getLastDirty());
+
+        state.setEverythingDirty(false);
+        assertEquals(0, parameter.getDirtyIndexCount());
+        assertFalse(parameter.isDirty(3));
+
+        // after everything is made dirty, the individual entries are not known
+        parameter.setEverythingDirty(true);
+        assertEquals(-1, parameter.getDirtyIndexCount());
+        assertTrue(parameter.isDirty(0));
+    }
 }
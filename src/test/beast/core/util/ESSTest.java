@@ -0,0 +1,120 @@
+package test.beast.core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import beast.core.parameter.RealParameter;
+import beast.core.util.ESS;
+import junit.framework.TestCase;
+
+public class ESSTest extends TestCase {
+
+    /** AR(1) trace with auto correlation time (1 + phi) / (1 - phi) **/
+    private static double[] ar1(int n, double phi, long seed) {
+        Random random = new Random(seed);
+        double[] trace = new double[n];
+        double x = 0;
+        for (int i = 0; i < n; i++) {
+            x = phi * x + random.nextGaussian();
+            trace[i] = x + 10;
+        }
+        return trace;
+    }
+
+    /** auto covariance summed lag by lag, as Tracer does **/
+    private static double directACT(double[] trace, int maxLag) {
+        final int n = trace.length;
+        double mean = 0;
+        for (double x : trace) {
+            mean += x;
+        }
+        mean /= n;
+        maxLag = Math.min(maxLag, n);
+        double[] autoCorrelation = new double[maxLag];
+        for (int lag = 0; lag < maxLag; lag++) {
+            double s = 0;
+            for (int i = 0; i + lag < n; i++) {
+                s += (trace[i] - mean) * (trace[i + lag] - mean);
+            }
+            autoCorrelation[lag] = s / (n - lag);
+        }
+        double integral = autoCorrelation[0];
+        for (int lag = 2; lag < maxLag; lag += 2) {
+            if (autoCorrelation[lag - 1] + autoCorrelation[lag] > 0) {
+                integral += 2.0 * (autoCorrelation[lag - 1] + autoCorrelation[lag]);
+            } else {
+                break;
+            }
+        }
+        return integral / autoCorrelation[0];
+    }
+
+    @Test
+    public void testACT() {
+        for (double phi : new double[]{0.0, 0.5, 0.9, 0.99}) {
+            double[] trace = ar1(20000, phi, 123);
+            double act = ESS.ACT(trace, 1);
+            assertEquals(directACT(trace, 2000), act, 1e-9 * act);
+            Double[] boxed = new Double[trace.length];
+            for (int i = 0; i < trace.length; i++) {
+                boxed[i] = trace[i];
+            }
+            assertEquals(act, ESS.ACT(boxed, 1), 0.0);
+            assertEquals(trace.length / act, ESS.calcESS(trace, 1), 1e-9 * trace.length / act);
+            assertEquals(10 * act, ESS.ACT(trace, 10), 1e-9 * act);
+
+            // batch means are less accurate, but should be in the same ball park
+            // as long as batches are much longer than the ACT
+            if (phi > 0.9) {
+                continue;
+            }
+            double expected = (1 + phi) / (1 - phi);
+            double batchMeansACT = ESS.ACTBatchMeans(trace, 1);
+            assertTrue(phi + ": " + batchMeansACT, batchMeansACT > expected / 2 && batchMeansACT < expected * 2);
+        }
+        // short traces
+        assertEquals(directACT(new double[]{1, 3, 2}, 2000), ESS.ACT(new double[]{1, 3, 2}, 1), 1e-12);
+        assertTrue(Double.isNaN(ESS.ACT(new double[0], 1)));
+    }
+
+    @Test
+    public void testOnlineBatchMeans() {
+        for (double phi : new double[]{0.0, 0.5, 0.9}) {
+            double[] trace = ar1(100000, phi, 17);
+            ESS.OnlineBatchMeans batchMeans = new ESS.OnlineBatchMeans();
+            for (double x : trace) {
+                batchMeans.add(x);
+            }
+            double expected = trace.length * 0.9 * (1 - phi) / (1 + phi);
+            double ess = batchMeans.getESS();
+            assertTrue(phi + ": " + ess, ess > expected / 2 && ess < expected * 2);
+        }
+    }
+
+    @Test
+    public void testLoggable() {
+        double[] trace = ar1(3000, 0.8, 5);
+        RealParameter parameter = new RealParameter("0.0");
+        parameter.setID("x");
+        ESS ess = new ESS();
+        ess.initByName("arg", parameter);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        String last = null;
+        for (int i = 0; i < trace.length; i++) {
+            parameter.setValue(trace[i]);
+            bytes.reset();
+            ess.log(i, out);
+            out.flush();
+            last = bytes.toString().trim();
+        }
+        // logged ESS is truncated to one decimal
+        double expected = ESS.calcESS(Arrays.copyOfRange(trace, trace.length / 10, trace.length), 1);
+        assertEquals(expected, Double.parseDouble(last), 0.1 + 1e-6 * expected);
+    }
+}
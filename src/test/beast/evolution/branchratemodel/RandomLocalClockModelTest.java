@@ -0,0 +1,99 @@
+package test.beast.evolution.branchratemodel;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import beast.core.State;
+import beast.core.parameter.BooleanParameter;
+import beast.core.parameter.RealParameter;
+import beast.evolution.branchratemodel.RandomLocalClockModel;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.Tree;
+import beast.util.TreeParser;
+import junit.framework.TestCase;
+
+public class RandomLocalClockModelTest extends TestCase {
+
+    final static String NEWICK = "((((A:1.0,B:1.0):2.0,(C:0.5,D:0.5):2.5):1.0,(E:2.0,F:2.0):2.0):1.0,((G:1.5,H:1.5):1.0,I:2.5):2.5);";
+
+    /**
+     * flips indicators, changes rates and moves node heights the way the MCMC does,
+     * and checks rates against rates calculated from scratch
+     */
+    private void checkRates(boolean ratesAreMultipliers) throws Exception {
+        Tree tree = new TreeParser(NEWICK);
+        BooleanParameter indicators = new BooleanParameter("false");
+        RealParameter rates = new RealParameter("1.0");
+        RealParameter meanRate = new RealParameter("1.0");
+        RandomLocalClockModel clock = new RandomLocalClockModel();
+        clock.initByName("indicators", indicators, "rates", rates, "clock.rate", meanRate, "tree", tree,
+                "ratesAreMultipliers", ratesAreMultipliers);
+
+        State state = new State();
+        state.initByName("stateNode", indicators, "stateNode", rates, "stateNode", meanRate, "stateNode", tree);
+        state.initialise();
+        state.setPosterior(clock);
+
+        Random random = new Random(1);
+        for (int step = 0; step < 2000; step++) {
+            state.store(step);
+            switch (random.nextInt(5)) {
+                case 0:
+                case 1: {
+                    int i = random.nextInt(indicators.getDimension());
+                    indicators.setValue(i, !indicators.getValue(i));
+                    break;
+                }
+                case 2:
+                    rates.setValue(random.nextInt(rates.getDimension()), 0.5 + random.nextDouble());
+                    break;
+                case 3:
+                    meanRate.setValue(0.5 + random.nextDouble());
+                    break;
+                default: {
+                    // nodes are replaced by the restore of the tree, so get them from the tree
+                    Node node = tree.getNode(tree.getLeafNodeCount() + random.nextInt(tree.getInternalNodeCount() - 1));
+                    double lower = Math.max(node.getLeft().getHeight(), node.getRight().getHeight());
+                    tree.startEditing(null);
+                    node.setHeight(lower + (node.getParent().getHeight() - lower) * random.nextDouble());
+                }
+            }
+            state.storeCalculationNodes();
+            state.checkCalculationNodesDirtiness();
+            assertRates(clock, tree, indicators, rates, meanRate, ratesAreMultipliers);
+
+            if (random.nextBoolean()) {
+                state.acceptCalculationNodes();
+            } else {
+                state.restore();
+                state.restoreCalculationNodes();
+                assertRates(clock, tree, indicators, rates, meanRate, ratesAreMultipliers);
+            }
+            state.setEverythingDirty(false);
+        }
+    }
+
+    private void assertRates(RandomLocalClockModel clock, Tree tree, BooleanParameter indicators,
+                             RealParameter rates, RealParameter meanRate, boolean ratesAreMultipliers) throws Exception {
+        RandomLocalClockModel expected = new RandomLocalClockModel();
+        expected.initByName("indicators", indicators, "rates", rates, "clock.rate", meanRate, "tree", tree,
+                "ratesAreMultipliers", ratesAreMultipliers);
+        for (Node node : tree.getNodesAsArray()) {
+            if (!node.isRoot()) {
+                final double rate = expected.getRateForBranch(node);
+                assertEquals(rate, clock.getRateForBranch(node), rate * 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testRates() throws Exception {
+        checkRates(false);
+    }
+
+    @Test
+    public void testMultipliers() throws Exception {
+        checkRates(true);
+    }
+}
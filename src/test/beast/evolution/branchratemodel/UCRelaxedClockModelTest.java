@@ -0,0 +1,106 @@
+package test.beast.evolution.branchratemodel;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import beast.core.State;
+import beast.core.parameter.IntegerParameter;
+import beast.core.parameter.RealParameter;
+import beast.evolution.branchratemodel.UCRelaxedClockModel;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.Tree;
+import beast.math.distributions.LogNormalDistributionModel;
+import beast.util.TreeParser;
+import junit.framework.TestCase;
+
+public class UCRelaxedClockModelTest extends TestCase {
+
+    final static String NEWICK = "(((A:1.0,B:1.0):2.0,(C:0.5,D:0.5):2.5):1.0,(E:2.0,F:2.0):2.0);";
+
+    /**
+     * changes a category or quantile, or the standard deviation of the distribution, the way
+     * the MCMC does, and checks rates against rates calculated from scratch
+     */
+    private void checkRates(boolean useCategories) throws Exception {
+        Tree tree = new TreeParser(NEWICK);
+        RealParameter m = new RealParameter("1.0");
+        RealParameter s = new RealParameter("0.5");
+        LogNormalDistributionModel distr = new LogNormalDistributionModel();
+        distr.initByName("M", m, "S", s, "meanInRealSpace", true);
+
+        UCRelaxedClockModel clock = new UCRelaxedClockModel();
+        IntegerParameter categories = new IntegerParameter("0");
+        RealParameter quantiles = new RealParameter("0.5");
+        if (useCategories) {
+            clock.initByName("distr", distr, "rateCategories", categories, "numberOfDiscreteRates", 20,
+                    "tree", tree, "normalize", true);
+        } else {
+            clock.initByName("distr", distr, "rateQuantiles", quantiles, "rates", new RealParameter("1.0"),
+                    "tree", tree, "normalize", true);
+        }
+
+        State state = new State();
+        state.initByName("stateNode", useCategories ? categories : quantiles, "stateNode", s);
+        state.initialise();
+        state.setPosterior(clock);
+
+        assertRates(clock, tree, distr, useCategories ? categories : null, quantiles);
+        Random random = new Random(1);
+        for (int step = 0; step < 1000; step++) {
+            state.store(step);
+            if (random.nextInt(4) == 0) {
+                s.setValue(0.1 + random.nextDouble());
+            } else if (useCategories) {
+                categories.setValue(random.nextInt(categories.getDimension()), random.nextInt(20));
+            } else {
+                quantiles.setValue(random.nextInt(quantiles.getDimension()), random.nextDouble());
+            }
+            state.storeCalculationNodes();
+            state.checkCalculationNodesDirtiness();
+            assertRates(clock, tree, distr, useCategories ? categories : null, quantiles);
+
+            if (random.nextBoolean()) {
+                state.acceptCalculationNodes();
+            } else {
+                state.restore();
+                state.restoreCalculationNodes();
+                assertRates(clock, tree, distr, useCategories ? categories : null, quantiles);
+            }
+            state.setEverythingDirty(false);
+        }
+    }
+
+    private void assertRates(UCRelaxedClockModel clock, Tree tree, LogNormalDistributionModel distr,
+                             IntegerParameter categories, RealParameter quantiles) throws Exception {
+        final Node[] nodes = tree.getNodesAsArray();
+        final double[] rawRates = new double[nodes.length];
+        double treeRate = 0, treeTime = 0;
+        for (Node node : nodes) {
+            if (!node.isRoot()) {
+                if (categories != null) {
+                    rawRates[node.getNr()] = distr.inverseCumulativeProbability((categories.getValue(node.getNr()) + 0.5) / 20);
+                } else {
+                    rawRates[node.getNr()] = distr.inverseCumulativeProbability(quantiles.getValue(node.getNr()));
+                }
+                treeRate += rawRates[node.getNr()] * node.getLength();
+                treeTime += node.getLength();
+            }
+        }
+        for (Node node : nodes) {
+            if (!node.isRoot()) {
+                assertEquals(rawRates[node.getNr()] * treeTime / treeRate, clock.getRateForBranch(node), 1e-8);
+            }
+        }
+    }
+
+    @Test
+    public void testQuantiles() throws Exception {
+        checkRates(false);
+    }
+
+    @Test
+    public void testCategories() throws Exception {
+        checkRates(true);
+    }
+}
@@ -0,0 +1,124 @@
+package test.beast.evolution.operator;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import beast.core.Operator;
+import beast.core.State;
+import beast.evolution.operators.Exchange;
+import beast.evolution.operators.SubtreeSlide;
+import beast.evolution.operators.Uniform;
+import beast.evolution.operators.WilsonBalding;
+import beast.evolution.tree.Tree;
+import beast.util.Randomizer;
+import beast.util.TreeParser;
+import junit.framework.TestCase;
+
+/**
+ * Tree operators are called millions of times, so their proposals should not create garbage.
+ */
+public class TreeOperatorAllocationTest extends TestCase {
+
+    /** @return newick of a random ultrametric tree with the given number of taxa **/
+    static String randomNewick(int taxonCount) {
+        List<String> lineages = new ArrayList<>();
+        List<Double> heights = new ArrayList<>();
+        for (int i = 0; i < taxonCount; i++) {
+            lineages.add("t" + i);
+            heights.add(0.0);
+        }
+        double height = 0;
+        while (lineages.size() > 1) {
+            height += Randomizer.nextExponential(lineages.size());
+            int left = Randomizer.nextInt(lineages.size());
+            String leftNewick = lineages.remove(left) + ":" + (height - heights.remove(left));
+            int right = Randomizer.nextInt(lineages.size());
+            String rightNewick = lineages.remove(right) + ":" + (height - heights.remove(right));
+            lineages.add("(" + leftNewick + "," + rightNewick + ")");
+            heights.add(height);
+        }
+        return lineages.get(0) + ";";
+    }
+
+    @Test
+    public void testProposalsDoNotAllocate() throws Exception {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            // cannot count allocations on this JVM
+            return;
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+        long threadId = Thread.currentThread().getId();
+
+        Randomizer.setSeed(127);
+        Tree tree = new TreeParser(randomNewick(100), false);
+        State state = new State();
+        state.initByName("stateNode", tree);
+        state.initialise();
+
+        Exchange narrow = new Exchange();
+        narrow.initByName("tree", tree, "weight", 1.0);
+        Exchange wide = new Exchange();
+        wide.initByName("tree", tree, "isNarrow", false, "weight", 1.0);
+        Uniform uniform = new Uniform();
+        uniform.initByName("tree", tree, "weight", 1.0);
+        SubtreeSlide slide = new SubtreeSlide();
+        slide.initByName("tree", tree, "weight", 1.0, "size", 0.5);
+        WilsonBalding wilsonBalding = new WilsonBalding();
+        wilsonBalding.initByName("tree", tree, "weight", 1.0);
+        Operator[] operators = {narrow, wide, uniform, slide, wilsonBalding};
+
+        // warm up, so that nothing is allocated for class loading or compilation
+        for (int step = 0; step < 20000; step++) {
+            propose(state, operators[step % operators.length], step);
+        }
+
+        // the JVM itself allocates now and then, for instance when code is compiled again,
+        // so only the round with the least allocation of each operator counts
+        final int rounds = 5, proposals = 1000;
+        long[] leastAllocated = new long[operators.length];
+        Arrays.fill(leastAllocated, Long.MAX_VALUE);
+        long overhead = bean.getThreadAllocatedBytes(threadId);
+        overhead = bean.getThreadAllocatedBytes(threadId) - overhead;
+        for (int round = 0; round < rounds; round++) {
+            long[] allocated = new long[operators.length];
+            for (int step = 0; step < proposals * operators.length; step++) {
+                final int k = step % operators.length;
+                state.store(step);
+                final long before = bean.getThreadAllocatedBytes(threadId);
+                operators[k].proposal();
+                allocated[k] += bean.getThreadAllocatedBytes(threadId) - before - overhead;
+                finish(state, step);
+            }
+            for (int k = 0; k < operators.length; k++) {
+                leastAllocated[k] = Math.min(leastAllocated[k], allocated[k]);
+            }
+        }
+
+        for (int k = 0; k < operators.length; k++) {
+            // a list or array per proposal would take at least 16 bytes
+            assertTrue(operators[k].getClass().getSimpleName() + " allocated " + leastAllocated[k] + " bytes in " + proposals + " proposals",
+                    leastAllocated[k] < 16 * proposals);
+        }
+    }
+
+    private void propose(State state, Operator operator, int step) {
+        state.store(step);
+        operator.proposal();
+        finish(state, step);
+    }
+
+    /** reject every third proposal **/
+    private void finish(State state, int step) {
+        if (step % 3 == 0) {
+            state.restore();
+        }
+        state.setEverythingDirty(false);
+    }
+}
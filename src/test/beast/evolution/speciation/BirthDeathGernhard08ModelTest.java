@@ -2,10 +2,13 @@ package test.beast.evolution.speciation;
 
 import org.junit.Test;
 
+import beast.core.State;
 import beast.core.parameter.RealParameter;
 import beast.evolution.alignment.Alignment;
+import beast.evolution.operators.SubtreeSlide;
 import beast.evolution.speciation.BirthDeathGernhard08Model;
 import beast.evolution.tree.Tree;
+import beast.util.Randomizer;
 import junit.framework.TestCase;
 import test.beast.BEASTTestCase;
 
@@ -62,4 +65,56 @@ public class BirthDeathGernhard08ModelTest extends TestCase {
         assertEquals(logP, 8.41413452832378, BEASTTestCase.PRECISION);
     }
 
+    /**
+     * node terms are updated for the nodes that moved only, so compare with fresh models
+     * after tree moves, rate changes and rejected steps
+     */
+    @Test
+    public void testIncrementalUpdates() throws Exception {
+        Randomizer.setSeed(127);
+        Alignment data = BEASTTestCase.getAlignment();
+        Tree tree = BEASTTestCase.getTree(data);
+
+        RealParameter birthDiffRate = new RealParameter("1.0");
+        RealParameter relativeDeathRate = new RealParameter("0.5");
+        RealParameter sampleProbability = new RealParameter("0.8");
+        BirthDeathGernhard08Model likelihood = new BirthDeathGernhard08Model();
+        likelihood.initByName("type", "labeled",
+                "tree", tree,
+                "birthDiffRate", birthDiffRate,
+                "relativeDeathRate", relativeDeathRate,
+                "sampleProbability", sampleProbability);
+
+        SubtreeSlide operator = new SubtreeSlide();
+        operator.initByName("tree", tree, "size", 0.02, "weight", 1.0);
+        State state = new State();
+        state.initByName("stateNode", tree, "stateNode", birthDiffRate, "stateNode", relativeDeathRate,
+                "stateNode", sampleProbability);
+        state.initialise();
+
+        for (int step = 0; step < 1000; step++) {
+            state.store(step);
+            if (Randomizer.nextInt(4) > 0) {
+                operator.proposal();
+            } else {
+                birthDiffRate.setValue(0.5 + Randomizer.nextDouble());
+                relativeDeathRate.setValue(0.9 * Randomizer.nextDouble());
+            }
+
+            BirthDeathGernhard08Model expected = new BirthDeathGernhard08Model();
+            expected.initByName("type", "labeled",
+                    "tree", tree,
+                    "birthDiffRate", birthDiffRate,
+                    "relativeDeathRate", relativeDeathRate,
+                    "sampleProbability", sampleProbability);
+            final double logP = expected.calculateLogP();
+            assertEquals(logP, likelihood.calculateLogP(), 1e-10);
+
+            if (Randomizer.nextBoolean()) {
+                state.restore();
+            }
+            state.setEverythingDirty(false);
+        }
+    }
+
 }
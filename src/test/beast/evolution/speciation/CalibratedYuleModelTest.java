@@ -0,0 +1,232 @@
+package test.beast.evolution.speciation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import beast.core.parameter.RealParameter;
+import beast.evolution.alignment.Taxon;
+import beast.evolution.alignment.TaxonSet;
+import beast.evolution.speciation.CalibratedBirthDeathModel;
+import beast.evolution.speciation.CalibratedYuleModel;
+import beast.evolution.speciation.CalibrationPoint;
+import beast.evolution.speciation.SpeciesTreeDistribution;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.Tree;
+import beast.math.distributions.Uniform;
+import beast.util.TreeParser;
+import junit.framework.TestCase;
+
+public class CalibratedYuleModelTest extends TestCase {
+
+    static Tree randomTree(int taxonCount, Random random) {
+        List<String> clades = new ArrayList<>();
+        List<Double> heights = new ArrayList<>();
+        for (int i = 0; i < taxonCount; i++) {
+            clades.add("t" + i);
+            heights.add(0.0);
+        }
+        double height = 0;
+        while (clades.size() > 1) {
+            height += random.nextDouble() / clades.size();
+            int i = random.nextInt(clades.size());
+            String left = clades.remove(i) + ":" + (height - heights.remove(i));
+            int j = random.nextInt(clades.size());
+            String right = clades.remove(j) + ":" + (height - heights.remove(j));
+            clades.add("(" + left + "," + right + ")");
+            heights.add(height);
+        }
+        return new TreeParser(clades.get(0) + ";", false, false, true, 0);
+    }
+
+    /** calibrations on the clades below randomly chosen internal nodes **/
+    static List<CalibrationPoint> calibrations(Tree tree, int count, Random random) {
+        List<Node> internal = new ArrayList<>(tree.getInternalNodes());
+        Collections.shuffle(internal, random);
+        List<CalibrationPoint> cals = new ArrayList<>();
+        for (int k = 0; k < count; k++) {
+            List<Taxon> taxa = new ArrayList<>();
+            for (Node leaf : internal.get(k).getAllLeafNodes()) {
+                taxa.add(new Taxon(leaf.getID()));
+            }
+            TaxonSet set = new TaxonSet(taxa);
+            set.setID("clade" + k);
+            Uniform uniform = new Uniform();
+            uniform.initByName("lower", "0.0", "upper", "1000.0");
+            CalibrationPoint cal = new CalibrationPoint();
+            cal.initByName("taxonset", set, "distr", uniform);
+            cals.add(cal);
+        }
+        return cals;
+    }
+
+    /** move a random internal node between its children and parent **/
+    static void moveNode(Tree tree, Random random) {
+        Node node = tree.getNode(tree.getLeafNodeCount() + random.nextInt(tree.getInternalNodeCount()));
+        double lower = Math.max(node.getLeft().getHeight(), node.getRight().getHeight());
+        double upper = node.isRoot() ? lower + 1 : node.getParent().getHeight();
+        node.setHeight(lower + (upper - lower) * random.nextDouble());
+    }
+
+    @Test
+    public void testNestedCalibrations() throws Exception {
+        // the correction for two nested clades has a closed form, used by the Yule model,
+        // while the birth-death model with a death rate sums over lineages; they agree up to a constant
+        Tree tree = new TreeParser("((((A:1,B:1):1,C:2):2,D:4):1,(E:2,F:2):3);", false);
+        Random random = new Random(7);
+        List<CalibrationPoint> cals = new ArrayList<>();
+        for (String[] taxa : new String[][]{{"A", "B"}, {"A", "B", "C", "D"}}) {
+            List<Taxon> list = new ArrayList<>();
+            for (String taxon : taxa) {
+                list.add(new Taxon(taxon));
+            }
+            Uniform uniform = new Uniform();
+            uniform.initByName("lower", "0.0", "upper", "1000.0");
+            CalibrationPoint cal = new CalibrationPoint();
+            cal.initByName("taxonset", new TaxonSet(list), "distr", uniform);
+            cals.add(cal);
+        }
+
+        CalibratedYuleModel yule = new CalibratedYuleModel();
+        yule.initByName("tree", tree, "birthRate", new RealParameter("1.0"), "calibrations", cals);
+        CalibratedBirthDeathModel bd = new CalibratedBirthDeathModel();
+        bd.initByName("tree", tree, "birthRate", new RealParameter("1.0"), "relativeDeathRate", new RealParameter("0.0"),
+                "calibrations", cals);
+
+        double offset = yule.getCorrection(tree, 1.0) - bd.getCorrection(tree, 1.0, 0.0, 1.0);
+        for (int step = 0; step < 100; step++) {
+            moveNode(tree, random);
+            final double lam = 0.5 + random.nextDouble();
+            assertEquals(offset, yule.getCorrection(tree, lam) - bd.getCorrection(tree, lam, 0.0, 1.0), 1e-10);
+        }
+    }
+
+    @Test
+    public void testManyCalibrations() throws Exception {
+        // enumerating lineage counts is intractable here
+        Random random = new Random(3);
+        Tree tree = randomTree(60, random);
+        List<CalibrationPoint> cals = calibrations(tree, 25, random);
+
+        CalibratedYuleModel model = new CalibratedYuleModel();
+        model.initByName("tree", tree, "birthRate", new RealParameter("1.0"), "calibrations", cals);
+
+        for (int step = 0; step < 200; step++) {
+            moveNode(tree, random);
+            final double lam = step % 10 == 0 ? 1.0 + random.nextDouble() : 1.0;
+            double logP = model.getCorrection(tree, lam);
+            assertFalse(Double.isNaN(logP) || Double.isInfinite(logP));
+
+            // results after updating only the clades above the lowest calibration that moved are the same
+            // as those of a fresh model
+            CalibratedYuleModel expected = new CalibratedYuleModel();
+            expected.initByName("tree", tree, "birthRate", new RealParameter("1.0"), "calibrations", cals);
+            assertEquals(expected.getCorrection(tree, lam), logP, 1e-10);
+        }
+    }
+
+    final static String NEWICK = "(((((A:0.5,B:0.5):0.7,C:1.2):0.6,(D:0.9,E:0.9):0.9):1.5,(F:1.4,G:1.4):1.9):0.8,"
+            + "((H:0.6,I:0.6):1.1,J:1.7):2.4);";
+    // three nested clades and two disjoint ones
+    final static String[][] CLADES = {{"A", "B"}, {"A", "B", "C"}, {"A", "B", "C", "D", "E"}, {"F", "G"}, {"H", "I", "J"}};
+
+    // log likelihoods calculated by enumerating lineage counts with CalibrationLineagesIterator,
+    // for the tree after each of the node moves in checkAgainstEnumeration
+    final static double[] YULE_NONE = {-57.657498014703265, -58.12237778895576, -59.060911101190186, -61.77155219012353, -61.065960130877365, -60.54543775813855, -57.89593432949734, -57.14898660558909};
+    final static double[] YULE_FULL = {-59.016357387257614, -59.01635738725761, -57.28383690388307, -53.0399643735119, -52.334372314265735, -52.79402009811156, -57.50455835219913, -56.757610628290884};
+    final static double[] YULE_RESTRICTED = {-38.554329610624634, -39.04152149264284, -36.225921555939564, -33.82517811939758, -33.119586060151406, -33.7330558887439, -37.08189661490985, -36.3349488910016};
+    final static double[] BD_FULL = {-47.38676119972579, -47.573973531459096, -45.889662769126076, -41.729690390561615, -41.02163345751788, -41.4602687348904, -46.09234305823789, -45.33311460691648};
+    final static double[] BD_RESTRICTED = {-42.4134043797616, -43.13641121800075, -40.248496699735185, -37.73083291649958, -37.022775983455844, -37.646752065284986, -41.13352564461787, -40.37429719329647};
+
+    private void checkAgainstEnumeration(boolean birthDeath, String type, double[] expected) throws Exception {
+        Tree tree = new TreeParser(NEWICK, false);
+        List<CalibrationPoint> cals = new ArrayList<>();
+        for (String[] taxa : CLADES) {
+            List<Taxon> list = new ArrayList<>();
+            for (String taxon : taxa) {
+                list.add(new Taxon(taxon));
+            }
+            Uniform uniform = new Uniform();
+            uniform.initByName("lower", "0.0", "upper", "1000.0");
+            CalibrationPoint cal = new CalibrationPoint();
+            cal.initByName("taxonset", new TaxonSet(list), "distr", uniform);
+            cals.add(cal);
+        }
+        SpeciesTreeDistribution model;
+        if (birthDeath) {
+            model = new CalibratedBirthDeathModel();
+            model.initByName("tree", tree, "birthRate", new RealParameter("1.3"), "relativeDeathRate", new RealParameter("0.4"),
+                    "calibrations", cals, "type", type);
+        } else {
+            model = new CalibratedYuleModel();
+            model.initByName("tree", tree, "birthRate", new RealParameter("1.3"), "calibrations", cals, "type", type);
+        }
+        Random random = new Random(11);
+        for (double logP : expected) {
+            assertEquals(logP, model.calculateTreeLogLikelihood(tree), 1e-10);
+            moveNode(tree, random);
+        }
+    }
+
+    @Test
+    public void testAgainstEnumeration() throws Exception {
+        checkAgainstEnumeration(false, "none", YULE_NONE);
+        checkAgainstEnumeration(false, "full", YULE_FULL);
+        checkAgainstEnumeration(false, "restricted", YULE_RESTRICTED);
+        checkAgainstEnumeration(true, "full", BD_FULL);
+        checkAgainstEnumeration(true, "restricted", BD_RESTRICTED);
+    }
+
+    /** caterpillar tree, so that the clades below its internal nodes are nested **/
+    static Tree caterpillarTree(int taxonCount, Random random) {
+        String clade = "t0:";
+        double height = 0;
+        for (int i = 1; i < taxonCount; i++) {
+            double h = height + random.nextDouble() / 10;
+            clade = "(" + clade + (h - height) + ",t" + i + ":" + h + ")";
+            height = h;
+            clade += ":";
+        }
+        return new TreeParser(clade.substring(0, clade.length() - 1) + ";", false, false, true, 0);
+    }
+
+    @Test
+    public void testNestedCalibrationsBenchmark() throws Exception {
+        // 10 to 30 nested calibrations on 100 taxa; enumerating lineage counts would not finish a single step
+        Random random = new Random(13);
+        for (int count = 10; count <= 30; count += 10) {
+            Tree tree = caterpillarTree(100, random);
+            List<Node> internal = new ArrayList<>(tree.getInternalNodes());
+            internal.sort((n1, n2) -> Double.compare(n1.getHeight(), n2.getHeight()));
+            List<CalibrationPoint> cals = new ArrayList<>();
+            for (int k = 0; k < count; k++) {
+                List<Taxon> taxa = new ArrayList<>();
+                for (Node leaf : internal.get(k * 3).getAllLeafNodes()) {
+                    taxa.add(new Taxon(leaf.getID()));
+                }
+                Uniform uniform = new Uniform();
+                uniform.initByName("lower", "0.0", "upper", "1000.0");
+                CalibrationPoint cal = new CalibrationPoint();
+                cal.initByName("taxonset", new TaxonSet(taxa), "distr", uniform);
+                cals.add(cal);
+            }
+            CalibratedYuleModel model = new CalibratedYuleModel();
+            model.initByName("tree", tree, "birthRate", new RealParameter("1.0"), "calibrations", cals);
+
+            final int steps = 200;
+            long start = System.nanoTime();
+            for (int step = 0; step < steps; step++) {
+                moveNode(tree, random);
+                double logP = model.getCorrection(tree, 1.0 + random.nextDouble());
+                assertFalse(Double.isNaN(logP) || Double.isInfinite(logP));
+            }
+            double msPerStep = (System.nanoTime() - start) / 1e6 / steps;
+            System.out.println(count + " nested calibrations: " + msPerStep + " ms per step");
+            // a generous bound, to catch a return to exponential time
+            assertTrue(msPerStep < 1000);
+        }
+    }
+}
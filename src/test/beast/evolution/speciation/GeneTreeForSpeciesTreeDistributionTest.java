@@ -0,0 +1,232 @@
+package test.beast.evolution.speciation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import beast.core.Distribution;
+import beast.core.State;
+import beast.core.parameter.RealParameter;
+import beast.core.util.CompoundDistribution;
+import beast.evolution.alignment.Taxon;
+import beast.evolution.alignment.TaxonSet;
+import beast.evolution.speciation.GeneTreeForSpeciesTreeDistribution;
+import beast.evolution.speciation.SpeciesTreePrior;
+import beast.evolution.speciation.TreeTopFinder;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.Tree;
+import beast.util.TreeParser;
+import junit.framework.TestCase;
+
+public class GeneTreeForSpeciesTreeDistributionTest extends TestCase {
+
+    static TaxonSet species(String id, String... lineages) {
+        List<Taxon> taxa = new ArrayList<>();
+        for (String lineage : lineages) {
+            taxa.add(new Taxon(lineage));
+        }
+        return new TaxonSet(id, taxa);
+    }
+
+    static void moveNode(Tree tree, Random random) {
+        Node node = tree.getNode(tree.getLeafNodeCount() + random.nextInt(tree.getInternalNodeCount()));
+        double lower = Math.max(node.getLeft().getHeight(), node.getRight().getHeight());
+        double upper = node.isRoot() ? lower + 1 : node.getParent().getHeight();
+        tree.startEditing(null);
+        node.setHeight(lower + (upper - lower) * random.nextDouble());
+    }
+
+    /** swaps a grandchild of the root with its uncle, as Exchange does, if heights allow it **/
+    static void exchange(Tree tree, Random random) {
+        Node root = tree.getRoot();
+        Node parent = random.nextBoolean() ? root.getLeft() : root.getRight();
+        Node uncle = parent == root.getLeft() ? root.getRight() : root.getLeft();
+        if (parent.isLeaf() || uncle.getHeight() >= parent.getHeight()) {
+            return;
+        }
+        Node child = random.nextBoolean() ? parent.getLeft() : parent.getRight();
+        tree.startEditing(null);
+        root.removeChild(uncle);
+        root.addChild(child);
+        parent.removeChild(child);
+        parent.addChild(uncle);
+        root.makeDirty(Tree.IS_FILTHY);
+        parent.makeDirty(Tree.IS_FILTHY);
+        child.makeDirty(Tree.IS_FILTHY);
+        uncle.makeDirty(Tree.IS_FILTHY);
+    }
+
+    /**
+     * changes gene trees, the species tree and population sizes the way the MCMC does, and checks
+     * the gene tree densities against those of fresh distributions
+     */
+    private void checkDensities(String popFunction) throws Exception {
+        List<Taxon> species = new ArrayList<>();
+        species.add(species("A", "a1", "a2"));
+        species.add(species("B", "b1", "b2"));
+        species.add(species("C", "c1", "c2"));
+        TaxonSet taxonSuperset = new TaxonSet(species);
+
+        Tree speciesTree = new TreeParser("((A:1.0,B:1.0):1.0,C:2.0);", false);
+        Tree[] geneTrees = {
+                new TreeParser("(((a1:0.5,a2:0.5):1.0,(b1:0.3,b2:0.3):1.2):1.0,(c1:1.0,c2:1.0):1.5);", false),
+                new TreeParser("((a1:1.5,(b1:0.2,b2:0.2):1.3):1.5,(a2:2.5,(c1:0.7,c2:0.7):1.8):0.5);", false)
+        };
+        RealParameter popSizesBottom = new RealParameter("1.0");
+        RealParameter popSizesTop = new RealParameter("1.0");
+        RealParameter gammaParameter = new RealParameter("1.0");
+        SpeciesTreePrior prior = new SpeciesTreePrior();
+        prior.initByName("tree", speciesTree, "popFunction", popFunction, "taxonset", taxonSuperset,
+                "bottomPopSize", popSizesBottom, "topPopSize", popSizesTop, "gammaParameter", gammaParameter);
+        TreeTopFinder treeTop = new TreeTopFinder();
+        treeTop.initByName("tree", geneTrees[0], "tree", geneTrees[1]);
+
+        List<Distribution> geneTreeDistributions = new ArrayList<>();
+        for (Tree geneTree : geneTrees) {
+            GeneTreeForSpeciesTreeDistribution distribution = new GeneTreeForSpeciesTreeDistribution();
+            distribution.initByName("tree", geneTree, "speciesTree", speciesTree, "speciesTreePrior", prior,
+                    "treetop", treeTop);
+            geneTreeDistributions.add(distribution);
+        }
+        CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName("distribution", geneTreeDistributions);
+
+        State state = new State();
+        state.initByName("stateNode", speciesTree, "stateNode", geneTrees[0], "stateNode", geneTrees[1],
+                "stateNode", popSizesBottom, "stateNode", popSizesTop, "stateNode", gammaParameter);
+        state.initialise();
+        state.setPosterior(posterior);
+        state.robustlyCalcPosterior(posterior);
+
+        Random random = new Random(1);
+        for (int step = 0; step < 1000; step++) {
+            state.store(step);
+            switch (random.nextInt(6)) {
+                case 0:
+                case 1:
+                    moveNode(geneTrees[random.nextInt(2)], random);
+                    break;
+                case 2:
+                    moveNode(speciesTree, random);
+                    break;
+                case 3:
+                    exchange(speciesTree, random);
+                    break;
+                case 4:
+                    if (random.nextBoolean()) {
+                        popSizesBottom.setValue(random.nextInt(popSizesBottom.getDimension()), 0.5 + random.nextDouble());
+                    } else {
+                        popSizesTop.setValue(random.nextInt(popSizesTop.getDimension()), 0.5 + random.nextDouble());
+                    }
+                    break;
+                default:
+                    // does not affect gene trees
+                    gammaParameter.setValue(0.5 + random.nextDouble());
+            }
+            state.storeCalculationNodes();
+            state.checkCalculationNodesDirtiness();
+            if (Double.isInfinite(posterior.calculateLogP())) {
+                // gene trees do not fit the species tree, so the MCMC rejects
+                state.restore();
+                state.restoreCalculationNodes();
+                state.setEverythingDirty(false);
+                continue;
+            }
+
+            for (int i = 0; i < geneTrees.length; i++) {
+                SpeciesTreePrior expectedPrior = new SpeciesTreePrior();
+                expectedPrior.initByName("tree", speciesTree, "popFunction", popFunction, "taxonset", taxonSuperset,
+                        "bottomPopSize", popSizesBottom, "topPopSize", popSizesTop, "gammaParameter", gammaParameter);
+                GeneTreeForSpeciesTreeDistribution expected = new GeneTreeForSpeciesTreeDistribution();
+                expected.initByName("tree", geneTrees[i], "speciesTree", speciesTree, "speciesTreePrior", expectedPrior,
+                        "treetop", treeTop);
+                final double logP = expected.calculateLogP();
+                assertEquals(logP, geneTreeDistributions.get(i).getCurrentLogP(), Math.abs(logP) * 1e-12);
+            }
+
+            if (random.nextBoolean()) {
+                state.acceptCalculationNodes();
+            } else {
+                state.restore();
+                state.restoreCalculationNodes();
+            }
+            state.setEverythingDirty(false);
+        }
+    }
+
+    @Test
+    public void testSpeciesTreeChangeAboveGeneTree() throws Exception {
+        List<Taxon> species = new ArrayList<>();
+        species.add(species("A", "a1", "a2"));
+        species.add(species("B", "b1", "b2"));
+        TaxonSet taxonSuperset = new TaxonSet(species);
+
+        Tree speciesTree = new TreeParser("(A:3.0,B:3.0);", false);
+        Tree geneTree = new TreeParser("((a1:1.0,a2:1.0):1.5,(b1:0.5,b2:0.5):2.0);", false);
+        RealParameter popSizesBottom = new RealParameter("1.0");
+        SpeciesTreePrior prior = new SpeciesTreePrior();
+        prior.initByName("tree", speciesTree, "popFunction", "constant", "taxonset", taxonSuperset,
+                "bottomPopSize", popSizesBottom, "gammaParameter", new RealParameter("1.0"));
+        GeneTreeForSpeciesTreeDistribution distribution = new GeneTreeForSpeciesTreeDistribution();
+        distribution.initByName("tree", geneTree, "speciesTree", speciesTree, "speciesTreePrior", prior);
+        CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName("distribution", distribution);
+
+        State state = new State();
+        state.initByName("stateNode", speciesTree, "stateNode", geneTree, "stateNode", popSizesBottom);
+        state.initialise();
+        state.setPosterior(posterior);
+        state.robustlyCalcPosterior(posterior);
+
+        // the species tree root moves, but stays above the gene tree root at 2.5
+        for (double height : new double[]{4.0, 2.6}) {
+            state.store(0);
+            speciesTree.startEditing(null);
+            speciesTree.getRoot().setHeight(height);
+            state.storeCalculationNodes();
+            state.checkCalculationNodesDirtiness();
+            assertFalse(distribution.isDirtyCalculation());
+            posterior.calculateLogP();
+            state.acceptCalculationNodes();
+            state.setEverythingDirty(false);
+        }
+
+        // the species tree root moves below the gene tree root
+        state.store(0);
+        speciesTree.startEditing(null);
+        speciesTree.getRoot().setHeight(2.0);
+        state.storeCalculationNodes();
+        state.checkCalculationNodesDirtiness();
+        assertTrue(distribution.isDirtyCalculation());
+        final double logP = posterior.calculateLogP();
+        state.restore();
+        state.restoreCalculationNodes();
+        state.setEverythingDirty(false);
+
+        // after the rejected move, moving the root above the gene tree again is compared to the accepted tree
+        state.store(0);
+        speciesTree.startEditing(null);
+        speciesTree.getRoot().setHeight(3.0);
+        state.storeCalculationNodes();
+        state.checkCalculationNodesDirtiness();
+        assertFalse(distribution.isDirtyCalculation());
+        assertFalse(logP == posterior.calculateLogP());
+    }
+
+    @Test
+    public void testConstant() throws Exception {
+        checkDensities("constant");
+    }
+
+    @Test
+    public void testLinear() throws Exception {
+        checkDensities("linear");
+    }
+
+    @Test
+    public void testLinearWithConstantRoot() throws Exception {
+        checkDensities("linear_with_constant_root");
+    }
+}
@@ -3,6 +3,7 @@ package test.beast.evolution.speciation;
 import junit.framework.TestCase;
 import beast.core.parameter.RealParameter;
 import beast.evolution.speciation.YuleModel;
+import beast.evolution.tree.Node;
 import beast.evolution.tree.Tree;
 import beast.util.TreeParser;
 import org.junit.Test;
@@ -42,4 +43,23 @@ public class YuleModelTest extends TestCase {
 
     }
 
+    @Test
+    public void testNodeProbabilityOverride() throws Exception {
+        // subclasses that override the node term are used for every internal node
+        Tree tree = new TreeParser("(((A:1.0,B:1.0):1.0,C:2.0):0.5,D:2.5);",false);
+        YuleModel yule = new YuleModel();
+        yule.initByName("tree", tree, "birthDiffRate", new RealParameter("2."));
+        YuleModel shifted = new YuleModel() {
+            @Override
+            protected double calcLogNodeProbability(Node node, double r, double rho, double a, int taxonCount) {
+                return super.calcLogNodeProbability(node, r, rho, a, taxonCount) + 1.0;
+            }
+        };
+        shifted.initByName("tree", tree, "birthDiffRate", new RealParameter("2."));
+
+        assertEquals(yule.calculateTreeLogLikelihood(tree) + 3.0, shifted.calculateTreeLogLikelihood(tree), 1e-12);
+        tree.getNode(4).setHeight(1.5);
+        assertEquals(yule.calculateTreeLogLikelihood(tree) + 3.0, shifted.calculateTreeLogLikelihood(tree), 1e-12);
+    }
+
 }
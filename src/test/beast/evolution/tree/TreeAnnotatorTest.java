@@ -3,15 +3,20 @@ package test.beast.evolution.tree;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Map;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import beast.app.beauti.BeautiDoc;
+import beast.app.treeannotator.AttributeSummary;
 import beast.app.treeannotator.CladeSystem;
+import beast.app.treeannotator.ContourWithSynder;
+import beast.app.treeannotator.FFTContourWithSynder;
 import beast.app.treeannotator.TreeAnnotator;
 import beast.evolution.tree.Tree;
 import beast.util.TreeParser;
@@ -161,6 +166,173 @@ public class TreeAnnotatorTest {
         Assert.assertEquals(1, maxScoreLogIndex);
     }
     
+    @Test
+    public void testCladeSystemAddAll() throws Exception {
+        // clades counted in parts and merged give the same counts as counted at once
+        CladeSystem part1 = new CladeSystem();
+        CladeSystem part2 = new CladeSystem();
+        part1.add(treesSA[0], false);
+        part1.add(treesSA[1], false);
+        part2.add(treesSA[2], false);
+        part2.add(treesSA[3], false);
+        for (Tree tree : treesSA) {
+            cladeSystemSA.add(tree, false);
+        }
+        CladeSystem merged = new CladeSystem();
+        merged.addAll(part1);
+        merged.addAll(part2);
+
+        Assert.assertEquals(cladeSystemSA.getCladeMap().size(), merged.getCladeMap().size());
+        for (Map.Entry<BitSet, CladeSystem.Clade> entry : cladeSystemSA.getCladeMap().entrySet()) {
+            Assert.assertEquals(entry.getValue().getCount(), merged.getCladeMap().get(entry.getKey()).getCount());
+        }
+    }
+
+    @Test
+    public void testCladeKeysLargeTree() throws Exception {
+        // caterpillar on 100 taxa, so clade keys span several words
+        String newick = "t0:1.0";
+        for (int i = 1; i < 100; i++) {
+            newick = "(" + newick + ",t" + i + ":" + i + ".0):1.0";
+        }
+        Tree tree = new TreeParser(newick + ";", false, false, true, 0);
+        cladeSystem.add(tree, false);
+        cladeSystem.add(tree, false);
+        Assert.assertEquals(99, cladeSystem.getCladeCount());
+
+        Map<BitSet, CladeSystem.Clade> map = cladeSystem.getCladeMap();
+        for (Map.Entry<BitSet, CladeSystem.Clade> entry : map.entrySet()) {
+            Assert.assertEquals(2, entry.getValue().getCount());
+            Assert.assertSame(entry.getValue(), cladeSystem.getClade((BitSet) entry.getKey().clone()));
+            Assert.assertEquals(entry.getKey(), entry.getValue().getBits());
+        }
+        BitSet root = cladeSystem.removeClades(tree.getRoot(), false);
+        Assert.assertEquals(100, root.cardinality());
+        Assert.assertEquals(1, cladeSystem.getClade(root).getCount());
+
+        // the map is a view of the clade system
+        Assert.assertSame(map, cladeSystem.getCladeMap());
+        cladeSystem.add(tree, true);
+        Assert.assertEquals(199, map.size());
+        Assert.assertEquals(2, map.get(root).getCount());
+        Assert.assertTrue(map.containsKey(root));
+        CladeSystem.Clade clade = map.remove(root);
+        Assert.assertNull(cladeSystem.getClade(root));
+        Assert.assertEquals(198, cladeSystem.getCladeCount());
+        map.put(root, clade);
+        Assert.assertSame(clade, cladeSystem.getClade(root));
+        map.entrySet().removeIf(entry -> entry.getKey().cardinality() == 1);
+        Assert.assertEquals(99, cladeSystem.getCladeCount());
+    }
+
+    @Test
+    public void testAttributeSummary() throws Exception {
+        Random random = new Random(123);
+        final int n = 20000, capacity = 100;
+        double[] values = new double[n];
+        AttributeSummary summary = new AttributeSummary(capacity, false);
+        AttributeSummary first = new AttributeSummary(capacity, false);
+        AttributeSummary second = new AttributeSummary(capacity, false);
+        for (int i = 0; i < n; i++) {
+            values[i] = Math.exp(random.nextGaussian());
+            summary.add(values[i]);
+            (i < n / 3 ? first : second).add(values[i]);
+        }
+        first.merge(second);
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        // rank error bound of the class comment
+        int levels = (int) Math.ceil(Math.log((double) n / capacity) / Math.log(2));
+        double maxRankError = (double) n * levels / capacity;
+        for (AttributeSummary s : new AttributeSummary[]{summary, first}) {
+            AttributeSummary.QuantileSketch sketch = s.getSketch();
+            Assert.assertEquals(AttributeSummary.Type.NUMBER, s.getType());
+            Assert.assertFalse(sketch.isExact());
+            Assert.assertEquals(n, sketch.getCount());
+            Assert.assertEquals(Arrays.stream(values).sum() / n, sketch.getMean(), 1e-10);
+            Assert.assertEquals(sorted[0], sketch.getMin(), 0.0);
+            Assert.assertEquals(sorted[n - 1], sketch.getMax(), 0.0);
+            Assert.assertTrue(s.getSketch().getValues().length < n / 10);
+
+            Assert.assertEquals(n / 2, rank(sorted, sketch.getMedian()), maxRankError);
+            double[] hpd = sketch.getHPD(0.95);
+            Assert.assertEquals(0.95 * n, rank(sorted, hpd[1]) - rank(sorted, hpd[0]), 2 * maxRankError);
+        }
+
+        // exact while no more values than capacity are added
+        AttributeSummary small = new AttributeSummary(capacity, false);
+        for (int i = 0; i < capacity - 1; i++) {
+            small.add(values[i]);
+        }
+        Assert.assertTrue(small.getSketch().isExact());
+        Assert.assertArrayEquals(Arrays.copyOf(values, capacity - 1), small.getSketch().getValues(), 0.0);
+        small.add(values[capacity - 1]);
+        Assert.assertTrue(small.getSketch().isExact());
+        Assert.assertArrayEquals(Arrays.copyOf(values, capacity), small.getSketch().getValues(), 0.0);
+        small.add(values[capacity]);
+        Assert.assertFalse(small.getSketch().isExact());
+        Assert.assertEquals(capacity + 1, small.getSketch().getCount());
+
+        // discrete traits are counted, and pairs sampled up to capacity
+        AttributeSummary discrete = new AttributeSummary(capacity, true);
+        AttributeSummary pairs = new AttributeSummary(capacity, false);
+        for (int i = 0; i < 1000; i++) {
+            discrete.add(i % 3);
+            pairs.add(new Object[]{values[i], values[i + 1]});
+        }
+        Assert.assertEquals(AttributeSummary.Type.DISCRETE, discrete.getType());
+        Assert.assertEquals(334, (int) discrete.getFrequencies().get(0));
+        Assert.assertEquals(AttributeSummary.Type.DOUBLE_ARRAY, pairs.getType());
+        Assert.assertEquals(capacity, pairs.getPairs()[0].length);
+        Assert.assertTrue(pairs.varies(0) && pairs.varies(1));
+
+        // merging samples pairs from the other summary without changing it
+        AttributeSummary otherPairs = new AttributeSummary(capacity, false);
+        for (int i = 0; i < 500; i++) {
+            otherPairs.add(new Object[]{values[i + 2000], values[i + 3000]});
+        }
+        double[][] otherBefore = otherPairs.getPairs();
+        pairs.merge(otherPairs);
+        Assert.assertEquals(capacity, pairs.getPairs()[0].length);
+        Assert.assertArrayEquals(otherBefore[0], otherPairs.getPairs()[0], 0.0);
+        Assert.assertArrayEquals(otherBefore[1], otherPairs.getPairs()[1], 0.0);
+    }
+
+    @Test
+    public void testFFTKernelDensity() throws Exception {
+        Random random = new Random(42);
+        final int n = 5000;
+        double[] x = new double[n], y = new double[n];
+        for (int i = 0; i < n; i++) {
+            // two modes, correlated
+            double shift = i % 3 == 0 ? 4 : 0;
+            x[i] = random.nextGaussian() + shift;
+            y[i] = 0.5 * x[i] + random.nextGaussian() * 0.7 - shift;
+        }
+        ContourWithSynder direct = new ContourWithSynder(x, y, false);
+        FFTContourWithSynder fft = new FFTContourWithSynder(x, y, false);
+        Assert.assertArrayEquals(direct.getXGrid(), fft.getXGrid(), 0.0);
+
+        double max = 0, maxDiff = 0;
+        for (int i = 0; i < direct.getKDE().length; i++) {
+            for (int j = 0; j < direct.getKDE()[i].length; j++) {
+                max = Math.max(max, direct.getKDE()[i][j]);
+                maxDiff = Math.max(maxDiff, Math.abs(direct.getKDE()[i][j] - fft.getKDE()[i][j]));
+            }
+        }
+        Assert.assertTrue("relative error " + maxDiff / max, maxDiff / max < 0.01);
+        Assert.assertEquals(direct.findLevelCorrespondingToMass(0.8), fft.findLevelCorrespondingToMass(0.8),
+                0.01 * direct.findLevelCorrespondingToMass(0.8));
+        Assert.assertEquals(direct.getContourPaths(0.8).length, fft.getContourPaths(0.8).length);
+    }
+
+    /** @return number of values smaller than x **/
+    private int rank(double[] sorted, double x) {
+        int i = Arrays.binarySearch(sorted, x);
+        return i >= 0 ? i : -i - 1;
+    }
+
     @Test
     public void testNewickTargetTree() throws Exception {
     	// create target tree file in temp folder
@@ -1,8 +1,21 @@
 package test.beast.evolution.tree;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import org.junit.Test;
 
+import beast.core.Operator;
+import beast.core.State;
+import beast.evolution.operators.Exchange;
+import beast.evolution.operators.ScaleOperator;
+import beast.evolution.operators.SubtreeSlide;
+import beast.evolution.operators.Uniform;
+import beast.evolution.operators.WilsonBalding;
 import beast.evolution.tree.Node;
+import beast.evolution.tree.Tree;
+import beast.evolution.tree.TreeArrays;
+import beast.util.Randomizer;
 import beast.util.TreeParser;
 import junit.framework.TestCase;
 
@@ -41,4 +54,74 @@ public class TreeTest extends TestCase {
         assertEquals(4.0, node[6].getHeight(), EPSILON);
 		
 	}
+
+	/** tree arrays should follow the tree through proposals, restores and cleaning **/
+	@Test
+	public void testTreeArrays() throws Exception {
+        Randomizer.setSeed(123);
+        Tree tree = new TreeParser("((((0:1.0,1:1.0):0.5,2:1.5):1.0,(3:0.7,4:0.7):1.8):0.4,(5:2.1,(6:1.1,7:1.1):1.0):0.8);", false);
+        State state = new State();
+        state.initByName("stateNode", tree);
+        state.initialise();
+        SubtreeSlide slide = new SubtreeSlide();
+        slide.initByName("tree", tree, "size", 0.5, "weight", 1.0);
+        Exchange exchange = new Exchange();
+        exchange.initByName("tree", tree, "weight", 1.0);
+        Exchange wide = new Exchange();
+        wide.initByName("tree", tree, "isNarrow", false, "weight", 1.0);
+        WilsonBalding wilsonBalding = new WilsonBalding();
+        wilsonBalding.initByName("tree", tree, "weight", 1.0);
+        Uniform uniform = new Uniform();
+        uniform.initByName("tree", tree, "weight", 1.0);
+        ScaleOperator scale = new ScaleOperator();
+        scale.initByName("tree", tree, "scaleFactor", 0.9, "weight", 1.0);
+        Operator[] operators = {slide, exchange, wide, wilsonBalding, uniform, scale};
+
+        checkTreeArrays(tree);
+        for (int step = 0; step < 1000; step++) {
+            state.store(step);
+            operators[Randomizer.nextInt(operators.length)].proposal();
+            // the view is not always used, so changes of several steps may have to be caught up with
+            if (Randomizer.nextBoolean()) {
+                checkTreeArrays(tree);
+            }
+            if (Randomizer.nextBoolean()) {
+                state.restore();
+                if (Randomizer.nextBoolean()) {
+                    checkTreeArrays(tree);
+                }
+            }
+            state.setEverythingDirty(false);
+            if (Randomizer.nextBoolean()) {
+                checkTreeArrays(tree);
+            }
+        }
+	}
+
+	private void checkTreeArrays(Tree tree) {
+        TreeArrays arrays = tree.getTreeArrays();
+        assertEquals(tree.getRoot().getNr(), arrays.getRootNr());
+        for (Node node : tree.getNodesAsArray()) {
+            int nr = node.getNr();
+            assertEquals(node.isRoot() ? -1 : node.getParent().getNr(), arrays.getParents()[nr]);
+            assertEquals(node.isLeaf() ? -1 : node.getLeft().getNr(), arrays.getLefts()[nr]);
+            assertEquals(node.isLeaf() ? -1 : node.getRight().getNr(), arrays.getRights()[nr]);
+            assertEquals(node.getHeight(), arrays.getHeights()[nr]);
+            assertEquals(node.isDirty(), arrays.getDirty()[nr]);
+        }
+        Set<Integer> grandParents = new HashSet<>();
+        for (Node node : tree.getNodesAsArray()) {
+            if (!node.isLeaf() && (!node.getLeft().isLeaf() || !node.getRight().isLeaf())) {
+                grandParents.add(node.getNr());
+            }
+        }
+        assertEquals(grandParents.size(), arrays.getGrandParentCount());
+        for (int i = 0; i < arrays.getGrandParentCount(); i++) {
+            assertTrue(grandParents.contains(arrays.getGrandParents()[i]));
+        }
+        Node[] postOrder = tree.listNodesPostOrder(null, null);
+        for (int i = 0; i < postOrder.length; i++) {
+            assertEquals(postOrder[i].getNr(), arrays.getPostOrder()[i]);
+        }
+	}
 }
@@ -0,0 +1,86 @@
+package test.beast.evolution.tree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import beast.evolution.tree.Tree;
+import beast.evolution.tree.TreeTraceAnalysis;
+import beast.util.TreeParser;
+import junit.framework.TestCase;
+
+public class TreeTraceAnalysisTest extends TestCase {
+
+	/** random topology on taxa, built by joining random pairs, with random child order **/
+	private static Tree randomTree(String[] taxa, Random random) {
+		List<String> clades = new ArrayList<>();
+		List<Double> heights = new ArrayList<>();
+		for (String taxon : taxa) {
+			clades.add(taxon);
+			heights.add(0.0);
+		}
+		double height = 0;
+		while (clades.size() > 1) {
+			height += random.nextDouble();
+			int i = random.nextInt(clades.size());
+			String left = clades.remove(i) + ":" + (height - heights.remove(i));
+			int j = random.nextInt(clades.size());
+			String right = clades.remove(j) + ":" + (height - heights.remove(j));
+			clades.add("(" + left + "," + right + ")");
+			heights.add(height);
+		}
+		return new TreeParser(clades.get(0) + ";");
+	}
+
+	@Test
+	public void testTopologyCounts() {
+		String[] taxa = {"A", "B", "C", "D", "E"};
+		Random random = new Random(3);
+		List<Tree> trees = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			trees.add(randomTree(taxa, random));
+		}
+
+		TreeTraceAnalysis expected = new TreeTraceAnalysis();
+		Map<String, Integer> counts = new HashMap<>();
+		for (Tree tree : trees.subList(500, trees.size())) {
+			counts.merge(expected.uniqueNewick(tree), 1, Integer::sum);
+		}
+
+		try {
+			for (int threads : new int[]{1, 4}) {
+				TreeTraceAnalysis.setThreadCount(threads);
+				TreeTraceAnalysis analysis = new TreeTraceAnalysis(trees, 0.1);
+				assertEquals(4500, analysis.getNTrees());
+				assertEquals(counts, analysis.getTopologyCounts());
+
+				analysis.computeCredibleSet(0.5);
+				int sum = 0;
+				for (String topology : analysis.getTopologyCounts().keySet()) {
+					sum += analysis.getTopologyCounts().get(topology);
+				}
+				assertEquals(4500, sum);
+			}
+		} finally {
+			TreeTraceAnalysis.setThreadCount(Runtime.getRuntime().availableProcessors());
+		}
+	}
+
+	@Test
+	public void testTopologyHash() {
+		TreeTraceAnalysis analysis = new TreeTraceAnalysis();
+		long[] hash = analysis.topologyHash(new TreeParser("((A:1,B:1):1,(C:0.5,D:0.5):1.5);"));
+		// child order and branch lengths do not matter
+		long[] hash2 = analysis.topologyHash(new TreeParser("((D:1,C:1):2,(B:0.5,A:0.5):2.5);"));
+		assertEquals(hash[0], hash2[0]);
+		assertEquals(hash[1], hash2[1]);
+		// the topology does
+		long[] hash3 = analysis.topologyHash(new TreeParser("((A:1,C:1):1,(B:0.5,D:0.5):1.5);"));
+		assertTrue(hash[0] != hash3[0]);
+		assertTrue(hash[1] != hash3[1]);
+	}
+}
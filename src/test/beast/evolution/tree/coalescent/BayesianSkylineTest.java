@@ -1,8 +1,11 @@
 package test.beast.evolution.tree.coalescent;
 
 
+import java.util.Random;
+
 import org.junit.Test;
 
+import beast.evolution.tree.Node;
 import beast.evolution.tree.Tree;
 import beast.evolution.tree.coalescent.BayesianSkyline;
 import beast.evolution.tree.coalescent.TreeIntervals;
@@ -39,4 +42,52 @@ public class BayesianSkylineTest extends TestCase {
 
     }
 
+    @Test
+    public void testIncrementalUpdates() throws Exception {
+        Random random = new Random(9);
+        Tree tree = TreeIntervalsTest.randomTree(100, random);
+        TreeIntervalsTest.StorableTreeIntervals intervals = new TreeIntervalsTest.StorableTreeIntervals(tree);
+
+        BayesianSkyline skyline = new BayesianSkyline();
+        skyline.initByName("popSizes", "1.0 2.0 0.5 4.0 3.0",
+                "groupSizes", "20 30 9 20 20",
+                "treeIntervals", intervals);
+        final Node[] nodes = tree.getNodesAsArray();
+        final double[] storedHeights = new double[nodes.length];
+
+        for (int step = 0; step < 1000; step++) {
+            intervals.doStore();
+            skyline.store();
+            for (int i = 0; i < nodes.length; i++) {
+                storedHeights[i] = nodes[i].getHeight();
+            }
+
+            Node node = nodes[tree.getLeafNodeCount() + random.nextInt(tree.getInternalNodeCount())];
+            double lower = Math.max(node.getLeft().getHeight(), node.getRight().getHeight());
+            double upper = node.isRoot() ? lower + 1 : node.getParent().getHeight();
+            node.setHeight(lower + (upper - lower) * random.nextDouble());
+            intervals.setIntervalsUnknown();
+
+            // population size at the middle of every interval, as the likelihood was calculated before
+            double expectedLogL = 0;
+            double time = 0;
+            for (int j = 0; j < intervals.getIntervalCount(); j++) {
+                double popSize = skyline.getPopSize(time + intervals.getInterval(j) / 2.0);
+                expectedLogL += BayesianSkyline.calculateIntervalLikelihood(popSize, intervals.getInterval(j), time,
+                        intervals.getLineageCount(j), intervals.getIntervalType(j));
+                time += intervals.getInterval(j);
+            }
+            assertEquals("step " + step, expectedLogL, skyline.calculateLogP(), Math.abs(expectedLogL) * 1e-12);
+
+            if (random.nextBoolean()) {
+                // reject
+                for (int i = 0; i < nodes.length; i++) {
+                    nodes[i].setHeight(storedHeights[i]);
+                }
+                intervals.doRestore();
+                skyline.restore();
+            }
+        }
+    }
+
 }
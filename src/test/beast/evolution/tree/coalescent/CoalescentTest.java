@@ -1,9 +1,13 @@
 package test.beast.evolution.tree.coalescent;
 
+import java.util.Random;
+
 import beast.evolution.alignment.Alignment;
+import beast.evolution.tree.Node;
 import beast.evolution.tree.Tree;
 import beast.evolution.tree.coalescent.Coalescent;
 import beast.evolution.tree.coalescent.ConstantPopulation;
+import beast.evolution.tree.coalescent.ExponentialGrowth;
 import beast.evolution.tree.coalescent.TreeIntervals;
 import test.beast.BEASTTestCase;
 
@@ -59,4 +63,50 @@ public class CoalescentTest extends BEASTTestCase {
 
     }
 
+    public void testIncrementalUpdates() throws Exception {
+        Random random = new Random(5);
+        Tree tree = TreeIntervalsTest.randomTree(100, random);
+        TreeIntervalsTest.StorableTreeIntervals intervals = new TreeIntervalsTest.StorableTreeIntervals(tree);
+
+        ExponentialGrowth growth = new ExponentialGrowth();
+        growth.initByName("popSize", "3.0", "growthRate", "0.5");
+
+        Coalescent coal = new Coalescent();
+        coal.initByName("treeIntervals", intervals, "populationModel", growth);
+        final Node[] nodes = tree.getNodesAsArray();
+        final double[] storedHeights = new double[nodes.length];
+        double storedLogL = coal.calculateLogP();
+
+        for (int step = 0; step < 1000; step++) {
+            intervals.doStore();
+            coal.store();
+            for (int i = 0; i < nodes.length; i++) {
+                storedHeights[i] = nodes[i].getHeight();
+            }
+
+            Node node = nodes[tree.getLeafNodeCount() + random.nextInt(tree.getInternalNodeCount())];
+            double lower = Math.max(node.getLeft().getHeight(), node.getRight().getHeight());
+            double upper = node.isRoot() ? lower + 1 : node.getParent().getHeight();
+            node.setHeight(lower + (upper - lower) * random.nextDouble());
+            intervals.setIntervalsUnknown();
+
+            double logL = coal.calculateLogP();
+            double expected = coal.calculateLogLikelihood(new TreeIntervals(tree), growth);
+            assertEquals(expected, logL, Math.abs(expected) * 1e-12);
+
+            if (random.nextBoolean()) {
+                // reject
+                for (int i = 0; i < nodes.length; i++) {
+                    nodes[i].setHeight(storedHeights[i]);
+                }
+                intervals.doRestore();
+                coal.restore();
+                assertEquals(storedLogL, coal.getCurrentLogP(), 0.0);
+                // the next move starts from the restored intervals
+                logL = storedLogL;
+            }
+            storedLogL = logL;
+        }
+    }
+
 }
@@ -0,0 +1,121 @@
+package test.beast.evolution.tree.coalescent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import beast.evolution.tree.Node;
+import beast.evolution.tree.Tree;
+import beast.evolution.tree.coalescent.TreeIntervals;
+import beast.util.TreeParser;
+import junit.framework.TestCase;
+
+public class TreeIntervalsTest extends TestCase {
+
+    /** exposes store and restore, which the MCMC calls otherwise **/
+    static class StorableTreeIntervals extends TreeIntervals {
+        StorableTreeIntervals(Tree tree) {
+            super(tree);
+        }
+
+        void doStore() {
+            store();
+        }
+
+        void doRestore() {
+            restore();
+        }
+    }
+
+    /** random tree with some tips sampled at different times **/
+    static Tree randomTree(int taxonCount, Random random) {
+        List<String> clades = new ArrayList<>();
+        List<Double> heights = new ArrayList<>();
+        for (int i = 0; i < taxonCount; i++) {
+            clades.add("t" + i);
+            heights.add(i % 3 == 0 ? random.nextDouble() : 0.0);
+        }
+        double height = 1;
+        while (clades.size() > 1) {
+            height += random.nextDouble() / clades.size();
+            int i = random.nextInt(clades.size());
+            String left = clades.remove(i) + ":" + (height - heights.remove(i));
+            int j = random.nextInt(clades.size());
+            String right = clades.remove(j) + ":" + (height - heights.remove(j));
+            clades.add("(" + left + "," + right + ")");
+            heights.add(height);
+        }
+        return new TreeParser(clades.get(0) + ";", false, false, true, 0);
+    }
+
+    /** scale heights of internal nodes below and including node, keeping them above their children **/
+    static void scale(Node node, double scale) {
+        if (!node.isLeaf()) {
+            scale(node.getLeft(), scale);
+            scale(node.getRight(), scale);
+            double lower = Math.max(node.getLeft().getHeight(), node.getRight().getHeight());
+            node.setHeight(Math.max(lower + 1e-6, node.getHeight() * scale));
+        }
+    }
+
+    static void assertSameIntervals(TreeIntervals expected, TreeIntervals actual) {
+        assertEquals(expected.getIntervalCount(), actual.getIntervalCount());
+        for (int i = 0; i < expected.getIntervalCount(); i++) {
+            assertEquals(expected.getInterval(i), actual.getInterval(i), 0.0);
+            assertEquals(expected.getLineageCount(i), actual.getLineageCount(i));
+            assertEquals(expected.getIntervalType(i), actual.getIntervalType(i));
+        }
+        assertEquals(expected.getTotalDuration(), actual.getTotalDuration(), 1e-10);
+    }
+
+    @Test
+    public void testIncrementalUpdates() {
+        for (double multifurcationLimit : new double[]{-1.0, 0.0}) {
+            Random random = new Random(11);
+            Tree tree = randomTree(100, random);
+            StorableTreeIntervals intervals = new StorableTreeIntervals(tree);
+            intervals.setMultifurcationLimit(multifurcationLimit);
+            final Node[] nodes = tree.getNodesAsArray();
+            final double[] storedHeights = new double[nodes.length];
+
+            for (int step = 0; step < 2000; step++) {
+                intervals.doStore();
+                for (int i = 0; i < nodes.length; i++) {
+                    storedHeights[i] = nodes[i].getHeight();
+                }
+
+                if (step % 50 == 0) {
+                    // scale all internal nodes, keeping them above their children
+                    scale(tree.getRoot(), 0.9 + 0.2 * random.nextDouble());
+                } else {
+                    // move one to three internal nodes between their children and parent
+                    final int count = 1 + random.nextInt(3);
+                    for (int k = 0; k < count; k++) {
+                        Node node = nodes[tree.getLeafNodeCount() + random.nextInt(tree.getInternalNodeCount())];
+                        double lower = Math.max(node.getLeft().getHeight(), node.getRight().getHeight());
+                        double upper = node.isRoot() ? lower + 1 : node.getParent().getHeight();
+                        node.setHeight(lower + (upper - lower) * random.nextDouble());
+                    }
+                }
+                intervals.setIntervalsUnknown();
+
+                TreeIntervals expected = new TreeIntervals(tree);
+                expected.setMultifurcationLimit(multifurcationLimit);
+                assertSameIntervals(expected, intervals);
+
+                if (random.nextBoolean()) {
+                    // reject
+                    for (int i = 0; i < nodes.length; i++) {
+                        nodes[i].setHeight(storedHeights[i]);
+                    }
+                    intervals.doRestore();
+                    expected = new TreeIntervals(tree);
+                    expected.setMultifurcationLimit(multifurcationLimit);
+                    assertSameIntervals(expected, intervals);
+                }
+            }
+        }
+    }
+}
@@ -3,14 +3,28 @@ package test.beast.math.distributions;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 import org.junit.Test;
 
+import beast.core.State;
 import beast.evolution.alignment.Alignment;
 import beast.evolution.alignment.Taxon;
 import beast.evolution.alignment.TaxonSet;
+import beast.evolution.operators.Exchange;
+import beast.evolution.operators.SubtreeSlide;
+import beast.evolution.operators.WilsonBalding;
+import beast.evolution.tree.CladeIndex;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.Tree;
+import beast.evolution.tree.TreeUtils;
 import beast.math.distributions.Exponential;
 import beast.math.distributions.MRCAPrior;
+import beast.util.Randomizer;
 import beast.util.TreeParser;
 import junit.framework.TestCase;
 import test.beast.BEASTTestCase;
@@ -138,4 +152,93 @@ public class MRCAPriorTest extends TestCase {
         assertEquals(-0.024003 - 0.012035, logP, BEASTTestCase.PRECISION);
     }
 
+    @Test
+    public void testCommonAncestorOnRandomTrees() throws Exception {
+        Random random = new Random(5);
+        for (int k = 0; k < 50; k++) {
+            // random topology on 30 taxa, with some zero length branches
+            List<String> clades = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                clades.add("t" + i + ":" + (random.nextInt(3) == 0 ? 0.0 : random.nextDouble()));
+            }
+            while (clades.size() > 1) {
+                String left = clades.remove(random.nextInt(clades.size()));
+                String right = clades.remove(random.nextInt(clades.size()));
+                clades.add("(" + left + "," + right + "):" + (random.nextInt(3) == 0 ? 0.0 : random.nextDouble()));
+            }
+            Tree tree = new TreeParser(clades.get(0) + ";", false, false, true, 0);
+
+            for (int j = 0; j < 20; j++) {
+                List<Taxon> taxa = new ArrayList<>();
+                Set<String> ids = new HashSet<>();
+                for (int i = 0; i < 30; i++) {
+                    if (random.nextInt(4) == 0 && ids.size() < 29) {
+                        ids.add("t" + i);
+                        taxa.add(new Taxon("t" + i));
+                    }
+                }
+                if (ids.size() < 2) {
+                    continue;
+                }
+                TaxonSet set = new TaxonSet(taxa);
+                MRCAPrior prior = new MRCAPrior();
+                prior.initByName("tree", tree, "taxonset", set, "monophyletic", true);
+
+                Node expected = TreeUtils.getCommonAncestorNode(tree, ids);
+                assertEquals(expected, prior.getCommonAncestor());
+                boolean monophyletic = expected.getLeafNodeCount() == ids.size();
+                assertEquals(monophyletic ? 0.0 : Double.NEGATIVE_INFINITY, prior.calculateLogP());
+            }
+        }
+    }
+
+    @Test
+    public void testCommonAncestorAfterTreeEdits() throws Exception {
+        Randomizer.setSeed(127);
+        Tree tree = new TreeParser("((((0:1.0,1:1.0):0.5,2:1.5):1.0,(3:0.7,4:0.7):1.8):0.4,(5:2.1,(6:1.1,7:1.1):1.0):0.8);", false);
+        State state = new State();
+        state.initByName("stateNode", tree);
+        state.initialise();
+        SubtreeSlide slide = new SubtreeSlide();
+        slide.initByName("tree", tree, "size", 0.5, "weight", 1.0);
+        Exchange wide = new Exchange();
+        wide.initByName("tree", tree, "isNarrow", false, "weight", 1.0);
+        WilsonBalding wilsonBalding = new WilsonBalding();
+        wilsonBalding.initByName("tree", tree, "weight", 1.0);
+
+        Set<String> ids = new HashSet<>();
+        List<Taxon> taxa = new ArrayList<>();
+        for (String id : new String[]{"1", "2", "5"}) {
+            ids.add(id);
+            taxa.add(new Taxon(id));
+        }
+        MRCAPrior prior = new MRCAPrior();
+        prior.initByName("tree", tree, "taxonset", new TaxonSet(taxa), "monophyletic", false);
+
+        CladeIndex index = tree.getCladeIndex();
+        int reused = 0;
+        for (int step = 0; step < 500; step++) {
+            state.store(step);
+            Node root = tree.getRoot();
+            switch (Randomizer.nextInt(3)) {
+                case 0: slide.proposal(); break;
+                case 1: wide.proposal(); break;
+                default: wilsonBalding.proposal(); break;
+            }
+            boolean rootChanged = tree.getRoot() != root;
+            assertEquals(TreeUtils.getCommonAncestorNode(tree, ids), prior.getCommonAncestor());
+            if (Randomizer.nextBoolean()) {
+                state.restore();
+                assertEquals(TreeUtils.getCommonAncestorNode(tree, ids), prior.getCommonAncestor());
+            }
+            state.setEverythingDirty(false);
+            // the index is updated in place, unless a new root was set
+            if (!rootChanged) {
+                assertSame(index, tree.getCladeIndex());
+                reused++;
+            }
+            index = tree.getCladeIndex();
+        }
+        assertTrue(reused > 0);
+    }
 }
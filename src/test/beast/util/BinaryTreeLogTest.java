@@ -0,0 +1,157 @@
+package test.beast.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import beast.core.parameter.RealParameter;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.Tree;
+import beast.evolution.tree.TreeWithMetaDataLogger;
+import beast.util.BinaryTreeLog;
+import beast.util.TreeParser;
+import junit.framework.TestCase;
+
+public class BinaryTreeLogTest extends TestCase {
+
+	final static String[] NEWICKS = {
+			"((A:1.0,B:1.0):2.0,((C:0.5,D:0.5):1.0,(E:0.25,F:0.25):1.25):1.5);",
+			// heights change only
+			"((A:1.5,B:1.5):1.5,((C:0.5,D:0.5):1.0,(E:0.25,F:0.25):1.25):1.5);",
+			// subtree prune and regraft of F
+			"((A:1.5,B:1.5):1.5,(((C:0.5,D:0.5):0.5,F:1.0):0.5,E:1.5):1.5);",
+			// tip dates
+			"((A:1.5,B:1.0):1.5,(((C:0.5,D:0.25):0.5,F:1.0):0.5,E:1.5):1.5);",
+			"(((A:0.1,B:0.1):0.1,C:0.2):0.3,(D:0.3,(E:0.2,F:0.2):0.1):0.2);"
+	};
+
+	/** writes NEWICKS to file @return the same trees as logged by loggable in Nexus format **/
+	private List<String> write(File file, Tree tree, TreeWithMetaDataLogger loggable, RealParameter trait, boolean singlePrecision) throws IOException {
+		BinaryTreeLog.Writer writer = new BinaryTreeLog.Writer(loggable != null ? loggable : tree, singlePrecision);
+		List<String> expected = new ArrayList<>();
+		try (OutputStream out = new FileOutputStream(file)) {
+			writer.writeHeader(out);
+			for (int i = 0; i < NEWICKS.length; i++) {
+				tree.assignFrom(new TreeParser(NEWICKS[i]));
+				if (trait != null) {
+					for (int j = 0; j < trait.getDimension(); j++) {
+						trait.setValue(j, i + j / 8.0);
+					}
+				}
+				writer.write(out, i * 1000);
+				if (loggable != null) {
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					PrintStream ps = new PrintStream(bytes);
+					loggable.log(i * 1000, ps);
+					ps.flush();
+					expected.add(bytes.toString().trim());
+				}
+			}
+		}
+		return expected;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Tree tree = new TreeParser(NEWICKS[0]);
+		RealParameter trait = new RealParameter(new Double[tree.getNodeCount()]);
+		trait.setID("trait");
+		for (int j = 0; j < trait.getDimension(); j++) {
+			trait.setValue(j, 0.0);
+		}
+		TreeWithMetaDataLogger loggable = new TreeWithMetaDataLogger();
+		loggable.initByName("tree", tree, "metadata", trait);
+
+		File file = File.createTempFile("BinaryTreeLogTest", ".btrees");
+		file.deleteOnExit();
+		List<String> expected = write(file, tree, loggable, trait, false);
+
+		assertTrue(BinaryTreeLog.isBinaryTreeLog(file));
+		assertEquals(NEWICKS.length, BinaryTreeLog.count(file));
+		try (BinaryTreeLog.Reader reader = new BinaryTreeLog.Reader(file)) {
+			assertEquals(6, reader.getTaxa().size());
+			for (int i = 0; i < NEWICKS.length; i++) {
+				assertTrue(reader.next());
+				assertEquals(i * 1000, reader.getSample());
+				assertEquals(expected.get(i), "tree STATE_" + reader.getSample() + " = " + reader.getNewick() + ";");
+
+				Tree tree2 = reader.getTree();
+				Tree original = new TreeParser(NEWICKS[i]);
+				assertEquals(original.getRoot().getHeight(), tree2.getRoot().getHeight(), 1e-12);
+				assertEquals(tree2.getNodeCount() - 1, tree2.getRoot().getNr());
+				for (Node leaf : tree2.getExternalNodes()) {
+					Node node = original.getNode(leaf.getNr());
+					assertEquals(node.getID(), leaf.getID());
+					assertEquals(node.getHeight(), leaf.getHeight(), 1e-12);
+					assertEquals(node.getParent().getHeight(), leaf.getParent().getHeight(), 1e-12);
+					assertNotNull(leaf.getMetaData("trait"));
+				}
+			}
+			assertFalse(reader.next());
+		}
+	}
+
+	@Test
+	public void testSinglePrecision() throws IOException {
+		File file = File.createTempFile("BinaryTreeLogTest", ".btrees");
+		file.deleteOnExit();
+		write(file, new TreeParser(NEWICKS[0]), null, null, false);
+		File file2 = File.createTempFile("BinaryTreeLogTest", ".btrees");
+		file2.deleteOnExit();
+		write(file2, new TreeParser(NEWICKS[0]), null, null, true);
+		assertTrue(file2.length() < file.length());
+
+		try (BinaryTreeLog.Reader reader = new BinaryTreeLog.Reader(file2)) {
+			for (String newick : NEWICKS) {
+				assertTrue(reader.next());
+				assertEquals(new TreeParser(newick).getRoot().getHeight(), reader.getTree().getRoot().getHeight(), 1e-6);
+			}
+		}
+	}
+
+	@Test
+	public void testDecimalPlacesRejected() {
+		Tree tree = new TreeParser(NEWICKS[0]);
+		TreeWithMetaDataLogger loggable = new TreeWithMetaDataLogger();
+		loggable.initByName("tree", tree, "dp", 3);
+		try {
+			new BinaryTreeLog.Writer(loggable, false);
+			fail("dp should not be accepted by binary tree logs");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testResume() throws IOException {
+		File file = File.createTempFile("BinaryTreeLogTest", ".btrees");
+		file.deleteOnExit();
+		write(file, new TreeParser(NEWICKS[0]), null, null, false);
+		final long length = file.length();
+
+		// simulate a run that was interrupted while writing a record
+		try (OutputStream out = new FileOutputStream(file, true)) {
+			// record tag and length, but only part of the record
+			out.write(new byte[]{1, 0, 0, 1, 0, 0, 0});
+		}
+		assertEquals(NEWICKS.length, BinaryTreeLog.count(file));
+		assertEquals((NEWICKS.length - 1) * 1000, BinaryTreeLog.resume(file));
+		assertEquals(length, file.length());
+
+		// skipping topologies only gives the same samples as reading everything
+		try (BinaryTreeLog.Reader reader = new BinaryTreeLog.Reader(file)) {
+			assertTrue(reader.skip());
+			assertTrue(reader.skip());
+			assertTrue(reader.next());
+			assertEquals(2000, reader.getSample());
+			assertEquals(new TreeParser(NEWICKS[2]).getRoot().getHeight(), reader.getTree().getRoot().getHeight(), 1e-12);
+		}
+	}
+}
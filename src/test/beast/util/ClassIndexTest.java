@@ -0,0 +1,47 @@
+package test.beast.util;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.Test;
+
+import beast.core.BEASTObject;
+import beast.core.Loggable;
+import beast.util.ClassIndex;
+import junit.framework.TestCase;
+
+public class ClassIndexTest extends TestCase {
+
+	public static class Candidate extends BEASTObject {
+		@Override
+		public void initAndValidate() {
+		}
+	}
+
+	/** copy class file of Candidate into dir, under the path of the given class name **/
+	private void copyCandidate(File dir, String className) throws Exception {
+		File file = new File(dir, className.replace('.', File.separatorChar) + ".class");
+		file.getParentFile().mkdirs();
+		try (InputStream in = Candidate.class.getResourceAsStream("ClassIndexTest$Candidate.class")) {
+			Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@Test
+	public void testCandidates() throws Exception {
+		File dir = Files.createTempDirectory("ClassIndexTest").toFile();
+		copyCandidate(dir, Candidate.class.getName());
+		// same super class according to the class file, but there is no such class to load
+		copyCandidate(dir, "test.beast.util.missing.Candidate");
+
+		ClassIndex index = new ClassIndex(null);
+		index.addDirectory(dir);
+
+		assertEquals(Boolean.TRUE, index.isCandidate(BEASTObject.class, Candidate.class.getName()));
+		assertEquals(Boolean.FALSE, index.isCandidate(Loggable.class, Candidate.class.getName()));
+		assertEquals(Boolean.FALSE, index.isCandidate(BEASTObject.class, "test.beast.util.missing.Candidate"));
+		assertNull(index.isCandidate(BEASTObject.class, "test.beast.util.NotIndexed"));
+	}
+}
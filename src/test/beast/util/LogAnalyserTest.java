@@ -0,0 +1,99 @@
+package test.beast.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import beast.util.LogAnalyser;
+import junit.framework.TestCase;
+
+public class LogAnalyserTest extends TestCase {
+
+	@Test
+	public void testParsing() throws IOException {
+		String[] numbers = {"0", "-0.0", "1.5", "-2.25E-3", "3e5", "0.1", "123456789012345678", "1.7976931348623157E308",
+				"4.9E-324", "0.30000000000000004", "-7.000000000000001", "1e-30", "NaN", "Infinity", "+12.5", "2.5d"};
+		File file = File.createTempFile("LogAnalyserTest", ".log");
+		file.deleteOnExit();
+		PrintStream out = new PrintStream(file);
+		out.println("Sample\tx\ttrait\tflag");
+		// burn-in row, so all numbers end up in the trace
+		out.println("0\t0\ta\ttrue");
+		for (int i = 0; i < numbers.length; i++) {
+			out.println((i + 1) * 10 + "\t" + numbers[i] + "\t" + (i % 3 == 0 ? "a" : "b") + "\t" + (i % 2 == 0));
+		}
+		out.close();
+
+		LogAnalyser analyser = new LogAnalyser(file.getPath(), 6, true, false);
+		double[] x = analyser.getTraceValues(1);
+		assertEquals(numbers.length, x.length);
+		for (int i = 0; i < numbers.length; i++) {
+			assertEquals(numbers[i], Double.doubleToLongBits(Double.parseDouble(numbers[i])), Double.doubleToLongBits(x[i]));
+		}
+		// nominal values are stored as index in the range of the column
+		assertEquals(0.0, analyser.getTrace("trait")[0], 0.0);
+		assertEquals(1.0, analyser.getTrace("trait")[1], 0.0);
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testBoxedTraces() {
+		LogAnalyser analyser = new LogAnalyser() {
+			{
+				setData(new double[][]{{0, 10, 20}, {1.5, 2.5, 3.5}}, new String[]{"Sample", "x"}, new type[]{type.REAL, type.REAL});
+				// the boxed copy is only made on request
+				assertNull(m_fTraces);
+				Double[][] boxed = getBoxedTraces();
+				assertSame(boxed, m_fTraces);
+				assertEquals(2.5, m_fTraces[1][1], 0.0);
+				assertEquals(20.0, m_fTraces[0][2], 0.0);
+				setData(new double[][]{{0, 10}, {4.0, 5.0}}, new String[]{"Sample", "x"}, new type[]{type.REAL, type.REAL});
+				assertEquals(5.0, getBoxedTraces()[1][1], 0.0);
+			}
+		};
+		assertEquals(4.5, analyser.getMean("x"), 0.0);
+	}
+
+	@Test
+	public void testThreadedStatistics() throws IOException {
+		Random random = new Random(7);
+		File file = File.createTempFile("LogAnalyserTest", ".log");
+		file.deleteOnExit();
+		PrintStream out = new PrintStream(file);
+		final int columns = 20;
+		out.print("Sample");
+		for (int k = 0; k < columns; k++) {
+			out.print("\tc" + k);
+		}
+		out.println();
+		double[] x = new double[columns];
+		for (int i = 0; i < 2000; i++) {
+			out.print(i * 100);
+			for (int k = 0; k < columns; k++) {
+				x[k] = 0.5 * x[k] + random.nextGaussian() * (k + 1);
+				out.print("\t" + x[k]);
+			}
+			out.println();
+		}
+		out.close();
+
+		try {
+			LogAnalyser.setThreadCount(1);
+			LogAnalyser serial = new LogAnalyser(file.getPath(), 10, true);
+			LogAnalyser.setThreadCount(4);
+			LogAnalyser threaded = new LogAnalyser(file.getPath(), 10, true);
+			for (int k = 1; k <= columns; k++) {
+				assertEquals(serial.getMean(k), threaded.getMean(k), 0.0);
+				assertEquals(serial.getMedian(k), threaded.getMedian(k), 0.0);
+				assertEquals(serial.get95HPDlow(k), threaded.get95HPDlow(k), 0.0);
+				assertEquals(serial.getESS(k), threaded.getESS(k), 0.0);
+				assertEquals(serial.getStdError(k), threaded.getStdError(k), 0.0);
+			}
+		} finally {
+			LogAnalyser.setThreadCount(Runtime.getRuntime().availableProcessors());
+		}
+	}
+}
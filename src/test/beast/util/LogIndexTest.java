@@ -0,0 +1,142 @@
+package test.beast.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+import beast.core.Logger;
+import beast.core.parameter.RealParameter;
+import beast.util.LogAnalyser;
+import beast.util.LogIndex;
+import junit.framework.TestCase;
+
+public class LogIndexTest extends TestCase {
+
+	@Test
+	public void testTraceLog() throws IOException {
+		File file = File.createTempFile("LogIndexTest", ".log");
+		file.deleteOnExit();
+		PrintStream out = new PrintStream(file);
+		out.println("# comment");
+		out.println("Sample\tposterior\tx");
+		for (int i = 0; i < 100; i++) {
+			out.println(i * 1000 + "\t" + (-10.0 - i % 7) + "\t" + (i % 3 == 0 ? "a" : "b"));
+		}
+		out.close();
+
+		LogIndex index = LogIndex.build(file, false);
+		assertEquals(LogIndex.LogType.trace, index.getType());
+		assertEquals(100, index.size());
+		assertEquals(25000, index.getSample(25));
+		assertEquals(25, index.indexOfSample(24500));
+		assertEquals(100, index.indexOfSample(1000000));
+		assertEquals("25000\t-14.0\tb", index.readEntry(25));
+		assertEquals("# comment\nSample\tposterior\tx\n", index.readHeader());
+
+		// saved index is used as long as the log does not change
+		index.save();
+		File indexFile = LogIndex.indexFile(file);
+		indexFile.deleteOnExit();
+		LogIndex index2 = LogIndex.load(file);
+		assertNotNull(index2);
+		assertEquals(index.size(), index2.size());
+		assertEquals(index.getOffset(50), index2.getOffset(50));
+
+		// statistics are the same as when the log is scanned without index
+		LogAnalyser analyser = new LogAnalyser(file.getPath(), 10, true);
+		indexFile.delete();
+		assertNull(LogIndex.load(file));
+		LogAnalyser analyser2 = new LogAnalyser(file.getPath(), 10, true);
+		assertEquals(90, analyser.getTrace("posterior").length);
+		assertEquals(analyser2.getMean("posterior"), analyser.getMean("posterior"), 0.0);
+		assertEquals(analyser2.getTrace("Sample")[0], 10000.0, 0.0);
+	}
+
+	@Test
+	public void testTreeLog() throws IOException {
+		File file = File.createTempFile("LogIndexTest", ".trees");
+		file.deleteOnExit();
+		PrintStream out = new PrintStream(file);
+		out.println("#NEXUS");
+		out.println();
+		out.println("Begin trees;");
+		out.println("\tTranslate");
+		out.println("\t\t1 A,");
+		out.println("\t\t2 B");
+		out.println(";");
+		for (int i = 0; i < 10; i++) {
+			out.println("tree STATE_" + (i * 100) + " = (1:1.0,2:1.0):0.0;");
+		}
+		out.println("End;");
+		out.close();
+
+		LogIndex index = LogIndex.build(file, true);
+		assertEquals(LogIndex.LogType.nexus, index.getType());
+		assertEquals(10, index.size());
+		assertEquals(900, index.getSample(9));
+		assertEquals(1, index.getBurnInCount(10));
+		assertTrue(index.readEntry(3).startsWith("tree STATE_300 "));
+	}
+
+	@Test
+	public void testNewickLog() throws IOException {
+		File file = File.createTempFile("LogIndexTest", ".trees");
+		file.deleteOnExit();
+		PrintStream out = new PrintStream(file);
+		for (int i = 0; i < 5; i++) {
+			// the type is known from the caller, not from the first character
+			out.println((i % 2 == 0 ? "" : "[&R] ") + "(A:" + i + ".0,B:" + i + ".0);");
+		}
+		out.close();
+
+		LogIndex index = LogIndex.build(file, true);
+		assertEquals(LogIndex.LogType.newick, index.getType());
+		assertEquals(5, index.size());
+		assertEquals("[&R] (A:3.0,B:3.0);", index.readEntry(3));
+
+		// an index of the wrong kind is not used
+		index.save();
+		LogIndex.indexFile(file).deleteOnExit();
+		assertEquals(LogIndex.LogType.newick, LogIndex.getIndex(file.getPath(), true).getType());
+		assertEquals(LogIndex.LogType.trace, LogIndex.getIndex(file.getPath(), false).getType());
+	}
+
+	@Test
+	public void testLoggerWritesIndex() throws Exception {
+		File file = File.createTempFile("LogIndexTest", ".log");
+		file.delete();
+		file.deleteOnExit();
+		LogIndex.indexFile(file).deleteOnExit();
+
+		Logger.LogFileMode mode = Logger.FILE_MODE;
+		Logger.FILE_MODE = Logger.LogFileMode.overwrite;
+		String prefix = System.getProperty("file.name.prefix");
+		System.clearProperty("file.name.prefix");
+		try {
+			Logger logger = new Logger();
+			logger.initByName("fileName", file.getPath(), "index", true, "logEvery", 10, "log", new RealParameter(new Double[]{0.3, 0.7}));
+			logger.init();
+			for (int i = 0; i <= 100; i++) {
+				logger.log(i);
+			}
+			logger.close();
+		} finally {
+			Logger.FILE_MODE = mode;
+			if (prefix != null) {
+				System.setProperty("file.name.prefix", prefix);
+			}
+		}
+
+		LogIndex index = LogIndex.load(file);
+		assertNotNull(index);
+		LogIndex built = LogIndex.build(file, false);
+		assertTrue(index.size() >= 10);
+		assertEquals(built.size(), index.size());
+		for (int i = 0; i < index.size(); i++) {
+			assertEquals(built.getSample(i), index.getSample(i));
+			assertEquals(built.getOffset(i), index.getOffset(i));
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package test.beast.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import beast.core.BEASTInterface;
+import beast.core.Distribution;
+import beast.core.MCMC;
+import beast.evolution.alignment.Alignment;
+import beast.evolution.tree.Tree;
+import beast.util.ModelCopier;
+import beast.util.XMLParser;
+import junit.framework.TestCase;
+
+public class ModelCopierTest extends TestCase {
+
+	@Test
+	public void testCopyMCMC() throws Exception {
+		XMLParser parser = new XMLParser();
+		MCMC mcmc = (MCMC) parser.parseFile(new File("examples/testJukesCantor.xml"));
+		Distribution posterior = mcmc.posteriorInput.get();
+		double logP = posterior.calculateLogP();
+
+		ModelCopier copier = new ModelCopier();
+		MCMC copy = (MCMC) copier.copy(mcmc);
+		assertNotSame(mcmc, copy);
+		Distribution posteriorCopy = copy.posteriorInput.get();
+		assertNotSame(posterior, posteriorCopy);
+		assertEquals(logP, posteriorCopy.calculateLogP(), 1e-10);
+
+		// data and substitution model are shared, StateNodes are copied
+		Alignment data = (Alignment) findByID(mcmc, "alignment");
+		assertSame(data, copier.getCopy(data));
+		BEASTInterface substModel = findByID(mcmc, "jc69");
+		assertSame(substModel, copier.getCopy(substModel));
+		Tree tree = (Tree) findByID(mcmc, "tree");
+		Tree treeCopy = (Tree) copier.getCopy(tree);
+		assertNotSame(tree, treeCopy);
+		assertSame(treeCopy, findByID(copy, "tree"));
+		assertEquals(tree.getRoot().toNewick(), treeCopy.getRoot().toNewick());
+
+		// changing the copy does not affect the original
+		treeCopy.getRoot().setHeight(treeCopy.getRoot().getHeight() * 2);
+		assertFalse(logP == posteriorCopy.calculateLogP());
+		assertEquals(logP, posterior.calculateLogP(), 1e-10);
+	}
+
+	private BEASTInterface findByID(BEASTInterface root, String id) {
+		List<BEASTInterface> todo = new ArrayList<>();
+		todo.add(root);
+		while (todo.size() > 0) {
+			BEASTInterface o = todo.remove(todo.size() - 1);
+			if (id.equals(o.getID())) {
+				return o;
+			}
+			todo.addAll(o.listActiveBEASTObjects());
+		}
+		return null;
+	}
+}